@@ -0,0 +1,171 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.wss4j.performance;
+
+import org.apache.wss4j.common.crypto.CRLIndex;
+import org.apache.wss4j.common.crypto.Merlin;
+import org.apache.wss4j.common.ext.WSSecurityException;
+import org.bouncycastle.asn1.x500.X500Name;
+import org.bouncycastle.asn1.x509.BasicConstraints;
+import org.bouncycastle.asn1.x509.CRLReason;
+import org.bouncycastle.asn1.x509.Extension;
+import org.bouncycastle.cert.X509v2CRLBuilder;
+import org.bouncycastle.cert.jcajce.JcaX509CRLConverter;
+import org.bouncycastle.cert.jcajce.JcaX509CertificateConverter;
+import org.bouncycastle.cert.jcajce.JcaX509v3CertificateBuilder;
+import org.bouncycastle.operator.jcajce.JcaContentSignerBuilder;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.io.FileWriter;
+import java.math.BigInteger;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.KeyStore;
+import java.security.PrivateKey;
+import java.security.PublicKey;
+import java.security.cert.CertStore;
+import java.security.cert.CollectionCertStoreParameters;
+import java.security.cert.X509CRL;
+import java.security.cert.X509Certificate;
+import java.util.Collections;
+import java.util.Date;
+
+/**
+ * Measures the time taken by Merlin.verifyTrust to check the revocation status of a certificate
+ * against CRLs with 1000, 10000 and 100000 revoked certificates, when the CRL is set as a CRL
+ * CertStore (and so is checked by the CertPathValidator) and when it is set in a CRLIndex (and so is
+ * checked by the CRLRevocationChecker).
+ */
+public class CRLRevocationTimingTest {
+
+    private static final int[] REVOKED_CERTIFICATES = new int[] {1000, 10000, 100000};
+    private static final int WARMUP_VALIDATIONS = 200;
+    private static final int VALIDATIONS = 1000;
+
+    private static KeyPair caKeyPair;
+    private static X509Certificate caCert;
+    private static X509Certificate cert;
+    private static X509Certificate revokedCert;
+
+    @BeforeClass
+    public static void createCertificates() throws Exception {
+        KeyPairGenerator keyPairGenerator = KeyPairGenerator.getInstance("RSA");
+        keyPairGenerator.initialize(2048);
+        caKeyPair = keyPairGenerator.generateKeyPair();
+        caCert = createCertificate(
+            "CN=CA", BigInteger.ONE, caKeyPair.getPublic(), caKeyPair.getPrivate(), true
+        );
+        cert = createCertificate(
+            "CN=Client", BigInteger.valueOf(2), keyPairGenerator.generateKeyPair().getPublic(),
+            caKeyPair.getPrivate(), false
+        );
+        revokedCert = createCertificate(
+            "CN=Revoked", BigInteger.valueOf(3), keyPairGenerator.generateKeyPair().getPublic(),
+            caKeyPair.getPrivate(), false
+        );
+    }
+
+    @Test
+    public void testRevocationChecking() throws Exception {
+        try (FileWriter samples = new FileWriter("target/crl-revocation-timing-samples.txt")) {
+            for (int revokedCertificates : REVOKED_CERTIFICATES) {
+                X509CRL crl = createCRL(revokedCertificates);
+
+                Merlin certStoreCrypto = createCrypto();
+                certStoreCrypto.setCRLCertStore(
+                    CertStore.getInstance("Collection", new CollectionCertStoreParameters(Collections.singletonList(crl)))
+                );
+                sample(samples, "CRL CertStore", certStoreCrypto, revokedCertificates);
+
+                Merlin indexCrypto = createCrypto();
+                indexCrypto.setCRLIndex(new CRLIndex(Collections.singletonList(crl)));
+                sample(samples, "CRLIndex", indexCrypto, revokedCertificates);
+            }
+        }
+    }
+
+    private void sample(FileWriter samples, String name, Merlin crypto, int revokedCertificates) throws Exception {
+        try {
+            crypto.verifyTrust(new X509Certificate[] {revokedCert}, true, null, null);
+            Assert.fail("Failure expected on a revoked certificate");
+        } catch (WSSecurityException ex) {
+            Assert.assertEquals(WSSecurityException.ErrorCode.FAILURE, ex.getErrorCode());
+        }
+
+        X509Certificate[] certs = new X509Certificate[] {cert};
+        for (int i = 0; i < WARMUP_VALIDATIONS; i++) {
+            crypto.verifyTrust(certs, true, null, null);
+        }
+        long start = System.nanoTime();
+        for (int i = 0; i < VALIDATIONS; i++) {
+            crypto.verifyTrust(certs, true, null, null);
+        }
+        long time = System.nanoTime() - start;
+
+        String sample = name + " with " + revokedCertificates + " revoked certificates: "
+            + time / VALIDATIONS / 1000 + " us/verifyTrust";
+        System.out.println(sample);
+        samples.write(sample);
+        samples.write("\n");
+    }
+
+    private static Merlin createCrypto() throws Exception {
+        KeyStore keyStore = KeyStore.getInstance(KeyStore.getDefaultType());
+        keyStore.load(null, null);
+        keyStore.setCertificateEntry("ca", caCert);
+        Merlin crypto = new Merlin();
+        crypto.setKeyStore(keyStore);
+        return crypto;
+    }
+
+    /**
+     * Create a CRL of the CA that revokes the certificate with serial number 3, and the given number
+     * of other certificates
+     */
+    private static X509CRL createCRL(int revokedCertificates) throws Exception {
+        Date thisUpdate = new Date();
+        X509v2CRLBuilder builder = new X509v2CRLBuilder(new X500Name("CN=CA"), thisUpdate);
+        builder.setNextUpdate(new Date(thisUpdate.getTime() + 3600000L));
+        builder.addCRLEntry(BigInteger.valueOf(3), thisUpdate, CRLReason.keyCompromise);
+        for (int i = 1; i < revokedCertificates; i++) {
+            builder.addCRLEntry(BigInteger.valueOf(1000L + i), thisUpdate, CRLReason.keyCompromise);
+        }
+        return new JcaX509CRLConverter().getCRL(
+            builder.build(new JcaContentSignerBuilder("SHA256withRSA").build(caKeyPair.getPrivate()))
+        );
+    }
+
+    private static X509Certificate createCertificate(
+        String subject, BigInteger serialNumber, PublicKey publicKey, PrivateKey issuerKey, boolean ca
+    ) throws Exception {
+        long now = System.currentTimeMillis();
+        JcaX509v3CertificateBuilder builder = new JcaX509v3CertificateBuilder(
+            new X500Name("CN=CA"), serialNumber, new Date(now - 60000L),
+            new Date(now + 3600000L), new X500Name(subject), publicKey
+        );
+        if (ca) {
+            builder.addExtension(Extension.basicConstraints, true, new BasicConstraints(true));
+        }
+        return new JcaX509CertificateConverter().getCertificate(
+            builder.build(new JcaContentSignerBuilder("SHA256withRSA").build(issuerKey))
+        );
+    }
+}
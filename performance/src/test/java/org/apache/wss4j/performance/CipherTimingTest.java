@@ -0,0 +1,169 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.wss4j.performance;
+
+import org.apache.wss4j.common.crypto.WSProviderConfig;
+import org.apache.wss4j.common.util.KeyUtils;
+import org.apache.wss4j.dom.WSConstants;
+import org.junit.AfterClass;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import javax.crypto.Cipher;
+import javax.crypto.KeyGenerator;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.OAEPParameterSpec;
+import javax.crypto.spec.PSource;
+
+import java.io.FileWriter;
+import java.security.Key;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.SecureRandom;
+import java.security.spec.MGF1ParameterSpec;
+
+/**
+ * Compares the time taken to decrypt AES-GCM data and to unwrap RSA-OAEP keys, when a new Cipher
+ * is obtained for every operation (KeyUtils.getCipherInstance), and when a pooled Cipher is reused
+ * (KeyUtils.getPooledCipherInstance). A pooled Cipher is only used to decrypt EncryptedData, as the
+ * RSA key unwrap is dominated by the private key operation and does not gain from it.
+ */
+public class CipherTimingTest {
+
+    private static final int WARMUP_ITERATIONS = 10000;
+    private static final int ITERATIONS = 100000;
+    private static final int RSA_ITERATIONS = 2000;
+
+    private static FileWriter samples;
+    private static SecretKey aesKey;
+    private static byte[] iv;
+    private static byte[] encryptedData;
+    private static KeyPair rsaKeyPair;
+    private static byte[] wrappedKey;
+    private static OAEPParameterSpec oaepParameterSpec;
+
+    @BeforeClass
+    public static void setUp() throws Exception {
+        WSProviderConfig.init();
+        samples = new FileWriter("target/cipher-timing-samples.txt");
+
+        KeyGenerator keyGenerator = KeyUtils.getKeyGenerator(WSConstants.AES_128_GCM);
+        aesKey = keyGenerator.generateKey();
+        iv = new byte[12];
+        new SecureRandom().nextBytes(iv);
+        Cipher cipher = KeyUtils.getCipherInstance(WSConstants.AES_128_GCM);
+        cipher.init(Cipher.ENCRYPT_MODE, aesKey, new GCMParameterSpec(128, iv));
+        encryptedData = cipher.doFinal(new byte[1024]);
+
+        KeyPairGenerator keyPairGenerator = KeyPairGenerator.getInstance("RSA");
+        keyPairGenerator.initialize(2048);
+        rsaKeyPair = keyPairGenerator.generateKeyPair();
+        oaepParameterSpec =
+            new OAEPParameterSpec("SHA-1", "MGF1", new MGF1ParameterSpec("SHA-1"), PSource.PSpecified.DEFAULT);
+        cipher = KeyUtils.getCipherInstance(WSConstants.KEYTRANSPORT_RSAOAEP);
+        cipher.init(Cipher.WRAP_MODE, rsaKeyPair.getPublic(), oaepParameterSpec);
+        wrappedKey = cipher.wrap(aesKey);
+    }
+
+    @AfterClass
+    public static void tearDown() throws Exception {
+        samples.close();
+    }
+
+    @Test
+    public void testAESGCMDecryption() throws Exception {
+        for (int i = 0; i < WARMUP_ITERATIONS; i++) {
+            decryptAESGCM(false);
+            decryptAESGCM(true);
+        }
+
+        long start = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; i++) {
+            decryptAESGCM(false);
+        }
+        long newCipherTime = System.nanoTime() - start;
+
+        start = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; i++) {
+            decryptAESGCM(true);
+        }
+        long pooledCipherTime = System.nanoTime() - start;
+
+        writeSample("AES-128-GCM decryption", ITERATIONS, newCipherTime, pooledCipherTime);
+    }
+
+    @Test
+    public void testRSAOAEPKeyUnwrap() throws Exception {
+        for (int i = 0; i < RSA_ITERATIONS / 10; i++) {
+            unwrapRSAOAEP(false);
+            unwrapRSAOAEP(true);
+        }
+
+        long start = System.nanoTime();
+        for (int i = 0; i < RSA_ITERATIONS; i++) {
+            unwrapRSAOAEP(false);
+        }
+        long newCipherTime = System.nanoTime() - start;
+
+        start = System.nanoTime();
+        for (int i = 0; i < RSA_ITERATIONS; i++) {
+            unwrapRSAOAEP(true);
+        }
+        long pooledCipherTime = System.nanoTime() - start;
+
+        writeSample("RSA-OAEP key unwrap", RSA_ITERATIONS, newCipherTime, pooledCipherTime);
+    }
+
+    private void decryptAESGCM(boolean pooled) throws Exception {
+        Cipher cipher = pooled
+            ? KeyUtils.getPooledCipherInstance(WSConstants.AES_128_GCM, null, aesKey)
+            : KeyUtils.getCipherInstance(WSConstants.AES_128_GCM);
+        cipher.init(Cipher.DECRYPT_MODE, aesKey, new GCMParameterSpec(128, iv));
+        Assert.assertEquals(1024, cipher.doFinal(encryptedData).length);
+        if (pooled) {
+            KeyUtils.repoolCipherInstance(WSConstants.AES_128_GCM, null, aesKey, cipher);
+        }
+    }
+
+    private void unwrapRSAOAEP(boolean pooled) throws Exception {
+        Key privateKey = rsaKeyPair.getPrivate();
+        Cipher cipher = pooled
+            ? KeyUtils.getPooledCipherInstance(WSConstants.KEYTRANSPORT_RSAOAEP, null, privateKey)
+            : KeyUtils.getCipherInstance(WSConstants.KEYTRANSPORT_RSAOAEP);
+        cipher.init(Cipher.UNWRAP_MODE, privateKey, oaepParameterSpec);
+        Key key = cipher.unwrap(wrappedKey, "AES", Cipher.SECRET_KEY);
+        Assert.assertEquals(16, key.getEncoded().length);
+        if (pooled) {
+            KeyUtils.repoolCipherInstance(WSConstants.KEYTRANSPORT_RSAOAEP, null, privateKey, cipher);
+        }
+    }
+
+    private void writeSample(String name, int iterations, long newCipherTime, long pooledCipherTime)
+        throws Exception {
+        String sample = name + ": " + iterations + " iterations, new Cipher "
+            + newCipherTime / iterations + " ns/op, pooled Cipher "
+            + pooledCipherTime / iterations + " ns/op";
+        System.out.println(sample);
+        samples.write(sample);
+        samples.write("\n");
+        samples.flush();
+    }
+}
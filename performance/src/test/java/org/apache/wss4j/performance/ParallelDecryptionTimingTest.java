@@ -0,0 +1,195 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.wss4j.performance;
+
+import org.apache.wss4j.stax.ext.WSSConstants;
+import org.apache.wss4j.stax.ext.WSSSecurityProperties;
+import org.apache.wss4j.stax.setup.InboundWSSec;
+import org.apache.wss4j.stax.setup.OutboundWSSec;
+import org.apache.wss4j.stax.setup.WSSec;
+import org.apache.wss4j.stax.test.CallbackHandlerImpl;
+import org.apache.wss4j.stax.test.utils.XmlReaderToWriter;
+import org.apache.xml.security.stax.ext.SecurePart;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import javax.xml.namespace.QName;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamReader;
+import javax.xml.stream.XMLStreamWriter;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FileWriter;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Measures the time taken by the streaming implementation to decrypt a single message (of the size
+ * of the messages of the PerformanceTimingTest) whose body content is encrypted as 1, 4 and 16
+ * independent EncryptedData elements, when they are decrypted one after another (the default) and
+ * when they are decrypted in parallel by a decryption ExecutorService with a thread per core.
+ */
+public class ParallelDecryptionTimingTest {
+
+    private static final int[] PARTS = new int[] {1, 4, 16};
+    private static final int FACTOR = 48;
+    private static final int WARMUP_MESSAGES = 10;
+    private static final int MESSAGES = 40;
+    private static final String NS = "http://www.example.com";
+
+    private final XMLInputFactory xmlInputFactory = XMLInputFactory.newInstance();
+    private ExecutorService decryptionExecutorService;
+    private InboundWSSec sequentialInboundWSSec;
+    private InboundWSSec parallelInboundWSSec;
+
+    @Before
+    public void setUp() throws Exception {
+        WSSec.init();
+
+        decryptionExecutorService = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
+        sequentialInboundWSSec = WSSec.getInboundWSSec(createInSecurityProperties(null));
+        parallelInboundWSSec = WSSec.getInboundWSSec(createInSecurityProperties(decryptionExecutorService));
+    }
+
+    @After
+    public void tearDown() {
+        decryptionExecutorService.shutdown();
+    }
+
+    private WSSSecurityProperties createInSecurityProperties(ExecutorService executorService) throws Exception {
+        WSSSecurityProperties inSecurityProperties = new WSSSecurityProperties();
+        inSecurityProperties.setStrictTimestampCheck(false);
+        inSecurityProperties.loadDecryptionKeystore(
+            this.getClass().getClassLoader().getResource("receiver.jks"), "default".toCharArray());
+        inSecurityProperties.setCallbackHandler(new CallbackHandlerImpl());
+        inSecurityProperties.setDecryptionExecutorService(executorService);
+        inSecurityProperties.setMaximumParallelDecryptions(PARTS[PARTS.length - 1]);
+        return inSecurityProperties;
+    }
+
+    @Test
+    public void testEncryptedDataDecryption() throws Exception {
+        try (FileWriter samples = new FileWriter("target/parallel-decryption-timing-samples.txt")) {
+            for (int parts : PARTS) {
+                byte[] encryptedMessage = encrypt(parts);
+                int elements = decryptMessage(sequentialInboundWSSec, encryptedMessage);
+                Assert.assertEquals(elements, decryptMessage(parallelInboundWSSec, encryptedMessage));
+                sample(samples, "Sequential", sequentialInboundWSSec, encryptedMessage, parts, elements);
+                sample(samples, "Parallel", parallelInboundWSSec, encryptedMessage, parts, elements);
+            }
+        }
+    }
+
+    private void sample(FileWriter samples, String name, InboundWSSec inboundWSSec, byte[] encryptedMessage,
+                        int parts, int elements) throws Exception {
+        for (int i = 0; i < WARMUP_MESSAGES; i++) {
+            Assert.assertEquals(elements, decryptMessage(inboundWSSec, encryptedMessage));
+        }
+
+        long start = System.nanoTime();
+        for (int i = 0; i < MESSAGES; i++) {
+            decryptMessage(inboundWSSec, encryptedMessage);
+        }
+        long time = System.nanoTime() - start;
+
+        String sample = name + " decryption of a " + encryptedMessage.length + " byte message with " + parts
+            + " EncryptedData elements (" + Runtime.getRuntime().availableProcessors() + " cores): "
+            + time / MESSAGES / 1000 + " us/message";
+        System.out.println(sample);
+        samples.write(sample);
+        samples.write("\n");
+    }
+
+    private int decryptMessage(InboundWSSec inboundWSSec, byte[] encryptedMessage) throws Exception {
+        XMLStreamReader xmlStreamReader = inboundWSSec.processInMessage(
+            xmlInputFactory.createXMLStreamReader(new ByteArrayInputStream(encryptedMessage)));
+        int elements = 0;
+        while (xmlStreamReader.hasNext()) {
+            if (xmlStreamReader.next() == XMLStreamConstants.START_ELEMENT) {
+                elements++;
+            }
+        }
+        xmlStreamReader.close();
+        return elements;
+    }
+
+    /**
+     * Encrypt a message whose body content is split into the given number of "part" elements, each of
+     * which is encrypted as a separate EncryptedData element
+     */
+    private byte[] encrypt(int parts) throws Exception {
+        WSSSecurityProperties outSecurityProperties = new WSSSecurityProperties();
+        outSecurityProperties.setCallbackHandler(new CallbackHandlerImpl());
+        outSecurityProperties.setEncryptionUser("receiver");
+        outSecurityProperties.loadEncryptionKeystore(
+            this.getClass().getClassLoader().getResource("transmitter.jks"), "default".toCharArray());
+        List<WSSConstants.Action> actions = new ArrayList<>();
+        actions.add(WSSConstants.TIMESTAMP);
+        actions.add(WSSConstants.ENCRYPT);
+        outSecurityProperties.setActions(actions);
+        outSecurityProperties.setTimestampTTL(60 * 60 * 24 * 7);
+        outSecurityProperties.addEncryptionPart(new SecurePart(new QName(NS, "part"), SecurePart.Modifier.Element));
+        OutboundWSSec outboundWSSec = WSSec.getOutboundWSSec(outSecurityProperties);
+
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        XMLStreamWriter xmlStreamWriter = outboundWSSec.processOutMessage(baos, "UTF-8", new ArrayList<>());
+        XMLStreamReader xmlStreamReader =
+            xmlInputFactory.createXMLStreamReader(new ByteArrayInputStream(genMessage(parts)));
+        XmlReaderToWriter.writeAll(xmlStreamReader, xmlStreamWriter);
+        xmlStreamWriter.close();
+        xmlStreamReader.close();
+
+        byte[] encryptedMessage = baos.toByteArray();
+        String encrypted = new String(encryptedMessage, StandardCharsets.UTF_8);
+        Assert.assertEquals(parts, encrypted.split("<xenc:EncryptedData ", -1).length - 1);
+        return encryptedMessage;
+    }
+
+    private byte[] genMessage(int parts) throws Exception {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        baos.write(("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n"
+            + "<env:Envelope xmlns:env=\"http://schemas.xmlsoap.org/soap/envelope/\">\n"
+            + "<env:Header></env:Header>\n"
+            + "<env:Body><test xmlns=\"" + NS + "\">").getBytes(StandardCharsets.UTF_8));
+        byte[] buffer = new byte[4096];
+        for (int part = 0; part < parts; part++) {
+            baos.write("<part>".getBytes(StandardCharsets.UTF_8));
+            for (int i = 0; i < FACTOR / parts; i++) {
+                try (InputStream inputStream =
+                         this.getClass().getClassLoader().getResourceAsStream("testdata/plain-soap-1.1.xml")) {
+                    int read;
+                    while ((read = inputStream.read(buffer)) != -1) {
+                        baos.write(buffer, 0, read);
+                    }
+                }
+            }
+            baos.write("</part>".getBytes(StandardCharsets.UTF_8));
+        }
+        baos.write("</test></env:Body>\n</env:Envelope>".getBytes(StandardCharsets.UTF_8));
+        return baos.toByteArray();
+    }
+}
@@ -18,17 +18,21 @@
  */
 package org.apache.wss4j.performance;
 
+import org.apache.commons.compress.compressors.gzip.GzipCompressorInputStream;
+import org.apache.commons.compress.compressors.gzip.GzipCompressorOutputStream;
 import org.apache.wss4j.common.ext.WSSecurityException;
 import org.apache.wss4j.dom.handler.WSHandlerConstants;
-import org.apache.xml.security.stax.securityEvent.SecurityEvent;
-import org.apache.wss4j.stax.WSSec;
-import org.apache.wss4j.stax.ext.InboundWSSec;
-import org.apache.wss4j.stax.ext.OutboundWSSec;
 import org.apache.wss4j.stax.ext.WSSConstants;
 import org.apache.wss4j.stax.ext.WSSSecurityProperties;
+import org.apache.wss4j.stax.setup.InboundWSSec;
+import org.apache.wss4j.stax.setup.OutboundWSSec;
+import org.apache.wss4j.stax.setup.WSSec;
+import org.apache.wss4j.stax.test.AbstractTestBase;
 import org.apache.wss4j.stax.test.CallbackHandlerImpl;
 import org.apache.wss4j.stax.test.utils.XmlReaderToWriter;
-import org.testng.annotations.*;
+import org.apache.xml.security.stax.config.Init;
+import org.apache.xml.security.stax.config.TransformerAlgorithmMapper;
+import org.junit.Test;
 import org.w3c.dom.Document;
 
 import javax.xml.stream.XMLStreamConstants;
@@ -41,40 +45,92 @@ import javax.xml.transform.dom.DOMSource;
 import javax.xml.transform.stream.StreamResult;
 
 import java.io.*;
+import java.lang.reflect.Field;
 import java.util.ArrayList;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
 import java.util.Properties;
 
 public class PerformanceMemoryTest extends AbstractTestBase {
 
     private FileWriter outSamples;
 
-    @BeforeClass
-    public void createDir() throws Exception {
+    /**
+     * Secure messages of an increasing size with the DOM and the streaming implementation, and then
+     * process the secured messages again, while a sampler thread records the maximum heap in use. The
+     * samples are written to target/memory-out-samples.txt and target/memory-in-samples.txt.
+     */
+    @Test
+    public void testMemoryPerformance() throws Exception {
         new File("target/performanceMemoryTest").mkdirs();
+        registerGzipTransformer();
+
+        try (FileWriter samples = new FileWriter("target/memory-out-samples.txt")) {
+            outSamples = samples;
+            setUpOut();
+            Object[][] xmlSizes = getXMLSizes();
+            printTagCounts(outSamples, xmlSizes);
+
+            outSamples.write("\n");
+            for (Object[] xmlSize : xmlSizes) {
+                testOutDOMMemoryPerformance((Integer)xmlSize[0], (Integer)xmlSize[1]);
+            }
+            outSamples.write("\n");
+            for (Object[] xmlSize : xmlSizes) {
+                testOutStreamingMemoryPerformance((Integer)xmlSize[0], (Integer)xmlSize[1]);
+            }
+            outSamples.write("\n");
+            for (Object[] xmlSize : xmlSizes) {
+                testOutStreamingCompressedMemoryPerformance((Integer)xmlSize[0], (Integer)xmlSize[1]);
+            }
+        }
+
+        try (FileWriter samples = new FileWriter("target/memory-in-samples.txt")) {
+            inSamples = samples;
+            setUpIn();
+            Object[][] xmlSizes = getXMLSizes();
+            printTagCounts(inSamples, xmlSizes);
+
+            inSamples.write("\n");
+            for (Object[] xmlSize : xmlSizes) {
+                testInboundDOMMemoryPerformance((Integer)xmlSize[0], (Integer)xmlSize[1]);
+            }
+            inSamples.write("\n");
+            for (Object[] xmlSize : xmlSizes) {
+                testInboundStreamingMemoryPerformance((Integer)xmlSize[0], (Integer)xmlSize[1]);
+            }
+            inSamples.write("\n");
+            for (Object[] xmlSize : xmlSizes) {
+                testInboundStreamingCompressedMemoryPerformance((Integer)xmlSize[0], (Integer)xmlSize[1]);
+            }
+        }
     }
 
-    @BeforeGroups(groups = {"memory-out"})
-    public void createSampleFileOut() throws Exception {
-        outSamples = new FileWriter("target/memory-out-samples.txt");
+    /**
+     * The compressed runs use the gzip compression algorithm, for which no transformer is configured by default
+     */
+    @SuppressWarnings("unchecked")
+    private void registerGzipTransformer() throws Exception {
+        Init.init(WSSec.class.getClassLoader().getResource("wss/wss-config.xml").toURI(), WSSec.class);
+        Field algorithmsClassMapField = TransformerAlgorithmMapper.class.getDeclaredField("algorithmsClassMapOut");
+        algorithmsClassMapField.setAccessible(true);
+        Map<String, Class<?>> map = (Map<String, Class<?>>)algorithmsClassMapField.get(null);
+        map.put("http://www.apache.org/2012/04/xmlsec/gzip", GzipCompressorOutputStream.class);
+        algorithmsClassMapField = TransformerAlgorithmMapper.class.getDeclaredField("algorithmsClassMapIn");
+        algorithmsClassMapField.setAccessible(true);
+        map = (Map<String, Class<?>>)algorithmsClassMapField.get(null);
+        map.put("http://www.apache.org/2012/04/xmlsec/gzip", GzipCompressorInputStream.class);
     }
 
     //warm up.
-    @BeforeMethod(groups = {"memory-out"})
-    public void setUpOut() throws Exception {
+    private void setUpOut() throws Exception {
         File input = genBigFile(1);
         doDOMSecurityOutbound(input, new File("target/performanceMemoryTest/bigfile-dom.xml"));
         doStreamingSecurityOutbound(input, new File("target/performanceMemoryTest/bigfile-stream.xml"));
     }
 
-    @AfterGroups(groups = {"memory-out"})
-    public void tearDownOut() throws Exception {
-        outSamples.close();
-    }
-
-    @DataProvider(name = "xmlsizes")
-    public Object[][] getXMLSizes() throws Exception {
+    private Object[][] getXMLSizes() throws Exception {
         genBigFile(1);
         int tagCount = 0;
         File target = new File("target/performanceMemoryTest/tmp.xml");
@@ -85,9 +141,6 @@ public class PerformanceMemoryTest extends AbstractTestBase {
                 tagCount++;
             }
         }
-        /*Object[][] objectArray = new Object[1][2];
-        objectArray[0][0] = 10;
-        objectArray[0][1] = (tagCount - 4) * 10;*/
 
         int size = 16;
         Object[][] objectArray = new Object[size][2];
@@ -98,18 +151,14 @@ public class PerformanceMemoryTest extends AbstractTestBase {
         return objectArray;
     }
 
-    @BeforeGroups(groups = {"memory-out"}, dependsOnMethods = {"createSampleFileOut"})
-    public void printTagCountsOut() throws Exception {
-        Object[][] sizes = getXMLSizes();
+    private void printTagCounts(FileWriter samples, Object[][] sizes) throws IOException {
         for (int i = 0; i < sizes.length; i++) {
             Object[] size = sizes[i];
-            outSamples.write("" + size[1] + " ");
+            samples.write("" + size[1] + " ");
         }
     }
 
-
-    @Test(groups = "memory-out", dataProvider = "xmlsizes", dependsOnMethods = {"doBeforeStreamOut"})
-    public void testOutStreamingMemoryPerformance(int run, int tagCount) throws Exception {
+    private void testOutStreamingMemoryPerformance(int run, int tagCount) throws Exception {
 
         System.out.println("Run " + run);
         File input = genBigFile(run * 40);
@@ -126,8 +175,7 @@ public class PerformanceMemoryTest extends AbstractTestBase {
         thread.join();
     }
 
-    @Test(groups = "memory-out", dataProvider = "xmlsizes", dependsOnMethods = {"doBeforeStreamCompressedOut"})
-    public void testOutStreamingCompressedMemoryPerformance(int run, int tagCount) throws Exception {
+    private void testOutStreamingCompressedMemoryPerformance(int run, int tagCount) throws Exception {
 
         System.out.println("Run " + run);
         File input = genBigFile(run * 40);
@@ -144,8 +192,7 @@ public class PerformanceMemoryTest extends AbstractTestBase {
         thread.join();
     }
 
-    @Test(groups = "memory-out", dataProvider = "xmlsizes", dependsOnMethods = {"doBeforeDOMOut"})
-    public void testOutDOMMemoryPerformance(int run, int tagCount) throws Exception {
+    private void testOutDOMMemoryPerformance(int run, int tagCount) throws Exception {
 
         System.out.println("Run " + run);
         File input = genBigFile(run * 40);
@@ -162,68 +209,16 @@ public class PerformanceMemoryTest extends AbstractTestBase {
         thread.join();
     }
 
-    @Test(groups = {"memory-out"})
-    public void doBeforeDOMOut() throws Exception {
-        outSamples.write("\n");
-    }
-
-    @Test(groups = {"memory-out"})
-    public void doBeforeStreamOut() throws Exception {
-        outSamples.write("\n");
-    }
-
-    @Test(groups = {"memory-out"})
-    public void doBeforeStreamCompressedOut() throws Exception {
-        outSamples.write("\n");
-    }
-
-    @Test(groups = {"memory-in"})
-    public void doBeforeDOMIn() throws Exception {
-        inSamples.write("\n");
-    }
-
-    @Test(groups = {"memory-in"})
-    public void doBeforeStreamIn() throws Exception {
-        inSamples.write("\n");
-    }
-
-    @Test(groups = {"memory-in"})
-    public void doBeforeStreamCompressedIn() throws Exception {
-        inSamples.write("\n");
-    }
-
     private FileWriter inSamples;
 
-    @BeforeGroups(groups = {"memory-in"})
-    public void createSampleFileIn() throws Exception {
-        inSamples = new FileWriter("target/memory-in-samples.txt");
-    }
-
     //warm up.
-    @BeforeMethod(groups = {"memory-in"}, dependsOnGroups = {"memory-out"})
-    public void setUpIn() throws Exception {
+    private void setUpIn() throws Exception {
         genBigFile(1);
         doDOMInSecurity(new File("target/performanceMemoryTest/bigfile-dom.xml"));
         doStreamingInSecurity(new File("target/performanceMemoryTest/bigfile-stream.xml"));
     }
 
-    @AfterGroups(groups = {"memory-in"})
-    public void tearDownIn() throws Exception {
-        inSamples.close();
-    }
-
-    @BeforeGroups(groups = {"memory-in"}, dependsOnMethods = {"createSampleFileIn"})
-    public void printTagCountsIn() throws Exception {
-        Object[][] sizes = getXMLSizes();
-        for (int i = 0; i < sizes.length; i++) {
-            Object[] size = sizes[i];
-            inSamples.write("" + size[1] + " ");
-        }
-    }
-
-
-    @Test(groups = "memory-in", dataProvider = "xmlsizes", dependsOnMethods = {"doBeforeStreamIn", "testOutStreamingMemoryPerformance"})
-    public void testInboundStreamingMemoryPerformance(int run, int tagCount) throws Exception {
+    private void testInboundStreamingMemoryPerformance(int run, int tagCount) throws Exception {
 
         System.out.println("Run " + run);
         long startMem = getUsedMemory();
@@ -239,8 +234,7 @@ public class PerformanceMemoryTest extends AbstractTestBase {
         thread.join();
     }
 
-    @Test(groups = "memory-in", dataProvider = "xmlsizes", dependsOnMethods = {"doBeforeStreamCompressedIn", "testOutStreamingCompressedMemoryPerformance"})
-    public void testInboundStreamingCompressedMemoryPerformance(int run, int tagCount) throws Exception {
+    private void testInboundStreamingCompressedMemoryPerformance(int run, int tagCount) throws Exception {
 
         System.out.println("Run " + run);
         long startMem = getUsedMemory();
@@ -256,8 +250,7 @@ public class PerformanceMemoryTest extends AbstractTestBase {
         thread.join();
     }
 
-    @Test(groups = "memory-in", dataProvider = "xmlsizes", dependsOnMethods = {"doBeforeDOMIn", "testOutDOMMemoryPerformance"})
-    public void testInboundDOMMemoryPerformance(int run, int tagCount) throws Exception {
+    private void testInboundDOMMemoryPerformance(int run, int tagCount) throws Exception {
 
         System.out.println("Run " + run);
         long startMem = getUsedMemory();
@@ -329,7 +322,7 @@ public class PerformanceMemoryTest extends AbstractTestBase {
         xmlStreamReader.close();
     }
 
-    private void doDOMSecurityOutbound(File input, File output) throws WSSecurityException, FileNotFoundException, TransformerException {
+    private void doDOMSecurityOutbound(File input, File output) throws WSSecurityException, IOException, TransformerException {
         Properties properties = new Properties();
         properties.setProperty(WSHandlerConstants.ENC_SYM_ALGO, "http://www.w3.org/2001/04/xmlenc#aes256-cbc");
         properties.setProperty(WSHandlerConstants.ENC_KEY_TRANSPORT, "http://www.w3.org/2001/04/xmlenc#rsa-oaep-mgf1p");
@@ -452,7 +445,7 @@ public class PerformanceMemoryTest extends AbstractTestBase {
                     throw new RuntimeException(e);
                 }
                 //parentThread.suspend();
-                memory.add((int) (((getUsedMemory()) - memoryDiff) / 1024.0 / 1024.0));
+                memory.add((int) ((getUsedMemory() - memoryDiff) / 1024.0 / 1024.0));
                 //System.out.println("Sample: " + memory.get(memory.size() - 1));
                 //parentThread.resume();
             }
@@ -18,17 +18,21 @@
  */
 package org.apache.wss4j.performance;
 
+import org.apache.commons.compress.compressors.gzip.GzipCompressorInputStream;
+import org.apache.commons.compress.compressors.gzip.GzipCompressorOutputStream;
 import org.apache.wss4j.common.ext.WSSecurityException;
 import org.apache.wss4j.dom.handler.WSHandlerConstants;
-import org.apache.xml.security.stax.securityEvent.SecurityEvent;
-import org.apache.wss4j.stax.WSSec;
-import org.apache.wss4j.stax.ext.InboundWSSec;
-import org.apache.wss4j.stax.ext.OutboundWSSec;
 import org.apache.wss4j.stax.ext.WSSConstants;
 import org.apache.wss4j.stax.ext.WSSSecurityProperties;
+import org.apache.wss4j.stax.setup.InboundWSSec;
+import org.apache.wss4j.stax.setup.OutboundWSSec;
+import org.apache.wss4j.stax.setup.WSSec;
+import org.apache.wss4j.stax.test.AbstractTestBase;
 import org.apache.wss4j.stax.test.CallbackHandlerImpl;
 import org.apache.wss4j.stax.test.utils.XmlReaderToWriter;
-import org.testng.annotations.*;
+import org.apache.xml.security.stax.config.Init;
+import org.apache.xml.security.stax.config.TransformerAlgorithmMapper;
+import org.junit.Test;
 import org.w3c.dom.Document;
 
 import javax.xml.stream.XMLStreamConstants;
@@ -41,39 +45,67 @@ import javax.xml.transform.dom.DOMSource;
 import javax.xml.transform.stream.StreamResult;
 
 import java.io.*;
+import java.lang.reflect.Field;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
 import java.util.Properties;
 
 public class PerformanceTimingTest extends AbstractTestBase {
 
     private FileWriter outSamples;
 
-    @BeforeClass
-    public void createDir() throws Exception {
+    /**
+     * Secure messages of an increasing size with the DOM and the streaming implementation, and then
+     * process the secured messages again. The timings are written to target/timing-out-samples.txt
+     * and target/timing-in-samples.txt.
+     */
+    @Test
+    public void testTimePerformance() throws Exception {
         new File("target/performanceTimingTest").mkdirs();
+        registerGzipTransformer();
+
+        try (FileWriter samples = new FileWriter("target/timing-out-samples.txt")) {
+            outSamples = samples;
+            setUpOut();
+            for (Object[] xmlSize : getXMLSizes()) {
+                testOutboundTimePerformance((Integer)xmlSize[0], (Integer)xmlSize[1]);
+            }
+        }
+
+        try (FileWriter samples = new FileWriter("target/timing-in-samples.txt")) {
+            inSamples = samples;
+            setUpIn();
+            for (Object[] xmlSize : getXMLSizes()) {
+                testInboundTimePerformance((Integer)xmlSize[0], (Integer)xmlSize[1]);
+            }
+        }
     }
 
-    @BeforeGroups(groups = {"timing-out"})
-    public void createSampleFileOut() throws Exception {
-        outSamples = new FileWriter("target/timing-out-samples.txt");
+    /**
+     * The compressed outbound run uses the gzip compression algorithm, for which no transformer is configured by default
+     */
+    @SuppressWarnings("unchecked")
+    private void registerGzipTransformer() throws Exception {
+        Init.init(WSSec.class.getClassLoader().getResource("wss/wss-config.xml").toURI(), WSSec.class);
+        Field algorithmsClassMapField = TransformerAlgorithmMapper.class.getDeclaredField("algorithmsClassMapOut");
+        algorithmsClassMapField.setAccessible(true);
+        Map<String, Class<?>> map = (Map<String, Class<?>>)algorithmsClassMapField.get(null);
+        map.put("http://www.apache.org/2012/04/xmlsec/gzip", GzipCompressorOutputStream.class);
+        algorithmsClassMapField = TransformerAlgorithmMapper.class.getDeclaredField("algorithmsClassMapIn");
+        algorithmsClassMapField.setAccessible(true);
+        map = (Map<String, Class<?>>)algorithmsClassMapField.get(null);
+        map.put("http://www.apache.org/2012/04/xmlsec/gzip", GzipCompressorInputStream.class);
     }
 
     //warm up.
-    @Test(groups = {"timing-out"})
-    public void setUpOut() throws Exception {
+    private void setUpOut() throws Exception {
         File input = genBigFile(1);
         doDOMSecurityOutbound(input, new File("target/performanceTimingTest/bigfile-dom.xml"));
         doStreamingSecurityOutbound(input, new File("target/performanceTimingTest/bigfile-stream.xml"));
     }
 
-    @AfterGroups(groups = {"timing-out"})
-    public void tearDownOut() throws Exception {
-        outSamples.close();
-    }
-
-    @DataProvider(name = "xmlsizes")
-    public Object[][] getXMLSizes() throws Exception {
+    private Object[][] getXMLSizes() throws Exception {
         int tagCount = 0;
         File target = new File("target/performanceTimingTest/tmp.xml");
         XMLStreamReader xmlStreamReader = xmlInputFactory.createXMLStreamReader(new BufferedInputStream(new FileInputStream(target)));
@@ -96,8 +128,7 @@ public class PerformanceTimingTest extends AbstractTestBase {
         return objectArray;
     }
 
-    @Test(groups = "timing-out", dataProvider = "xmlsizes", dependsOnMethods = "setUpOut")
-    public void testOutboundTimePerformance(int run, int tagCount) throws Exception {
+    private void testOutboundTimePerformance(int run, int tagCount) throws Exception {
 
         System.out.println("Run " + run);
         File input = genBigFile(run * 40);
@@ -137,26 +168,14 @@ public class PerformanceTimingTest extends AbstractTestBase {
 
     private FileWriter inSamples;
 
-    @BeforeGroups(groups = {"timing-in"})
-    public void createSampleFileIn() throws Exception {
-        inSamples = new FileWriter("target/timing-in-samples.txt");
-    }
-
     //warm up.
-    @Test(groups = {"timing-in"}, dependsOnMethods = "testOutboundTimePerformance")
-    public void setUpIn() throws Exception {
+    private void setUpIn() throws Exception {
         File input = genBigFile(1);
         doDOMSecurityOutbound(input, new File("target/performanceTimingTest/bigfile-dom.xml"));
         doStreamingSecurityOutbound(input, new File("target/performanceTimingTest/bigfile-stream.xml"));
     }
 
-    @AfterGroups(groups = {"timing-in"})
-    public void tearDownIn() throws Exception {
-        inSamples.close();
-    }
-
-    @Test(groups = "timing-in", dataProvider = "xmlsizes", dependsOnMethods = "setUpIn")
-    public void testInboundTimePerformance(int run, int tagCount) throws Exception {
+    private void testInboundTimePerformance(int run, int tagCount) throws Exception {
 
         System.out.println("Run " + run);
         System.gc();
@@ -249,7 +268,7 @@ public class PerformanceTimingTest extends AbstractTestBase {
         xmlStreamReader.close();
     }
 
-    private void doDOMSecurityOutbound(File input, File output) throws WSSecurityException, FileNotFoundException, TransformerException {
+    private void doDOMSecurityOutbound(File input, File output) throws WSSecurityException, IOException, TransformerException {
         Properties properties = new Properties();
         properties.setProperty(WSHandlerConstants.ENC_SYM_ALGO, "http://www.w3.org/2001/04/xmlenc#aes256-cbc");
         properties.setProperty(WSHandlerConstants.ENC_KEY_TRANSPORT, "http://www.w3.org/2001/04/xmlenc#rsa-oaep-mgf1p");
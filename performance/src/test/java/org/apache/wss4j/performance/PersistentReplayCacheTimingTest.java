@@ -0,0 +1,175 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.wss4j.performance;
+
+import net.sf.ehcache.CacheManager;
+import net.sf.ehcache.config.CacheConfiguration;
+import net.sf.ehcache.config.Configuration;
+import net.sf.ehcache.config.DiskStoreConfiguration;
+
+import org.apache.wss4j.common.cache.EHCacheReplayCache;
+import org.apache.wss4j.common.cache.JournalReplayCache;
+import org.apache.wss4j.common.cache.ReplayCache;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.stream.Stream;
+
+/**
+ * Compares the JournalReplayCache with an EHCacheReplayCache that overflows to a persistent disk
+ * store. For each cache, it measures the time per putIfAbsent of distinct identifiers, and the time
+ * to open the cache again over the files of the closed cache, together with the number of
+ * identifiers that are still contained in the reopened cache.
+ */
+public class PersistentReplayCacheTimingTest {
+
+    private static final int IDENTIFIERS = 100000;
+    private static final int HEAP_ENTRIES = 5000;
+    private static final int SAMPLE_INTERVAL = 100;
+    private static final String CACHE_NAME = "wss4j-replay-timing";
+
+    private final File baseDirectory = new File("target/persistent-replay-cache");
+
+    @Before
+    public void setUp() throws Exception {
+        if (baseDirectory.exists()) {
+            try (Stream<Path> paths = Files.walk(baseDirectory.toPath())) {
+                paths.sorted(Comparator.reverseOrder()).map(Path::toFile).forEach(File::delete);
+            }
+        }
+    }
+
+    @Test
+    public void testPersistentReplayCacheTiming() throws Exception {
+        try (FileWriter samples = new FileWriter("target/persistent-replay-cache-samples.txt")) {
+            sample(samples, "JournalReplayCache", new JournalFactory(new File(baseDirectory, "journal")));
+            sample(samples, "EHCacheReplayCache (disk store)",
+                   new EHCacheFactory(new File(baseDirectory, "ehcache")));
+        }
+    }
+
+    private void sample(FileWriter samples, String name, CacheFactory factory) throws Exception {
+        long addTime;
+        ReplayCache replayCache = factory.open();
+        try {
+            long start = System.nanoTime();
+            for (int i = 0; i < IDENTIFIERS; i++) {
+                Assert.assertTrue(replayCache.putIfAbsent("id-" + i));
+            }
+            addTime = System.nanoTime() - start;
+        } finally {
+            factory.close(replayCache);
+        }
+
+        long startupTime;
+        int restored = 0;
+        int sampled = 0;
+        long start = System.nanoTime();
+        replayCache = factory.open();
+        try {
+            startupTime = System.nanoTime() - start;
+            for (int i = 0; i < IDENTIFIERS; i += SAMPLE_INTERVAL) {
+                sampled++;
+                if (replayCache.contains("id-" + i)) {
+                    restored++;
+                }
+            }
+        } finally {
+            factory.close(replayCache);
+        }
+
+        String sample = name + " (" + Runtime.getRuntime().availableProcessors() + " cores): "
+            + addTime / IDENTIFIERS + " ns/putIfAbsent, " + startupTime / 1000000L
+            + " ms to reopen with " + IDENTIFIERS + " identifiers, " + restored + " of " + sampled
+            + " sampled identifiers restored";
+        System.out.println(sample);
+        samples.write(sample);
+        samples.write("\n");
+    }
+
+    private interface CacheFactory {
+        ReplayCache open() throws IOException;
+
+        void close(ReplayCache replayCache) throws IOException;
+    }
+
+    private static class JournalFactory implements CacheFactory {
+
+        private final File directory;
+
+        JournalFactory(File directory) {
+            this.directory = directory;
+        }
+
+        @Override
+        public ReplayCache open() throws IOException {
+            return new JournalReplayCache(directory);
+        }
+
+        @Override
+        public void close(ReplayCache replayCache) throws IOException {
+            replayCache.close();
+        }
+    }
+
+    /**
+     * Opens an EHCacheReplayCache on a CacheManager of its own, whose cache keeps HEAP_ENTRIES
+     * identifiers on the heap and overflows to a persistent disk store in the given directory.
+     * Closing the cache shuts the CacheManager down, which writes the disk store index.
+     */
+    private static class EHCacheFactory implements CacheFactory {
+
+        private final File directory;
+        private CacheManager cacheManager;
+
+        EHCacheFactory(File directory) {
+            this.directory = directory;
+        }
+
+        @Override
+        public ReplayCache open() {
+            CacheConfiguration cacheConfiguration = new CacheConfiguration(CACHE_NAME, HEAP_ENTRIES)
+                .eternal(false)
+                .timeToIdleSeconds(EHCacheReplayCache.DEFAULT_TTL)
+                .timeToLiveSeconds(EHCacheReplayCache.DEFAULT_TTL)
+                .maxEntriesLocalDisk(IDENTIFIERS * 2)
+                .overflowToDisk(true)
+                .diskPersistent(true);
+            Configuration configuration = new Configuration()
+                .name(CACHE_NAME)
+                .diskStore(new DiskStoreConfiguration().path(directory.getAbsolutePath()))
+                .cache(cacheConfiguration);
+            cacheManager = CacheManager.newInstance(configuration);
+            return new EHCacheReplayCache(CACHE_NAME, cacheManager);
+        }
+
+        @Override
+        public void close(ReplayCache replayCache) throws IOException {
+            replayCache.close();
+            cacheManager.shutdown();
+        }
+    }
+}
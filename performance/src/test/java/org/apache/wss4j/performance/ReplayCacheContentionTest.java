@@ -0,0 +1,114 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.wss4j.performance;
+
+import org.apache.wss4j.common.cache.ConcurrentReplayCache;
+import org.apache.wss4j.common.cache.MemoryReplayCache;
+import org.apache.wss4j.common.cache.ReplayCache;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.FileWriter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Measures the throughput of the MemoryReplayCache, which synchronizes every operation on the cache,
+ * and of the ConcurrentReplayCache, when 1, 4, 16 and 64 threads check and add message identifiers
+ * concurrently. Every thread adds distinct identifiers with putIfAbsent and checks the identifier
+ * it has just added, and an identifier that was added before, with contains.
+ */
+public class ReplayCacheContentionTest {
+
+    private static final int[] THREADS = new int[] {1, 4, 16, 64};
+    private static final int WARMUP_OPERATIONS = 100000;
+    private static final int OPERATIONS = 400000;
+
+    @Test
+    public void testReplayCacheContention() throws Exception {
+        try (FileWriter samples = new FileWriter("target/replay-cache-contention-samples.txt")) {
+            for (int threads : THREADS) {
+                sample(samples, "MemoryReplayCache", new MemoryReplayCache(), threads);
+                sample(samples, "ConcurrentReplayCache", new ConcurrentReplayCache(), threads);
+            }
+        }
+    }
+
+    private void sample(FileWriter samples, String name, ReplayCache replayCache, int threads) throws Exception {
+        try {
+            run(replayCache, threads, WARMUP_OPERATIONS, "warmup");
+            long start = System.nanoTime();
+            run(replayCache, threads, OPERATIONS, "run");
+            long time = System.nanoTime() - start;
+
+            String sample = name + " with " + threads + " threads ("
+                + Runtime.getRuntime().availableProcessors() + " cores): "
+                + (OPERATIONS * 1000000000L / time) + " putIfAbsent/s, " + time / OPERATIONS + " ns/op";
+            System.out.println(sample);
+            samples.write(sample);
+            samples.write("\n");
+        } finally {
+            replayCache.close();
+        }
+    }
+
+    private void run(ReplayCache replayCache, int threads, int operations, String prefix) throws Exception {
+        ExecutorService executorService = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<Void>> futures = new ArrayList<>(threads);
+            for (int thread = 0; thread < threads; thread++) {
+                futures.add(executorService.submit(
+                    new CacheTask(replayCache, prefix + "-" + thread + "-", operations / threads)));
+            }
+            for (Future<Void> future : futures) {
+                future.get();
+            }
+        } finally {
+            executorService.shutdown();
+        }
+    }
+
+    private static class CacheTask implements Callable<Void> {
+
+        private final ReplayCache replayCache;
+        private final String prefix;
+        private final int operations;
+
+        CacheTask(ReplayCache replayCache, String prefix, int operations) {
+            this.replayCache = replayCache;
+            this.prefix = prefix;
+            this.operations = operations;
+        }
+
+        @Override
+        public Void call() throws Exception {
+            for (int i = 0; i < operations; i++) {
+                String identifier = prefix + i;
+                Assert.assertTrue(replayCache.putIfAbsent(identifier));
+                Assert.assertTrue(replayCache.contains(identifier));
+                Assert.assertTrue(replayCache.contains(prefix + (i / 2)));
+            }
+            return null;
+        }
+    }
+}
@@ -0,0 +1,150 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.wss4j.performance;
+
+import org.apache.wss4j.common.ext.WSPasswordCallback;
+import org.apache.wss4j.dom.WSConstants;
+import org.apache.wss4j.dom.engine.WSSConfig;
+import org.apache.wss4j.dom.engine.WSSecurityEngine;
+import org.apache.wss4j.dom.handler.RequestData;
+import org.apache.wss4j.dom.handler.WSHandlerResult;
+import org.apache.wss4j.dom.message.WSSecHeader;
+import org.apache.wss4j.dom.message.WSSecSignatureConfirmation;
+import org.apache.wss4j.dom.message.WSSecTimestamp;
+import org.apache.wss4j.dom.message.WSSecUsernameToken;
+import org.apache.wss4j.dom.util.WSSecurityUtil;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+
+import javax.security.auth.callback.CallbackHandler;
+import javax.xml.parsers.DocumentBuilder;
+import javax.xml.parsers.DocumentBuilderFactory;
+
+import java.io.FileWriter;
+import java.io.StringReader;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+
+import org.xml.sax.InputSource;
+
+/**
+ * Measures the bytes that are allocated by the DOM WSSecurityEngine to process a security header
+ * that does not involve any cryptographic operation (a Timestamp, a UsernameToken and a number of
+ * SignatureConfirmation elements), i.e. the allocations of the engine and its result model.
+ */
+public class SecurityHeaderAllocationTest {
+
+    private static final int WARMUP_ITERATIONS = 5000;
+    private static final int ITERATIONS = 20000;
+    private static final int SIGNATURE_CONFIRMATIONS = 10;
+
+    private static final String SAMPLE_MSG =
+        "<?xml version=\"1.0\" encoding=\"UTF-8\"?>"
+        + "<SOAP-ENV:Envelope xmlns:SOAP-ENV=\"http://schemas.xmlsoap.org/soap/envelope/\">"
+        + "<SOAP-ENV:Header/>"
+        + "<SOAP-ENV:Body><add xmlns=\"http://ws.apache.org/counter/counter_port_type\">"
+        + "<value xmlns=\"\">15</value></add></SOAP-ENV:Body>"
+        + "</SOAP-ENV:Envelope>";
+
+    private final WSSecurityEngine secEngine = new WSSecurityEngine();
+    private DocumentBuilder documentBuilder;
+    private Document securedDocument;
+    private CallbackHandler callbackHandler;
+
+    @Before
+    public void setUp() throws Exception {
+        secEngine.setWssConfig(WSSConfig.getNewInstance());
+        DocumentBuilderFactory documentBuilderFactory = DocumentBuilderFactory.newInstance();
+        documentBuilderFactory.setNamespaceAware(true);
+        documentBuilder = documentBuilderFactory.newDocumentBuilder();
+
+        Document doc = documentBuilder.parse(new InputSource(new StringReader(SAMPLE_MSG)));
+        WSSecHeader secHeader = new WSSecHeader(doc);
+        secHeader.insertSecurityHeader();
+        for (int i = 0; i < SIGNATURE_CONFIRMATIONS; i++) {
+            WSSecSignatureConfirmation signatureConfirmation = new WSSecSignatureConfirmation(secHeader);
+            signatureConfirmation.build(new byte[] {(byte)i});
+        }
+        WSSecUsernameToken usernameToken = new WSSecUsernameToken(secHeader);
+        usernameToken.setPasswordType(WSConstants.PASSWORD_TEXT);
+        usernameToken.setUserInfo("wernerd", "verySecret");
+        usernameToken.build();
+        WSSecTimestamp timestamp = new WSSecTimestamp(secHeader);
+        timestamp.build();
+        securedDocument = doc;
+
+        callbackHandler = callbacks -> {
+            for (javax.security.auth.callback.Callback callback : callbacks) {
+                ((WSPasswordCallback)callback).setPassword("verySecret");
+            }
+        };
+    }
+
+    @Test
+    public void testSecurityHeaderAllocation() throws Exception {
+        ThreadMXBean threadMXBean = ManagementFactory.getThreadMXBean();
+        Assert.assertTrue(threadMXBean instanceof com.sun.management.ThreadMXBean);
+        com.sun.management.ThreadMXBean allocationMXBean = (com.sun.management.ThreadMXBean)threadMXBean;
+        long threadId = Thread.currentThread().getId();
+
+        for (int i = 0; i < WARMUP_ITERATIONS; i++) {
+            process();
+        }
+
+        long allocatedBytes = 0;
+        long time = 0;
+        for (int i = 0; i < ITERATIONS; i++) {
+            Element securityHeader = prepare();
+            long start = System.nanoTime();
+            long allocatedBefore = allocationMXBean.getThreadAllocatedBytes(threadId);
+            WSHandlerResult results = secEngine.processSecurityHeader(securityHeader, createRequestData());
+            allocatedBytes += allocationMXBean.getThreadAllocatedBytes(threadId) - allocatedBefore;
+            time += System.nanoTime() - start;
+            Assert.assertEquals(SIGNATURE_CONFIRMATIONS + 2, results.getResults().size());
+        }
+
+        String sample = "Security header processing: " + allocatedBytes / ITERATIONS + " bytes/op, "
+            + time / ITERATIONS + " ns/op";
+        System.out.println(sample);
+        try (FileWriter samples = new FileWriter("target/security-header-allocation-samples.txt")) {
+            samples.write(sample);
+            samples.write("\n");
+        }
+    }
+
+    private void process() throws Exception {
+        secEngine.processSecurityHeader(prepare(), createRequestData());
+    }
+
+    private Element prepare() throws Exception {
+        Document doc = documentBuilder.newDocument();
+        doc.appendChild(doc.importNode(securedDocument.getDocumentElement(), true));
+        return WSSecurityUtil.getSecurityHeader(doc, null);
+    }
+
+    private RequestData createRequestData() {
+        RequestData data = new RequestData();
+        data.setCallbackHandler(callbackHandler);
+        data.setDisableBSPEnforcement(true);
+        return data;
+    }
+}
@@ -0,0 +1,100 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.wss4j.performance;
+
+import org.apache.wss4j.stax.ext.WSSConstants;
+import org.apache.wss4j.stax.ext.WSSSecurityProperties;
+import org.apache.wss4j.stax.impl.processor.input.SecurityHeaderInputProcessor;
+import org.apache.wss4j.stax.setup.WSSec;
+import org.apache.xml.security.stax.config.SecurityHeaderHandlerMapper;
+import org.apache.xml.security.stax.ext.XMLSecurityHeaderHandler;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import javax.xml.namespace.QName;
+
+import java.io.FileWriter;
+
+/**
+ * Compares the per-message overhead of resolving the StAX security header handlers for a header with a
+ * Timestamp, a BinarySecurityToken, a Signature and an EncryptedKey, when a new handler is instantiated
+ * reflectively for every element, and when the shared handler instances are used.
+ */
+public class SecurityHeaderHandlerTimingTest {
+
+    private static final int WARMUP_ITERATIONS = 100000;
+    private static final int ITERATIONS = 1000000;
+
+    private static final QName[] SECURITY_HEADER = new QName[] {
+        WSSConstants.TAG_WSU_TIMESTAMP,
+        WSSConstants.TAG_WSSE_BINARY_SECURITY_TOKEN,
+        WSSConstants.TAG_dsig_Signature,
+        WSSConstants.TAG_xenc_EncryptedKey,
+    };
+
+    private final WSSSecurityProperties securityProperties = new WSSSecurityProperties();
+
+    @Before
+    public void setUp() throws Exception {
+        WSSec.init();
+    }
+
+    @Test
+    public void testSecurityHeaderHandlerResolution() throws Exception {
+        for (int i = 0; i < WARMUP_ITERATIONS; i++) {
+            resolveHandlers(false);
+            resolveHandlers(true);
+        }
+
+        long start = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; i++) {
+            resolveHandlers(false);
+        }
+        long newInstanceTime = System.nanoTime() - start;
+
+        start = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; i++) {
+            resolveHandlers(true);
+        }
+        long sharedInstanceTime = System.nanoTime() - start;
+
+        String sample = "Security header handlers (Timestamp, BST, Signature, EncryptedKey): " + ITERATIONS
+            + " messages, new instances " + newInstanceTime / ITERATIONS + " ns/message, shared instances "
+            + sharedInstanceTime / ITERATIONS + " ns/message";
+        System.out.println(sample);
+        try (FileWriter samples = new FileWriter("target/security-header-handler-timing-samples.txt")) {
+            samples.write(sample);
+            samples.write("\n");
+        }
+    }
+
+    private void resolveHandlers(boolean shared) throws Exception {
+        for (QName elementName : SECURITY_HEADER) {
+            XMLSecurityHeaderHandler handler;
+            if (shared) {
+                handler = SecurityHeaderInputProcessor.getSecurityHeaderHandler(securityProperties, elementName);
+            } else {
+                handler = (XMLSecurityHeaderHandler)
+                    SecurityHeaderHandlerMapper.getSecurityHeaderHandler(elementName).newInstance();
+            }
+            Assert.assertNotNull(handler);
+        }
+    }
+}
@@ -0,0 +1,162 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.wss4j.performance;
+
+import org.apache.wss4j.common.WSEncryptionPart;
+import org.apache.wss4j.common.crypto.Crypto;
+import org.apache.wss4j.common.crypto.CryptoFactory;
+import org.apache.wss4j.dom.WSConstants;
+import org.apache.wss4j.dom.common.KeystoreCallbackHandler;
+import org.apache.wss4j.dom.engine.WSSConfig;
+import org.apache.wss4j.dom.engine.WSSecurityEngine;
+import org.apache.wss4j.dom.handler.RequestData;
+import org.apache.wss4j.dom.handler.WSHandlerResult;
+import org.apache.wss4j.dom.message.WSSecEncrypt;
+import org.apache.wss4j.dom.message.WSSecHeader;
+import org.apache.wss4j.dom.message.WSSecSignature;
+import org.apache.wss4j.dom.message.WSSecTimestamp;
+import org.apache.wss4j.dom.util.WSSecurityUtil;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+
+import javax.security.auth.callback.CallbackHandler;
+import javax.xml.parsers.DocumentBuilder;
+import javax.xml.parsers.DocumentBuilderFactory;
+
+import java.io.FileWriter;
+import java.io.StringReader;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+
+import org.xml.sax.InputSource;
+
+/**
+ * Measures the bytes that are allocated by the DOM WSSecurityEngine to process a signed and
+ * encrypted security header (a Timestamp, a Signature over the Timestamp and the SOAP Body, and an
+ * EncryptedKey for the encrypted SOAP Body), with and without WSSConfig.setCacheDefaultInstances.
+ */
+public class SignedEncryptedAllocationTest {
+
+    private static final int WARMUP_ITERATIONS = 500;
+    private static final int ITERATIONS = 2000;
+
+    private static final String SAMPLE_MSG =
+        "<?xml version=\"1.0\" encoding=\"UTF-8\"?>"
+        + "<SOAP-ENV:Envelope xmlns:SOAP-ENV=\"http://schemas.xmlsoap.org/soap/envelope/\">"
+        + "<SOAP-ENV:Header/>"
+        + "<SOAP-ENV:Body><add xmlns=\"http://ws.apache.org/counter/counter_port_type\">"
+        + "<value xmlns=\"\">15</value></add></SOAP-ENV:Body>"
+        + "</SOAP-ENV:Envelope>";
+
+    private DocumentBuilder documentBuilder;
+    private Document securedDocument;
+    private Crypto crypto;
+    private CallbackHandler callbackHandler;
+
+    @Before
+    public void setUp() throws Exception {
+        WSSConfig.init();
+        DocumentBuilderFactory documentBuilderFactory = DocumentBuilderFactory.newInstance();
+        documentBuilderFactory.setNamespaceAware(true);
+        documentBuilder = documentBuilderFactory.newDocumentBuilder();
+        crypto = CryptoFactory.getInstance("crypto.properties");
+        callbackHandler = new KeystoreCallbackHandler();
+
+        Document doc = documentBuilder.parse(new InputSource(new StringReader(SAMPLE_MSG)));
+        WSSecHeader secHeader = new WSSecHeader(doc);
+        secHeader.insertSecurityHeader();
+
+        WSSecTimestamp timestamp = new WSSecTimestamp(secHeader);
+        timestamp.setTimeToLive(3600);
+        timestamp.build();
+
+        WSSecSignature signature = new WSSecSignature(secHeader);
+        signature.setUserInfo("16c73ab6-b892-458f-abf5-2f875f74882e", "security");
+        signature.getParts().add(WSSecurityUtil.getDefaultEncryptionPart(doc));
+        signature.getParts().add(new WSEncryptionPart(timestamp.getId()));
+        signature.build(crypto);
+
+        WSSecEncrypt encrypt = new WSSecEncrypt(secHeader);
+        encrypt.setUserInfo("16c73ab6-b892-458f-abf5-2f875f74882e");
+        encrypt.setSymmetricEncAlgorithm(WSConstants.AES_128);
+        encrypt.build(crypto);
+        securedDocument = doc;
+    }
+
+    @Test
+    public void testSignedEncryptedAllocation() throws Exception {
+        try (FileWriter samples = new FileWriter("target/signed-encrypted-allocation-samples.txt")) {
+            sample(samples, false);
+            sample(samples, true);
+        }
+    }
+
+    private void sample(FileWriter samples, boolean cacheDefaultInstances) throws Exception {
+        ThreadMXBean threadMXBean = ManagementFactory.getThreadMXBean();
+        Assert.assertTrue(threadMXBean instanceof com.sun.management.ThreadMXBean);
+        com.sun.management.ThreadMXBean allocationMXBean = (com.sun.management.ThreadMXBean)threadMXBean;
+        long threadId = Thread.currentThread().getId();
+
+        WSSConfig config = WSSConfig.getNewInstance();
+        config.setCacheDefaultInstances(cacheDefaultInstances);
+        WSSecurityEngine secEngine = new WSSecurityEngine();
+        secEngine.setWssConfig(config);
+
+        for (int i = 0; i < WARMUP_ITERATIONS; i++) {
+            secEngine.processSecurityHeader(prepare(), createRequestData());
+        }
+
+        long allocatedBytes = 0;
+        long time = 0;
+        for (int i = 0; i < ITERATIONS; i++) {
+            Element securityHeader = prepare();
+            long start = System.nanoTime();
+            long allocatedBefore = allocationMXBean.getThreadAllocatedBytes(threadId);
+            WSHandlerResult results = secEngine.processSecurityHeader(securityHeader, createRequestData());
+            allocatedBytes += allocationMXBean.getThreadAllocatedBytes(threadId) - allocatedBefore;
+            time += System.nanoTime() - start;
+            Assert.assertEquals(3, results.getResults().size());
+        }
+        config.releaseThreadInstances();
+
+        String sample = "Signed and encrypted security header processing (cacheDefaultInstances="
+            + cacheDefaultInstances + "): " + allocatedBytes / ITERATIONS + " bytes/op, "
+            + time / ITERATIONS + " ns/op";
+        System.out.println(sample);
+        samples.write(sample);
+        samples.write("\n");
+    }
+
+    private Element prepare() throws Exception {
+        Document doc = documentBuilder.newDocument();
+        doc.appendChild(doc.importNode(securedDocument.getDocumentElement(), true));
+        return WSSecurityUtil.getSecurityHeader(doc, null);
+    }
+
+    private RequestData createRequestData() {
+        RequestData data = new RequestData();
+        data.setCallbackHandler(callbackHandler);
+        data.setSigVerCrypto(crypto);
+        data.setDecCrypto(crypto);
+        return data;
+    }
+}
@@ -0,0 +1,169 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.wss4j.performance;
+
+import org.apache.wss4j.stax.ext.WSSConstants;
+import org.apache.wss4j.stax.ext.WSSSecurityProperties;
+import org.apache.wss4j.stax.setup.InboundWSSec;
+import org.apache.wss4j.stax.setup.OutboundWSSec;
+import org.apache.wss4j.stax.setup.WSSec;
+import org.apache.wss4j.stax.test.CallbackHandlerImpl;
+import org.apache.wss4j.stax.test.utils.XmlReaderToWriter;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamReader;
+import javax.xml.stream.XMLStreamWriter;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FileWriter;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Measures the heap that is in use (after a garbage collection) while the body of an encrypted
+ * message is decrypted by the streaming implementation, for messages of 1.4, 5.6 and 22.5 MB. The
+ * CipherValue characters are base64 decoded and fed into the cipher as they are read, so the heap
+ * in use must not grow with the size of the encrypted body.
+ */
+public class StreamingDecryptionMemoryTest {
+
+    private static final int[] FACTORS = new int[] {10, 40, 160};
+    private static final int SAMPLE_INTERVAL = 2000;
+
+    private final XMLInputFactory xmlInputFactory = XMLInputFactory.newInstance();
+    private OutboundWSSec outboundWSSec;
+    private InboundWSSec inboundWSSec;
+
+    @Before
+    public void setUp() throws Exception {
+        WSSec.init();
+        new File("target/streamingDecryptionMemoryTest").mkdirs();
+
+        WSSSecurityProperties outSecurityProperties = new WSSSecurityProperties();
+        outSecurityProperties.setCallbackHandler(new CallbackHandlerImpl());
+        outSecurityProperties.setEncryptionUser("receiver");
+        outSecurityProperties.loadEncryptionKeystore(
+            this.getClass().getClassLoader().getResource("transmitter.jks"), "default".toCharArray());
+        List<WSSConstants.Action> actions = new ArrayList<>();
+        actions.add(WSSConstants.TIMESTAMP);
+        actions.add(WSSConstants.ENCRYPT);
+        outSecurityProperties.setActions(actions);
+        outSecurityProperties.setTimestampTTL(60 * 60 * 24 * 7);
+        outboundWSSec = WSSec.getOutboundWSSec(outSecurityProperties);
+
+        WSSSecurityProperties inSecurityProperties = new WSSSecurityProperties();
+        inSecurityProperties.setStrictTimestampCheck(false);
+        inSecurityProperties.loadDecryptionKeystore(
+            this.getClass().getClassLoader().getResource("receiver.jks"), "default".toCharArray());
+        inSecurityProperties.setCallbackHandler(new CallbackHandlerImpl());
+        inboundWSSec = WSSec.getInboundWSSec(inSecurityProperties);
+    }
+
+    @Test
+    public void testDecryptionMemory() throws Exception {
+        File warmup = encrypt(1);
+        decrypt(warmup, null);
+
+        try (FileWriter samples = new FileWriter("target/streaming-decryption-memory-samples.txt")) {
+            for (int factor : FACTORS) {
+                File encrypted = encrypt(factor);
+                long[] maxMemory = new long[1];
+                int elements = decrypt(encrypted, maxMemory);
+                Assert.assertTrue(elements > 0);
+
+                String sample = "Decryption of a " + encrypted.length() + " byte message: "
+                    + maxMemory[0] / 1024 + " KB maximum heap in use";
+                System.out.println(sample);
+                samples.write(sample);
+                samples.write("\n");
+            }
+        }
+    }
+
+    private int decrypt(File encrypted, long[] maxMemory) throws Exception {
+        int elements = 0;
+        try (InputStream inputStream = new BufferedInputStream(new FileInputStream(encrypted))) {
+            XMLStreamReader xmlStreamReader =
+                inboundWSSec.processInMessage(xmlInputFactory.createXMLStreamReader(inputStream));
+            while (xmlStreamReader.hasNext()) {
+                if (xmlStreamReader.next() == XMLStreamConstants.START_ELEMENT) {
+                    elements++;
+                    if (maxMemory != null && elements % SAMPLE_INTERVAL == 0) {
+                        maxMemory[0] = Math.max(maxMemory[0], usedMemory());
+                    }
+                }
+            }
+            xmlStreamReader.close();
+        }
+        return elements;
+    }
+
+    private static long usedMemory() {
+        System.gc();
+        System.gc();
+        Runtime runtime = Runtime.getRuntime();
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    private File encrypt(int factor) throws Exception {
+        File plain = new File("target/streamingDecryptionMemoryTest/plain.xml");
+        try (Writer writer = new FileWriter(plain)) {
+            writer.write("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n"
+                + "<env:Envelope xmlns:env=\"http://schemas.xmlsoap.org/soap/envelope/\">\n"
+                + "<env:Header></env:Header>\n"
+                + "<env:Body><test xmlns=\"http://www.example.com\">");
+        }
+        try (OutputStream outputStream = new FileOutputStream(plain, true)) {
+            byte[] buffer = new byte[4096];
+            for (int i = 0; i < factor; i++) {
+                try (InputStream inputStream =
+                         this.getClass().getClassLoader().getResourceAsStream("testdata/plain-soap-1.1.xml")) {
+                    int read;
+                    while ((read = inputStream.read(buffer)) != -1) {
+                        outputStream.write(buffer, 0, read);
+                    }
+                }
+            }
+            outputStream.write("</test></env:Body>\n</env:Envelope>".getBytes(StandardCharsets.UTF_8));
+        }
+
+        File encrypted = new File("target/streamingDecryptionMemoryTest/encrypted-" + factor + ".xml");
+        try (InputStream inputStream = new BufferedInputStream(new FileInputStream(plain));
+            OutputStream outputStream = new BufferedOutputStream(new FileOutputStream(encrypted))) {
+            XMLStreamWriter xmlStreamWriter = outboundWSSec.processOutMessage(outputStream, "UTF-8", new ArrayList<>());
+            XMLStreamReader xmlStreamReader = xmlInputFactory.createXMLStreamReader(inputStream);
+            XmlReaderToWriter.writeAll(xmlStreamReader, xmlStreamWriter);
+            xmlStreamWriter.close();
+            xmlStreamReader.close();
+        }
+        return encrypted;
+    }
+}
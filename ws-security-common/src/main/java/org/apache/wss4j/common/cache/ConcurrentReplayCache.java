@@ -0,0 +1,283 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.wss4j.common.cache;
+
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * An in-memory ReplayCache implementation that does not synchronize on the whole cache. Identifiers
+ * are spread over a number of independent shards. Each shard holds its identifiers in a
+ * ConcurrentHashMap and schedules their expiry on a hashed timer wheel with a one second tick.
+ * Expired identifiers are evicted per shard by whichever thread first accesses a shard after a tick
+ * has elapsed, so neither "add" nor "contains" ever acquire a global lock. The default TTL is 5
+ * minutes and the max TTL is 60 minutes.
+ *
+ * It is not the default ReplayCache. It has only been measured on a single core, where the
+ * MemoryReplayCache was faster (see ReplayCacheContentionTest in the performance module), so
+ * measure it on the target hardware before choosing it.
+ */
+public class ConcurrentReplayCache implements ReplayCache {
+
+    public static final long DEFAULT_TTL = 60L * 5L;
+    public static final long MAX_TTL = DEFAULT_TTL * 12L;
+    public static final int DEFAULT_CONCURRENCY_LEVEL = 16;
+
+    private static final long TICK_MILLIS = 1000L;
+    private static final int WHEEL_SIZE = 512;
+
+    private final Shard[] shards;
+    private final int shardMask;
+    private final int shardShift;
+
+    public ConcurrentReplayCache() {
+        this(DEFAULT_CONCURRENCY_LEVEL);
+    }
+
+    /**
+     * Create a new ConcurrentReplayCache
+     * @param concurrencyLevel the (minimum) number of shards to use. It is rounded up to a power of two.
+     */
+    public ConcurrentReplayCache(int concurrencyLevel) {
+        int shardCount = 1;
+        while (shardCount < concurrencyLevel) {
+            shardCount <<= 1;
+        }
+        shards = new Shard[shardCount];
+        long currentTick = System.currentTimeMillis() / TICK_MILLIS;
+        for (int i = 0; i < shardCount; i++) {
+            shards[i] = new Shard(currentTick);
+        }
+        shardMask = shardCount - 1;
+        shardShift = Integer.numberOfLeadingZeros(shardMask);
+    }
+
+    /**
+     * Add the given identifier to the cache. It will be cached for a default amount of time.
+     * @param identifier The identifier to be added
+     */
+    public void add(String identifier) {
+        add(identifier, DEFAULT_TTL);
+    }
+
+    /**
+     * Add the given identifier to the cache to be cached for the given time
+     * @param identifier The identifier to be added
+     * @param timeToLive The length of time to cache the Identifier in seconds
+     */
+    public void add(String identifier, long timeToLive) {
+        if (identifier == null || "".equals(identifier)) {
+            return;
+        }
+
+        long ttl = timeToLive;
+        if (ttl < 0 || ttl > MAX_TTL) {
+            ttl = DEFAULT_TTL;
+        }
+
+        long now = System.currentTimeMillis();
+        Shard shard = getShard(identifier);
+        shard.processExpiry(now);
+        shard.add(identifier, now + ttl * 1000L);
+    }
+
+    /**
+     * Add the given identifier to the cache if it is not already contained in it. It will be cached for a
+     * default amount of time.
+     * @param identifier The identifier to be added
+     * @return false if the identifier was already contained in the cache, true otherwise
+     */
+    public boolean putIfAbsent(String identifier) {
+        return putIfAbsent(identifier, DEFAULT_TTL);
+    }
+
+    /**
+     * Add the given identifier to the cache to be cached for the given time, if it is not already
+     * contained in it.
+     * @param identifier The identifier to be added
+     * @param timeToLive The length of time to cache the Identifier in seconds
+     * @return false if the identifier was already contained in the cache, true otherwise
+     */
+    public boolean putIfAbsent(String identifier, long timeToLive) {
+        if (identifier == null || "".equals(identifier)) {
+            return true;
+        }
+
+        long ttl = timeToLive;
+        if (ttl < 0 || ttl > MAX_TTL) {
+            ttl = DEFAULT_TTL;
+        }
+
+        long now = System.currentTimeMillis();
+        Shard shard = getShard(identifier);
+        shard.processExpiry(now);
+        return shard.putIfAbsent(identifier, now, now + ttl * 1000L);
+    }
+
+    /**
+     * Return true if the given identifier is contained in the cache
+     * @param identifier The identifier to check
+     */
+    public boolean contains(String identifier) {
+        if (identifier == null || "".equals(identifier)) {
+            return false;
+        }
+
+        long now = System.currentTimeMillis();
+        Shard shard = getShard(identifier);
+        shard.processExpiry(now);
+        return shard.contains(identifier, now);
+    }
+
+    /**
+     * Get the number of (possibly expired but not yet evicted) identifiers held in the cache
+     */
+    public int size() {
+        int size = 0;
+        for (Shard shard : shards) {
+            size += shard.ids.size();
+        }
+        return size;
+    }
+
+    /**
+     * Select the shard from the high bits of a multiplicative hash. The low bits of the hash code are
+     * what the ConcurrentHashMap of the shard uses to select a bin, so if they selected the shard as well
+     * then the identifiers of a shard would only ever fill one in every "shard count" bins.
+     */
+    private Shard getShard(String identifier) {
+        int h = identifier.hashCode() * 0x9E3779B9;
+        return shards[(h >>> shardShift) & shardMask];
+    }
+
+    @Override
+    public void close() {
+        for (Shard shard : shards) {
+            shard.clear();
+        }
+    }
+
+    private static final class Shard {
+        private final ConcurrentHashMap<String, Long> ids = new ConcurrentHashMap<>();
+        private final Queue<Expiry>[] wheel;
+        private final ReentrantLock expiryLock = new ReentrantLock();
+        // The last tick that was fully processed, guarded by expiryLock
+        private long processedTick;
+        private volatile long nextTick;
+
+        @SuppressWarnings("unchecked")
+        Shard(long currentTick) {
+            wheel = new Queue[WHEEL_SIZE];
+            for (int i = 0; i < WHEEL_SIZE; i++) {
+                wheel[i] = new ConcurrentLinkedQueue<>();
+            }
+            processedTick = currentTick - 1;
+            nextTick = currentTick;
+        }
+
+        void add(String identifier, long expires) {
+            ids.put(identifier, expires);
+            schedule(identifier, expires);
+        }
+
+        boolean putIfAbsent(String identifier, long now, long expires) {
+            Long newExpires = expires;
+            while (true) {
+                Long existing = ids.putIfAbsent(identifier, newExpires);
+                if (existing == null) {
+                    break;
+                } else if (existing > now) {
+                    return false;
+                } else if (ids.replace(identifier, existing, newExpires)) {
+                    // The existing identifier had expired but was not yet evicted
+                    break;
+                }
+            }
+            schedule(identifier, expires);
+            return true;
+        }
+
+        private void schedule(String identifier, long expires) {
+            wheel[(int)((expires / TICK_MILLIS) & (WHEEL_SIZE - 1))].add(new Expiry(identifier, expires));
+        }
+
+        boolean contains(String identifier, long now) {
+            Long expires = ids.get(identifier);
+            return expires != null && expires > now;
+        }
+
+        /**
+         * Evict the identifiers of every tick that has fully elapsed. If another thread is already
+         * processing this shard then we don't wait for it.
+         */
+        void processExpiry(long now) {
+            long currentTick = now / TICK_MILLIS;
+            if (currentTick <= nextTick || !expiryLock.tryLock()) {
+                return;
+            }
+            try {
+                long lastTick = currentTick - 1;
+                // Processing more than a full turn of the wheel visits the same slots again
+                long tick = Math.max(processedTick + 1, lastTick - WHEEL_SIZE + 1);
+                for (; tick <= lastTick; tick++) {
+                    Iterator<Expiry> iterator = wheel[(int)(tick & (WHEEL_SIZE - 1))].iterator();
+                    while (iterator.hasNext()) {
+                        Expiry expiry = iterator.next();
+                        if (expiry.expires <= now) {
+                            // Only remove the identifier if it has not been re-added since
+                            ids.remove(expiry.identifier, expiry.expires);
+                            iterator.remove();
+                        }
+                    }
+                }
+                processedTick = lastTick;
+                nextTick = currentTick;
+            } finally {
+                expiryLock.unlock();
+            }
+        }
+
+        void clear() {
+            expiryLock.lock();
+            try {
+                ids.clear();
+                for (Queue<Expiry> slot : wheel) {
+                    slot.clear();
+                }
+            } finally {
+                expiryLock.unlock();
+            }
+        }
+    }
+
+    private static final class Expiry {
+        private final String identifier;
+        private final Long expires;
+
+        Expiry(String identifier, long expires) {
+            this.identifier = identifier;
+            this.expires = expires;
+        }
+    }
+
+}
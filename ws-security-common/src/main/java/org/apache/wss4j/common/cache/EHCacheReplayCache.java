@@ -113,6 +113,44 @@ public class EHCacheReplayCache implements ReplayCache {
             return;
         }
 
+        cache.put(createElement(identifier, timeToLive));
+    }
+
+    /**
+     * Add the given identifier to the cache if it is not already contained in it. It will be cached for a
+     * default amount of time.
+     * @param identifier The identifier to be added
+     * @return false if the identifier was already contained in the cache, true otherwise
+     */
+    public boolean putIfAbsent(String identifier) {
+        return putIfAbsent(identifier, ttl);
+    }
+
+    /**
+     * Add the given identifier to the cache to be cached for the given time, if it is not already
+     * contained in it.
+     * @param identifier The identifier to be added
+     * @param timeToLive The length of time to cache the Identifier in seconds
+     * @return false if the identifier was already contained in the cache, true otherwise
+     */
+    public boolean putIfAbsent(String identifier, long timeToLive) {
+        if (identifier == null || "".equals(identifier)) {
+            return true;
+        }
+
+        Element cacheElement = createElement(identifier, timeToLive);
+        Element existing = cache.putIfAbsent(cacheElement);
+        if (existing == null) {
+            return true;
+        }
+        if (cache.isExpired(existing)) {
+            // Only succeed if no other thread has replaced the expired Element in the meantime
+            return cache.replace(existing, cacheElement);
+        }
+        return false;
+    }
+
+    private Element createElement(String identifier, long timeToLive) {
         int parsedTTL = (int)timeToLive;
         if (timeToLive != (long)parsedTTL || parsedTTL < 0 || parsedTTL > MAX_TTL) {
             // Default to configured value
@@ -125,7 +163,7 @@ public class EHCacheReplayCache implements ReplayCache {
 
         Element cacheElement = new Element(identifier, identifier, parsedTTL, parsedTTL);
         cacheElement.resetAccessStatistics();
-        cache.put(cacheElement);
+        return cacheElement;
     }
 
     /**
@@ -0,0 +1,347 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.wss4j.common.cache;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A ReplayCache implementation that survives a restart of the JVM. Identifiers are held in memory in a
+ * ConcurrentReplayCache, and every identifier that is added is also appended together with its expiry
+ * time to a memory-mapped journal segment file in a local directory. When a segment is full a new one is
+ * started, and segments that only contain expired identifiers are deleted.
+ *
+ * On startup the in-memory cache is rebuilt by scanning the segments of the directory. Segments are
+ * skipped (and deleted) without being read if the latest expiry time recorded in their header has passed,
+ * and new identifiers are appended to the last segment that is restored if it is not full. A directory can
+ * only be used by one JournalReplayCache at a time, which is enforced with an exclusive lock on a lock file
+ * in the directory.
+ * Note that the journal is only forced to disk when a segment is full or when the cache is closed, so
+ * recently added identifiers may be lost if the operating system (rather than the JVM) fails. The default
+ * TTL is 5 minutes and the max TTL is 60 minutes.
+ */
+public class JournalReplayCache implements ReplayCache {
+
+    public static final long DEFAULT_TTL = ConcurrentReplayCache.DEFAULT_TTL;
+    public static final long MAX_TTL = ConcurrentReplayCache.MAX_TTL;
+    public static final int DEFAULT_SEGMENT_SIZE = 8 * 1024 * 1024;
+
+    private static final org.slf4j.Logger LOG =
+        org.slf4j.LoggerFactory.getLogger(JournalReplayCache.class);
+
+    private static final String SEGMENT_PREFIX = "replay-";
+    private static final String SEGMENT_SUFFIX = ".journal";
+    private static final String LOCK_FILE = "replay.lock";
+    // The header of a segment holds the latest expiry time of the identifiers stored in it
+    private static final int HEADER_SIZE = 8;
+    // Each record consists of the expiry time, the length of the identifier and the identifier
+    private static final int RECORD_HEADER_SIZE = 12;
+
+    private final ConcurrentReplayCache index = new ConcurrentReplayCache();
+    private final File directory;
+    private final int segmentSize;
+    private final List<Segment> segments = new ArrayList<>();
+    private final RandomAccessFile lockFile;
+    private final FileLock lock;
+    private Segment currentSegment;
+    private long nextSequence;
+    private boolean closed;
+
+    public JournalReplayCache(File directory) throws IOException {
+        this(directory, DEFAULT_SEGMENT_SIZE);
+    }
+
+    /**
+     * Create a new JournalReplayCache, restoring any unexpired identifiers that are stored in the
+     * journal segments of the given directory
+     * @param directory the directory to store the journal segments in
+     * @param segmentSize the size in bytes of each journal segment
+     * @throws IOException if the directory cannot be created, or is in use by another JournalReplayCache
+     */
+    public JournalReplayCache(File directory, int segmentSize) throws IOException {
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Cannot create the replay cache directory " + directory);
+        }
+        this.directory = directory;
+        this.segmentSize = segmentSize;
+
+        lockFile = new RandomAccessFile(new File(directory, LOCK_FILE), "rw");
+        FileLock fileLock = null;
+        try {
+            fileLock = lockFile.getChannel().tryLock();
+        } catch (OverlappingFileLockException ex) {
+            // The lock is held by another JournalReplayCache in this JVM
+            LOG.debug(ex.getMessage(), ex);
+        } catch (IOException ex) {
+            lockFile.close();
+            throw ex;
+        }
+        if (fileLock == null) {
+            lockFile.close();
+            throw new IOException("The replay cache directory " + directory + " is in use by another cache");
+        }
+        lock = fileLock;
+
+        try {
+            Segment tail = restore();
+            currentSegment = tail != null ? tail : newSegment();
+        } catch (IOException | RuntimeException ex) {
+            lock.release();
+            lockFile.close();
+            throw ex;
+        }
+    }
+
+    /**
+     * Add the given identifier to the cache. It will be cached for a default amount of time.
+     * @param identifier The identifier to be added
+     */
+    public void add(String identifier) {
+        add(identifier, DEFAULT_TTL);
+    }
+
+    /**
+     * Add the given identifier to the cache to be cached for the given time
+     * @param identifier The identifier to be added
+     * @param timeToLive The length of time to cache the Identifier in seconds
+     */
+    public void add(String identifier, long timeToLive) {
+        if (identifier == null || "".equals(identifier)) {
+            return;
+        }
+
+        long ttl = getTTL(timeToLive);
+        index.add(identifier, ttl);
+        append(identifier, System.currentTimeMillis() + ttl * 1000L);
+    }
+
+    /**
+     * Add the given identifier to the cache if it is not already contained in it. It will be cached for a
+     * default amount of time.
+     * @param identifier The identifier to be added
+     * @return false if the identifier was already contained in the cache, true otherwise
+     */
+    public boolean putIfAbsent(String identifier) {
+        return putIfAbsent(identifier, DEFAULT_TTL);
+    }
+
+    /**
+     * Add the given identifier to the cache to be cached for the given time, if it is not already
+     * contained in it.
+     * @param identifier The identifier to be added
+     * @param timeToLive The length of time to cache the Identifier in seconds
+     * @return false if the identifier was already contained in the cache, true otherwise
+     */
+    public boolean putIfAbsent(String identifier, long timeToLive) {
+        if (identifier == null || "".equals(identifier)) {
+            return true;
+        }
+
+        long ttl = getTTL(timeToLive);
+        if (!index.putIfAbsent(identifier, ttl)) {
+            return false;
+        }
+        append(identifier, System.currentTimeMillis() + ttl * 1000L);
+        return true;
+    }
+
+    /**
+     * Return true if the given identifier is contained in the cache
+     * @param identifier The identifier to check
+     */
+    public boolean contains(String identifier) {
+        return index.contains(identifier);
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        index.close();
+        for (Segment segment : segments) {
+            segment.close();
+        }
+        segments.clear();
+        currentSegment = null;
+        lock.release();
+        lockFile.close();
+    }
+
+    private static long getTTL(long timeToLive) {
+        if (timeToLive < 0 || timeToLive > MAX_TTL) {
+            return DEFAULT_TTL;
+        }
+        return timeToLive;
+    }
+
+    private synchronized void append(String identifier, long expires) {
+        if (closed) {
+            return;
+        }
+        byte[] bytes = identifier.getBytes(StandardCharsets.UTF_8);
+        int recordSize = RECORD_HEADER_SIZE + bytes.length;
+        if (recordSize > segmentSize - HEADER_SIZE) {
+            LOG.warn("The identifier is too large to be stored in the replay cache journal");
+            return;
+        }
+        try {
+            if (currentSegment.buffer.remaining() < recordSize) {
+                currentSegment.buffer.force();
+                deleteExpiredSegments(System.currentTimeMillis());
+                currentSegment = newSegment();
+            }
+        } catch (IOException ex) {
+            LOG.warn("Error creating a new replay cache journal segment: " + ex.getMessage(), ex);
+            return;
+        }
+
+        MappedByteBuffer buffer = currentSegment.buffer;
+        buffer.putLong(expires);
+        buffer.putInt(bytes.length);
+        buffer.put(bytes);
+        if (expires > currentSegment.maxExpires) {
+            currentSegment.maxExpires = expires;
+            buffer.putLong(0, expires);
+        }
+    }
+
+    /**
+     * Restore the unexpired identifiers of the segments in the directory
+     * @return the last restored segment, positioned after its last record, or null if no segment
+     * was restored
+     */
+    private Segment restore() throws IOException {
+        List<Long> sequences = new ArrayList<>();
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                String name = file.getName();
+                if (name.startsWith(SEGMENT_PREFIX) && name.endsWith(SEGMENT_SUFFIX)) {
+                    try {
+                        sequences.add(Long.valueOf(
+                            name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length())));
+                    } catch (NumberFormatException ex) {
+                        LOG.debug(ex.getMessage(), ex);
+                    }
+                }
+            }
+        }
+        Collections.sort(sequences);
+
+        long now = System.currentTimeMillis();
+        Segment tail = null;
+        for (Long sequence : sequences) {
+            nextSequence = sequence + 1;
+            Segment segment = openSegment(sequence);
+            if (segment.maxExpires <= now) {
+                segment.delete();
+                continue;
+            }
+            segments.add(segment);
+            tail = segment;
+
+            MappedByteBuffer buffer = segment.buffer;
+            while (buffer.remaining() >= RECORD_HEADER_SIZE) {
+                int recordStart = buffer.position();
+                long expires = buffer.getLong();
+                int length = buffer.getInt();
+                if (expires == 0 || length <= 0 || length > buffer.remaining()) {
+                    // End of the records in this segment, new records are appended from here
+                    buffer.position(recordStart);
+                    break;
+                }
+                byte[] bytes = new byte[length];
+                buffer.get(bytes);
+                long remainingMillis = expires - now;
+                if (remainingMillis > 0) {
+                    // Round up to the nearest second
+                    index.add(new String(bytes, StandardCharsets.UTF_8), (remainingMillis + 999L) / 1000L);
+                }
+            }
+        }
+        return tail;
+    }
+
+    private void deleteExpiredSegments(long now) {
+        List<Segment> expiredSegments = new ArrayList<>();
+        for (Segment segment : segments) {
+            if (segment != currentSegment && segment.maxExpires <= now) {
+                expiredSegments.add(segment);
+            }
+        }
+        for (Segment segment : expiredSegments) {
+            segments.remove(segment);
+            segment.delete();
+        }
+    }
+
+    private Segment newSegment() throws IOException {
+        Segment segment = openSegment(nextSequence++);
+        segments.add(segment);
+        return segment;
+    }
+
+    private Segment openSegment(long sequence) throws IOException {
+        File file = new File(directory, SEGMENT_PREFIX + sequence + SEGMENT_SUFFIX);
+        try (RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw")) {
+            FileChannel channel = randomAccessFile.getChannel();
+            // The mapping remains valid after the channel is closed
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, segmentSize);
+            return new Segment(file, buffer);
+        }
+    }
+
+    private static final class Segment {
+        private final File file;
+        private final MappedByteBuffer buffer;
+        private long maxExpires;
+
+        Segment(File file, MappedByteBuffer buffer) {
+            this.file = file;
+            this.buffer = buffer;
+            maxExpires = buffer.getLong(0);
+            buffer.position(HEADER_SIZE);
+        }
+
+        void close() {
+            buffer.force();
+        }
+
+        void delete() {
+            // This can fail on some platforms while the file is still mapped. As the segment has
+            // expired it will be deleted the next time the journal is restored instead.
+            if (!file.delete()) {
+                LOG.debug("Cannot delete the replay cache journal segment {}", file);
+            }
+        }
+    }
+
+}
@@ -0,0 +1,51 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.wss4j.common.cache;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * A factory to return a JournalReplayCache instance. The configuration Object can be a File or a String,
+ * in which case it is used as the parent directory of the journal. Otherwise the journal is stored in a
+ * "wss4j-replay-cache" directory below "java.io.tmpdir". The journal for a given key is stored in its own
+ * subdirectory.
+ */
+public class JournalReplayCacheFactory extends ReplayCacheFactory {
+
+    public ReplayCache newReplayCache(String key, Object configuration) {
+        File parentDirectory;
+        if (configuration instanceof File) {
+            parentDirectory = (File)configuration;
+        } else if (configuration instanceof String) {
+            parentDirectory = new File((String)configuration);
+        } else {
+            parentDirectory = new File(System.getProperty("java.io.tmpdir"), "wss4j-replay-cache");
+        }
+
+        File directory = new File(parentDirectory, key.replaceAll("[^A-Za-z0-9._-]", "_"));
+        try {
+            return new JournalReplayCache(directory);
+        } catch (IOException ex) {
+            throw new IllegalStateException("Error creating the replay cache journal in " + directory, ex);
+        }
+    }
+
+}
@@ -60,6 +60,42 @@ public class MemoryReplayCache implements ReplayCache {
             return;
         }
 
+        addExpiry(identifier, timeToLive);
+        ids.add(identifier);
+    }
+
+    /**
+     * Add the given identifier to the cache if it is not already contained in it. It will be cached for a
+     * default amount of time.
+     * @param identifier The identifier to be added
+     * @return false if the identifier was already contained in the cache, true otherwise
+     */
+    public boolean putIfAbsent(String identifier) {
+        return putIfAbsent(identifier, DEFAULT_TTL);
+    }
+
+    /**
+     * Add the given identifier to the cache to be cached for the given time, if it is not already
+     * contained in it.
+     * @param identifier The identifier to be added
+     * @param timeToLive The length of time to cache the Identifier in seconds
+     * @return false if the identifier was already contained in the cache, true otherwise
+     */
+    public boolean putIfAbsent(String identifier, long timeToLive) {
+        processTokenExpiry();
+
+        if (identifier == null || "".equals(identifier)) {
+            return true;
+        }
+
+        if (!ids.add(identifier)) {
+            return false;
+        }
+        addExpiry(identifier, timeToLive);
+        return true;
+    }
+
+    private void addExpiry(String identifier, long timeToLive) {
         long ttl = timeToLive;
         if (ttl < 0 || ttl > MAX_TTL) {
             ttl = DEFAULT_TTL;
@@ -75,7 +111,6 @@ public class MemoryReplayCache implements ReplayCache {
             }
             list.add(identifier);
         }
-        ids.add(identifier);
     }
 
     /**
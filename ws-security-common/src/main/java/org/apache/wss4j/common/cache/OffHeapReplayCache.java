@@ -0,0 +1,478 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.wss4j.common.cache;
+
+import java.nio.ByteBuffer;
+import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A memory-bounded ReplayCache implementation that does not store the identifiers themselves, but
+ * a 128-bit (seeded) hash of each identifier together with its expiry time. The entries are stored
+ * in fixed-width slots of an open-addressing table that is allocated outside of the Java heap, so
+ * the cache does not produce any garbage and has a fixed memory footprint of 24 bytes per entry.
+ *
+ * The table is split into segments that are locked independently. The entries of a segment are
+ * counted per expiry time bucket of 10 seconds. Once all of the entries of a bucket have expired, the
+ * expired entries are removed from the segment on the next access to it, so that the table does not
+ * fill up with expired entries. A live entry is never overwritten: if a segment holds as many live
+ * entries as it has slots, then a new identifier is rejected with a ReplayCacheFullException (which is
+ * distinct from the identifier being a replay), and a warning is logged. The maximum number of entries
+ * should therefore be sized above the expected number of identifiers within the maximum TTL. The default
+ * TTL is 5 minutes and the max TTL is 60 minutes.
+ */
+public class OffHeapReplayCache implements ReplayCache {
+
+    private static final org.slf4j.Logger LOG =
+        org.slf4j.LoggerFactory.getLogger(OffHeapReplayCache.class);
+
+    public static final long DEFAULT_TTL = 60L * 5L;
+    public static final long MAX_TTL = DEFAULT_TTL * 12L;
+    public static final int DEFAULT_MAX_ENTRIES = 1 << 20;
+
+    private static final int SEGMENT_COUNT = 16;
+    private static final int MIN_SLOTS_PER_SEGMENT = 16;
+    private static final int SLOT_SIZE = 24;
+    private static final int MAX_SLOTS_PER_SEGMENT = Integer.highestOneBit(Integer.MAX_VALUE / SLOT_SIZE);
+    public static final int MAX_ENTRIES = MAX_SLOTS_PER_SEGMENT * SEGMENT_COUNT;
+
+    private static final long BUCKET_MILLIS = 10000L;
+    private static final int BUCKETS = (int)(MAX_TTL * 1000L / BUCKET_MILLIS) + 2;
+
+    private static final long C1 = 0x87c37b91114253d5L;
+    private static final long C2 = 0x4cf5ad432745937fL;
+
+    private final Segment[] segments;
+    private final long seed;
+    private final AtomicLong rejectedCount = new AtomicLong();
+
+    public OffHeapReplayCache() {
+        this(DEFAULT_MAX_ENTRIES);
+    }
+
+    /**
+     * Create a new OffHeapReplayCache
+     * @param maxEntries the maximum number of entries to store. It is rounded up to a power of two,
+     * and must not be greater than MAX_ENTRIES.
+     */
+    public OffHeapReplayCache(int maxEntries) {
+        if (maxEntries > MAX_ENTRIES) {
+            throw new IllegalArgumentException(
+                "The maximum number of entries must not be greater than " + MAX_ENTRIES
+            );
+        }
+        int slotsPerSegment = MIN_SLOTS_PER_SEGMENT;
+        while (slotsPerSegment * SEGMENT_COUNT < maxEntries) {
+            slotsPerSegment <<= 1;
+        }
+        segments = new Segment[SEGMENT_COUNT];
+        for (int i = 0; i < SEGMENT_COUNT; i++) {
+            segments[i] = new Segment(slotsPerSegment, System.currentTimeMillis());
+        }
+        seed = new SecureRandom().nextLong();
+    }
+
+    /**
+     * Get the maximum number of entries that this cache can hold
+     */
+    public int getMaxEntries() {
+        return segments.length * segments[0].slots;
+    }
+
+    /**
+     * Get the number of identifiers that could not be stored, because the segment of the table that
+     * they are stored in was full of live entries
+     */
+    public long getRejectedCount() {
+        return rejectedCount.get();
+    }
+
+    /**
+     * Add the given identifier to the cache. It will be cached for a default amount of time.
+     * @param identifier The identifier to be added
+     */
+    public void add(String identifier) {
+        add(identifier, DEFAULT_TTL);
+    }
+
+    /**
+     * Add the given identifier to the cache to be cached for the given time
+     * @param identifier The identifier to be added
+     * @param timeToLive The length of time to cache the Identifier in seconds
+     * @throws ReplayCacheFullException if the identifier could not be stored because the cache is full
+     */
+    public void add(String identifier, long timeToLive) {
+        if (identifier == null || "".equals(identifier)) {
+            return;
+        }
+
+        long[] hash = hash(identifier);
+        long now = System.currentTimeMillis();
+        if (getSegment(hash).put(hash[0], hash[1], now, getExpires(now, timeToLive), false) == Result.FULL) {
+            throw reject();
+        }
+    }
+
+    /**
+     * Add the given identifier to the cache if it is not already contained in it. It will be cached for a
+     * default amount of time.
+     * @param identifier The identifier to be added
+     * @return false if the identifier was already contained in the cache, true otherwise
+     */
+    public boolean putIfAbsent(String identifier) {
+        return putIfAbsent(identifier, DEFAULT_TTL);
+    }
+
+    /**
+     * Add the given identifier to the cache to be cached for the given time, if it is not already
+     * contained in it.
+     * @param identifier The identifier to be added
+     * @param timeToLive The length of time to cache the Identifier in seconds
+     * @return false if the identifier was already contained in the cache, true otherwise
+     * @throws ReplayCacheFullException if the identifier could not be stored because the cache is full
+     */
+    public boolean putIfAbsent(String identifier, long timeToLive) {
+        return putIfAbsent(identifier, timeToLive, System.currentTimeMillis());
+    }
+
+    boolean putIfAbsent(String identifier, long timeToLive, long now) {
+        if (identifier == null || "".equals(identifier)) {
+            return true;
+        }
+
+        long[] hash = hash(identifier);
+        Result result = getSegment(hash).put(hash[0], hash[1], now, getExpires(now, timeToLive), true);
+        if (result == Result.FULL) {
+            throw reject();
+        }
+        return result == Result.ADDED;
+    }
+
+    /**
+     * Return true if the given identifier is contained in the cache
+     * @param identifier The identifier to check
+     */
+    public boolean contains(String identifier) {
+        return contains(identifier, System.currentTimeMillis());
+    }
+
+    boolean contains(String identifier, long now) {
+        if (identifier == null || "".equals(identifier)) {
+            return false;
+        }
+
+        long[] hash = hash(identifier);
+        return getSegment(hash).contains(hash[0], hash[1], now);
+    }
+
+    /**
+     * Get the number of entries that are stored, including the expired entries that have not been
+     * removed yet
+     */
+    int size() {
+        int size = 0;
+        for (Segment segment : segments) {
+            size += segment.size();
+        }
+        return size;
+    }
+
+    @Override
+    public void close() {
+        for (Segment segment : segments) {
+            segment.clear();
+        }
+    }
+
+    private ReplayCacheFullException reject() {
+        rejectedCount.incrementAndGet();
+        LOG.warn("The replay cache is full, an identifier could not be stored");
+        return new ReplayCacheFullException("The replay cache is full, an identifier could not be stored");
+    }
+
+    private static long getExpires(long now, long timeToLive) {
+        long ttl = timeToLive;
+        if (ttl < 0 || ttl > MAX_TTL) {
+            ttl = DEFAULT_TTL;
+        }
+        return now + ttl * 1000L;
+    }
+
+    private Segment getSegment(long[] hash) {
+        return segments[(int)(hash[1] >>> 32) & (SEGMENT_COUNT - 1)];
+    }
+
+    /**
+     * Compute a 128-bit MurmurHash3 (x64 variant) of the UTF-16 characters of the given String
+     */
+    private long[] hash(String identifier) {
+        long h1 = seed;
+        long h2 = seed;
+        int length = identifier.length();
+        int i = 0;
+        for (; i + 8 <= length; i += 8) {
+            long k1 = getLong(identifier, i);
+            long k2 = getLong(identifier, i + 4);
+
+            k1 *= C1;
+            k1 = Long.rotateLeft(k1, 31);
+            k1 *= C2;
+            h1 ^= k1;
+            h1 = Long.rotateLeft(h1, 27);
+            h1 += h2;
+            h1 = h1 * 5 + 0x52dce729;
+
+            k2 *= C2;
+            k2 = Long.rotateLeft(k2, 33);
+            k2 *= C1;
+            h2 ^= k2;
+            h2 = Long.rotateLeft(h2, 31);
+            h2 += h1;
+            h2 = h2 * 5 + 0x38495ab5;
+        }
+
+        long k1 = 0;
+        long k2 = 0;
+        int remaining = length - i;
+        for (int j = 0; j < remaining; j++) {
+            long c = identifier.charAt(i + j);
+            if (j < 4) {
+                k1 |= c << (16 * j);
+            } else {
+                k2 |= c << (16 * (j - 4));
+            }
+        }
+        if (remaining > 4) {
+            k2 *= C2;
+            k2 = Long.rotateLeft(k2, 33);
+            k2 *= C1;
+            h2 ^= k2;
+        }
+        if (remaining > 0) {
+            k1 *= C1;
+            k1 = Long.rotateLeft(k1, 31);
+            k1 *= C2;
+            h1 ^= k1;
+        }
+
+        h1 ^= length * 2L;
+        h2 ^= length * 2L;
+        h1 += h2;
+        h2 += h1;
+        h1 = fmix(h1);
+        h2 = fmix(h2);
+        h1 += h2;
+        h2 += h1;
+        return new long[] {h1, h2};
+    }
+
+    private static long getLong(String s, int index) {
+        return s.charAt(index)
+            | (long)s.charAt(index + 1) << 16
+            | (long)s.charAt(index + 2) << 32
+            | (long)s.charAt(index + 3) << 48;
+    }
+
+    private static long fmix(long k) {
+        long h = k;
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+
+    private enum Result {
+        ADDED, PRESENT, FULL
+    }
+
+    /**
+     * A segment of the table. Each slot holds the two halves of the hash followed by the expiry time
+     * in milliseconds. A zero expiry time marks an empty slot. The entries are stored with linear
+     * probing, and removed with backward shift deletion, so that the slots from the home slot of an
+     * entry to the slot that holds it are never empty. One slot is always kept empty, so that every
+     * probe sequence ends.
+     */
+    private static final class Segment {
+        private final ByteBuffer table;
+        private final int slots;
+        // The number of entries per expiry time bucket, and the number of non-empty slots
+        private final int[] bucketCounts = new int[BUCKETS];
+        private int size;
+        // All of the entries of the buckets before this one have been removed
+        private long expiredBucket;
+
+        Segment(int slots, long now) {
+            this.slots = slots;
+            table = ByteBuffer.allocateDirect(slots * SLOT_SIZE);
+            expiredBucket = now / BUCKET_MILLIS;
+        }
+
+        synchronized boolean contains(long h1, long h2, long now) {
+            expire(now);
+            int start = (int)h1 & (slots - 1);
+            for (int i = 0; i < slots; i++) {
+                int offset = ((start + i) & (slots - 1)) * SLOT_SIZE;
+                long expires = table.getLong(offset + 16);
+                if (expires == 0) {
+                    return false;
+                }
+                if (expires > now && table.getLong(offset) == h1 && table.getLong(offset + 8) == h2) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        synchronized Result put(long h1, long h2, long now, long newExpires, boolean onlyIfAbsent) {
+            expire(now);
+            Result result = doPut(h1, h2, now, newExpires, onlyIfAbsent);
+            if (result == Result.FULL) {
+                // Remove the entries that expired since the start of the current bucket, and try again
+                removeExpired(now);
+                result = doPut(h1, h2, now, newExpires, onlyIfAbsent);
+            }
+            return result;
+        }
+
+        private Result doPut(long h1, long h2, long now, long newExpires, boolean onlyIfAbsent) {
+            int start = (int)h1 & (slots - 1);
+            int freeOffset = -1;
+            for (int i = 0; i < slots; i++) {
+                int offset = ((start + i) & (slots - 1)) * SLOT_SIZE;
+                long expires = table.getLong(offset + 16);
+                if (expires == 0) {
+                    if (freeOffset < 0 && size < slots - 1) {
+                        freeOffset = offset;
+                    }
+                    break;
+                }
+                if (table.getLong(offset) == h1 && table.getLong(offset + 8) == h2) {
+                    if (onlyIfAbsent && expires > now) {
+                        return Result.PRESENT;
+                    }
+                    setExpires(offset, newExpires);
+                    return Result.ADDED;
+                }
+                if (expires <= now && freeOffset < 0) {
+                    freeOffset = offset;
+                }
+            }
+
+            // Never overwrite a live entry, so that an identifier cannot be pushed out of the cache
+            if (freeOffset < 0) {
+                return Result.FULL;
+            }
+            table.putLong(freeOffset, h1);
+            table.putLong(freeOffset + 8, h2);
+            setExpires(freeOffset, newExpires);
+            return Result.ADDED;
+        }
+
+        private void setExpires(int offset, long newExpires) {
+            long expires = table.getLong(offset + 16);
+            if (expires == 0) {
+                size++;
+            } else {
+                bucketCounts[getBucket(expires)]--;
+            }
+            bucketCounts[getBucket(newExpires)]++;
+            table.putLong(offset + 16, newExpires);
+        }
+
+        /**
+         * Remove the expired entries if all of the entries of a bucket have expired since the last time
+         */
+        private void expire(long now) {
+            long currentBucket = now / BUCKET_MILLIS;
+            if (currentBucket <= expiredBucket) {
+                return;
+            }
+            long buckets = Math.min(currentBucket - expiredBucket, BUCKETS);
+            for (long bucket = 0; bucket < buckets; bucket++) {
+                if (bucketCounts[(int)((expiredBucket + bucket) % BUCKETS)] != 0) {
+                    removeExpired(now);
+                    break;
+                }
+            }
+            expiredBucket = currentBucket;
+        }
+
+        private void removeExpired(long now) {
+            int slot = 0;
+            while (slot < slots) {
+                long expires = table.getLong(slot * SLOT_SIZE + 16);
+                if (expires != 0 && expires <= now) {
+                    bucketCounts[getBucket(expires)]--;
+                    // Check the slot again, as the next entry of the probe sequence may be moved into it
+                    remove(slot);
+                } else {
+                    slot++;
+                }
+            }
+        }
+
+        /**
+         * Remove the entry of the given slot, and move the entries of the rest of its probe sequence
+         * back into the slot that is freed, if their home slot is not after it
+         */
+        private void remove(int slot) {
+            int free = slot;
+            for (int next = (slot + 1) & (slots - 1); next != slot; next = (next + 1) & (slots - 1)) {
+                int offset = next * SLOT_SIZE;
+                if (table.getLong(offset + 16) == 0) {
+                    break;
+                }
+                int home = (int)table.getLong(offset) & (slots - 1);
+                if (((next - home) & (slots - 1)) >= ((next - free) & (slots - 1))) {
+                    int freeOffset = free * SLOT_SIZE;
+                    table.putLong(freeOffset, table.getLong(offset));
+                    table.putLong(freeOffset + 8, table.getLong(offset + 8));
+                    table.putLong(freeOffset + 16, table.getLong(offset + 16));
+                    free = next;
+                }
+            }
+            int freeOffset = free * SLOT_SIZE;
+            table.putLong(freeOffset, 0L);
+            table.putLong(freeOffset + 8, 0L);
+            table.putLong(freeOffset + 16, 0L);
+            size--;
+        }
+
+        synchronized int size() {
+            return size;
+        }
+
+        private static int getBucket(long expires) {
+            return (int)(expires / BUCKET_MILLIS % BUCKETS);
+        }
+
+        synchronized void clear() {
+            for (int offset = 0; offset < slots * SLOT_SIZE; offset += 8) {
+                table.putLong(offset, 0L);
+            }
+            Arrays.fill(bucketCounts, 0);
+            size = 0;
+        }
+    }
+
+}
@@ -46,4 +46,37 @@ public interface ReplayCache extends Closeable {
      */
     boolean contains(String identifier);
 
+    /**
+     * Add the given identifier to the cache if it is not already contained in it. It will be cached for a
+     * default amount of time. Implementations should perform the check and the addition as a single atomic
+     * operation, so that two concurrent callers with the same identifier can't both succeed.
+     * @param identifier The identifier to be added
+     * @return false if the identifier was already contained in the cache, true otherwise
+     * @throws ReplayCacheFullException if a cache of bounded size cannot store the identifier
+     */
+    default boolean putIfAbsent(String identifier) {
+        if (contains(identifier)) {
+            return false;
+        }
+        add(identifier);
+        return true;
+    }
+
+    /**
+     * Add the given identifier to the cache to be cached for the given time, if it is not already contained
+     * in it. Implementations should perform the check and the addition as a single atomic operation, so that
+     * two concurrent callers with the same identifier can't both succeed.
+     * @param identifier The identifier to be added
+     * @param timeToLive The length of time to cache the Identifier in seconds
+     * @return false if the identifier was already contained in the cache, true otherwise
+     * @throws ReplayCacheFullException if a cache of bounded size cannot store the identifier
+     */
+    default boolean putIfAbsent(String identifier, long timeToLive) {
+        if (contains(identifier)) {
+            return false;
+        }
+        add(identifier, timeToLive);
+        return true;
+    }
+
 }
@@ -0,0 +1,35 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.wss4j.common.cache;
+
+/**
+ * Thrown by a ReplayCache of bounded size if an identifier cannot be stored because the cache is
+ * full. It is distinct from the identifier already being contained in the cache (i.e. a replay): the
+ * message cannot be checked for replays, rather than being known to be a replay.
+ */
+public class ReplayCacheFullException extends IllegalStateException {
+
+    private static final long serialVersionUID = -2946279540853578834L;
+
+    public ReplayCacheFullException(String message) {
+        super(message);
+    }
+
+}
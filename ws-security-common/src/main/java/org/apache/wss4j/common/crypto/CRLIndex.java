@@ -0,0 +1,233 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.wss4j.common.crypto;
+
+import java.math.BigInteger;
+import java.security.PublicKey;
+import java.security.cert.CRL;
+import java.security.cert.X509CRL;
+import java.security.cert.X509CRLEntry;
+import java.security.cert.X509Certificate;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.security.auth.x500.X500Principal;
+
+/**
+ * An index of the revoked certificates of a set of X509CRLs, for fast revocation checking of
+ * certificates by the CRLRevocationChecker. There is a separate index for the CRL of each issuer.
+ * Each one holds a 64-bit hash of the serial number of every revoked certificate in an
+ * open-addressing table of primitive longs, so that a certificate that is not revoked (the common
+ * case) is rejected with a single probe. A hash match is confirmed against the CRL itself.
+ *
+ * The CRLs can be replaced at any time (e.g. when a CRL file is reloaded). A new index is built
+ * and then published with a single volatile write, so revocation checks are never blocked. If
+ * more than one CRL of the same issuer is supplied, then the one that was issued last is used.
+ * Indirect and delta CRLs are not supported.
+ */
+public class CRLIndex {
+
+    private volatile Map<X500Principal, IssuerIndex> issuers = Collections.emptyMap();
+    private volatile long generation;
+
+    public CRLIndex() {
+        // complete
+    }
+
+    public CRLIndex(Collection<? extends CRL> crls) {
+        setCRLs(crls);
+    }
+
+    /**
+     * Replace all of the CRLs of this index
+     * @param crls the new CRLs. Any CRL that is not an X509CRL is ignored.
+     */
+    public synchronized void setCRLs(Collection<? extends CRL> crls) {
+        Map<X500Principal, IssuerIndex> newIssuers = new HashMap<>();
+        for (CRL crl : crls) {
+            if (crl instanceof X509CRL) {
+                addCRL(newIssuers, (X509CRL)crl);
+            }
+        }
+        publish(newIssuers);
+    }
+
+    /**
+     * Add a CRL to this index. It replaces any older CRL of the same issuer.
+     * @param crl the CRL to add
+     */
+    public synchronized void addCRL(X509CRL crl) {
+        Map<X500Principal, IssuerIndex> newIssuers = new HashMap<>(issuers);
+        addCRL(newIssuers, crl);
+        publish(newIssuers);
+    }
+
+    /**
+     * Get the CRLs of this index
+     */
+    public List<X509CRL> getCRLs() {
+        Collection<IssuerIndex> current = issuers.values();
+        List<X509CRL> crls = new ArrayList<>(current.size());
+        for (IssuerIndex issuerIndex : current) {
+            crls.add(issuerIndex.crl);
+        }
+        return crls;
+    }
+
+    /**
+     * Get the CRL of the given issuer
+     * @param issuer the issuer of the CRL
+     * @return the CRL of the given issuer, or null if there is none
+     */
+    public X509CRL getCRL(X500Principal issuer) {
+        IssuerIndex issuerIndex = issuers.get(issuer);
+        return issuerIndex == null ? null : issuerIndex.crl;
+    }
+
+    /**
+     * Get the number of times that the CRLs of this index were changed. It can be used to tell
+     * whether a (cached) revocation status was checked against the current CRLs.
+     */
+    public long getGeneration() {
+        return generation;
+    }
+
+    /**
+     * Get the revocation entry of the given certificate
+     * @param cert the certificate
+     * @return the CRL entry of the certificate, or null if it is not revoked by the CRL of its issuer
+     */
+    public X509CRLEntry getRevokedCertificate(X509Certificate cert) {
+        IssuerIndex issuerIndex = issuers.get(cert.getIssuerX500Principal());
+        return issuerIndex == null ? null : issuerIndex.getRevokedCertificate(cert);
+    }
+
+    /**
+     * Get the index of the CRL of the given issuer, so that all of the checks of a certificate
+     * are made against the same CRL, even if the CRLs are replaced in the meantime
+     */
+    IssuerIndex getIssuerIndex(X500Principal issuer) {
+        return issuers.get(issuer);
+    }
+
+    private static void addCRL(Map<X500Principal, IssuerIndex> newIssuers, X509CRL crl) {
+        IssuerIndex existing = newIssuers.get(crl.getIssuerX500Principal());
+        if (existing == null || existing.crl.getThisUpdate().before(crl.getThisUpdate())) {
+            newIssuers.put(crl.getIssuerX500Principal(), new IssuerIndex(crl));
+        }
+    }
+
+    private void publish(Map<X500Principal, IssuerIndex> newIssuers) {
+        issuers = newIssuers;
+        generation++;
+    }
+
+    /**
+     * Compute a 64-bit hash of a serial number. Zero is reserved to mark an empty slot.
+     */
+    private static long hash(BigInteger serialNumber) {
+        long h = 0xcbf29ce484222325L;
+        for (byte b : serialNumber.toByteArray()) {
+            h ^= b & 0xff;
+            h *= 0x100000001b3L;
+        }
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        return h == 0 ? 1 : h;
+    }
+
+    static final class IssuerIndex {
+        private final X509CRL crl;
+        private final long[] table;
+        private final Set<PublicKey> verifiedKeys = ConcurrentHashMap.newKeySet();
+
+        IssuerIndex(X509CRL crl) {
+            this.crl = crl;
+            Set<? extends X509CRLEntry> revoked = crl.getRevokedCertificates();
+            int size = revoked == null ? 0 : revoked.size();
+            int capacity = 2;
+            while (capacity < size * 2) {
+                capacity <<= 1;
+            }
+            table = new long[capacity];
+            if (revoked != null) {
+                for (X509CRLEntry entry : revoked) {
+                    long h = hash(entry.getSerialNumber());
+                    int slot = (int)(h ^ (h >>> 32)) & (capacity - 1);
+                    while (table[slot] != 0 && table[slot] != h) {
+                        slot = (slot + 1) & (capacity - 1);
+                    }
+                    table[slot] = h;
+                }
+            }
+        }
+
+        X509CRL getCRL() {
+            return crl;
+        }
+
+        X509CRLEntry getRevokedCertificate(X509Certificate cert) {
+            long h = hash(cert.getSerialNumber());
+            int slot = (int)(h ^ (h >>> 32)) & (table.length - 1);
+            while (table[slot] != 0) {
+                if (table[slot] == h) {
+                    // Confirm the match against the CRL, as different serial numbers may have the same hash
+                    return crl.getRevokedCertificate(cert);
+                }
+                slot = (slot + 1) & (table.length - 1);
+            }
+            return null;
+        }
+
+        /**
+         * Verify the signature of the CRL with the given public key. A successful verification
+         * is remembered, so the signature is only verified once for each key.
+         */
+        boolean verify(PublicKey publicKey) {
+            if (verifiedKeys.contains(publicKey)) {
+                return true;
+            }
+            try {
+                crl.verify(publicKey);
+            } catch (Exception ex) {
+                return false;
+            }
+            verifiedKeys.add(publicKey);
+            return true;
+        }
+
+        /**
+         * @return true if the CRL is valid at the given date
+         */
+        boolean isCurrent(Date date) {
+            return !crl.getThisUpdate().after(date)
+                && (crl.getNextUpdate() == null || crl.getNextUpdate().after(date));
+        }
+    }
+
+}
@@ -0,0 +1,145 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.wss4j.common.crypto;
+
+import java.security.PublicKey;
+import java.security.cert.CRLReason;
+import java.security.cert.CertPathValidatorException;
+import java.security.cert.Certificate;
+import java.security.cert.PKIXCertPathChecker;
+import java.security.cert.TrustAnchor;
+import java.security.cert.X509CRLEntry;
+import java.security.cert.X509Certificate;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.security.auth.x500.X500Principal;
+
+/**
+ * A PKIXCertPathChecker that checks the revocation status of each certificate in a certificate
+ * path against the CRLs of a CRLIndex. It is used instead of the revocation checking of the PKIX
+ * CertPathValidator (which must be disabled), which searches each CRL of a CertStore in turn.
+ *
+ * As with the PKIX revocation checking, a certificate is rejected if there is no CRL for its issuer,
+ * if the CRL is not current, or if the CRL is not signed by the issuer. The issuer of the first
+ * certificate of the path must be one of the given trust anchors.
+ */
+public class CRLRevocationChecker extends PKIXCertPathChecker {
+
+    private final CRLIndex crlIndex;
+    private final Map<X500Principal, List<PublicKey>> trustAnchorKeys;
+    private PublicKey previousKey;
+
+    /**
+     * Create a new CRLRevocationChecker
+     * @param crlIndex the index of the CRLs to check the certificates against
+     * @param trustAnchors the trust anchors of the certificate paths to check
+     */
+    public CRLRevocationChecker(CRLIndex crlIndex, Set<TrustAnchor> trustAnchors) {
+        this.crlIndex = crlIndex;
+        Map<X500Principal, List<PublicKey>> keys = new HashMap<>();
+        for (TrustAnchor trustAnchor : trustAnchors) {
+            X500Principal subject;
+            PublicKey publicKey;
+            if (trustAnchor.getTrustedCert() != null) {
+                subject = trustAnchor.getTrustedCert().getSubjectX500Principal();
+                publicKey = trustAnchor.getTrustedCert().getPublicKey();
+            } else {
+                subject = trustAnchor.getCA();
+                publicKey = trustAnchor.getCAPublicKey();
+            }
+            keys.computeIfAbsent(subject, k -> new ArrayList<>(1)).add(publicKey);
+        }
+        trustAnchorKeys = keys;
+    }
+
+    @Override
+    public void init(boolean forward) throws CertPathValidatorException {
+        if (forward) {
+            throw new CertPathValidatorException("Forward checking is not supported");
+        }
+        previousKey = null;
+    }
+
+    @Override
+    public boolean isForwardCheckingSupported() {
+        return false;
+    }
+
+    @Override
+    public Set<String> getSupportedExtensions() {
+        return null;
+    }
+
+    @Override
+    public void check(Certificate cert, Collection<String> unresolvedCritExts)
+        throws CertPathValidatorException {
+        X509Certificate x509cert = (X509Certificate)cert;
+        X500Principal issuer = x509cert.getIssuerX500Principal();
+
+        CRLIndex.IssuerIndex issuerIndex = crlIndex.getIssuerIndex(issuer);
+        if (issuerIndex == null) {
+            throw undetermined("No CRL found for issuer " + issuer.getName());
+        }
+        if (!issuerIndex.isCurrent(new Date())) {
+            throw undetermined("The CRL of issuer " + issuer.getName() + " is not current");
+        }
+
+        List<PublicKey> issuerKeys = previousKey != null
+            ? Collections.singletonList(previousKey) : trustAnchorKeys.get(issuer);
+        boolean verified = false;
+        if (issuerKeys != null) {
+            for (PublicKey issuerKey : issuerKeys) {
+                if (issuerIndex.verify(issuerKey)) {
+                    verified = true;
+                    break;
+                }
+            }
+        }
+        if (!verified) {
+            throw undetermined("The CRL of issuer " + issuer.getName() + " is not signed by the issuer");
+        }
+
+        X509CRLEntry entry = issuerIndex.getRevokedCertificate(x509cert);
+        if (entry != null) {
+            CRLReason reason = entry.getRevocationReason();
+            throw new CertPathValidatorException(
+                "Certificate has been revoked, reason: " + (reason == null ? CRLReason.UNSPECIFIED : reason)
+                + ", revocation date: " + entry.getRevocationDate(),
+                null, null, -1, CertPathValidatorException.BasicReason.REVOKED
+            );
+        }
+
+        previousKey = x509cert.getPublicKey();
+    }
+
+    private static CertPathValidatorException undetermined(String message) {
+        return new CertPathValidatorException(
+            message, null, null, -1, CertPathValidatorException.BasicReason.UNDETERMINED_REVOCATION_STATUS
+        );
+    }
+
+}
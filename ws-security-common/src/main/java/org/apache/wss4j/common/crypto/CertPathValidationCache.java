@@ -0,0 +1,219 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.wss4j.common.crypto;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.cert.CRL;
+import java.security.cert.CertificateEncodingException;
+import java.security.cert.X509CRL;
+import java.security.cert.X509Certificate;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Pattern;
+
+import org.apache.wss4j.common.ext.WSSecurityException;
+
+/**
+ * A cache of the results of successful certificate path validations, so that Merlin does not have
+ * to validate the same certificate chain over and over again. An entry is keyed by a SHA-256
+ * fingerprint of the (transmitted) certificate chain, whether revocation checking was enabled,
+ * the Subject DN constraints that were applied, the generation of the CRLIndex that was used
+ * for revocation checking (if any), and the generation of the trusted certificates (i.e. an
+ * identifier of the Crypto instance and its keystore, trust store and CRLs) that the chain was
+ * validated against. Failed validations are never cached.
+ *
+ * An entry expires after the configured time to live, but never after the end of the validity
+ * period of any certificate in the validated path, or (if revocation checking was enabled) after
+ * the next update of any of the CRLs that were used. The least recently used entry is evicted
+ * once the maximum number of entries is reached.
+ */
+public class CertPathValidationCache {
+
+    public static final int DEFAULT_MAX_ENTRIES = 1000;
+    public static final long DEFAULT_TTL = 60L * 5L;
+
+    private final Map<ByteBuffer, Long> entries;
+    private final long timeToLive;
+    private final AtomicLong hitCount = new AtomicLong();
+    private final AtomicLong missCount = new AtomicLong();
+
+    public CertPathValidationCache() {
+        this(DEFAULT_MAX_ENTRIES, DEFAULT_TTL);
+    }
+
+    /**
+     * Create a new CertPathValidationCache
+     * @param maxEntries the maximum number of validation results to cache
+     * @param timeToLive the maximum length of time to cache a validation result in seconds
+     */
+    public CertPathValidationCache(final int maxEntries, long timeToLive) {
+        if (maxEntries <= 0) {
+            throw new IllegalArgumentException("The maximum number of entries must be positive");
+        }
+        this.timeToLive = timeToLive;
+        entries = new LinkedHashMap<ByteBuffer, Long>(16, 0.75f, true) {
+            private static final long serialVersionUID = 4826407328154623557L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<ByteBuffer, Long> eldest) {
+                return size() > maxEntries;
+            }
+        };
+    }
+
+    /**
+     * Create the key under which the validation result of the given certificate chain is cached
+     * @param certs the (transmitted) certificate chain
+     * @param enableRevocation whether CRL verification is enabled or not
+     * @param subjectCertConstraints the constraints on the Subject DN of the certificates
+     * @param crlGeneration the generation of the CRLIndex that is used for revocation checking,
+     * so that a result is not used once the CRLs have changed
+     * @param storeGeneration the generation of the trusted certificates that the chain is validated
+     * against, so that a result is not used by another Crypto instance, or once the trusted
+     * certificates have changed
+     * @return the key
+     * @throws WSSecurityException
+     */
+    public ByteBuffer createKey(
+        X509Certificate[] certs,
+        boolean enableRevocation,
+        Collection<Pattern> subjectCertConstraints,
+        long crlGeneration,
+        long storeGeneration
+    ) throws WSSecurityException {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new WSSecurityException(
+                WSSecurityException.ErrorCode.FAILURE, e, "decoding.general"
+            );
+        }
+
+        try {
+            for (X509Certificate cert : certs) {
+                byte[] encoded = cert.getEncoded();
+                digest.update(ByteBuffer.allocate(4).putInt(encoded.length).array());
+                digest.update(encoded);
+            }
+        } catch (CertificateEncodingException e) {
+            throw new WSSecurityException(
+                WSSecurityException.ErrorCode.SECURITY_TOKEN_UNAVAILABLE, e, "encodeError"
+            );
+        }
+        digest.update(enableRevocation ? (byte)1 : (byte)0);
+        digest.update(ByteBuffer.allocate(16).putLong(crlGeneration).putLong(storeGeneration).array());
+        if (subjectCertConstraints != null) {
+            for (Pattern pattern : subjectCertConstraints) {
+                byte[] patternBytes = pattern.pattern().getBytes(StandardCharsets.UTF_8);
+                digest.update(ByteBuffer.allocate(8).putInt(patternBytes.length).putInt(pattern.flags()).array());
+                digest.update(patternBytes);
+            }
+        }
+        return ByteBuffer.wrap(digest.digest());
+    }
+
+    /**
+     * @param key the key that was created for the certificate chain
+     * @return true if a successful validation result is cached for the given key
+     */
+    public boolean isValid(ByteBuffer key) {
+        Long expires;
+        synchronized (entries) {
+            expires = entries.get(key);
+            if (expires != null && expires <= System.currentTimeMillis()) {
+                entries.remove(key);
+                expires = null;
+            }
+        }
+        if (expires == null) {
+            missCount.incrementAndGet();
+            return false;
+        }
+        hitCount.incrementAndGet();
+        return true;
+    }
+
+    /**
+     * Cache a successful validation result
+     * @param key the key that was created for the certificate chain
+     * @param path the certificate path that was validated
+     * @param crls the CRLs that were used for revocation checking, if any
+     */
+    public void putValid(ByteBuffer key, X509Certificate[] path, Collection<? extends CRL> crls) {
+        long now = System.currentTimeMillis();
+        long expires = now + timeToLive * 1000L;
+        for (X509Certificate cert : path) {
+            expires = Math.min(expires, cert.getNotAfter().getTime());
+        }
+        if (crls != null) {
+            for (CRL crl : crls) {
+                if (crl instanceof X509CRL && ((X509CRL)crl).getNextUpdate() != null) {
+                    expires = Math.min(expires, ((X509CRL)crl).getNextUpdate().getTime());
+                }
+            }
+        }
+
+        if (expires > now) {
+            synchronized (entries) {
+                entries.put(key, expires);
+            }
+        }
+    }
+
+    /**
+     * Remove all cached validation results. This must be called if the trusted certificates or
+     * CRLs change.
+     */
+    public void clear() {
+        synchronized (entries) {
+            entries.clear();
+        }
+    }
+
+    /**
+     * Get the number of (possibly expired) validation results held in the cache
+     */
+    public int size() {
+        synchronized (entries) {
+            return entries.size();
+        }
+    }
+
+    /**
+     * Get the number of lookups for which a validation result was found in the cache
+     */
+    public long getHitCount() {
+        return hitCount.get();
+    }
+
+    /**
+     * Get the number of lookups for which no validation result was found in the cache
+     */
+    public long getMissCount() {
+        return missCount.get();
+    }
+
+}
@@ -0,0 +1,250 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.wss4j.common.crypto;
+
+import java.io.IOException;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.wss4j.common.ext.WSSecurityException;
+
+/**
+ * Watches the keystore, truststore and CRL files of all ReloadingMerlin instances with a single
+ * WatchService and daemon thread. The instances are only weakly referenced, so an instance that is
+ * no longer used is not kept alive by the watcher, even if it was never closed. The thread exits
+ * once no instance is watched any more, and is started again when the next instance registers.
+ */
+final class CryptoFileWatcher {
+
+    /*
+     * How long to wait for a file change before checking for instances that are no longer used
+     */
+    private static final long IDLE_POLL_MILLIS = 10000L;
+
+    private static final org.slf4j.Logger LOG =
+        org.slf4j.LoggerFactory.getLogger(CryptoFileWatcher.class);
+
+    private static final CryptoFileWatcher INSTANCE = new CryptoFileWatcher();
+
+    private final ReferenceQueue<ReloadingMerlin> queue = new ReferenceQueue<>();
+    private final Set<Registration> registrations = new HashSet<>();
+    private final Map<Path, WatchKey> watchKeys = new HashMap<>();
+    private WatchService watchService;
+
+    private CryptoFileWatcher() {
+        // complete
+    }
+
+    static CryptoFileWatcher getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Watch the given files, and reload the given crypto once they have not changed for the given delay
+     */
+    synchronized Registration register(ReloadingMerlin crypto, Set<Path> files, long reloadDelay) throws IOException {
+        expunge();
+        if (watchService == null) {
+            watchService = FileSystems.getDefault().newWatchService();
+            WatchService service = watchService;
+            Thread watcher = new Thread(() -> processEvents(service), "wss4j-merlin-reload");
+            watcher.setDaemon(true);
+            watcher.start();
+        }
+
+        Registration registration = new Registration(crypto, queue, files, reloadDelay);
+        registrations.add(registration);
+        try {
+            for (Path file : files) {
+                Path directory = file.getParent();
+                if (!watchKeys.containsKey(directory)) {
+                    watchKeys.put(directory, directory.register(
+                        watchService, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY
+                    ));
+                }
+            }
+        } catch (IOException e) {
+            unregister(registration);
+            throw e;
+        }
+        LOG.debug("Watching {} for changes", files);
+        return registration;
+    }
+
+    /**
+     * Stop watching the files of the given registration
+     */
+    synchronized void unregister(Registration registration) {
+        registration.clear();
+        if (registrations.remove(registration)) {
+            LOG.debug("Stopped watching {} for changes", registration.files);
+            release();
+        }
+    }
+
+    /**
+     * @return the number of registrations whose files are watched
+     */
+    synchronized int getRegistrationCount() {
+        expunge();
+        return registrations.size();
+    }
+
+    private void processEvents(WatchService service) {
+        try {
+            while (true) {
+                WatchKey key = service.poll(getPollTimeout(), TimeUnit.MILLISECONDS);
+                List<ReloadingMerlin> dueCryptos = new ArrayList<>();
+                synchronized (this) {
+                    if (service != watchService) {
+                        return;
+                    }
+                    if (key != null) {
+                        processEvents(key);
+                    }
+                    expunge();
+                    long now = System.currentTimeMillis();
+                    for (Registration registration : registrations) {
+                        ReloadingMerlin crypto = registration.get();
+                        if (crypto != null && registration.reloadTime != 0 && registration.reloadTime <= now) {
+                            registration.reloadTime = 0;
+                            dueCryptos.add(crypto);
+                        }
+                    }
+                }
+
+                for (ReloadingMerlin crypto : dueCryptos) {
+                    try {
+                        crypto.reload();
+                    } catch (WSSecurityException | RuntimeException e) {
+                        LOG.warn("Error reloading the keystore, truststore or CRL files: " + e.getMessage(), e);
+                    }
+                }
+            }
+        } catch (ClosedWatchServiceException | InterruptedException e) {
+            LOG.debug("Stopped watching for changes to keystore, truststore or CRL files");
+        }
+    }
+
+    /**
+     * Schedule a reload of every registration whose files were changed, once they have not changed
+     * for its reload delay
+     */
+    private void processEvents(WatchKey key) {
+        Path directory = (Path)key.watchable();
+        long now = System.currentTimeMillis();
+        for (WatchEvent<?> event : key.pollEvents()) {
+            for (Registration registration : registrations) {
+                if (event.kind() == StandardWatchEventKinds.OVERFLOW
+                    || registration.files.contains(directory.resolve((Path)event.context()))) {
+                    registration.reloadTime = now + registration.reloadDelay;
+                }
+            }
+        }
+        key.reset();
+    }
+
+    private synchronized long getPollTimeout() {
+        long timeout = IDLE_POLL_MILLIS;
+        long now = System.currentTimeMillis();
+        for (Registration registration : registrations) {
+            if (registration.reloadTime != 0) {
+                timeout = Math.min(timeout, Math.max(1L, registration.reloadTime - now));
+            }
+        }
+        return timeout;
+    }
+
+    /**
+     * Remove the registrations of the instances that are no longer used
+     */
+    private void expunge() {
+        boolean removed = false;
+        for (Object reference = queue.poll(); reference != null; reference = queue.poll()) {
+            removed |= registrations.remove(reference);
+        }
+        if (removed) {
+            LOG.debug("Stopped watching the files of a ReloadingMerlin instance that is no longer used");
+            release();
+        }
+    }
+
+    /**
+     * Stop watching the directories that are no longer needed, and the thread if nothing is watched
+     */
+    private void release() {
+        Set<Path> directories = new HashSet<>();
+        for (Registration registration : registrations) {
+            for (Path file : registration.files) {
+                directories.add(file.getParent());
+            }
+        }
+        Iterator<Map.Entry<Path, WatchKey>> iterator = watchKeys.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<Path, WatchKey> entry = iterator.next();
+            if (!directories.contains(entry.getKey())) {
+                entry.getValue().cancel();
+                iterator.remove();
+            }
+        }
+
+        if (registrations.isEmpty() && watchService != null) {
+            try {
+                watchService.close();
+            } catch (IOException e) {
+                LOG.debug(e.getMessage(), e);
+            }
+            watchService = null;
+        }
+    }
+
+    /**
+     * The files of a ReloadingMerlin instance that are watched. It does not prevent the instance from
+     * being garbage collected.
+     */
+    static final class Registration extends WeakReference<ReloadingMerlin> {
+        private final Set<Path> files;
+        private final long reloadDelay;
+        // The time at which the files are to be reloaded, or 0 if they have not changed. Guarded by the watcher.
+        private long reloadTime;
+
+        Registration(ReloadingMerlin crypto, ReferenceQueue<ReloadingMerlin> queue, Set<Path> files, long reloadDelay) {
+            super(crypto, queue);
+            this.files = files;
+            this.reloadDelay = reloadDelay;
+        }
+    }
+
+}
@@ -0,0 +1,212 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.wss4j.common.crypto;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.PublicKey;
+import java.security.cert.CertificateEncodingException;
+import java.security.cert.X509Certificate;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.wss4j.common.ext.WSSecurityException;
+
+/**
+ * A cache of the session keys that were obtained by unwrapping an (asymmetrically) encrypted key,
+ * so that the private key operation does not have to be repeated if a client sends the same
+ * EncryptedKey in a number of messages (e.g. when a message is retried). An entry is keyed by a
+ * SHA-256 hash of the encrypted key bytes, the key transport algorithm and its parameters, and the
+ * certificate (or public key) of the recipient.
+ *
+ * Only successful unwraps must be cached. An unwrap that fails (for which a random key is used
+ * instead) must not be cached, and a cached key is only returned for exactly the same input, so
+ * the cache does not give an attacker any information that a full unwrap would not. An entry
+ * expires after the configured time to live, and the least recently used entry is evicted once
+ * the maximum number of entries is reached.
+ */
+public class DecryptedKeyCache {
+
+    public static final int DEFAULT_MAX_ENTRIES = 1000;
+    public static final long DEFAULT_TTL = 60L;
+
+    private final Map<ByteBuffer, Entry> entries;
+    private final long timeToLive;
+    private final AtomicLong hitCount = new AtomicLong();
+    private final AtomicLong missCount = new AtomicLong();
+
+    public DecryptedKeyCache() {
+        this(DEFAULT_MAX_ENTRIES, DEFAULT_TTL);
+    }
+
+    /**
+     * Create a new DecryptedKeyCache
+     * @param maxEntries the maximum number of session keys to cache
+     * @param timeToLive the maximum length of time to cache a session key in seconds
+     */
+    public DecryptedKeyCache(final int maxEntries, long timeToLive) {
+        if (maxEntries <= 0) {
+            throw new IllegalArgumentException("The maximum number of entries must be positive");
+        }
+        this.timeToLive = timeToLive;
+        entries = new LinkedHashMap<ByteBuffer, Entry>(16, 0.75f, true) {
+            private static final long serialVersionUID = -2215432372934524582L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<ByteBuffer, Entry> eldest) {
+                return size() > maxEntries;
+            }
+        };
+    }
+
+    /**
+     * Create the key under which the session key of the given encrypted key is cached
+     * @param encryptedKey the encrypted key bytes (i.e. the decoded CipherValue)
+     * @param keyTransportAlgorithm the key transport algorithm URI
+     * @param recipientCert the certificate of the recipient, if any
+     * @param recipientKey the public key of the recipient, if no certificate is available
+     * @param parameters any parameters of the key transport algorithm, e.g. the OAEP digest
+     * algorithm (entries can be null)
+     * @return the key
+     * @throws WSSecurityException
+     */
+    public ByteBuffer createKey(
+        byte[] encryptedKey,
+        String keyTransportAlgorithm,
+        X509Certificate recipientCert,
+        PublicKey recipientKey,
+        String... parameters
+    ) throws WSSecurityException {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new WSSecurityException(
+                WSSecurityException.ErrorCode.FAILURE, e, "decoding.general"
+            );
+        }
+
+        update(digest, encryptedKey);
+        update(digest, keyTransportAlgorithm.getBytes(StandardCharsets.UTF_8));
+        try {
+            if (recipientCert != null) {
+                update(digest, recipientCert.getEncoded());
+            } else if (recipientKey != null) {
+                update(digest, recipientKey.getEncoded());
+            }
+        } catch (CertificateEncodingException e) {
+            throw new WSSecurityException(
+                WSSecurityException.ErrorCode.SECURITY_TOKEN_UNAVAILABLE, e, "encodeError"
+            );
+        }
+        for (String parameter : parameters) {
+            if (parameter == null) {
+                digest.update(ByteBuffer.allocate(4).putInt(-1).array());
+            } else {
+                update(digest, parameter.getBytes(StandardCharsets.UTF_8));
+            }
+        }
+        return ByteBuffer.wrap(digest.digest());
+    }
+
+    private static void update(MessageDigest digest, byte[] bytes) {
+        digest.update(ByteBuffer.allocate(4).putInt(bytes.length).array());
+        digest.update(bytes);
+    }
+
+    /**
+     * @param key the key that was created for the encrypted key
+     * @return a copy of the cached session key bytes, or null if none are cached for the given key
+     */
+    public byte[] get(ByteBuffer key) {
+        Entry entry;
+        synchronized (entries) {
+            entry = entries.get(key);
+            if (entry != null && entry.expires <= System.currentTimeMillis()) {
+                entries.remove(key);
+                entry = null;
+            }
+        }
+        if (entry == null) {
+            missCount.incrementAndGet();
+            return null;
+        }
+        hitCount.incrementAndGet();
+        return entry.keyBytes.clone();
+    }
+
+    /**
+     * Cache the session key bytes of a successful unwrap
+     * @param key the key that was created for the encrypted key
+     * @param keyBytes the session key bytes
+     */
+    public void put(ByteBuffer key, byte[] keyBytes) {
+        Entry entry = new Entry(keyBytes.clone(), System.currentTimeMillis() + timeToLive * 1000L);
+        synchronized (entries) {
+            entries.put(key, entry);
+        }
+    }
+
+    /**
+     * Remove all cached session keys
+     */
+    public void clear() {
+        synchronized (entries) {
+            entries.clear();
+        }
+    }
+
+    /**
+     * Get the number of (possibly expired) session keys held in the cache
+     */
+    public int size() {
+        synchronized (entries) {
+            return entries.size();
+        }
+    }
+
+    /**
+     * Get the number of lookups for which a session key was found in the cache
+     */
+    public long getHitCount() {
+        return hitCount.get();
+    }
+
+    /**
+     * Get the number of lookups for which no session key was found in the cache
+     */
+    public long getMissCount() {
+        return missCount.get();
+    }
+
+    private static final class Entry {
+        private final byte[] keyBytes;
+        private final long expires;
+
+        Entry(byte[] keyBytes, long expires) {
+            this.keyBytes = keyBytes;
+            this.expires = expires;
+        }
+    }
+
+}
@@ -0,0 +1,247 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.wss4j.common.crypto;
+
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.security.KeyStore;
+import java.security.KeyStoreException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.PublicKey;
+import java.security.cert.Certificate;
+import java.security.cert.CertificateEncodingException;
+import java.security.cert.X509Certificate;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.wss4j.common.ext.WSSecurityException;
+
+/**
+ * An immutable index of the certificate (chains) of a KeyStore. It allows Merlin to look up
+ * certificates by issuer and serial number, SHA-1 thumbprint, Subject Key Identifier, Subject DN
+ * and public key, without iterating over all of the aliases of the KeyStore and re-parsing or
+ * re-hashing each certificate for every lookup. Where more than one alias matches, the first
+ * alias returned by KeyStore.aliases() takes precedence, as it does for a linear search.
+ */
+final class KeyStoreIndex {
+
+    private static final org.slf4j.Logger LOG =
+        org.slf4j.LoggerFactory.getLogger(KeyStoreIndex.class);
+
+    private final KeyStore keyStore;
+    private final int size;
+    private final Map<BigInteger, List<Entry>> serialNumbers = new HashMap<>();
+    private final Map<ByteBuffer, Entry> thumbprints = new HashMap<>();
+    private final Map<ByteBuffer, Entry> skiBytes = new HashMap<>();
+    private final Map<ByteBuffer, Entry> subjectKeyIdentifiers = new HashMap<>();
+    private final Map<Object, List<Entry>> subjectNames = new HashMap<>();
+    private final Map<ByteBuffer, Entry> publicKeys = new HashMap<>();
+    private final Map<Certificate, Entry> certificates = new HashMap<>();
+    private int entryCount;
+
+    KeyStoreIndex(KeyStore keyStore, CryptoBase crypto) throws WSSecurityException {
+        this.keyStore = keyStore;
+        MessageDigest sha;
+        try {
+            sha = MessageDigest.getInstance("SHA1");
+        } catch (NoSuchAlgorithmException e) {
+            throw new WSSecurityException(
+                WSSecurityException.ErrorCode.FAILURE, e, "decoding.general"
+            );
+        }
+
+        try {
+            size = keyStore.size();
+            for (Enumeration<String> e = keyStore.aliases(); e.hasMoreElements();) {
+                String alias = e.nextElement();
+                Certificate[] certs = keyStore.getCertificateChain(alias);
+                if (certs == null || certs.length == 0) {
+                    // no cert chain, so lets check if getCertificate gives us a result.
+                    Certificate cert = keyStore.getCertificate(alias);
+                    if (cert != null) {
+                        certs = new Certificate[]{cert};
+                    }
+                }
+                if (certs == null || certs.length == 0) {
+                    continue;
+                }
+
+                Entry entry = new Entry(alias, certs);
+                if (certs[0] instanceof X509Certificate) {
+                    index((X509Certificate)certs[0], entry, crypto, sha);
+                }
+
+                entryCount++;
+                certificates.putIfAbsent(certs[0], entry);
+                PublicKey publicKey = certs[0].getPublicKey();
+                if (publicKey != null && publicKey.getEncoded() != null) {
+                    publicKeys.putIfAbsent(ByteBuffer.wrap(publicKey.getEncoded()), entry);
+                }
+            }
+        } catch (KeyStoreException e) {
+            throw new WSSecurityException(
+                WSSecurityException.ErrorCode.FAILURE, e, "keystore"
+            );
+        }
+        LOG.debug("Indexed {} certificate entries of KeyStore {}", entryCount, keyStore);
+    }
+
+    /**
+     * Add the given certificate to the lookup maps. A lookup key that cannot be computed for the
+     * certificate (for example because of a malformed extension) is skipped, so that the certificate
+     * can still be found by every other key, and by its alias and public key.
+     */
+    private void index(X509Certificate x509cert, Entry entry, CryptoBase crypto, MessageDigest sha) {
+        try {
+            entry.issuerName = crypto.createBCX509Name(x509cert.getIssuerX500Principal().getName());
+            serialNumbers.computeIfAbsent(x509cert.getSerialNumber(), k -> new ArrayList<>(1)).add(entry);
+        } catch (RuntimeException ex) {
+            skipKey(entry, "issuer and serial number", ex);
+        }
+        try {
+            Object subjectName = crypto.createBCX509Name(x509cert.getSubjectX500Principal().getName());
+            subjectNames.computeIfAbsent(subjectName, k -> new ArrayList<>(1)).add(entry);
+        } catch (RuntimeException ex) {
+            skipKey(entry, "subject name", ex);
+        }
+        try {
+            thumbprints.putIfAbsent(ByteBuffer.wrap(sha.digest(x509cert.getEncoded())), entry);
+        } catch (CertificateEncodingException | RuntimeException ex) {
+            skipKey(entry, "thumbprint", ex);
+        }
+        try {
+            skiBytes.putIfAbsent(ByteBuffer.wrap(crypto.getSKIBytesFromCert(x509cert)), entry);
+        } catch (WSSecurityException | RuntimeException ex) {
+            skipKey(entry, "SKI", ex);
+        }
+        try {
+            byte[] subjectKeyIdentifier = BouncyCastleUtils.getSubjectKeyIdentifierBytes(x509cert);
+            if (subjectKeyIdentifier != null) {
+                subjectKeyIdentifiers.putIfAbsent(ByteBuffer.wrap(subjectKeyIdentifier), entry);
+            }
+        } catch (RuntimeException ex) {
+            skipKey(entry, "SubjectKeyIdentifier", ex);
+        }
+    }
+
+    private static void skipKey(Entry entry, String key, Exception ex) {
+        LOG.warn("The {} of the certificate of keystore alias {} could not be indexed: {}",
+                 key, entry.alias, ex.getMessage());
+        LOG.debug(ex.getMessage(), ex);
+    }
+
+    /**
+     * @return true if this index was built from the given KeyStore, and the KeyStore does not
+     * appear to have been modified since
+     */
+    boolean isCurrent(KeyStore store) {
+        try {
+            return keyStore == store && size == store.size();
+        } catch (KeyStoreException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Get the certificate (chain) with the given issuer (either an X500Principal or a BouncyCastle
+     * X509Name instance) and serial number
+     */
+    Certificate[] getByIssuerSerial(Object issuerName, BigInteger serialNumber) {
+        List<Entry> candidates = serialNumbers.get(serialNumber);
+        if (candidates != null) {
+            for (Entry entry : candidates) {
+                if (entry.issuerName.equals(issuerName)) {
+                    LOG.debug("Issuer Serial match found using keystore alias {}", entry.alias);
+                    return entry.certs.clone();
+                }
+            }
+        }
+        return null;
+    }
+
+    Certificate[] getByThumbprint(byte[] thumbprint) {
+        return getCerts(thumbprints.get(ByteBuffer.wrap(thumbprint)));
+    }
+
+    Certificate[] getBySKIBytes(byte[] ski) {
+        return getCerts(skiBytes.get(ByteBuffer.wrap(ski)));
+    }
+
+    /**
+     * Get the certificate (chain) that has a SubjectKeyIdentifier extension with the given value
+     */
+    Certificate[] getBySubjectKeyIdentifier(byte[] subjectKeyIdentifier) {
+        return getCerts(subjectKeyIdentifiers.get(ByteBuffer.wrap(subjectKeyIdentifier)));
+    }
+
+    /**
+     * Get the certificate (chains) with the given subject (either an X500Principal or a BouncyCastle
+     * X509Name instance)
+     */
+    List<Certificate[]> getBySubjectName(Object subjectName) {
+        List<Entry> found = subjectNames.get(subjectName);
+        if (found == null) {
+            return Collections.emptyList();
+        }
+        List<Certificate[]> certs = new ArrayList<>(found.size());
+        for (Entry entry : found) {
+            certs.add(entry.certs.clone());
+        }
+        return certs;
+    }
+
+    String getAlias(Certificate cert) {
+        Entry entry = certificates.get(cert);
+        return entry == null ? null : entry.alias;
+    }
+
+    String getAlias(PublicKey publicKey) {
+        if (publicKey == null || publicKey.getEncoded() == null) {
+            return null;
+        }
+        Entry entry = publicKeys.get(ByteBuffer.wrap(publicKey.getEncoded()));
+        return entry == null ? null : entry.alias;
+    }
+
+    private static Certificate[] getCerts(Entry entry) {
+        if (entry == null) {
+            return null;
+        }
+        LOG.debug("Certificate match found using keystore alias {}", entry.alias);
+        return entry.certs.clone();
+    }
+
+    private static final class Entry {
+        private final String alias;
+        private final Certificate[] certs;
+        private Object issuerName;
+
+        Entry(String alias, Certificate[] certs) {
+            this.alias = alias;
+            this.certs = certs;
+        }
+    }
+
+}
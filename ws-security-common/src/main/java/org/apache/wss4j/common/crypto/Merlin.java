@@ -23,6 +23,7 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.math.BigInteger;
 import java.net.MalformedURLException;
+import java.nio.ByteBuffer;
 import java.nio.file.Files;
 import java.nio.file.Paths;
 import java.security.GeneralSecurityException;
@@ -30,17 +31,17 @@ import java.security.InvalidAlgorithmParameterException;
 import java.security.Key;
 import java.security.KeyStore;
 import java.security.KeyStoreException;
-import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.security.NoSuchProviderException;
 import java.security.PrivateKey;
 import java.security.PublicKey;
 import java.security.UnrecoverableKeyException;
+import java.security.cert.CRL;
 import java.security.cert.CertPath;
 import java.security.cert.CertPathValidator;
 import java.security.cert.CertStore;
+import java.security.cert.CertStoreException;
 import java.security.cert.Certificate;
-import java.security.cert.CertificateEncodingException;
 import java.security.cert.CertificateException;
 import java.security.cert.CertificateExpiredException;
 import java.security.cert.CertificateFactory;
@@ -49,6 +50,7 @@ import java.security.cert.CollectionCertStoreParameters;
 import java.security.cert.PKIXParameters;
 import java.security.cert.TrustAnchor;
 import java.security.cert.X509CRL;
+import java.security.cert.X509CRLSelector;
 import java.security.cert.X509Certificate;
 import java.util.ArrayList;
 import java.util.Arrays;
@@ -58,6 +60,7 @@ import java.util.HashSet;
 import java.util.List;
 import java.util.Properties;
 import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.regex.Pattern;
 
 import javax.security.auth.callback.Callback;
@@ -102,6 +105,7 @@ public class Merlin extends CryptoBase {
     public static final String KEYSTORE_TYPE = "keystore.type";
     public static final String KEYSTORE_ALIAS = "keystore.alias";
     public static final String KEYSTORE_PRIVATE_PASSWORD = "keystore.private.password";
+    public static final String KEYSTORE_PRIVATE_CACHE_SIZE = "keystore.private.cache.size";
 
     /*
      * TrustStore configuration types
@@ -116,10 +120,18 @@ public class Merlin extends CryptoBase {
      * CRL configuration
      */
     public static final String X509_CRL_FILE = "x509crl.file";
+    public static final String X509_CRL_INDEX = "x509crl.index";
+
+    /*
+     * Certificate path validation cache configuration
+     */
+    public static final String CERT_PATH_CACHE_SIZE = "certpath.cache.size";
+    public static final String CERT_PATH_CACHE_TTL = "certpath.cache.ttl";
 
     private static final org.slf4j.Logger LOG =
         org.slf4j.LoggerFactory.getLogger(Merlin.class);
     private static final String COMMA_SEPARATOR = ",";
+    private static final AtomicLong STORE_GENERATIONS = new AtomicLong();
 
     protected Properties properties;
     protected KeyStore keystore;
@@ -130,6 +142,14 @@ public class Merlin extends CryptoBase {
     protected PasswordEncryptor passwordEncryptor;
 
     private boolean certProviderHandlesNameConstraints = false;
+    private volatile KeyStoreIndex keystoreIndex;
+    private volatile KeyStoreIndex truststoreIndex;
+    private volatile KeyStoreIndex otherStoreIndex;
+    private CertPathValidationCache certPathValidationCache;
+    private volatile long storeGeneration = STORE_GENERATIONS.incrementAndGet();
+    private PrivateKeyCache privateKeyCache;
+    private volatile PKIXParametersTemplate pkixParametersTemplate;
+    private CRLIndex crlIndex;
 
     public Merlin() {
         // default constructor
@@ -167,6 +187,7 @@ public class Merlin extends CryptoBase {
         }
         this.properties = properties;
         this.passwordEncryptor = passwordEncryptor;
+        storeGeneration = STORE_GENERATIONS.incrementAndGet();
 
         String prefix = PREFIX;
         for (Object key : properties.keySet()) {
@@ -337,8 +358,51 @@ public class Merlin extends CryptoBase {
                 LOG.debug(e.getMessage(), e);
                 throw new WSSecurityException(WSSecurityException.ErrorCode.FAILURE, e, "ioError00");
             }
+            if (Boolean.parseBoolean(properties.getProperty(prefix + X509_CRL_INDEX))) {
+                crlIndex = new CRLIndex(crls);
+            }
             LOG.debug("The CRL files {} have been loaded", crlLocations);
         }
+
+        loadCaches(prefix);
+    }
+
+    /**
+     * Enable the private key cache and the certificate path validation cache, if they are configured
+     */
+    private void loadCaches(String prefix) throws WSSecurityException {
+        String privateKeyCacheSize = properties.getProperty(prefix + KEYSTORE_PRIVATE_CACHE_SIZE);
+        if (privateKeyCacheSize != null) {
+            try {
+                int maxEntries = Integer.parseInt(privateKeyCacheSize.trim());
+                if (maxEntries > 0) {
+                    privateKeyCache = new PrivateKeyCache(maxEntries);
+                }
+            } catch (NumberFormatException e) {
+                LOG.debug(e.getMessage(), e);
+                throw new WSSecurityException(WSSecurityException.ErrorCode.FAILURE, e, "empty",
+                    new Object[] {"Invalid private key cache configuration"});
+            }
+        }
+
+        String cacheSize = properties.getProperty(prefix + CERT_PATH_CACHE_SIZE);
+        if (cacheSize != null) {
+            String cacheTTL = properties.getProperty(prefix + CERT_PATH_CACHE_TTL);
+            try {
+                int maxEntries = Integer.parseInt(cacheSize.trim());
+                long ttl = CertPathValidationCache.DEFAULT_TTL;
+                if (cacheTTL != null) {
+                    ttl = Long.parseLong(cacheTTL.trim());
+                }
+                if (maxEntries > 0) {
+                    certPathValidationCache = new CertPathValidationCache(maxEntries, ttl);
+                }
+            } catch (NumberFormatException e) {
+                LOG.debug(e.getMessage(), e);
+                throw new WSSecurityException(WSSecurityException.ErrorCode.FAILURE, e, "empty",
+                    new Object[] {"Invalid certificate path validation cache configuration"});
+            }
+        }
     }
 
     /**
@@ -428,6 +492,12 @@ public class Merlin extends CryptoBase {
      */
     public void setKeyStore(KeyStore keyStore) {
         keystore = keyStore;
+        keystoreIndex = null;
+        pkixParametersTemplate = null;
+        clearCertPathValidationCache();
+        if (privateKeyCache != null) {
+            privateKeyCache.clear();
+        }
     }
 
     /**
@@ -446,6 +516,9 @@ public class Merlin extends CryptoBase {
      */
     public void setTrustStore(KeyStore trustStore) {
         truststore = trustStore;
+        truststoreIndex = null;
+        pkixParametersTemplate = null;
+        clearCertPathValidationCache();
     }
 
     /**
@@ -456,6 +529,8 @@ public class Merlin extends CryptoBase {
      */
     public void setCRLCertStore(CertStore crlCertStore) {
         this.crlCertStore = crlCertStore;
+        pkixParametersTemplate = null;
+        clearCertPathValidationCache();
     }
 
     /**
@@ -468,6 +543,76 @@ public class Merlin extends CryptoBase {
         return crlCertStore;
     }
 
+    /**
+     * Set the index of CRLs to use for Certificate Revocation checking. If an index is set, then
+     * the revocation status of each certificate in a path is looked up in the index by a
+     * CRLRevocationChecker, instead of being checked by the CertPathValidator against the CRL
+     * CertStore. The CRLs of the index can be replaced without replacing the index.
+     * @param crlIndex the index of CRLs to use for Certificate Revocation checking
+     */
+    public void setCRLIndex(CRLIndex crlIndex) {
+        this.crlIndex = crlIndex;
+        pkixParametersTemplate = null;
+        clearCertPathValidationCache();
+    }
+
+    /**
+     * Get the index of CRLs to use for Certificate Revocation checking, if one is set
+     * @return the index of CRLs to use for Certificate Revocation checking
+     */
+    public CRLIndex getCRLIndex() {
+        return crlIndex;
+    }
+
+    /**
+     * Set the cache of successful certificate path validations. Setting a cache means that the
+     * certificate path of a given (transmitted) certificate chain is not validated again until
+     * the cached result expires. The cache is cleared when the keystore, trust store or CRL
+     * CertStore of this Crypto instance is replaced. It is disabled by default.
+     *
+     * The cached results are keyed by a generation that is unique to this Crypto instance and its
+     * current keystore, trust store and CRLs, so a cache may be shared between several Crypto
+     * instances, and a result that is computed against a replaced trust store is never used.
+     * @param certPathValidationCache the cache of successful certificate path validations
+     */
+    public void setCertPathValidationCache(CertPathValidationCache certPathValidationCache) {
+        this.certPathValidationCache = certPathValidationCache;
+    }
+
+    /**
+     * Get the cache of successful certificate path validations, if one is set
+     * @return the cache of successful certificate path validations
+     */
+    public CertPathValidationCache getCertPathValidationCache() {
+        return certPathValidationCache;
+    }
+
+    /**
+     * Set the cache of the private keys that are retrieved from the keystore. Setting a cache means
+     * that a private key is only decrypted the first time it is retrieved with a given password.
+     * The cache is cleared when the keystore of this Crypto instance is replaced. It is disabled
+     * by default.
+     * @param privateKeyCache the cache of the private keys that are retrieved from the keystore
+     */
+    public void setPrivateKeyCache(PrivateKeyCache privateKeyCache) {
+        this.privateKeyCache = privateKeyCache;
+    }
+
+    /**
+     * Get the cache of the private keys that are retrieved from the keystore, if one is set
+     * @return the cache of the private keys that are retrieved from the keystore
+     */
+    public PrivateKeyCache getPrivateKeyCache() {
+        return privateKeyCache;
+    }
+
+    private void clearCertPathValidationCache() {
+        storeGeneration = STORE_GENERATIONS.incrementAndGet();
+        if (certPathValidationCache != null) {
+            certPathValidationCache.clear();
+        }
+    }
+
     /**
      * Singleton certificate factory for this Crypto instance.
      * <p/>
@@ -739,6 +884,12 @@ public class Merlin extends CryptoBase {
                     pwd = decryptPassword(pwd, passwordEncryptor);
                 }
             }
+            if (privateKeyCache != null) {
+                PrivateKey privateKey = privateKeyCache.get(keystore, identifier, pwd);
+                if (privateKey != null) {
+                    return privateKey;
+                }
+            }
             Key keyTmp = keystore.getKey(identifier, pwd == null
                                          ? new char[]{} : pwd.toCharArray());
             if (!(keyTmp instanceof PrivateKey)) {
@@ -748,6 +899,9 @@ public class Merlin extends CryptoBase {
                 throw new WSSecurityException(WSSecurityException.ErrorCode.FAILURE, "empty",
                                               new Object[] {msg});
             }
+            if (privateKeyCache != null) {
+                privateKeyCache.put(keystore, identifier, pwd, (PrivateKey) keyTmp);
+            }
             return (PrivateKey) keyTmp;
         } catch (KeyStoreException | UnrecoverableKeyException | NoSuchAlgorithmException ex) {
             throw new WSSecurityException(
@@ -800,6 +954,17 @@ public class Merlin extends CryptoBase {
             }
         }
 
+        ByteBuffer cacheKey = null;
+        if (certPathValidationCache != null) {
+            cacheKey = createCertPathCacheKey(certPathValidationCache, certs, enableRevocation, subjectCertConstraints);
+            if (certPathValidationCache.isValid(cacheKey)) {
+                LOG.debug(
+                    "Cached trust for certificate with {}", certs[0].getSubjectX500Principal().getName()
+                );
+                return;
+            }
+        }
+
         //
         // SECOND step - Search for the issuer cert (chain) of the transmitted certificate in the
         // keystore or the truststore
@@ -840,21 +1005,8 @@ public class Merlin extends CryptoBase {
             "Preparing to validate certificate path for issuer {}", issuerString
         );
 
+        X509Certificate[] validatedCerts = certs;
         try {
-            Set<TrustAnchor> set = new HashSet<>();
-            if (truststore != null) {
-                addTrustAnchors(set, truststore);
-            }
-
-            //
-            // Add certificates from the keystore - only if there is no TrustStore, apart from
-            // the case that the truststore is the JDK CA certs. This behaviour is preserved
-            // for backwards compatibility reasons
-            //
-            if (keystore != null && (truststore == null || loadCACerts)) {
-                addTrustAnchors(set, keystore);
-            }
-
             // Verify the trust path using the above settings
             String provider = getCryptoProvider();
             CertPathValidator validator = null;
@@ -864,7 +1016,7 @@ public class Merlin extends CryptoBase {
                 validator = CertPathValidator.getInstance("PKIX", provider);
             }
 
-            PKIXParameters param = createPKIXParameters(set, enableRevocation);
+            PKIXParameters param = getPKIXParameters(enableRevocation);
 
             // Generate cert path
             if (foundIssuingCertChains != null && !foundIssuingCertChains.isEmpty()) {
@@ -882,6 +1034,7 @@ public class Merlin extends CryptoBase {
                         validator.validate(path, param);
                         // We have a valid cert path at this point so break
                         validatorException = null;
+                        validatedCerts = x509certs;
                         break;
                     } catch (java.security.cert.CertPathValidatorException e) {
                         validatorException = e;
@@ -910,6 +1063,10 @@ public class Merlin extends CryptoBase {
         if (!matchesSubjectDnPattern(certs[0], subjectCertConstraints)) {
             throw new WSSecurityException(WSSecurityException.ErrorCode.FAILED_AUTHENTICATION);
         }
+
+        if (cacheKey != null) {
+            putValidCertPath(certPathValidationCache, cacheKey, validatedCerts, enableRevocation);
+        }
     }
 
     @Override
@@ -922,11 +1079,88 @@ public class Merlin extends CryptoBase {
         }
     }
 
-    // Separated out to allow subclasses to override it
+    /**
+     * Create the key under which the validation result of the given certificate chain is cached
+     */
+    ByteBuffer createCertPathCacheKey(
+        CertPathValidationCache cache, X509Certificate[] certs,
+        boolean enableRevocation, Collection<Pattern> subjectCertConstraints
+    ) throws WSSecurityException {
+        long crlGeneration = enableRevocation && crlIndex != null ? crlIndex.getGeneration() : 0L;
+        return cache.createKey(certs, enableRevocation, subjectCertConstraints, crlGeneration, storeGeneration);
+    }
+
+    /**
+     * Cache a successful validation result, so that it expires no later than the next update of the
+     * CRLs that were used for revocation checking. It is not cached if the CRLs cannot be retrieved.
+     */
+    void putValidCertPath(
+        CertPathValidationCache cache, ByteBuffer cacheKey, X509Certificate[] path, boolean enableRevocation
+    ) {
+        Collection<? extends CRL> crls = null;
+        if (enableRevocation && crlIndex != null) {
+            crls = crlIndex.getCRLs();
+        } else if (enableRevocation && crlCertStore != null) {
+            try {
+                crls = crlCertStore.getCRLs(new X509CRLSelector());
+            } catch (CertStoreException e) {
+                LOG.debug(e.getMessage(), e);
+                return;
+            }
+        }
+        cache.putValid(cacheKey, path, crls);
+    }
+
+    /**
+     * Get the PKIXParameters to validate a certificate path with. The trust anchors of the
+     * keystore and truststore, and the PKIXParameters that are created from them, are cached
+     * and are only computed again if the keystore, truststore or CRL CertStore change. The
+     * returned PKIXParameters are a copy of the cached instance, and so may be modified.
+     *
+     * @param enableRevocation whether to enable CRL verification or not
+     * @return the PKIXParameters to validate a certificate path with
+     */
+    protected PKIXParameters getPKIXParameters(boolean enableRevocation)
+        throws KeyStoreException, InvalidAlgorithmParameterException, WSSecurityException {
+        PKIXParametersTemplate template = pkixParametersTemplate;
+        if (template == null || !template.isCurrent(keystore, truststore, crlCertStore)) {
+            Set<TrustAnchor> set = new HashSet<>();
+            if (truststore != null) {
+                addTrustAnchors(set, truststore);
+            }
+
+            //
+            // Add certificates from the keystore - only if there is no TrustStore, apart from
+            // the case that the truststore is the JDK CA certs. This behaviour is preserved
+            // for backwards compatibility reasons
+            //
+            if (keystore != null && (truststore == null || loadCACerts)) {
+                addTrustAnchors(set, keystore);
+            }
+
+            template = new PKIXParametersTemplate(
+                keystore, truststore, crlCertStore,
+                createPKIXParameters(set, false), createPKIXParameters(set, true)
+            );
+            pkixParametersTemplate = template;
+            LOG.debug("Created PKIXParameters with {} trust anchors", set.size());
+        }
+
+        return (PKIXParameters)template.getParameters(enableRevocation).clone();
+    }
+
+    // Separated out to allow subclasses to override it. It is called once for each value of
+    // enableRevocation whenever the trust anchors are computed (again).
     protected PKIXParameters createPKIXParameters(
         Set<TrustAnchor> trustAnchors, boolean enableRevocation
     ) throws InvalidAlgorithmParameterException {
         PKIXParameters param = new PKIXParameters(trustAnchors);
+        if (enableRevocation && crlIndex != null) {
+            // The revocation status is checked against the CRL index instead
+            param.setRevocationEnabled(false);
+            param.addCertPathChecker(new CRLRevocationChecker(crlIndex, trustAnchors));
+            return param;
+        }
         param.setRevocationEnabled(enableRevocation);
         if (enableRevocation && crlCertStore != null) {
             param.addCertStore(crlCertStore);
@@ -1016,40 +1250,12 @@ public class Merlin extends CryptoBase {
         KeyStore store
     ) throws WSSecurityException {
         LOG.debug("Searching keystore for cert with issuer {} and serial {}", issuerRDN, serialNumber);
-        try {
-            for (Enumeration<String> e = store.aliases(); e.hasMoreElements();) {
-                String alias = e.nextElement();
-                Certificate[] certs = store.getCertificateChain(alias);
-                if (certs == null || certs.length == 0) {
-                    // no cert chain, so lets check if getCertificate gives us a result.
-                    Certificate cert = store.getCertificate(alias);
-                    if (cert != null) {
-                        certs = new Certificate[]{cert};
-                    }
-                }
-
-                if (certs != null && certs.length > 0 && certs[0] instanceof X509Certificate) {
-                    X509Certificate x509cert = (X509Certificate) certs[0];
-                    LOG.debug("Keystore alias {} has issuer {} and serial {}", alias,
-                              x509cert.getIssuerX500Principal().getName(), x509cert.getSerialNumber());
-                    if (x509cert.getSerialNumber().compareTo(serialNumber) == 0) {
-                        Object certName =
-                            createBCX509Name(x509cert.getIssuerX500Principal().getName());
-                        if (certName.equals(issuerRDN)) {
-                            LOG.debug("Issuer Serial match found using keystore alias {}", alias);
-                            return certs;
-                        }
-                    }
-                }
-            }
-        } catch (KeyStoreException e) {
-            throw new WSSecurityException(
-                WSSecurityException.ErrorCode.FAILURE, e, "keystore"
-            );
+        Certificate[] certs = getKeyStoreIndex(store).getByIssuerSerial(issuerRDN, serialNumber);
+        if (certs == null) {
+            LOG.debug("No issuer serial match found in keystore");
+            return new Certificate[]{};
         }
-
-        LOG.debug("No issuer serial match found in keystore");
-        return new Certificate[]{};
+        return certs;
     }
 
     /**
@@ -1060,23 +1266,14 @@ public class Merlin extends CryptoBase {
      * @throws WSSecurityException if problems during keystore handling or wrong certificate
      */
     private X509Certificate[] getX509Certificates(byte[] thumbprint) throws WSSecurityException {
-        MessageDigest sha = null;
-
-        try {
-            sha = MessageDigest.getInstance("SHA1");
-        } catch (NoSuchAlgorithmException e) {
-            throw new WSSecurityException(
-                WSSecurityException.ErrorCode.FAILURE, e, "decoding.general"
-            );
-        }
         Certificate[] certs = null;
         if (keystore != null) {
-            certs = getCertificates(thumbprint, keystore, sha);
+            certs = getCertificatesByThumbprint(thumbprint, keystore);
         }
 
         //If we can't find the issuer in the keystore then look at the truststore
         if ((certs == null || certs.length == 0) && truststore != null) {
-            certs = getCertificates(thumbprint, truststore, sha);
+            certs = getCertificatesByThumbprint(thumbprint, truststore);
         }
 
         if (certs == null || certs.length == 0) {
@@ -1093,49 +1290,17 @@ public class Merlin extends CryptoBase {
      * @return an X509 Certificate (chain)
      * @throws WSSecurityException
      */
-    private Certificate[] getCertificates(
+    private Certificate[] getCertificatesByThumbprint(
         byte[] thumbprint,
-        KeyStore store,
-        MessageDigest sha
+        KeyStore store
     ) throws WSSecurityException {
         LOG.debug("Searching keystore for cert using a SHA-1 thumbprint");
-        try {
-            for (Enumeration<String> e = store.aliases(); e.hasMoreElements();) {
-                String alias = e.nextElement();
-                Certificate[] certs = store.getCertificateChain(alias);
-                if (certs == null || certs.length == 0) {
-                    // no cert chain, so lets check if getCertificate gives us a result.
-                    Certificate cert = store.getCertificate(alias);
-                    if (cert != null) {
-                        certs = new Certificate[]{cert};
-                    }
-                }
-
-                if (certs != null && certs.length > 0 && certs[0] instanceof X509Certificate) {
-                    X509Certificate x509cert = (X509Certificate) certs[0];
-                    try {
-                        sha.update(x509cert.getEncoded());
-                    } catch (CertificateEncodingException ex) {
-                        throw new WSSecurityException(
-                            WSSecurityException.ErrorCode.SECURITY_TOKEN_UNAVAILABLE, ex, "encodeError"
-                        );
-                    }
-                    byte[] data = sha.digest();
-
-                    if (Arrays.equals(data, thumbprint)) {
-                        LOG.debug("Thumbprint match found using keystore alias {}", alias);
-                        return certs;
-                    }
-                }
-            }
-        } catch (KeyStoreException e) {
-            throw new WSSecurityException(
-                WSSecurityException.ErrorCode.FAILURE, e, "keystore"
-            );
+        Certificate[] certs = getKeyStoreIndex(store).getByThumbprint(thumbprint);
+        if (certs == null) {
+            LOG.debug("No thumbprint match found in keystore");
+            return new Certificate[]{};
         }
-
-        LOG.debug("No thumbprint match found in keystore");
-        return new Certificate[]{};
+        return certs;
     }
 
     /**
@@ -1174,35 +1339,12 @@ public class Merlin extends CryptoBase {
         KeyStore store
     ) throws WSSecurityException {
         LOG.debug("Searching keystore for cert using Subject Key Identifier bytes");
-        try {
-            for (Enumeration<String> e = store.aliases(); e.hasMoreElements();) {
-                String alias = e.nextElement();
-                Certificate[] certs = store.getCertificateChain(alias);
-                if (certs == null || certs.length == 0) {
-                    // no cert chain, so lets check if getCertificate gives us a result.
-                    Certificate cert = store.getCertificate(alias);
-                    if (cert != null) {
-                        certs = new Certificate[]{cert};
-                    }
-                }
-
-                if (certs != null && certs.length > 0 && certs[0] instanceof X509Certificate) {
-                    X509Certificate x509cert = (X509Certificate) certs[0];
-                    byte[] data = getSKIBytesFromCert(x509cert);
-                    if (data.length == skiBytes.length && Arrays.equals(data, skiBytes)) {
-                        LOG.debug("SKI match found using keystore alias {}", alias);
-                        return certs;
-                    }
-                }
-            }
-        } catch (KeyStoreException e) {
-            throw new WSSecurityException(
-                WSSecurityException.ErrorCode.FAILURE, e, "keystore"
-            );
+        Certificate[] certs = getKeyStoreIndex(store).getBySKIBytes(skiBytes);
+        if (certs == null) {
+            LOG.debug("No SKI match found in keystore");
+            return new Certificate[]{};
         }
-
-        LOG.debug("No SKI match found in keystore");
-        return new Certificate[]{};
+        return certs;
     }
 
     /**
@@ -1308,24 +1450,12 @@ public class Merlin extends CryptoBase {
         }
         LOG.debug("Searching keystore for public key {}", publicKey);
         try {
-            for (Enumeration<String> e = keyStoreToSearch.aliases(); e.hasMoreElements();) {
-                String alias = e.nextElement();
-                Certificate[] certs = keyStoreToSearch.getCertificateChain(alias);
-                if (certs == null || certs.length == 0) {
-                    // no cert chain, so lets check if getCertificate gives us a result.
-                    Certificate cert = keyStoreToSearch.getCertificate(alias);
-                    if (cert != null) {
-                        certs = new Certificate[]{cert};
-                    }
-                }
-
-                if (certs != null && certs.length > 0 && certs[0] instanceof X509Certificate
-                    && publicKey.equals(((X509Certificate)certs[0]).getPublicKey())) {
-                    LOG.debug("PublicKey match found using keystore alias {}", alias);
-                    return true;
-                }
+            String alias = getKeyStoreIndex(keyStoreToSearch).getAlias(publicKey);
+            if (alias != null) {
+                LOG.debug("PublicKey match found using keystore alias {}", alias);
+                return true;
             }
-        } catch (KeyStoreException e) {
+        } catch (WSSecurityException e) {
             return false;
         }
 
@@ -1344,34 +1474,7 @@ public class Merlin extends CryptoBase {
     private List<Certificate[]> getCertificates(Object subjectRDN, KeyStore store)
         throws WSSecurityException {
         LOG.debug("Searching keystore for cert with Subject {}", subjectRDN);
-        List<Certificate[]> foundCerts = new ArrayList<>();
-        try {
-            for (Enumeration<String> e = store.aliases(); e.hasMoreElements();) {
-                String alias = e.nextElement();
-                Certificate[] certs = store.getCertificateChain(alias);
-                if (certs == null || certs.length == 0) {
-                    // no cert chain, so lets check if getCertificate gives us a result.
-                    Certificate cert = store.getCertificate(alias);
-                    if (cert != null) {
-                        certs = new Certificate[]{cert};
-                    }
-                }
-                if (certs != null && certs.length > 0 && certs[0] instanceof X509Certificate) {
-                    X500Principal foundRDN = ((X509Certificate)certs[0]).getSubjectX500Principal();
-                    Object certName = createBCX509Name(foundRDN.getName());
-
-                    if (subjectRDN.equals(certName)) {
-                        LOG.debug("Subject certificate match found using keystore alias {}", alias);
-                        foundCerts.add(certs);
-                    }
-                }
-            }
-        } catch (KeyStoreException e) {
-            throw new WSSecurityException(
-                WSSecurityException.ErrorCode.FAILURE, e, "keystore"
-            );
-        }
-
+        List<Certificate[]> foundCerts = getKeyStoreIndex(store).getBySubjectName(subjectRDN);
         if (foundCerts.isEmpty()) {
             LOG.debug("No Subject match found in keystore");
         }
@@ -1441,52 +1544,45 @@ public class Merlin extends CryptoBase {
      */
     private String getIdentifier(X509Certificate cert, KeyStore store)
         throws WSSecurityException {
-        try {
-            for (Enumeration<String> e = store.aliases(); e.hasMoreElements();) {
-                String alias = e.nextElement();
-
-                Certificate[] certs = store.getCertificateChain(alias);
-                if (certs == null || certs.length == 0) {
-                    // no cert chain, so lets check if getCertificate gives us a  result.
-                    Certificate retrievedCert = store.getCertificate(alias);
-                    if (retrievedCert != null) {
-                        certs = new Certificate[]{retrievedCert};
-                    }
-                }
-
-                if (certs != null && certs.length > 0 && certs[0].equals(cert)) {
-                    return alias;
-                }
-            }
-        } catch (KeyStoreException e) {
-            throw new WSSecurityException(WSSecurityException.ErrorCode.FAILURE, e, "keystore");
-        }
-        return null;
+        return getKeyStoreIndex(store).getAlias(cert);
     }
 
     private String getIdentifier(PublicKey publicKey, KeyStore store)
         throws WSSecurityException {
-        try {
-            for (Enumeration<String> e = store.aliases(); e.hasMoreElements();) {
-                String alias = e.nextElement();
-
-                Certificate[] certs = store.getCertificateChain(alias);
-                if (certs == null || certs.length == 0) {
-                    // no cert chain, so lets check if getCertificate gives us a  result.
-                    Certificate retrievedCert = store.getCertificate(alias);
-                    if (retrievedCert != null) {
-                        certs = new Certificate[]{retrievedCert};
-                    }
-                }
+        return getKeyStoreIndex(store).getAlias(publicKey);
+    }
 
-                if (certs != null && certs.length > 0 && certs[0].getPublicKey().equals(publicKey)) {
-                    return alias;
-                }
+    /**
+     * Get an index of the certificates of the given KeyStore. The indexes of the keystore and the
+     * truststore are built on first use, and are rebuilt if the KeyStore is replaced or the number
+     * of its entries changes. The index of the last other KeyStore that was searched is kept as
+     * well, so that repeated lookups in the same KeyStore do not index it every time.
+     * @param store The KeyStore
+     * @return an index of the certificates of the given KeyStore
+     * @throws WSSecurityException
+     */
+    KeyStoreIndex getKeyStoreIndex(KeyStore store) throws WSSecurityException {
+        if (store == keystore) {
+            KeyStoreIndex index = keystoreIndex;
+            if (index == null || !index.isCurrent(store)) {
+                index = new KeyStoreIndex(store, this);
+                keystoreIndex = index;
             }
-        } catch (KeyStoreException e) {
-            throw new WSSecurityException(WSSecurityException.ErrorCode.FAILURE, e, "keystore");
+            return index;
+        } else if (store == truststore) {
+            KeyStoreIndex index = truststoreIndex;
+            if (index == null || !index.isCurrent(store)) {
+                index = new KeyStoreIndex(store, this);
+                truststoreIndex = index;
+            }
+            return index;
         }
-        return null;
+        KeyStoreIndex index = otherStoreIndex;
+        if (index == null || !index.isCurrent(store)) {
+            index = new KeyStoreIndex(store, this);
+            otherStoreIndex = index;
+        }
+        return index;
     }
 
     /**
@@ -1534,4 +1630,43 @@ public class Merlin extends CryptoBase {
     public void setPasswordEncryptor(PasswordEncryptor passwordEncryptor) {
         this.passwordEncryptor = passwordEncryptor;
     }
+
+    /**
+     * The PKIXParameters (with and without revocation enabled) that were created for a given
+     * keystore, truststore and CRL CertStore
+     */
+    private static final class PKIXParametersTemplate {
+        private final KeyStore keystore;
+        private final int keystoreSize;
+        private final KeyStore truststore;
+        private final int truststoreSize;
+        private final CertStore crlCertStore;
+        private final PKIXParameters parameters;
+        private final PKIXParameters revocationParameters;
+
+        PKIXParametersTemplate(
+            KeyStore keystore, KeyStore truststore, CertStore crlCertStore,
+            PKIXParameters parameters, PKIXParameters revocationParameters
+        ) throws KeyStoreException {
+            this.keystore = keystore;
+            keystoreSize = keystore == null ? -1 : keystore.size();
+            this.truststore = truststore;
+            truststoreSize = truststore == null ? -1 : truststore.size();
+            this.crlCertStore = crlCertStore;
+            this.parameters = parameters;
+            this.revocationParameters = revocationParameters;
+        }
+
+        boolean isCurrent(KeyStore currentKeystore, KeyStore currentTruststore, CertStore currentCrlCertStore)
+            throws KeyStoreException {
+            return keystore == currentKeystore && truststore == currentTruststore
+                && crlCertStore == currentCrlCertStore
+                && keystoreSize == (keystore == null ? -1 : keystore.size())
+                && truststoreSize == (truststore == null ? -1 : truststore.size());
+        }
+
+        PKIXParameters getParameters(boolean enableRevocation) {
+            return enableRevocation ? revocationParameters : parameters;
+        }
+    }
 }
@@ -0,0 +1,144 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.wss4j.common.crypto;
+
+import java.nio.charset.StandardCharsets;
+import java.security.KeyStore;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.PrivateKey;
+import java.security.SecureRandom;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A cache of the PrivateKeys that Merlin has retrieved from its keystore, so that the (potentially
+ * expensive) password-based decryption of a private key entry is only performed once. A cached
+ * key is keyed by its alias, and is only returned if the same password is supplied again, so a
+ * CallbackHandler must still supply the correct password. The password itself is not stored,
+ * only a salted hash of it. The cache is bound to the KeyStore it was populated from, and is
+ * cleared if it is used with a different KeyStore. The least recently used key is evicted once the
+ * maximum number of entries is reached.
+ */
+public class PrivateKeyCache {
+
+    public static final int DEFAULT_MAX_ENTRIES = 100;
+
+    private final Map<String, Entry> entries;
+    private final byte[] salt = new byte[16];
+    private KeyStore keyStore;
+
+    public PrivateKeyCache() {
+        this(DEFAULT_MAX_ENTRIES);
+    }
+
+    /**
+     * Create a new PrivateKeyCache
+     * @param maxEntries the maximum number of private keys to cache
+     */
+    public PrivateKeyCache(final int maxEntries) {
+        if (maxEntries <= 0) {
+            throw new IllegalArgumentException("The maximum number of entries must be positive");
+        }
+        entries = new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+            private static final long serialVersionUID = -2738296502941645106L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+                return size() > maxEntries;
+            }
+        };
+        new SecureRandom().nextBytes(salt);
+    }
+
+    /**
+     * Get the cached private key for the given alias of the given KeyStore
+     * @param store the KeyStore that contains the private key
+     * @param alias the alias of the private key
+     * @param password the password of the private key
+     * @return the cached private key, or null if it is not cached, or if the password does not
+     * match the password that was used to retrieve the key
+     */
+    public synchronized PrivateKey get(KeyStore store, String alias, String password) {
+        if (store != keyStore) {
+            return null;
+        }
+        Entry entry = entries.get(alias);
+        if (entry == null || !MessageDigest.isEqual(entry.passwordHash, hash(password))) {
+            return null;
+        }
+        return entry.privateKey;
+    }
+
+    /**
+     * Cache a private key that was retrieved from the given KeyStore
+     * @param store the KeyStore that contains the private key
+     * @param alias the alias of the private key
+     * @param password the password that was used to retrieve the private key
+     * @param privateKey the private key
+     */
+    public synchronized void put(KeyStore store, String alias, String password, PrivateKey privateKey) {
+        if (store != keyStore) {
+            entries.clear();
+            keyStore = store;
+        }
+        entries.put(alias, new Entry(hash(password), privateKey));
+    }
+
+    /**
+     * Remove all cached private keys
+     */
+    public synchronized void clear() {
+        entries.clear();
+        keyStore = null;
+    }
+
+    /**
+     * Get the number of private keys held in the cache
+     */
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    private byte[] hash(String password) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            digest.update(salt);
+            if (password != null) {
+                digest.update(password.getBytes(StandardCharsets.UTF_8));
+            }
+            return digest.digest();
+        } catch (NoSuchAlgorithmException e) {
+            // SHA-256 must be supported by every Java platform
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static final class Entry {
+        private final byte[] passwordHash;
+        private final PrivateKey privateKey;
+
+        Entry(byte[] passwordHash, PrivateKey privateKey) {
+            this.passwordHash = passwordHash;
+            this.privateKey = privateKey;
+        }
+    }
+
+}
@@ -0,0 +1,471 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.wss4j.common.crypto;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.MalformedURLException;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.security.InvalidAlgorithmParameterException;
+import java.security.KeyStore;
+import java.security.KeyStoreException;
+import java.security.PrivateKey;
+import java.security.PublicKey;
+import java.security.cert.CertStore;
+import java.security.cert.CertificateFactory;
+import java.security.cert.PKIXParameters;
+import java.security.cert.X509Certificate;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Properties;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+import javax.security.auth.callback.CallbackHandler;
+
+import org.apache.wss4j.common.ext.WSSecurityException;
+import org.apache.wss4j.common.util.Loader;
+
+/**
+ * A Merlin implementation that reloads the keystore, truststore and CRL files when they change,
+ * without restarting the JVM. The files that are configured via the "keystore.file",
+ * "truststore.file" and "x509crl.file" properties are watched with a WatchService. When one of
+ * them changes, a new Merlin instance is loaded from the properties on a background thread, its
+ * certificate indexes and trust anchors are built, and it is then published with a single
+ * volatile write. A request therefore always sees a consistent set of stores, and is never
+ * blocked by a reload. If the files cannot be loaded (e.g. as they are still being written),
+ * then the previous stores remain in use.
+ *
+ * Files that are not on the local file system (e.g. files in a jar) are not watched. A reload
+ * can also be triggered explicitly by calling reload(). The files of all instances are watched by a
+ * single daemon thread, which only holds the instances weakly and exits once no files are watched.
+ * An instance stops being watched when it is closed, or once it is no longer referenced.
+ */
+public class ReloadingMerlin extends Merlin implements Closeable {
+
+    /*
+     * The time in milliseconds to wait after a change to a file before reloading, so that
+     * further changes (e.g. to a keystore and a CRL file) are picked up by the same reload
+     */
+    public static final String RELOAD_DELAY = "reload.delay";
+    public static final long DEFAULT_RELOAD_DELAY = 1000L;
+
+    private static final org.slf4j.Logger LOG =
+        org.slf4j.LoggerFactory.getLogger(ReloadingMerlin.class);
+
+    private volatile Merlin current;
+    private ClassLoader loader;
+    private CertPathValidationCache certPathValidationCache;
+    private PrivateKeyCache privateKeyCache;
+    private long reloadDelay = DEFAULT_RELOAD_DELAY;
+    private CryptoFileWatcher.Registration registration;
+    private final Set<Path> watchedFiles = new HashSet<>();
+
+    public ReloadingMerlin(Properties properties, ClassLoader loader)
+        throws WSSecurityException, IOException {
+        this(properties, loader, null);
+    }
+
+    public ReloadingMerlin(Properties properties, ClassLoader loader, PasswordEncryptor passwordEncryptor)
+        throws WSSecurityException, IOException {
+        super();
+        loadProperties(properties, loader, passwordEncryptor);
+    }
+
+    @Override
+    public synchronized void loadProperties(
+        Properties properties,
+        ClassLoader loader,
+        PasswordEncryptor passwordEncryptor
+    ) throws WSSecurityException, IOException {
+        if (properties == null) {
+            return;
+        }
+        this.properties = properties;
+        this.loader = loader;
+        this.passwordEncryptor = passwordEncryptor;
+
+        String delay = getProperty(RELOAD_DELAY);
+        if (delay != null) {
+            try {
+                reloadDelay = Long.parseLong(delay.trim());
+            } catch (NumberFormatException e) {
+                LOG.debug(e.getMessage(), e);
+                throw new WSSecurityException(WSSecurityException.ErrorCode.FAILURE, e, "empty",
+                    new Object[] {"Invalid reload delay: " + delay});
+            }
+        }
+
+        reload();
+        watch();
+    }
+
+    /**
+     * Load the keystore, truststore and CRL files again, and publish them once they are
+     * completely loaded. If they cannot be loaded, then the current stores remain in use.
+     * Reloads are serialized, so that the stores of an earlier reload never replace those of a
+     * later one.
+     * @throws WSSecurityException if the files cannot be loaded
+     */
+    public synchronized void reload() throws WSSecurityException {
+        Merlin crypto;
+        try {
+            crypto = loadCrypto(properties, loader, passwordEncryptor);
+        } catch (IOException e) {
+            throw new WSSecurityException(WSSecurityException.ErrorCode.FAILURE, e, "ioError00");
+        }
+        // Build the lookup indexes and the trust anchors before the instance is published
+        if (crypto.getKeyStore() != null) {
+            crypto.getKeyStoreIndex(crypto.getKeyStore());
+        }
+        if (crypto.getTrustStore() != null) {
+            crypto.getKeyStoreIndex(crypto.getTrustStore());
+        }
+        try {
+            crypto.getPKIXParameters(false);
+        } catch (KeyStoreException | InvalidAlgorithmParameterException e) {
+            // There are no trust anchors, so any certificate path validation will fail anyway
+            LOG.debug(e.getMessage(), e);
+        }
+
+        configure(crypto);
+        current = crypto;
+        LOG.debug("The keystore, truststore and CRL files have been (re)loaded");
+    }
+
+    /**
+     * Create a new (fully loaded) Crypto instance from the given properties. It can be overridden
+     * to use a subclass of Merlin, e.g. MerlinAKI.
+     */
+    protected Merlin loadCrypto(Properties properties, ClassLoader loader, PasswordEncryptor passwordEncryptor)
+        throws WSSecurityException, IOException {
+        return new Merlin(properties, loader, passwordEncryptor);
+    }
+
+    /**
+     * Stop watching the keystore, truststore and CRL files for changes
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        if (registration != null) {
+            CryptoFileWatcher.getInstance().unregister(registration);
+            registration = null;
+        }
+    }
+
+    /**
+     * Apply the settings that were set on this instance to a newly loaded Crypto instance
+     */
+    private void configure(Merlin crypto) {
+        if (super.getCryptoProvider() != null) {
+            crypto.setCryptoProvider(super.getCryptoProvider());
+        }
+        if (super.getTrustProvider() != null) {
+            crypto.setTrustProvider(super.getTrustProvider());
+        }
+        if (certificateFactory != null) {
+            crypto.setCertificateFactory(certificateFactory);
+        }
+        String defaultAlias = getConfiguredDefaultX509Identifier();
+        if (defaultAlias != null) {
+            crypto.setDefaultX509Identifier(defaultAlias);
+        }
+        if (certPathValidationCache != null) {
+            // The results are keyed by the store generation of the Crypto instance that computed them,
+            // so a result that is still being computed against the old trust store is never used by
+            // the new instance. The cache is cleared to release the results of the old instance.
+            certPathValidationCache.clear();
+            crypto.setCertPathValidationCache(certPathValidationCache);
+        }
+        if (privateKeyCache != null) {
+            privateKeyCache.clear();
+            crypto.setPrivateKeyCache(privateKeyCache);
+        }
+    }
+
+    private String getConfiguredDefaultX509Identifier() {
+        try {
+            return super.getDefaultX509Identifier();
+        } catch (WSSecurityException e) {
+            return null;
+        }
+    }
+
+    private String getProperty(String name) {
+        String value = properties.getProperty(PREFIX + name);
+        if (value == null) {
+            value = properties.getProperty(OLD_PREFIX + name);
+        }
+        return value;
+    }
+
+    private void watch() throws IOException {
+        close();
+        watchedFiles.clear();
+
+        String keyStoreLocation = getProperty(KEYSTORE_FILE);
+        if (keyStoreLocation == null) {
+            keyStoreLocation = getProperty(OLD_KEYSTORE_FILE);
+        }
+        addWatchedFile(keyStoreLocation);
+        addWatchedFile(getProperty(TRUSTSTORE_FILE));
+        String crlLocations = getProperty(X509_CRL_FILE);
+        if (crlLocations != null) {
+            for (String crlLocation : crlLocations.split(",")) {
+                addWatchedFile(crlLocation);
+            }
+        }
+        if (watchedFiles.isEmpty()) {
+            return;
+        }
+
+        registration = CryptoFileWatcher.getInstance().register(this, new HashSet<>(watchedFiles), reloadDelay);
+    }
+
+    private void addWatchedFile(String location) {
+        if (location == null || location.trim().length() == 0) {
+            return;
+        }
+        Path file = getPath(location.trim());
+        if (file != null) {
+            watchedFiles.add(file.toAbsolutePath().normalize());
+        } else {
+            LOG.debug("{} is not a file on the local file system, and so will not be reloaded", location);
+        }
+    }
+
+    /**
+     * Resolve the given location to a file, in the same way as Merlin.loadInputStream
+     */
+    private Path getPath(String location) {
+        URL url = null;
+        try {
+            url = new URL(location);
+        } catch (MalformedURLException ex) { //NOPMD
+            // skip
+        }
+        if (url == null) {
+            url = Loader.getResource(loader, location);
+        }
+        if (url != null) {
+            if (!"file".equals(url.getProtocol())) {
+                return null;
+            }
+            try {
+                return Paths.get(url.toURI());
+            } catch (URISyntaxException | IllegalArgumentException e) {
+                LOG.debug(e.getMessage(), e);
+                return null;
+            }
+        }
+
+        Path file = Paths.get(location);
+        return Files.exists(file) ? file : null;
+    }
+
+    //
+    // Delegate to the current (fully loaded) Crypto instance
+    //
+
+    @Override
+    public KeyStore getKeyStore() {
+        return current.getKeyStore();
+    }
+
+    /**
+     * Set the Keystore of the current Crypto instance. It is replaced when the files are reloaded.
+     */
+    @Override
+    public void setKeyStore(KeyStore keyStore) {
+        current.setKeyStore(keyStore);
+    }
+
+    @Override
+    public KeyStore getTrustStore() {
+        return current.getTrustStore();
+    }
+
+    /**
+     * Set the trust store of the current Crypto instance. It is replaced when the files are reloaded.
+     */
+    @Override
+    public void setTrustStore(KeyStore trustStore) {
+        current.setTrustStore(trustStore);
+    }
+
+    @Override
+    public CertStore getCRLCertStore() {
+        return current.getCRLCertStore();
+    }
+
+    /**
+     * Set the CRL CertStore of the current Crypto instance. It is replaced when the files are reloaded.
+     */
+    @Override
+    public void setCRLCertStore(CertStore crlCertStore) {
+        current.setCRLCertStore(crlCertStore);
+    }
+
+    @Override
+    public CRLIndex getCRLIndex() {
+        return current.getCRLIndex();
+    }
+
+    /**
+     * Set the CRL index of the current Crypto instance. It is replaced when the files are reloaded.
+     */
+    @Override
+    public void setCRLIndex(CRLIndex crlIndex) {
+        current.setCRLIndex(crlIndex);
+    }
+
+    @Override
+    public synchronized void setCertPathValidationCache(CertPathValidationCache certPathValidationCache) {
+        this.certPathValidationCache = certPathValidationCache;
+        current.setCertPathValidationCache(certPathValidationCache);
+    }
+
+    @Override
+    public CertPathValidationCache getCertPathValidationCache() {
+        return current.getCertPathValidationCache();
+    }
+
+    @Override
+    public synchronized void setPrivateKeyCache(PrivateKeyCache privateKeyCache) {
+        this.privateKeyCache = privateKeyCache;
+        current.setPrivateKeyCache(privateKeyCache);
+    }
+
+    @Override
+    public PrivateKeyCache getPrivateKeyCache() {
+        return current.getPrivateKeyCache();
+    }
+
+    @Override
+    public String getCryptoProvider() {
+        return current.getCryptoProvider();
+    }
+
+    @Override
+    public synchronized void setCryptoProvider(String provider) {
+        super.setCryptoProvider(provider);
+        current.setCryptoProvider(provider);
+    }
+
+    @Override
+    public String getTrustProvider() {
+        return current.getTrustProvider();
+    }
+
+    @Override
+    public synchronized void setTrustProvider(String provider) {
+        super.setTrustProvider(provider);
+        current.setTrustProvider(provider);
+    }
+
+    @Override
+    public String getDefaultX509Identifier() throws WSSecurityException {
+        return current.getDefaultX509Identifier();
+    }
+
+    @Override
+    public synchronized void setDefaultX509Identifier(String identifier) {
+        super.setDefaultX509Identifier(identifier);
+        if (current != null) {
+            current.setDefaultX509Identifier(identifier);
+        }
+    }
+
+    @Override
+    public CertificateFactory getCertificateFactory() throws WSSecurityException {
+        return current.getCertificateFactory();
+    }
+
+    @Override
+    public synchronized void setCertificateFactory(CertificateFactory certFactory) {
+        super.setCertificateFactory(certFactory);
+        current.setCertificateFactory(certFactory);
+    }
+
+    @Override
+    public synchronized void setPasswordEncryptor(PasswordEncryptor passwordEncryptor) {
+        super.setPasswordEncryptor(passwordEncryptor);
+        current.setPasswordEncryptor(passwordEncryptor);
+    }
+
+    @Override
+    public X509Certificate[] getX509Certificates(CryptoType cryptoType) throws WSSecurityException {
+        return current.getX509Certificates(cryptoType);
+    }
+
+    @Override
+    public String getX509Identifier(X509Certificate cert) throws WSSecurityException {
+        return current.getX509Identifier(cert);
+    }
+
+    @Override
+    public PrivateKey getPrivateKey(X509Certificate certificate, CallbackHandler callbackHandler)
+        throws WSSecurityException {
+        return current.getPrivateKey(certificate, callbackHandler);
+    }
+
+    @Override
+    public PrivateKey getPrivateKey(PublicKey publicKey, CallbackHandler callbackHandler)
+        throws WSSecurityException {
+        return current.getPrivateKey(publicKey, callbackHandler);
+    }
+
+    @Override
+    public PrivateKey getPrivateKey(String identifier, String password) throws WSSecurityException {
+        return current.getPrivateKey(identifier, password);
+    }
+
+    @Override
+    protected void verifyTrust(
+        X509Certificate[] certs,
+        boolean enableRevocation,
+        Collection<Pattern> subjectCertConstraints
+    ) throws WSSecurityException {
+        current.verifyTrust(certs, enableRevocation, subjectCertConstraints);
+    }
+
+    @Override
+    public void verifyTrust(X509Certificate[] certs, boolean enableRevocation,
+                            Collection<Pattern> subjectCertConstraints,
+                            Collection<Pattern> issuerCertConstraints) throws WSSecurityException {
+        current.verifyTrust(certs, enableRevocation, subjectCertConstraints, issuerCertConstraints);
+    }
+
+    @Override
+    public void verifyTrust(PublicKey publicKey) throws WSSecurityException {
+        current.verifyTrust(publicKey);
+    }
+
+    @Override
+    protected PKIXParameters getPKIXParameters(boolean enableRevocation)
+        throws KeyStoreException, InvalidAlgorithmParameterException, WSSecurityException {
+        return current.getPKIXParameters(enableRevocation);
+    }
+
+}
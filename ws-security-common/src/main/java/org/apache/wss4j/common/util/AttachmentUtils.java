@@ -557,41 +557,34 @@ public final class AttachmentUtils {
         final InputStream attachmentInputStream;
 
         if (complete) {
-            try (ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream()) {
-                OutputStreamWriter outputStreamWriter = new OutputStreamWriter(byteArrayOutputStream, StandardCharsets.US_ASCII);
-
-                Iterator<Map.Entry<String, String>> iterator = headers.entrySet().iterator();
-                while (iterator.hasNext()) {
-                    Map.Entry<String, String> next = iterator.next();
-                    String key = next.getKey();
-                    String value = next.getValue();
-                    //5.5.2 Encryption Processing Rules
-                    //When encryption includes MIME headers, only the headers listed in this specification
-                    //for the Attachment-Complete-Signature-Transform (Section 5.3.2) are to be included in
-                    //the encryption. If a header listed in the profile is present it MUST be included in
-                    //the encryption. If a header is not listed in this profile, then it MUST NOT be
-                    //included in the encryption.
-                    if (AttachmentUtils.MIME_HEADER_CONTENT_DESCRIPTION.equals(key)
-                        || AttachmentUtils.MIME_HEADER_CONTENT_DISPOSITION.equals(key)
-                        || AttachmentUtils.MIME_HEADER_CONTENT_ID.equals(key)
-                        || AttachmentUtils.MIME_HEADER_CONTENT_LOCATION.equals(key)
-                        || AttachmentUtils.MIME_HEADER_CONTENT_TYPE.equals(key)) {
-                        iterator.remove();
-                        outputStreamWriter.write(key);
-                        outputStreamWriter.write(':');
-                        outputStreamWriter.write(value);
-                        outputStreamWriter.write("\r\n");
-                    }
+            // The (few) MIME headers to encrypt are prepended to the attachment content, which
+            // is streamed through the Cipher
+            StringBuilder mimeHeaders = new StringBuilder();
+            Iterator<Map.Entry<String, String>> iterator = headers.entrySet().iterator();
+            while (iterator.hasNext()) {
+                Map.Entry<String, String> next = iterator.next();
+                String key = next.getKey();
+                String value = next.getValue();
+                //5.5.2 Encryption Processing Rules
+                //When encryption includes MIME headers, only the headers listed in this specification
+                //for the Attachment-Complete-Signature-Transform (Section 5.3.2) are to be included in
+                //the encryption. If a header listed in the profile is present it MUST be included in
+                //the encryption. If a header is not listed in this profile, then it MUST NOT be
+                //included in the encryption.
+                if (AttachmentUtils.MIME_HEADER_CONTENT_DESCRIPTION.equals(key)
+                    || AttachmentUtils.MIME_HEADER_CONTENT_DISPOSITION.equals(key)
+                    || AttachmentUtils.MIME_HEADER_CONTENT_ID.equals(key)
+                    || AttachmentUtils.MIME_HEADER_CONTENT_LOCATION.equals(key)
+                    || AttachmentUtils.MIME_HEADER_CONTENT_TYPE.equals(key)) {
+                    iterator.remove();
+                    mimeHeaders.append(key).append(':').append(value).append("\r\n");
                 }
-                outputStreamWriter.write("\r\n");
-                outputStreamWriter.close();
-                attachmentInputStream = new MultiInputStream(
-                        new ByteArrayInputStream(byteArrayOutputStream.toByteArray()),
-                        attachment.getSourceStream()
-                );
-            } catch (IOException e) {
-                throw new WSSecurityException(WSSecurityException.ErrorCode.FAILED_ENCRYPTION, e);
             }
+            mimeHeaders.append("\r\n");
+            attachmentInputStream = new MultiInputStream(
+                    new ByteArrayInputStream(mimeHeaders.toString().getBytes(StandardCharsets.US_ASCII)),
+                    attachment.getSourceStream()
+            );
         } else {
             attachmentInputStream = attachment.getSourceStream();
         }
@@ -0,0 +1,167 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.wss4j.common.util;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.SequenceInputStream;
+
+/**
+ * An InputStream that keeps a copy of the bytes that are read from it, so that they can be read
+ * again via getCachedInputStream. Up to the given threshold, the bytes are held in memory. After
+ * that, they are written to a temporary file, which is deleted when the stream is closed.
+ */
+public class CachingInputStream extends FilterInputStream {
+
+    private static final org.slf4j.Logger LOG =
+        org.slf4j.LoggerFactory.getLogger(CachingInputStream.class);
+
+    private final int memoryThreshold;
+    private final File tempDirectory;
+    private ByteArrayOutputStream memoryCache = new ByteArrayOutputStream();
+    private File tempFile;
+    private OutputStream fileCache;
+
+    /**
+     * Create a new CachingInputStream that writes the bytes to a temporary file in the default
+     * temporary-file directory once the memory threshold is exceeded
+     * @param in the InputStream to read from
+     * @param memoryThreshold the maximum number of bytes to hold in memory
+     */
+    public CachingInputStream(InputStream in, int memoryThreshold) {
+        this(in, memoryThreshold, null);
+    }
+
+    /**
+     * Create a new CachingInputStream
+     * @param in the InputStream to read from
+     * @param memoryThreshold the maximum number of bytes to hold in memory
+     * @param tempDirectory the directory in which to create the temporary file, or null to use
+     *        the default temporary-file directory
+     */
+    public CachingInputStream(InputStream in, int memoryThreshold, File tempDirectory) {
+        super(in);
+        this.memoryThreshold = memoryThreshold;
+        this.tempDirectory = tempDirectory;
+    }
+
+    @Override
+    public int read() throws IOException {
+        int b = in.read();
+        if (b != -1) {
+            cache(new byte[] {(byte)b}, 0, 1);
+        }
+        return b;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        int read = in.read(b, off, len);
+        if (read > 0) {
+            cache(b, off, read);
+        }
+        return read;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+        byte[] buf = new byte[(int)Math.min(n, 8192)];
+        long skipped = 0;
+        while (skipped < n) {
+            int read = read(buf, 0, (int)Math.min(n - skipped, buf.length));
+            if (read == -1) {
+                break;
+            }
+            skipped += read;
+        }
+        return skipped;
+    }
+
+    @Override
+    public boolean markSupported() {
+        return false;
+    }
+
+    @Override
+    public synchronized void mark(int readlimit) {
+        // mark is not supported
+    }
+
+    @Override
+    public synchronized void reset() throws IOException {
+        throw new IOException("mark/reset not supported");
+    }
+
+    /**
+     * Get an InputStream of the bytes that have been read so far, followed by the bytes that
+     * have not been read yet. This must be called before this stream is closed.
+     * @return an InputStream of the complete content of the underlying InputStream
+     * @throws IOException
+     */
+    public InputStream getCachedInputStream() throws IOException {
+        InputStream cachedInputStream;
+        if (fileCache != null) {
+            fileCache.flush();
+            cachedInputStream = new FileInputStream(tempFile);
+        } else {
+            cachedInputStream = new ByteArrayInputStream(memoryCache.toByteArray());
+        }
+        return new SequenceInputStream(cachedInputStream, in);
+    }
+
+    /**
+     * Close the underlying InputStream and delete the temporary file, if any
+     */
+    @Override
+    public void close() throws IOException {
+        try {
+            super.close();
+        } finally {
+            if (fileCache != null) {
+                fileCache.close();
+                if (!tempFile.delete()) {
+                    LOG.debug("Could not delete the temporary file {}", tempFile);
+                }
+            }
+        }
+    }
+
+    private void cache(byte[] b, int off, int len) throws IOException {
+        if (fileCache != null) {
+            fileCache.write(b, off, len);
+        } else if (memoryCache.size() + len > memoryThreshold) {
+            tempFile = File.createTempFile("wss4j", ".tmp", tempDirectory);
+            fileCache = new BufferedOutputStream(new FileOutputStream(tempFile));
+            memoryCache.writeTo(fileCache);
+            memoryCache = new ByteArrayOutputStream(0);
+            fileCache.write(b, off, len);
+        } else {
+            memoryCache.write(b, off, len);
+        }
+    }
+}
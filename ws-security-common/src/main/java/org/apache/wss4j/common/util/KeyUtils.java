@@ -29,9 +29,14 @@ import javax.crypto.KeyGenerator;
 import javax.crypto.NoSuchPaddingException;
 import javax.crypto.SecretKey;
 import javax.crypto.spec.SecretKeySpec;
+import java.security.Key;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.security.NoSuchProviderException;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
 
 public final class KeyUtils {
     private static final org.slf4j.Logger LOG =
@@ -44,6 +49,18 @@ public final class KeyUtils {
      */
     private static MessageDigest digest;
 
+    /**
+     * The maximum number of Cipher objects that are pooled for each algorithm, provider and key class
+     */
+    private static final int MAX_POOLED_CIPHERS = 32;
+
+    /**
+     * The Cipher objects that are not in use, keyed by the algorithm URI, the provider and the class
+     * of the key. The pool is held by this class, not by the threads that use it, so it does not keep
+     * the class loader alive once the application is undeployed.
+     */
+    private static final Map<String, Queue<Cipher>> CIPHER_POOL = new ConcurrentHashMap<>();
+
     private KeyUtils() {
         // complete
     }
@@ -200,6 +217,50 @@ public final class KeyUtils {
         }
     }
 
+    /**
+     * Return a javax.crypto.Cipher instance for the "cipherAlgo" URI and the given provider, in
+     * the same way as getCipherInstance, but taken from a pool if one is available, so that the
+     * provider lookup is not done again for each operation.
+     *
+     * The returned Cipher must be initialized with the given key before it is used, which resets
+     * any state that was left by its previous use. It should be returned to the pool with
+     * repoolCipherInstance once the operation has completed, and must not be used afterwards, i.e.
+     * it must not back a stream that is read after it has been returned to the pool.
+     * If no provider is configured, then the JCE selects the provider when the Cipher is first
+     * initialized, based on the key. The class of the key is therefore part of the pool key, so
+     * that e.g. a key held in a hardware token does not get a Cipher of a software provider.
+     *
+     * @param cipherAlgo The cipher in it's WSS URI form, ref. https://www.w3.org/TR/xmlenc-core1/#sec-Algorithms
+     * @param provider   The provider which shall instantiate the cipher (can be null).
+     * @param key        The key with which the cipher will be initialized.
+     */
+    public static Cipher getPooledCipherInstance(String cipherAlgo, String provider, Key key)
+            throws WSSecurityException {
+        Queue<Cipher> ciphers = CIPHER_POOL.get(getCipherPoolKey(cipherAlgo, provider, key));
+        Cipher cipher = ciphers == null ? null : ciphers.poll();
+        if (cipher == null) {
+            cipher = getCipherInstance(cipherAlgo, provider);
+        }
+        return cipher;
+    }
+
+    /**
+     * Return a Cipher that was obtained via getPooledCipherInstance with the same arguments to the
+     * pool. It is discarded if the pool is full.
+     */
+    public static void repoolCipherInstance(String cipherAlgo, String provider, Key key, Cipher cipher) {
+        if (cipher != null) {
+            CIPHER_POOL.computeIfAbsent(
+                getCipherPoolKey(cipherAlgo, provider, key), k -> new ArrayBlockingQueue<>(MAX_POOLED_CIPHERS)
+            ).offer(cipher);
+        }
+    }
+
+    private static String getCipherPoolKey(String cipherAlgo, String provider, Key key) {
+        String providerId = provider == null ? JCEMapper.getProviderId() : provider;
+        return cipherAlgo + "|" + providerId + "|" + (key == null ? null : key.getClass().getName());
+    }
+
     /**
      * Generate a (SHA1) digest of the input bytes. The MessageDigest instance that backs this
      * method is cached for efficiency.
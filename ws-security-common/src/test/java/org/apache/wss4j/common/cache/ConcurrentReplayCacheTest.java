@@ -0,0 +1,112 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.wss4j.common.cache;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Some tests for the ConcurrentReplayCache.
+ */
+public class ConcurrentReplayCacheTest extends Assert {
+
+    @Test
+    public void testAddAndContains() throws Exception {
+        ReplayCache replayCache = new ConcurrentReplayCacheFactory().newReplayCache("xyz", null);
+
+        String id = UUID.randomUUID().toString();
+        assertFalse(replayCache.contains(id));
+        replayCache.add(id);
+        assertTrue(replayCache.contains(id));
+
+        replayCache.add(null);
+        replayCache.add("");
+        assertFalse(replayCache.contains(null));
+        assertFalse(replayCache.contains(""));
+
+        replayCache.close();
+        assertFalse(replayCache.contains(id));
+    }
+
+    @Test
+    public void testExpiry() throws Exception {
+        ConcurrentReplayCache replayCache = new ConcurrentReplayCache(1);
+
+        String id = UUID.randomUUID().toString();
+        replayCache.add(id, 1L);
+        replayCache.add("long-lived", 100L);
+        assertTrue(replayCache.contains(id));
+        assertEquals(2, replayCache.size());
+
+        Thread.sleep(2500L);
+        assertFalse(replayCache.contains(id));
+        assertTrue(replayCache.contains("long-lived"));
+        // The expired identifier should have been evicted
+        assertEquals(1, replayCache.size());
+
+        replayCache.close();
+    }
+
+    @Test
+    public void testConcurrentAccess() throws Exception {
+        final ConcurrentReplayCache replayCache = new ConcurrentReplayCache();
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<Boolean>> futures = new ArrayList<>();
+            for (int i = 0; i < 8; i++) {
+                final int thread = i;
+                Callable<Boolean> task = new Callable<Boolean>() {
+                    public Boolean call() {
+                        for (int j = 0; j < 1000; j++) {
+                            String id = thread + "-" + j;
+                            if (replayCache.contains(id)) {
+                                return false;
+                            }
+                            replayCache.add(id);
+                            if (!replayCache.contains(id)) {
+                                return false;
+                            }
+                        }
+                        return true;
+                    }
+                };
+                futures.add(executor.submit(task));
+            }
+            for (Future<Boolean> future : futures) {
+                assertTrue(future.get());
+            }
+        } finally {
+            executor.shutdown();
+        }
+        assertEquals(8000, replayCache.size());
+
+        replayCache.close();
+        assertEquals(0, replayCache.size());
+    }
+
+}
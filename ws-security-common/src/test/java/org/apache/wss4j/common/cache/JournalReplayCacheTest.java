@@ -0,0 +1,144 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.wss4j.common.cache;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Some tests for the JournalReplayCache.
+ */
+public class JournalReplayCacheTest extends Assert {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testRestoreAfterRestart() throws Exception {
+        File directory = folder.newFolder();
+
+        JournalReplayCache replayCache = new JournalReplayCache(directory);
+        replayCache.add("nonce-1");
+        assertTrue(replayCache.putIfAbsent("nonce-2", 100L));
+        replayCache.add("short-lived", 1L);
+        replayCache.close();
+
+        Thread.sleep(1500L);
+
+        replayCache = new JournalReplayCache(directory);
+        assertTrue(replayCache.contains("nonce-1"));
+        assertTrue(replayCache.contains("nonce-2"));
+        assertFalse(replayCache.putIfAbsent("nonce-2", 100L));
+        assertFalse(replayCache.contains("short-lived"));
+        assertFalse(replayCache.contains("nonce-3"));
+        replayCache.close();
+    }
+
+    @Test
+    public void testSegmentRollover() throws Exception {
+        File directory = folder.newFolder();
+
+        // Use small segments so that the journal is spread over a number of them
+        JournalReplayCache replayCache = new JournalReplayCache(directory, 1024);
+        for (int i = 0; i < 200; i++) {
+            replayCache.add("identifier-" + i, 100L);
+        }
+        replayCache.close();
+        assertTrue(segmentCount(directory) > 1);
+
+        replayCache = new JournalReplayCache(directory, 1024);
+        for (int i = 0; i < 200; i++) {
+            assertTrue(replayCache.contains("identifier-" + i));
+        }
+        replayCache.close();
+    }
+
+    @Test
+    public void testExpiredSegmentsAreDeleted() throws Exception {
+        File directory = folder.newFolder();
+
+        JournalReplayCache replayCache = new JournalReplayCache(directory);
+        replayCache.add("short-lived", 1L);
+        replayCache.close();
+        assertEquals(1, segmentCount(directory));
+
+        Thread.sleep(1500L);
+
+        replayCache = new JournalReplayCache(directory);
+        assertFalse(replayCache.contains("short-lived"));
+        // Only the new (empty) segment should remain
+        assertEquals(1, segmentCount(directory));
+        replayCache.close();
+    }
+
+    @Test
+    public void testTailSegmentIsReused() throws Exception {
+        File directory = folder.newFolder();
+
+        for (int i = 0; i < 5; i++) {
+            JournalReplayCache replayCache = new JournalReplayCache(directory);
+            for (int j = 0; j < i; j++) {
+                assertTrue(replayCache.contains("identifier-" + j));
+            }
+            replayCache.add("identifier-" + i, 100L);
+            replayCache.close();
+        }
+        assertEquals(1, segmentCount(directory));
+    }
+
+    @Test
+    public void testDirectoryLock() throws Exception {
+        File directory = folder.newFolder();
+
+        JournalReplayCache replayCache = new JournalReplayCache(directory);
+        try {
+            new JournalReplayCache(directory);
+            fail("The directory should be locked");
+        } catch (IOException ex) {
+            assertTrue(ex.getMessage().contains("in use"));
+        }
+        replayCache.close();
+
+        // The lock is released when the cache is closed
+        replayCache = new JournalReplayCache(directory);
+        replayCache.close();
+    }
+
+    @Test
+    public void testFactory() throws Exception {
+        File directory = folder.newFolder();
+
+        ReplayCache replayCache =
+            new JournalReplayCacheFactory().newReplayCache("{http://ws.apache.org}cache", directory);
+        replayCache.add("nonce");
+        replayCache.close();
+        assertTrue(new File(directory, "_http___ws.apache.org_cache").isDirectory());
+    }
+
+    private static int segmentCount(File directory) {
+        return directory.list((dir, name) -> name.endsWith(".journal")).length;
+    }
+
+}
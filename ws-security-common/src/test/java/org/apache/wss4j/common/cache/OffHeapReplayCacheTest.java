@@ -0,0 +1,178 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.wss4j.common.cache;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Some tests for the OffHeapReplayCache.
+ */
+public class OffHeapReplayCacheTest extends Assert {
+
+    @Test
+    public void testAddAndContains() throws Exception {
+        assertEquals(1024, new OffHeapReplayCache(1000).getMaxEntries());
+
+        // Leave plenty of headroom so that no identifier is evicted, whatever the hash seed
+        OffHeapReplayCache replayCache = new OffHeapReplayCache(1 << 14);
+
+        for (int i = 0; i < 500; i++) {
+            replayCache.add("identifier-" + i);
+        }
+        for (int i = 0; i < 500; i++) {
+            assertTrue(replayCache.contains("identifier-" + i));
+            assertFalse(replayCache.contains("other-identifier-" + i));
+        }
+        assertFalse(replayCache.contains("identifier-"));
+
+        replayCache.close();
+        assertFalse(replayCache.contains("identifier-1"));
+    }
+
+    @Test
+    public void testExpiry() throws Exception {
+        OffHeapReplayCache replayCache = new OffHeapReplayCache(100);
+        replayCache.add("short-lived", 1L);
+        replayCache.add("long-lived", 100L);
+        assertTrue(replayCache.contains("short-lived"));
+
+        Thread.sleep(1500L);
+        assertFalse(replayCache.contains("short-lived"));
+        assertTrue(replayCache.contains("long-lived"));
+        replayCache.close();
+    }
+
+    @Test
+    public void testSizeBound() throws Exception {
+        OffHeapReplayCache replayCache = new OffHeapReplayCache(256);
+        int maxEntries = replayCache.getMaxEntries();
+
+        // Add many more identifiers than the cache can hold
+        int added = 0;
+        int rejected = 0;
+        for (int i = 0; i < maxEntries * 10; i++) {
+            try {
+                assertTrue(replayCache.putIfAbsent("identifier-" + i, 1000L));
+                added++;
+            } catch (ReplayCacheFullException ex) {
+                rejected++;
+            }
+        }
+        // Every segment is filled up to the one slot that is kept empty
+        assertEquals(maxEntries - 16, added);
+        assertEquals(rejected, replayCache.getRejectedCount());
+
+        // A live identifier is never pushed out of the cache by the identifiers that are added later
+        int count = 0;
+        for (int i = 0; i < maxEntries * 10; i++) {
+            if (replayCache.contains("identifier-" + i)) {
+                count++;
+            }
+        }
+        assertEquals(added, count);
+        assertTrue(replayCache.contains("identifier-0"));
+        // A replay is still reported as such when the cache is full
+        assertFalse(replayCache.putIfAbsent("identifier-0", 1000L));
+        replayCache.close();
+    }
+
+    @Test
+    public void testBucketExpiry() throws Exception {
+        OffHeapReplayCache replayCache = new OffHeapReplayCache(1024);
+        long now = System.currentTimeMillis();
+        for (int i = 0; i < 500; i++) {
+            assertTrue(replayCache.putIfAbsent("identifier-" + i, 1L, now));
+        }
+        assertEquals(500, replayCache.size());
+
+        // The expired entries are removed from every segment that is accessed once their bucket is over
+        for (int i = 0; i < 500; i++) {
+            assertFalse(replayCache.contains("identifier-" + i, now + 21000L));
+        }
+        assertEquals(0, replayCache.size());
+
+        // So the cache can be filled up again without waiting for an identifier to be added
+        for (int i = 0; i < 500; i++) {
+            assertTrue(replayCache.putIfAbsent("other-identifier-" + i, 1L, now + 21000L));
+        }
+        assertEquals(500, replayCache.size());
+        replayCache.close();
+    }
+
+    @Test
+    public void testRemovalKeepsLiveEntries() throws Exception {
+        OffHeapReplayCache replayCache = new OffHeapReplayCache(256);
+        int maxEntries = replayCache.getMaxEntries();
+        long now = System.currentTimeMillis();
+
+        // Fill the cache with short and long lived entries, so that their probe sequences overlap
+        int longLived = 0;
+        for (int i = 0; i < maxEntries - 16; i++) {
+            try {
+                replayCache.putIfAbsent("identifier-" + i, i % 3 == 0 ? 1000L : 1L, now);
+                if (i % 3 == 0) {
+                    longLived++;
+                }
+            } catch (ReplayCacheFullException ex) {
+                // The segment of the identifier is full
+                assertTrue(replayCache.getRejectedCount() > 0);
+            }
+        }
+
+        // Remove the short lived entries, the long lived ones must all still be found
+        int count = 0;
+        for (int i = 0; i < maxEntries - 16; i++) {
+            if (replayCache.contains("identifier-" + i, now + 21000L)) {
+                assertEquals(0, i % 3);
+                count++;
+            }
+        }
+        assertEquals(longLived, count);
+        assertEquals(longLived, replayCache.size());
+        replayCache.close();
+    }
+
+    @Test
+    public void testFullIsNotReplay() throws Exception {
+        OffHeapReplayCache replayCache = new OffHeapReplayCache(16);
+        long now = System.currentTimeMillis();
+        int added = 0;
+        try {
+            for (int i = 0; i < 1000; i++) {
+                assertTrue(replayCache.putIfAbsent("identifier-" + i, 1L, now));
+                added++;
+            }
+            fail("Failure expected on a full cache");
+        } catch (ReplayCacheFullException ex) {
+            assertEquals(1, replayCache.getRejectedCount());
+        }
+
+        // The expired entries of a full segment are removed as soon as they have expired
+        assertTrue(replayCache.putIfAbsent("identifier-" + added, 1L, now + 1000L));
+        replayCache.close();
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testMaxEntries() throws Exception {
+        new OffHeapReplayCache(OffHeapReplayCache.MAX_ENTRIES + 1);
+    }
+
+}
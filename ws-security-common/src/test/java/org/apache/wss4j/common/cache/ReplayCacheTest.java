@@ -0,0 +1,79 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.wss4j.common.cache;
+
+import java.util.UUID;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Some tests for the atomic putIfAbsent operation of the ReplayCache implementations.
+ */
+public class ReplayCacheTest extends Assert {
+
+    @Test
+    public void testMemoryReplayCache() throws Exception {
+        try (ReplayCache replayCache = new MemoryReplayCache()) {
+            testPutIfAbsent(replayCache);
+        }
+    }
+
+    @Test
+    public void testEHCacheReplayCache() throws Exception {
+        try (ReplayCache replayCache = new EHCacheReplayCacheFactory().newReplayCache("putIfAbsent", null)) {
+            testPutIfAbsent(replayCache);
+        }
+    }
+
+    @Test
+    public void testConcurrentReplayCache() throws Exception {
+        try (ReplayCache replayCache = new ConcurrentReplayCache()) {
+            testPutIfAbsent(replayCache);
+        }
+    }
+
+    @Test
+    public void testOffHeapReplayCache() throws Exception {
+        try (ReplayCache replayCache = new OffHeapReplayCacheFactory().newReplayCache("xyz", 1000)) {
+            testPutIfAbsent(replayCache);
+        }
+    }
+
+    private void testPutIfAbsent(ReplayCache replayCache) throws Exception {
+        String id = UUID.randomUUID().toString();
+        assertTrue(replayCache.putIfAbsent(id));
+        assertTrue(replayCache.contains(id));
+        assertFalse(replayCache.putIfAbsent(id));
+        assertFalse(replayCache.putIfAbsent(id, 60L));
+
+        String id2 = UUID.randomUUID().toString();
+        replayCache.add(id2);
+        assertFalse(replayCache.putIfAbsent(id2, 60L));
+
+        String id3 = UUID.randomUUID().toString();
+        assertTrue(replayCache.putIfAbsent(id3, 1L));
+        assertFalse(replayCache.putIfAbsent(id3, 1L));
+        Thread.sleep(2500L);
+        assertFalse(replayCache.contains(id3));
+        assertTrue(replayCache.putIfAbsent(id3, 60L));
+    }
+
+}
@@ -0,0 +1,207 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.wss4j.common.crypto;
+
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.KeyStore;
+import java.security.PrivateKey;
+import java.security.PublicKey;
+import java.security.cert.X509CRL;
+import java.security.cert.X509Certificate;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+
+import org.apache.wss4j.common.ext.WSSecurityException;
+import org.bouncycastle.asn1.x500.X500Name;
+import org.bouncycastle.asn1.x509.BasicConstraints;
+import org.bouncycastle.asn1.x509.CRLReason;
+import org.bouncycastle.asn1.x509.Extension;
+import org.bouncycastle.cert.X509v2CRLBuilder;
+import org.bouncycastle.cert.jcajce.JcaX509CRLConverter;
+import org.bouncycastle.cert.jcajce.JcaX509CertificateConverter;
+import org.bouncycastle.cert.jcajce.JcaX509v3CertificateBuilder;
+import org.bouncycastle.operator.jcajce.JcaContentSignerBuilder;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * Some tests for revocation checking against a CRLIndex in Merlin.
+ */
+public class CRLIndexTest extends org.junit.Assert {
+
+    private static KeyPair caKeyPair;
+    private static X509Certificate caCert;
+    private static X509Certificate cert;
+    private static X509Certificate revokedCert;
+
+    @BeforeClass
+    public static void createCertificates() throws Exception {
+        KeyPairGenerator keyPairGenerator = KeyPairGenerator.getInstance("RSA");
+        keyPairGenerator.initialize(2048);
+        caKeyPair = keyPairGenerator.generateKeyPair();
+        caCert = createCertificate(
+            "CN=CA", BigInteger.ONE, caKeyPair.getPublic(), caKeyPair.getPrivate(), true
+        );
+        cert = createCertificate(
+            "CN=Client", BigInteger.valueOf(2), keyPairGenerator.generateKeyPair().getPublic(),
+            caKeyPair.getPrivate(), false
+        );
+        revokedCert = createCertificate(
+            "CN=Revoked", BigInteger.valueOf(3), keyPairGenerator.generateKeyPair().getPublic(),
+            caKeyPair.getPrivate(), false
+        );
+    }
+
+    @Test
+    public void testIndex() throws Exception {
+        CRLIndex crlIndex = new CRLIndex();
+        assertEquals(0, crlIndex.getGeneration());
+        assertNull(crlIndex.getRevokedCertificate(revokedCert));
+
+        X509CRL crl = createCRL(caKeyPair.getPrivate(), new Date(), BigInteger.valueOf(3), BigInteger.valueOf(4));
+        crlIndex.setCRLs(Collections.singletonList(crl));
+        assertEquals(1, crlIndex.getGeneration());
+        assertEquals(crl, crlIndex.getCRL(caCert.getSubjectX500Principal()));
+        assertNotNull(crlIndex.getRevokedCertificate(revokedCert));
+        assertNull(crlIndex.getRevokedCertificate(cert));
+
+        // A newer CRL of the same issuer replaces the older one, but not the other way round
+        X509CRL newerCRL = createCRL(caKeyPair.getPrivate(), new Date(System.currentTimeMillis() + 1000L));
+        crlIndex.addCRL(newerCRL);
+        crlIndex.addCRL(crl);
+        assertEquals(3, crlIndex.getGeneration());
+        assertEquals(Collections.singletonList(newerCRL), crlIndex.getCRLs());
+        assertNull(crlIndex.getRevokedCertificate(revokedCert));
+    }
+
+    @Test
+    public void testRevocation() throws Exception {
+        Merlin crypto = createCrypto();
+        CRLIndex crlIndex = new CRLIndex(Collections.singletonList(
+            createCRL(caKeyPair.getPrivate(), new Date(), BigInteger.valueOf(3))
+        ));
+        crypto.setCRLIndex(crlIndex);
+
+        crypto.verifyTrust(new X509Certificate[] {cert}, true, null, null);
+        assertRevocationFailure(crypto, revokedCert);
+
+        // Revocation is only checked if it is enabled
+        crypto.verifyTrust(new X509Certificate[] {revokedCert}, false, null, null);
+
+        // The CRLs of the index can be replaced
+        crlIndex.setCRLs(Collections.singletonList(createCRL(caKeyPair.getPrivate(), new Date())));
+        crypto.verifyTrust(new X509Certificate[] {revokedCert}, true, null, null);
+    }
+
+    @Test
+    public void testMissingOrInvalidCRL() throws Exception {
+        Merlin crypto = createCrypto();
+        CRLIndex crlIndex = new CRLIndex();
+        crypto.setCRLIndex(crlIndex);
+
+        // No CRL for the issuer
+        assertRevocationFailure(crypto, cert);
+
+        // A CRL that is not signed by the issuer
+        KeyPair otherKeyPair = KeyPairGenerator.getInstance("RSA").generateKeyPair();
+        crlIndex.setCRLs(Collections.singletonList(createCRL(otherKeyPair.getPrivate(), new Date())));
+        assertRevocationFailure(crypto, cert);
+    }
+
+    @Test
+    public void testCachedValidation() throws Exception {
+        Merlin crypto = createCrypto();
+        Date lastUpdate = new Date(System.currentTimeMillis() - 10000L);
+        CRLIndex crlIndex = new CRLIndex(Collections.singletonList(createCRL(caKeyPair.getPrivate(), lastUpdate)));
+        crypto.setCRLIndex(crlIndex);
+        CertPathValidationCache cache = new CertPathValidationCache();
+        crypto.setCertPathValidationCache(cache);
+
+        crypto.verifyTrust(new X509Certificate[] {revokedCert}, true, null, null);
+        crypto.verifyTrust(new X509Certificate[] {revokedCert}, true, null, null);
+        assertEquals(1, cache.getHitCount());
+
+        // A cached result is not used once the CRLs have changed
+        crlIndex.addCRL(createCRL(caKeyPair.getPrivate(), new Date(), BigInteger.valueOf(3)));
+        assertRevocationFailure(crypto, revokedCert);
+        assertEquals(1, cache.getHitCount());
+    }
+
+    @Test
+    public void testCacheKeys() throws Exception {
+        CertPathValidationCache cache = new CertPathValidationCache();
+        X509Certificate[] certs = new X509Certificate[] {cert};
+        ByteBuffer key = cache.createKey(certs, true, null, 0L, 0L);
+        assertEquals(key, cache.createKey(certs, true, null, 0L, 0L));
+        assertNotEquals(key, cache.createKey(certs, true, null, 1L, 0L));
+    }
+
+    private static void assertRevocationFailure(Merlin crypto, X509Certificate certificate) {
+        try {
+            crypto.verifyTrust(new X509Certificate[] {certificate}, true, null, null);
+            fail("Failure expected on a revocation check");
+        } catch (WSSecurityException ex) {
+            assertEquals(WSSecurityException.ErrorCode.FAILURE, ex.getErrorCode());
+        }
+    }
+
+    private static Merlin createCrypto() throws Exception {
+        KeyStore keyStore = KeyStore.getInstance(KeyStore.getDefaultType());
+        keyStore.load(null, null);
+        keyStore.setCertificateEntry("ca", caCert);
+        Merlin crypto = new Merlin();
+        crypto.setKeyStore(keyStore);
+        return crypto;
+    }
+
+    private static X509CRL createCRL(
+        PrivateKey issuerKey, Date thisUpdate, BigInteger... revokedSerialNumbers
+    ) throws Exception {
+        X509v2CRLBuilder builder = new X509v2CRLBuilder(new X500Name("CN=CA"), thisUpdate);
+        builder.setNextUpdate(new Date(thisUpdate.getTime() + 3600000L));
+        for (BigInteger serialNumber : Arrays.asList(revokedSerialNumbers)) {
+            builder.addCRLEntry(serialNumber, thisUpdate, CRLReason.keyCompromise);
+        }
+        return new JcaX509CRLConverter().getCRL(
+            builder.build(new JcaContentSignerBuilder("SHA256withRSA").build(issuerKey))
+        );
+    }
+
+    private static X509Certificate createCertificate(
+        String subject, BigInteger serialNumber, PublicKey publicKey, PrivateKey issuerKey, boolean ca
+    ) throws Exception {
+        long now = System.currentTimeMillis();
+        JcaX509v3CertificateBuilder builder = new JcaX509v3CertificateBuilder(
+            new X500Name("CN=CA"), serialNumber, new Date(now - 60000L),
+            new Date(now + 3600000L), new X500Name(subject), publicKey
+        );
+        if (ca) {
+            builder.addExtension(Extension.basicConstraints, true, new BasicConstraints(true));
+        }
+        return new JcaX509CertificateConverter().getCertificate(
+            builder.build(new JcaContentSignerBuilder("SHA256withRSA").build(issuerKey))
+        );
+    }
+
+}
@@ -0,0 +1,216 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.wss4j.common.crypto;
+
+import java.io.InputStream;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.KeyStore;
+import java.security.PrivateKey;
+import java.security.PublicKey;
+import java.security.cert.X509Certificate;
+import java.util.Collections;
+import java.util.Date;
+import java.util.regex.Pattern;
+
+import org.apache.wss4j.common.ext.WSSecurityException;
+import org.apache.wss4j.common.util.Loader;
+import org.bouncycastle.asn1.x500.X500Name;
+import org.bouncycastle.asn1.x509.BasicConstraints;
+import org.bouncycastle.asn1.x509.Extension;
+import org.bouncycastle.cert.jcajce.JcaX509CertificateConverter;
+import org.bouncycastle.cert.jcajce.JcaX509v3CertificateBuilder;
+import org.bouncycastle.operator.jcajce.JcaContentSignerBuilder;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * Some tests for caching certificate path validation results in Merlin.
+ */
+public class CertPathValidationCacheTest extends org.junit.Assert {
+
+    private static X509Certificate caCert;
+    private static X509Certificate cert;
+    private static X509Certificate untrustedCert;
+
+    @BeforeClass
+    public static void createCertificates() throws Exception {
+        KeyPairGenerator keyPairGenerator = KeyPairGenerator.getInstance("RSA");
+        keyPairGenerator.initialize(2048);
+        KeyPair caKeyPair = keyPairGenerator.generateKeyPair();
+        caCert = createCertificate("CN=CA", caKeyPair.getPublic(), "CN=CA", caKeyPair.getPrivate(), true);
+        cert = createCertificate(
+            "CN=Client", keyPairGenerator.generateKeyPair().getPublic(), "CN=CA", caKeyPair.getPrivate(), false
+        );
+
+        KeyPair otherCaKeyPair = keyPairGenerator.generateKeyPair();
+        untrustedCert = createCertificate(
+            "CN=Other", keyPairGenerator.generateKeyPair().getPublic(), "CN=CA", otherCaKeyPair.getPrivate(), false
+        );
+    }
+
+    @Test
+    public void testCachedValidation() throws Exception {
+        Merlin crypto = createCrypto();
+        CertPathValidationCache cache = new CertPathValidationCache(10, 300L);
+        crypto.setCertPathValidationCache(cache);
+
+        crypto.verifyTrust(new X509Certificate[] {cert}, false, null, null);
+        assertEquals(0, cache.getHitCount());
+        assertEquals(1, cache.getMissCount());
+        assertEquals(1, cache.size());
+
+        crypto.verifyTrust(new X509Certificate[] {cert}, false, null, null);
+        assertEquals(1, cache.getHitCount());
+        assertEquals(1, cache.getMissCount());
+
+        // A different set of constraints is not a cache hit
+        crypto.verifyTrust(
+            new X509Certificate[] {cert}, false, Collections.singletonList(Pattern.compile("CN=Client")), null
+        );
+        assertEquals(1, cache.getHitCount());
+        assertEquals(2, cache.getMissCount());
+        assertEquals(2, cache.size());
+
+        // Failed validations are not cached
+        try {
+            crypto.verifyTrust(
+                new X509Certificate[] {cert}, false, Collections.singletonList(Pattern.compile("CN=Other")), null
+            );
+            fail("Failure expected on a Subject DN constraint mismatch");
+        } catch (WSSecurityException ex) {
+            assertEquals(WSSecurityException.ErrorCode.FAILED_AUTHENTICATION, ex.getErrorCode());
+        }
+        try {
+            crypto.verifyTrust(new X509Certificate[] {untrustedCert}, false, null, null);
+            fail("Failure expected on an untrusted certificate");
+        } catch (WSSecurityException ex) {
+            assertEquals(WSSecurityException.ErrorCode.FAILURE, ex.getErrorCode());
+        }
+        assertEquals(2, cache.size());
+
+        // Replacing the keystore clears the cache
+        crypto.setKeyStore(createKeyStore());
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void testCachedValidationMerlinAKI() throws Exception {
+        Merlin crypto = new MerlinAKI();
+        crypto.setKeyStore(createKeyStore());
+        CertPathValidationCache cache = new CertPathValidationCache();
+        crypto.setCertPathValidationCache(cache);
+
+        crypto.verifyTrust(new X509Certificate[] {cert, caCert}, false, null, null);
+        crypto.verifyTrust(new X509Certificate[] {cert, caCert}, false, null, null);
+        assertEquals(1, cache.getHitCount());
+        assertEquals(1, cache.getMissCount());
+    }
+
+    @Test
+    public void testSharedCache() throws Exception {
+        Merlin crypto = createCrypto();
+        CertPathValidationCache cache = new CertPathValidationCache();
+        crypto.setCertPathValidationCache(cache);
+        crypto.verifyTrust(new X509Certificate[] {cert}, false, null, null);
+        assertEquals(1, cache.size());
+
+        // A result that was validated against the trust store of one Crypto instance is not used by another
+        Merlin otherCrypto = new Merlin();
+        KeyStore otherKeyStore = KeyStore.getInstance(KeyStore.getDefaultType());
+        otherKeyStore.load(null, null);
+        otherKeyStore.setCertificateEntry("other", untrustedCert);
+        otherCrypto.setKeyStore(otherKeyStore);
+        otherCrypto.setCertPathValidationCache(cache);
+        try {
+            otherCrypto.verifyTrust(new X509Certificate[] {cert}, false, null, null);
+            fail("Failure expected on a certificate that is only trusted by another Crypto instance");
+        } catch (WSSecurityException ex) {
+            assertEquals(WSSecurityException.ErrorCode.FAILURE, ex.getErrorCode());
+        }
+        assertEquals(0, cache.getHitCount());
+    }
+
+    @Test
+    public void testKeys() throws Exception {
+        CertPathValidationCache cache = new CertPathValidationCache();
+        ByteBuffer key = cache.createKey(new X509Certificate[] {cert}, false, null, 0L, 0L);
+        assertEquals(key, cache.createKey(new X509Certificate[] {cert}, false, null, 0L, 0L));
+        assertNotEquals(key, cache.createKey(new X509Certificate[] {cert}, true, null, 0L, 0L));
+        assertNotEquals(key, cache.createKey(new X509Certificate[] {cert, caCert}, false, null, 0L, 0L));
+        assertNotEquals(
+            key, cache.createKey(new X509Certificate[] {cert}, false, Collections.singletonList(Pattern.compile(".*")), 0L, 0L)
+        );
+        assertNotEquals(key, cache.createKey(new X509Certificate[] {cert}, false, null, 0L, 1L));
+    }
+
+    @Test
+    public void testExpiredCertificate() throws Exception {
+        KeyStore keyStore = KeyStore.getInstance(KeyStore.getDefaultType());
+        try (InputStream input =
+            Merlin.loadInputStream(Loader.getClassLoader(CertPathValidationCacheTest.class), "keys/wss40exp.jks")) {
+            keyStore.load(input, "security".toCharArray());
+        }
+        X509Certificate expiredCert = (X509Certificate)keyStore.getCertificate("wss40exp");
+
+        // A validation result is never cached for longer than the validity period of the certificates
+        CertPathValidationCache cache = new CertPathValidationCache();
+        ByteBuffer key = cache.createKey(new X509Certificate[] {expiredCert}, false, null, 0L, 0L);
+        cache.putValid(key, new X509Certificate[] {expiredCert}, null);
+        assertFalse(cache.isValid(key));
+        assertEquals(0, cache.size());
+
+        key = cache.createKey(new X509Certificate[] {cert}, false, null, 0L, 0L);
+        cache.putValid(key, new X509Certificate[] {cert, caCert}, null);
+        assertTrue(cache.isValid(key));
+    }
+
+    private static Merlin createCrypto() throws Exception {
+        Merlin crypto = new Merlin();
+        crypto.setKeyStore(createKeyStore());
+        return crypto;
+    }
+
+    private static KeyStore createKeyStore() throws Exception {
+        KeyStore keyStore = KeyStore.getInstance(KeyStore.getDefaultType());
+        keyStore.load(null, null);
+        keyStore.setCertificateEntry("ca", caCert);
+        return keyStore;
+    }
+
+    private static X509Certificate createCertificate(
+        String subject, PublicKey publicKey, String issuer, PrivateKey issuerKey, boolean ca
+    ) throws Exception {
+        long now = System.currentTimeMillis();
+        JcaX509v3CertificateBuilder builder = new JcaX509v3CertificateBuilder(
+            new X500Name(issuer), BigInteger.valueOf(now), new Date(now - 60000L),
+            new Date(now + 3600000L), new X500Name(subject), publicKey
+        );
+        if (ca) {
+            builder.addExtension(Extension.basicConstraints, true, new BasicConstraints(true));
+        }
+        return new JcaX509CertificateConverter().getCertificate(
+            builder.build(new JcaContentSignerBuilder("SHA256withRSA").build(issuerKey))
+        );
+    }
+
+}
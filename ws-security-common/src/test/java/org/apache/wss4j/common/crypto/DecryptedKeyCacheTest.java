@@ -0,0 +1,94 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.wss4j.common.crypto;
+
+import java.nio.ByteBuffer;
+import java.security.KeyPairGenerator;
+import java.security.PublicKey;
+
+import org.apache.wss4j.common.WSS4JConstants;
+import org.junit.Test;
+
+/**
+ * Some tests for the DecryptedKeyCache.
+ */
+public class DecryptedKeyCacheTest extends org.junit.Assert {
+
+    @Test
+    public void testCachedKeys() throws Exception {
+        KeyPairGenerator keyPairGenerator = KeyPairGenerator.getInstance("RSA");
+        keyPairGenerator.initialize(2048);
+        PublicKey publicKey = keyPairGenerator.generateKeyPair().getPublic();
+        PublicKey otherPublicKey = keyPairGenerator.generateKeyPair().getPublic();
+        byte[] encryptedKey = new byte[256];
+        byte[] keyBytes = new byte[16];
+        keyBytes[0] = 1;
+
+        DecryptedKeyCache cache = new DecryptedKeyCache(2, 60L);
+        ByteBuffer key =
+            cache.createKey(encryptedKey, WSS4JConstants.KEYTRANSPORT_RSAOAEP, null, publicKey, null, null, null);
+        assertNull(cache.get(key));
+        cache.put(key, keyBytes);
+
+        // The cached bytes are a copy
+        keyBytes[0] = 2;
+        byte[] cachedBytes = cache.get(key);
+        assertEquals(1, cachedBytes[0]);
+        cachedBytes[0] = 3;
+        assertEquals(1, cache.get(key)[0]);
+        assertEquals(2, cache.getHitCount());
+        assertEquals(1, cache.getMissCount());
+
+        // A different recipient, algorithm or parameter gives a different key
+        assertNotEquals(
+            key,
+            cache.createKey(encryptedKey, WSS4JConstants.KEYTRANSPORT_RSAOAEP, null, otherPublicKey, null, null, null)
+        );
+        assertNotEquals(
+            key,
+            cache.createKey(encryptedKey, WSS4JConstants.KEYTRANSPORT_RSA15, null, publicKey, null, null, null)
+        );
+        assertNotEquals(
+            key,
+            cache.createKey(encryptedKey, WSS4JConstants.KEYTRANSPORT_RSAOAEP, null, publicKey,
+                            WSS4JConstants.SHA256, null, null)
+        );
+        assertEquals(
+            key,
+            cache.createKey(encryptedKey, WSS4JConstants.KEYTRANSPORT_RSAOAEP, null, publicKey, null, null, null)
+        );
+
+        // The least recently used key is evicted
+        cache.put(ByteBuffer.wrap(new byte[] {1}), keyBytes);
+        cache.put(ByteBuffer.wrap(new byte[] {2}), keyBytes);
+        assertEquals(2, cache.size());
+        assertNull(cache.get(key));
+    }
+
+    @Test
+    public void testExpiredKey() throws Exception {
+        DecryptedKeyCache cache = new DecryptedKeyCache(10, 0L);
+        ByteBuffer key = ByteBuffer.wrap(new byte[] {1});
+        cache.put(key, new byte[16]);
+        assertNull(cache.get(key));
+        assertEquals(0, cache.size());
+    }
+
+}
@@ -0,0 +1,227 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.wss4j.common.crypto;
+
+import java.io.InputStream;
+import java.security.KeyStore;
+import java.security.MessageDigest;
+import java.security.PrivateKey;
+import java.security.cert.CertStore;
+import java.security.cert.CollectionCertStoreParameters;
+import java.security.cert.PKIXParameters;
+import java.security.cert.X509Certificate;
+import java.util.Collections;
+import java.util.Properties;
+
+import org.apache.wss4j.common.ext.WSSecurityException;
+import org.apache.wss4j.common.util.Loader;
+import org.junit.Test;
+
+/**
+ * Some tests for looking up certificates in Merlin.
+ */
+public class MerlinTest extends org.junit.Assert {
+
+    @Test
+    public void testCertificateLookups() throws Exception {
+        Merlin crypto = (Merlin)CryptoFactory.getInstance("wss40.properties");
+
+        CryptoType cryptoType = new CryptoType(CryptoType.TYPE.ALIAS);
+        cryptoType.setAlias("wss40");
+        X509Certificate cert = crypto.getX509Certificates(cryptoType)[0];
+
+        // Issuer Serial
+        cryptoType = new CryptoType(CryptoType.TYPE.ISSUER_SERIAL);
+        cryptoType.setIssuerSerial(cert.getIssuerX500Principal().getName(), cert.getSerialNumber());
+        assertEquals(cert, crypto.getX509Certificates(cryptoType)[0]);
+
+        // Thumbprint
+        cryptoType = new CryptoType(CryptoType.TYPE.THUMBPRINT_SHA1);
+        cryptoType.setBytes(MessageDigest.getInstance("SHA-1").digest(cert.getEncoded()));
+        assertEquals(cert, crypto.getX509Certificates(cryptoType)[0]);
+
+        // SKI
+        cryptoType = new CryptoType(CryptoType.TYPE.SKI_BYTES);
+        cryptoType.setBytes(crypto.getSKIBytesFromCert(cert));
+        assertEquals(cert, crypto.getX509Certificates(cryptoType)[0]);
+
+        // Subject DN
+        cryptoType = new CryptoType(CryptoType.TYPE.SUBJECT_DN);
+        cryptoType.setSubjectDN(cert.getSubjectX500Principal().getName());
+        assertEquals(cert, crypto.getX509Certificates(cryptoType)[0]);
+
+        // Identifier and PublicKey
+        assertEquals("wss40", crypto.getX509Identifier(cert));
+        crypto.verifyTrust(cert.getPublicKey());
+
+        // Unknown certificates
+        cryptoType = new CryptoType(CryptoType.TYPE.ISSUER_SERIAL);
+        cryptoType.setIssuerSerial(cert.getIssuerX500Principal().getName(), cert.getSerialNumber().add(
+            java.math.BigInteger.ONE));
+        assertNull(crypto.getX509Certificates(cryptoType));
+        cryptoType = new CryptoType(CryptoType.TYPE.SKI_BYTES);
+        cryptoType.setBytes(new byte[20]);
+        assertNull(crypto.getX509Certificates(cryptoType));
+    }
+
+    @Test
+    public void testLookupsAfterKeyStoreChange() throws Exception {
+        Merlin crypto = (Merlin)CryptoFactory.getInstance("wss40.properties");
+
+        CryptoType cryptoType = new CryptoType(CryptoType.TYPE.ALIAS);
+        cryptoType.setAlias("wss40");
+        X509Certificate cert = crypto.getX509Certificates(cryptoType)[0];
+        assertEquals("wss40", crypto.getX509Identifier(cert));
+
+        KeyStore keyStore = KeyStore.getInstance(KeyStore.getDefaultType());
+        try (InputStream input =
+            Merlin.loadInputStream(Loader.getClassLoader(MerlinTest.class), "keys/wss40_server.jks")) {
+            keyStore.load(input, "security".toCharArray());
+        }
+        crypto.setKeyStore(keyStore);
+        assertNull(crypto.getX509Identifier(cert));
+
+        cryptoType.setAlias("wss40_server");
+        X509Certificate serverCert = crypto.getX509Certificates(cryptoType)[0];
+        assertEquals("wss40_server", crypto.getX509Identifier(serverCert));
+
+        // Adding an entry to the KeyStore should be picked up as well
+        keyStore.setCertificateEntry("wss40", cert);
+        assertEquals("wss40", crypto.getX509Identifier(cert));
+    }
+
+    @Test
+    public void testUnindexableCertificate() throws Exception {
+        Merlin wss40 = (Merlin)CryptoFactory.getInstance("wss40.properties");
+        CryptoType cryptoType = new CryptoType(CryptoType.TYPE.ALIAS);
+        cryptoType.setAlias("wss40");
+        final X509Certificate badCert = wss40.getX509Certificates(cryptoType)[0];
+        cryptoType.setAlias("wss40dsa");
+        X509Certificate cert = wss40.getX509Certificates(cryptoType)[0];
+
+        Merlin crypto = new Merlin() {
+            @Override
+            public byte[] getSKIBytesFromCert(X509Certificate x509cert) throws WSSecurityException {
+                if (badCert.equals(x509cert)) {
+                    throw new WSSecurityException(WSSecurityException.ErrorCode.FAILURE);
+                }
+                return super.getSKIBytesFromCert(x509cert);
+            }
+        };
+        crypto.setKeyStore(wss40.getKeyStore());
+
+        // Only the SKI of the certificate is not indexed, it is still found by every other key
+        assertEquals("wss40", crypto.getX509Identifier(badCert));
+        crypto.verifyTrust(badCert.getPublicKey());
+        cryptoType = new CryptoType(CryptoType.TYPE.THUMBPRINT_SHA1);
+        cryptoType.setBytes(MessageDigest.getInstance("SHA-1").digest(badCert.getEncoded()));
+        assertEquals(badCert, crypto.getX509Certificates(cryptoType)[0]);
+        cryptoType = new CryptoType(CryptoType.TYPE.ISSUER_SERIAL);
+        cryptoType.setIssuerSerial(badCert.getIssuerX500Principal().getName(), badCert.getSerialNumber());
+        assertEquals(badCert, crypto.getX509Certificates(cryptoType)[0]);
+        cryptoType = new CryptoType(CryptoType.TYPE.SUBJECT_DN);
+        cryptoType.setSubjectDN(badCert.getSubjectX500Principal().getName());
+        assertEquals(badCert, crypto.getX509Certificates(cryptoType)[0]);
+        cryptoType = new CryptoType(CryptoType.TYPE.SKI_BYTES);
+        cryptoType.setBytes(wss40.getSKIBytesFromCert(badCert));
+        assertNull(crypto.getX509Certificates(cryptoType));
+
+        assertEquals("wss40dsa", crypto.getX509Identifier(cert));
+        cryptoType = new CryptoType(CryptoType.TYPE.SKI_BYTES);
+        cryptoType.setBytes(wss40.getSKIBytesFromCert(cert));
+        assertEquals(cert, crypto.getX509Certificates(cryptoType)[0]);
+    }
+
+    @Test
+    public void testOtherKeyStoreIndex() throws Exception {
+        Merlin crypto = (Merlin)CryptoFactory.getInstance("wss40.properties");
+        KeyStore keyStore = KeyStore.getInstance(KeyStore.getDefaultType());
+        try (InputStream input =
+            Merlin.loadInputStream(Loader.getClassLoader(MerlinTest.class), "keys/wss40_server.jks")) {
+            keyStore.load(input, "security".toCharArray());
+        }
+
+        // The index of a KeyStore other than the keystore and truststore is reused as well
+        KeyStoreIndex index = crypto.getKeyStoreIndex(keyStore);
+        assertSame(index, crypto.getKeyStoreIndex(keyStore));
+        assertNotSame(index, crypto.getKeyStoreIndex(crypto.getKeyStore()));
+    }
+
+    @Test
+    public void testPrivateKeyCache() throws Exception {
+        Properties properties = CryptoFactory.getProperties("wss40.properties", getClass().getClassLoader());
+        properties.put(Merlin.PREFIX + Merlin.KEYSTORE_PRIVATE_CACHE_SIZE, "10");
+        Merlin crypto = (Merlin)CryptoFactory.getInstance(properties);
+        PrivateKeyCache cache = crypto.getPrivateKeyCache();
+        assertNotNull(cache);
+
+        PrivateKey privateKey = crypto.getPrivateKey("wss40", "security");
+        assertEquals(1, cache.size());
+        assertSame(privateKey, crypto.getPrivateKey("wss40", "security"));
+
+        // The cached key is not returned for the wrong password
+        try {
+            crypto.getPrivateKey("wss40", "wrong-password");
+            fail("Failure expected on a wrong password");
+        } catch (WSSecurityException ex) {
+            assertEquals(WSSecurityException.ErrorCode.FAILURE, ex.getErrorCode());
+        }
+
+        // Replacing the keystore clears the cache
+        crypto.setKeyStore(crypto.getKeyStore());
+        assertEquals(0, cache.size());
+        PrivateKey reloadedKey = crypto.getPrivateKey("wss40", "security");
+        assertNotSame(privateKey, reloadedKey);
+        assertEquals(privateKey, reloadedKey);
+    }
+
+    @Test
+    public void testPKIXParameters() throws Exception {
+        Merlin crypto = (Merlin)CryptoFactory.getInstance("wss40.properties");
+
+        PKIXParameters param = crypto.getPKIXParameters(false);
+        int trustAnchors = param.getTrustAnchors().size();
+        assertFalse(param.isRevocationEnabled());
+        assertTrue(param.getCertStores().isEmpty());
+
+        // The PKIXParameters are copies of the same template
+        PKIXParameters param2 = crypto.getPKIXParameters(false);
+        assertNotSame(param, param2);
+        assertSame(param.getTrustAnchors(), param2.getTrustAnchors());
+        assertTrue(crypto.getPKIXParameters(true).isRevocationEnabled());
+
+        // Changing the CRLs or the keystore means the template is created again
+        CertStore crlCertStore =
+            CertStore.getInstance("Collection", new CollectionCertStoreParameters(Collections.emptyList()));
+        crypto.setCRLCertStore(crlCertStore);
+        assertEquals(Collections.singletonList(crlCertStore), crypto.getPKIXParameters(true).getCertStores());
+        assertTrue(crypto.getPKIXParameters(false).getCertStores().isEmpty());
+
+        KeyStore keyStore = crypto.getKeyStore();
+        try (InputStream input =
+            Merlin.loadInputStream(Loader.getClassLoader(MerlinTest.class), "keys/wss40CADupl.jks")) {
+            KeyStore caKeyStore = KeyStore.getInstance(KeyStore.getDefaultType());
+            caKeyStore.load(input, "security".toCharArray());
+            keyStore.setCertificateEntry("wss40cadupl", caKeyStore.getCertificate("wss40cadupl"));
+        }
+        assertEquals(trustAnchors + 1, crypto.getPKIXParameters(false).getTrustAnchors().size());
+    }
+
+}
@@ -0,0 +1,162 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.wss4j.common.crypto;
+
+import java.io.File;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.KeyStore;
+import java.security.cert.X509Certificate;
+import java.util.Properties;
+
+import org.apache.wss4j.common.ext.WSSecurityException;
+import org.apache.wss4j.common.util.Loader;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Some tests for reloading the keystore of a ReloadingMerlin instance when the file changes.
+ */
+public class ReloadingMerlinTest extends org.junit.Assert {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testReloadOnChange() throws Exception {
+        File keyStoreFile = folder.newFile("keystore.jks");
+        copy("keys/wss40.jks", keyStoreFile);
+
+        try (ReloadingMerlin crypto = (ReloadingMerlin)CryptoFactory.getInstance(createProperties(keyStoreFile))) {
+            X509Certificate cert = getCertificate(crypto, "wss40");
+            assertNotNull(cert);
+            assertEquals("wss40", crypto.getX509Identifier(cert));
+            KeyStore keyStore = crypto.getKeyStore();
+
+            // Replace the keystore file and wait for it to be reloaded
+            File newKeyStoreFile = folder.newFile("keystore.jks.new");
+            copy("keys/wss40_server.jks", newKeyStoreFile);
+            Files.move(newKeyStoreFile.toPath(), keyStoreFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+
+            long timeout = System.currentTimeMillis() + 30000L;
+            while (crypto.getKeyStore() == keyStore && System.currentTimeMillis() < timeout) {
+                Thread.sleep(50L);
+            }
+            assertNotSame(keyStore, crypto.getKeyStore());
+            assertNull(crypto.getX509Identifier(cert));
+            assertNotNull(getCertificate(crypto, "wss40_server"));
+        }
+    }
+
+    @Test
+    public void testFailedReload() throws Exception {
+        File keyStoreFile = folder.newFile("keystore.jks");
+        copy("keys/wss40.jks", keyStoreFile);
+
+        try (ReloadingMerlin crypto = new ReloadingMerlin(createProperties(keyStoreFile), getClass().getClassLoader())) {
+            crypto.close();
+            KeyStore keyStore = crypto.getKeyStore();
+
+            Files.write(keyStoreFile.toPath(), "Not a keystore".getBytes(StandardCharsets.UTF_8));
+            try {
+                crypto.reload();
+                fail("Failure expected on reloading an invalid keystore");
+            } catch (WSSecurityException ex) {
+                assertEquals(WSSecurityException.ErrorCode.FAILURE, ex.getErrorCode());
+            }
+            // The previous keystore is still in use
+            assertSame(keyStore, crypto.getKeyStore());
+            assertNotNull(getCertificate(crypto, "wss40"));
+
+            copy("keys/wss40_server.jks", keyStoreFile);
+            crypto.reload();
+            assertNotNull(getCertificate(crypto, "wss40_server"));
+        }
+    }
+
+    @Test
+    public void testSettingsAreKept() throws Exception {
+        File keyStoreFile = folder.newFile("keystore.jks");
+        copy("keys/wss40.jks", keyStoreFile);
+
+        try (ReloadingMerlin crypto = new ReloadingMerlin(createProperties(keyStoreFile), getClass().getClassLoader())) {
+            CertPathValidationCache cache = new CertPathValidationCache();
+            crypto.setCertPathValidationCache(cache);
+            crypto.setDefaultX509Identifier("wss40");
+            crypto.reload();
+            assertSame(cache, crypto.getCertPathValidationCache());
+            assertEquals("wss40", crypto.getDefaultX509Identifier());
+        }
+    }
+
+    @Test
+    public void testWatcherRegistration() throws Exception {
+        File keyStoreFile = folder.newFile("keystore.jks");
+        copy("keys/wss40.jks", keyStoreFile);
+        CryptoFileWatcher watcher = CryptoFileWatcher.getInstance();
+        int registrations = watcher.getRegistrationCount();
+
+        ReloadingMerlin crypto = new ReloadingMerlin(createProperties(keyStoreFile), getClass().getClassLoader());
+        assertEquals(registrations + 1, watcher.getRegistrationCount());
+        crypto.close();
+        assertEquals(registrations, watcher.getRegistrationCount());
+
+        // An instance that is no longer referenced is not watched any more, even if it is not closed
+        createUnclosedCrypto(keyStoreFile);
+        long timeout = System.currentTimeMillis() + 30000L;
+        while (watcher.getRegistrationCount() > registrations && System.currentTimeMillis() < timeout) {
+            System.gc();
+            Thread.sleep(50L);
+        }
+        assertEquals(registrations, watcher.getRegistrationCount());
+    }
+
+    private void createUnclosedCrypto(File keyStoreFile) throws Exception {
+        ReloadingMerlin crypto = new ReloadingMerlin(createProperties(keyStoreFile), getClass().getClassLoader());
+        assertNotNull(getCertificate(crypto, "wss40"));
+    }
+
+    private static Properties createProperties(File keyStoreFile) {
+        Properties properties = new Properties();
+        properties.put("org.apache.wss4j.crypto.provider", ReloadingMerlin.class.getName());
+        properties.put(Merlin.PREFIX + Merlin.KEYSTORE_FILE, keyStoreFile.getAbsolutePath());
+        properties.put(Merlin.PREFIX + Merlin.KEYSTORE_PASSWORD, "security");
+        properties.put(Merlin.PREFIX + Merlin.KEYSTORE_TYPE, "jks");
+        properties.put(Merlin.PREFIX + ReloadingMerlin.RELOAD_DELAY, "100");
+        return properties;
+    }
+
+    private static void copy(String resource, File file) throws Exception {
+        try (InputStream input = Merlin.loadInputStream(Loader.getClassLoader(ReloadingMerlinTest.class), resource)) {
+            Files.copy(input, file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    private static X509Certificate getCertificate(Crypto crypto, String alias) throws Exception {
+        CryptoType cryptoType = new CryptoType(CryptoType.TYPE.ALIAS);
+        cryptoType.setAlias(alias);
+        X509Certificate[] certs = crypto.getX509Certificates(cryptoType);
+        return certs == null ? null : certs[0];
+    }
+
+}
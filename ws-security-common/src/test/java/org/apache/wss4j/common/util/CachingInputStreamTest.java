@@ -0,0 +1,76 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.wss4j.common.util;
+
+import org.apache.xml.security.utils.JavaUtils;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.util.Random;
+
+public class CachingInputStreamTest {
+
+    @Test
+    public void testMemoryCache() throws Exception {
+        byte[] bytes = new byte[1000];
+        new Random().nextBytes(bytes);
+        File tempDirectory = Files.createTempDirectory("wss4j").toFile();
+
+        try (CachingInputStream cachingInputStream =
+                 new CachingInputStream(new ByteArrayInputStream(bytes), 1000, tempDirectory)) {
+            byte[] read = new byte[600];
+            Assert.assertEquals(600, cachingInputStream.read(read));
+
+            // The cached bytes are followed by the unread bytes
+            InputStream cachedInputStream = cachingInputStream.getCachedInputStream();
+            Assert.assertArrayEquals(bytes, JavaUtils.getBytesFromStream(cachedInputStream));
+            Assert.assertEquals(0, tempDirectory.list().length);
+        }
+        Assert.assertTrue(tempDirectory.delete());
+    }
+
+    @Test
+    public void testFileCache() throws Exception {
+        byte[] bytes = new byte[100000];
+        new Random().nextBytes(bytes);
+        File tempDirectory = Files.createTempDirectory("wss4j").toFile();
+
+        CachingInputStream cachingInputStream =
+            new CachingInputStream(new ByteArrayInputStream(bytes), 1000, tempDirectory);
+        Assert.assertEquals(bytes[0] & 0xff, cachingInputStream.read());
+        Assert.assertEquals(50000, cachingInputStream.skip(50000));
+        byte[] read = new byte[10000];
+        Assert.assertEquals(10000, cachingInputStream.read(read));
+
+        // The bytes that exceed the memory threshold are written to a temporary file
+        Assert.assertEquals(1, tempDirectory.list().length);
+        try (InputStream cachedInputStream = cachingInputStream.getCachedInputStream()) {
+            Assert.assertArrayEquals(bytes, JavaUtils.getBytesFromStream(cachedInputStream));
+        }
+
+        // The temporary file is deleted on close
+        cachingInputStream.close();
+        Assert.assertEquals(0, tempDirectory.list().length);
+        Assert.assertTrue(tempDirectory.delete());
+    }
+}
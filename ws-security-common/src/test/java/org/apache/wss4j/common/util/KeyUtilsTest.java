@@ -0,0 +1,79 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.wss4j.common.util;
+
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+
+import javax.crypto.Cipher;
+import javax.crypto.SecretKey;
+
+import org.apache.wss4j.common.WSS4JConstants;
+import org.apache.wss4j.common.crypto.WSProviderConfig;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+public class KeyUtilsTest {
+
+    @BeforeClass
+    public static void setUp() {
+        WSProviderConfig.init();
+    }
+
+    @Test
+    public void testPooledCipherInstance() throws Exception {
+        KeyPairGenerator keyPairGenerator = KeyPairGenerator.getInstance("RSA");
+        keyPairGenerator.initialize(2048);
+        KeyPair keyPair = keyPairGenerator.generateKeyPair();
+        SecretKey secretKey = KeyUtils.getKeyGenerator(WSS4JConstants.AES_128).generateKey();
+
+        Cipher cipher =
+            KeyUtils.getPooledCipherInstance(WSS4JConstants.KEYTRANSPORT_RSAOAEP, null, keyPair.getPublic());
+        cipher.init(Cipher.WRAP_MODE, keyPair.getPublic());
+        byte[] wrappedKey = cipher.wrap(secretKey);
+
+        // A Cipher that is in use is not returned again
+        Cipher otherCipher =
+            KeyUtils.getPooledCipherInstance(WSS4JConstants.KEYTRANSPORT_RSAOAEP, null, keyPair.getPublic());
+        Assert.assertNotSame(cipher, otherCipher);
+
+        // Once it has been returned to the pool, it is reused for the same arguments only
+        KeyUtils.repoolCipherInstance(WSS4JConstants.KEYTRANSPORT_RSAOAEP, null, keyPair.getPublic(), cipher);
+        Cipher unwrapCipher =
+            KeyUtils.getPooledCipherInstance(WSS4JConstants.KEYTRANSPORT_RSAOAEP, null, keyPair.getPrivate());
+        Assert.assertNotSame(cipher, unwrapCipher);
+        Assert.assertNotSame(cipher, KeyUtils.getPooledCipherInstance(WSS4JConstants.AES_128_GCM, null, secretKey));
+        Cipher pooledCipher =
+            KeyUtils.getPooledCipherInstance(WSS4JConstants.KEYTRANSPORT_RSAOAEP, null, keyPair.getPublic());
+        Assert.assertSame(cipher, pooledCipher);
+
+        // A pooled Cipher can be used again once initialized
+        pooledCipher.init(Cipher.WRAP_MODE, keyPair.getPublic());
+        byte[] otherWrappedKey = pooledCipher.wrap(secretKey);
+        unwrapCipher.init(Cipher.UNWRAP_MODE, keyPair.getPrivate());
+        Assert.assertArrayEquals(
+            secretKey.getEncoded(), unwrapCipher.unwrap(wrappedKey, "AES", Cipher.SECRET_KEY).getEncoded()
+        );
+        Assert.assertArrayEquals(
+            secretKey.getEncoded(), unwrapCipher.unwrap(otherWrappedKey, "AES", Cipher.SECRET_KEY).getEncoded()
+        );
+    }
+
+}
@@ -0,0 +1,160 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.wss4j.dom;
+
+import java.util.Set;
+
+import javax.crypto.SecretKey;
+
+import org.apache.wss4j.common.ext.WSSecurityException;
+import org.apache.wss4j.dom.callback.CallbackLookup;
+import org.apache.wss4j.dom.util.EncryptionUtils;
+import org.apache.xml.security.encryption.Serializer;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+
+/**
+ * The decryption of an EncryptedData element that has been deferred, when lazy decryption is
+ * enabled. The symmetric key has already been obtained and checked when the security header was
+ * processed. The WSDataRef that was returned in the security results is completed when the
+ * EncryptedData element is decrypted.
+ *
+ * As the decrypted content was not part of the document when the Signatures were verified, it
+ * must not contain an Element with the same Id as an Element that was verified by a Signature
+ * (a wrapping attack). The decryption fails with INVALID_SECURITY in that case.
+ */
+public class PendingDecryption {
+
+    private static final org.slf4j.Logger LOG =
+        org.slf4j.LoggerFactory.getLogger(PendingDecryption.class);
+
+    private final WSDataRef dataRef;
+    private final Document doc;
+    private final Element encryptedData;
+    private final String symEncAlgo;
+    private final Serializer encryptionSerializer;
+    private final Set<String> signedIds;
+    private SecretKey symmetricKey;
+    private CallbackLookup callbackLookup;
+    private boolean decrypted;
+
+    public PendingDecryption(
+        WSDataRef dataRef,
+        Document doc,
+        Element encryptedData,
+        SecretKey symmetricKey,
+        String symEncAlgo,
+        Serializer encryptionSerializer,
+        CallbackLookup callbackLookup,
+        Set<String> signedIds
+    ) {
+        this.dataRef = dataRef;
+        this.doc = doc;
+        this.encryptedData = encryptedData;
+        this.symmetricKey = symmetricKey;
+        this.symEncAlgo = symEncAlgo;
+        this.encryptionSerializer = encryptionSerializer;
+        this.callbackLookup = callbackLookup;
+        this.signedIds = signedIds;
+    }
+
+    /**
+     * Decrypt the EncryptedData element, if it has not been decrypted already
+     * @return the decrypted (protected) Element
+     * @throws WSSecurityException
+     */
+    public synchronized Element decrypt() throws WSSecurityException {
+        if (!decrypted) {
+            Node parent = encryptedData.getParentNode();
+            Node previousSibling = encryptedData.getPreviousSibling();
+            Node nextSibling = encryptedData.getNextSibling();
+            WSDataRef decryptedDataRef =
+                EncryptionUtils.decryptEncryptedData(
+                    doc, dataRef.getWsuId(), encryptedData, symmetricKey, symEncAlgo, null, encryptionSerializer
+                );
+            dataRef.setProtectedElement(decryptedDataRef.getProtectedElement());
+            dataRef.setXpath(decryptedDataRef.getXpath());
+
+            // Check the nodes that have replaced the EncryptedData element
+            Node node = previousSibling == null ? parent.getFirstChild() : previousSibling.getNextSibling();
+            for (; node != null && node != nextSibling; node = node.getNextSibling()) {
+                checkSignedIds(node);
+            }
+            if (callbackLookup != null && decryptedDataRef.getProtectedElement() != null) {
+                callbackLookup.elementAdded(decryptedDataRef.getProtectedElement());
+            }
+            decrypted = true;
+            symmetricKey = null;
+            callbackLookup = null;
+        }
+        return dataRef.getProtectedElement();
+    }
+
+    /**
+     * Check that the given Node and its descendants do not have the Id of an Element that was
+     * verified by a Signature
+     */
+    private void checkSignedIds(Node startNode) throws WSSecurityException {
+        if (signedIds == null || signedIds.isEmpty()) {
+            return;
+        }
+        Node node = startNode;
+        while (node != null) {
+            if (Node.ELEMENT_NODE == node.getNodeType()) {
+                Element element = (Element)node;
+                String id = element.getAttributeNS(WSConstants.WSU_NS, "Id");
+                String unqualifiedId = element.getAttributeNS(null, "Id");
+                if (signedIds.contains(id) || signedIds.contains(unqualifiedId)) {
+                    LOG.warn("The decrypted content contains an Element with the Id of a signed Element");
+                    throw new WSSecurityException(WSSecurityException.ErrorCode.INVALID_SECURITY, "duplicateError");
+                }
+            }
+
+            // Depth-first traversal of the subtree of the start node
+            Node next = node.getFirstChild();
+            while (next == null && node != startNode) {
+                next = node.getNextSibling();
+                if (next == null) {
+                    node = node.getParentNode();
+                }
+            }
+            node = next;
+        }
+    }
+
+    public synchronized boolean isDecrypted() {
+        return decrypted;
+    }
+
+    /**
+     * @return the WSDataRef of the EncryptedData element
+     */
+    public WSDataRef getDataRef() {
+        return dataRef;
+    }
+
+    /**
+     * @return the EncryptedData element
+     */
+    public Element getEncryptedData() {
+        return encryptedData;
+    }
+}
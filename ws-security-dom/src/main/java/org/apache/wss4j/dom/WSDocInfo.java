@@ -31,11 +31,13 @@ package org.apache.wss4j.dom;
  */
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
-import java.util.LinkedList;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 import javax.xml.crypto.dom.DOMCryptoContext;
 
@@ -46,6 +48,7 @@ import org.apache.wss4j.dom.callback.CallbackLookup;
 import org.apache.wss4j.dom.engine.WSSecurityEngineResult;
 import org.w3c.dom.Document;
 import org.w3c.dom.Element;
+import org.w3c.dom.Node;
 
 public class WSDocInfo {
     private Document doc;
@@ -57,8 +60,18 @@ public class WSDocInfo {
     // creation or validation
     private final Map<String, TokenValue> tokens = new HashMap<>();
 
-    private final List<WSSecurityEngineResult> results = new LinkedList<>();
-    private final Map<Integer, List<WSSecurityEngineResult>> actionResults = new HashMap<>();
+    // The results of the (single bit) actions defined in WSConstants are indexed by the position
+    // of the action bit. The results of any other (custom) action are stored in a Map instead.
+    private static final int ACTION_SLOTS = Integer.numberOfTrailingZeros(WSConstants.DKT_ENCR) + 1;
+
+    private final List<WSSecurityEngineResult> results = new ArrayList<>();
+    @SuppressWarnings("unchecked")
+    private final List<WSSecurityEngineResult>[] actionResults = new List[ACTION_SLOTS];
+    private Map<Integer, List<WSSecurityEngineResult>> customActionResults;
+    private final List<PendingDecryption> pendingDecryptions = new ArrayList<>();
+    // The Ids of the Elements that have been verified by a Signature. It is shared with the deferred
+    // decryptions, which may be carried out after this object has been cleared.
+    private Set<String> signedIds = new HashSet<>();
     private CallbackLookup callbackLookup;
     private Element securityHeader;
 
@@ -85,7 +98,10 @@ public class WSDocInfo {
         securityHeader = null;
         tokens.clear();
         results.clear();
-        actionResults.clear();
+        Arrays.fill(actionResults, null);
+        customActionResults = null;
+        pendingDecryptions.clear();
+        signedIds = new HashSet<>();
     }
 
     /**
@@ -214,15 +230,47 @@ public class WSDocInfo {
         results.add(result);
         Integer resultTag = (Integer)result.get(WSSecurityEngineResult.TAG_ACTION);
         if (resultTag != null) {
-            List<WSSecurityEngineResult> storedResults = actionResults.get(resultTag);
-            if (storedResults == null) {
-                storedResults = new ArrayList<>();
+            int slot = getActionSlot(resultTag);
+            List<WSSecurityEngineResult> storedResults;
+            if (slot >= 0) {
+                storedResults = actionResults[slot];
+                if (storedResults == null) {
+                    storedResults = new ArrayList<>();
+                    actionResults[slot] = storedResults;
+                }
+            } else {
+                if (customActionResults == null) {
+                    customActionResults = new HashMap<>();
+                }
+                storedResults = customActionResults.computeIfAbsent(resultTag, k -> new ArrayList<>());
             }
             storedResults.add(result);
-            actionResults.put(resultTag, storedResults);
         }
     }
 
+    /**
+     * Get the index of the given action in the actionResults array, or -1 if it is not one of the
+     * (single bit) actions defined in WSConstants
+     */
+    private static int getActionSlot(int action) {
+        if (Integer.bitCount(action) != 1) {
+            return -1;
+        }
+        int slot = Integer.numberOfTrailingZeros(action);
+        return slot < ACTION_SLOTS ? slot : -1;
+    }
+
+    private List<WSSecurityEngineResult> getStoredResults(Integer tag) {
+        if (tag == null) {
+            return null;
+        }
+        int slot = getActionSlot(tag);
+        if (slot >= 0) {
+            return actionResults[slot];
+        }
+        return customActionResults == null ? null : customActionResults.get(tag);
+    }
+
     /**
      * Get a copy of the security results list. Modifying the subsequent list does not
      * change the internal results list.
@@ -239,10 +287,77 @@ public class WSDocInfo {
      * map does not change the internal map.
      */
     public Map<Integer, List<WSSecurityEngineResult>> getActionResults() {
-        if (actionResults.isEmpty()) {
+        if (results.isEmpty()) {
             return Collections.emptyMap();
         }
-        return new HashMap<>(actionResults);
+        Map<Integer, List<WSSecurityEngineResult>> actionResultsMap =
+            customActionResults == null ? new HashMap<>() : new HashMap<>(customActionResults);
+        for (int i = 0; i < ACTION_SLOTS; i++) {
+            if (actionResults[i] != null) {
+                actionResultsMap.put(1 << i, actionResults[i]);
+            }
+        }
+        return actionResultsMap;
+    }
+
+    /**
+     * Store the deferred decryption of an EncryptedData element
+     * @param pendingDecryption the deferred decryption
+     */
+    public void addPendingDecryption(PendingDecryption pendingDecryption) {
+        pendingDecryptions.add(pendingDecryption);
+    }
+
+    /**
+     * Record that the Element with the given Id has been verified by a Signature
+     * @param id the Id of the signed Element
+     */
+    public void addSignedId(String id) {
+        if (id != null) {
+            signedIds.add(id);
+        }
+    }
+
+    /**
+     * Get the (live) Set of the Ids of the Elements that have been verified by a Signature
+     */
+    public Set<String> getSignedIds() {
+        return signedIds;
+    }
+
+    /**
+     * Get a copy of the list of deferred decryptions
+     */
+    public List<PendingDecryption> getPendingDecryptions() {
+        if (pendingDecryptions.isEmpty()) {
+            return Collections.emptyList();
+        }
+        return new ArrayList<>(pendingDecryptions);
+    }
+
+    /**
+     * Decrypt the deferred EncryptedData elements that are contained in the given Element. If the
+     * Element is null, then all of the deferred EncryptedData elements are decrypted. An
+     * EncryptedData element that is itself the given Element is not decrypted.
+     * @param element the Element that is about to be processed (can be null)
+     * @throws WSSecurityException
+     */
+    public void decryptPending(Element element) throws WSSecurityException {
+        for (PendingDecryption pendingDecryption : pendingDecryptions) {
+            if (!pendingDecryption.isDecrypted()
+                && (element == null || isDescendant(pendingDecryption.getEncryptedData(), element))) {
+                pendingDecryption.decrypt();
+            }
+        }
+    }
+
+    private static boolean isDescendant(Node node, Element ancestor) {
+        for (Node parent = node.getParentNode(); parent != null; parent = parent.getParentNode()) {
+            if (parent == ancestor) {
+                return true;
+            }
+        }
+        return false;
     }
 
     /**
@@ -271,11 +386,12 @@ public class WSDocInfo {
      * Get a unmodifiable list of WSSecurityEngineResults of the given Integer tag
      */
     public List<WSSecurityEngineResult> getResultsByTag(Integer tag) {
-        if (actionResults.isEmpty() || !actionResults.containsKey(tag)) {
+        List<WSSecurityEngineResult> storedResults = getStoredResults(tag);
+        if (storedResults == null) {
             return Collections.emptyList();
         }
 
-        return Collections.unmodifiableList(actionResults.get(tag));
+        return Collections.unmodifiableList(storedResults);
     }
 
     /**
@@ -287,8 +403,9 @@ public class WSDocInfo {
             return false;
         }
 
-        if (!actionResults.isEmpty() && actionResults.containsKey(tag)) {
-            for (WSSecurityEngineResult result : actionResults.get(tag)) {
+        List<WSSecurityEngineResult> storedResults = getStoredResults(tag);
+        if (storedResults != null) {
+            for (WSSecurityEngineResult result : storedResults) {
                 String cId = (String)result.get(WSSecurityEngineResult.TAG_ID);
                 if (id.equals(cId)) {
                     return true;
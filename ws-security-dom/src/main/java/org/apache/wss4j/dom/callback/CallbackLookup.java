@@ -78,4 +78,14 @@ public interface CallbackLookup {
      * Get the SOAP Body
      */
     Element getSOAPBody();
+
+    /**
+     * Notify this CallbackLookup that the given Element was added to the document, e.g. as the
+     * result of decrypting an EncryptedData element, so that it (and its descendants) can be
+     * located via an Id. The default implementation does nothing.
+     * @param element the Element that was added to the document
+     */
+    default void elementAdded(Element element) {
+        // complete
+    }
 }
@@ -0,0 +1,310 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.wss4j.dom.callback;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.xml.crypto.dom.DOMCryptoContext;
+
+import org.apache.wss4j.common.ext.WSSecurityException;
+import org.apache.wss4j.common.util.XMLUtils;
+import org.apache.wss4j.dom.WSConstants;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+
+/**
+ * This class locates Elements that are referenced via an Id in the same way as the
+ * DOMCallbackLookup, but instead of searching the whole document for every reference, it builds
+ * an index of the wsu:Id, Id, ID and AssertionID attributes of every Element on first use. The
+ * index also records whether an Id is used by more than one Element, so duplicates are detected
+ * without searching the document again.
+ *
+ * Elements that are added to the document by decryption are added to the index via
+ * elementAdded. If an indexed Element has since been removed from the document, or its Id has
+ * changed, then the index is built again. If an Id is not found in the index, then the
+ * document is searched in the same way as the DOMCallbackLookup.
+ *
+ * The index cannot tell whether an Element with an indexed Id was added to the document by any
+ * other means (e.g. by a custom Processor). So when duplicates are to be rejected and the index
+ * holds a single Element for an Id, the document is searched to confirm that the Id is unique,
+ * and the index is built again if it is not.
+ */
+public class IndexedCallbackLookup extends DOMCallbackLookup {
+
+    private static final org.slf4j.Logger LOG =
+        org.slf4j.LoggerFactory.getLogger(IndexedCallbackLookup.class);
+
+    private final Document doc;
+
+    /**
+     * The Elements with a given wsu:Id or Id attribute value, in document order
+     */
+    private Map<String, List<Element>> idIndex;
+
+    /**
+     * The Elements with a given (SAML) ID or AssertionID attribute value, in document order
+     */
+    private Map<String, List<Element>> samlIdIndex;
+
+    public IndexedCallbackLookup(Document doc) {
+        super(doc);
+        this.doc = doc;
+    }
+
+    /**
+     * Get the DOM element that corresponds to the given id and ValueType reference. The Id can
+     * be a wsu:Id or else an Id attribute, or a SAML Id when the ValueType refers to a SAML
+     * Assertion. The implementation is also responsible to register the retrieved Element on the
+     * DOMCryptoContext argument, so that the XML Signature implementation can find the Element.
+     *
+     * @param id The id of the element to locate
+     * @param valueType The ValueType attribute of the element to locate (can be null)
+     * @param checkMultipleElements If true then return null if there are multiple elements
+     *        with the same Id
+     * @param context The DOMCryptoContext to store the Element in
+     * @return the located element
+     * @throws WSSecurityException
+     */
+    @Override
+    public Element getAndRegisterElement(
+        String id, String valueType, boolean checkMultipleElements, DOMCryptoContext context
+    ) throws WSSecurityException {
+        String idToMatch = XMLUtils.getIDFromReference(id);
+
+        //
+        // Try the SOAP Body first
+        //
+        Element bodyElement = getSOAPBody();
+        if (bodyElement != null) {
+            String cId = bodyElement.getAttributeNS(WSConstants.WSU_NS, "Id");
+            if (cId.equals(idToMatch)) {
+                if (context != null) {
+                    context.setIdAttributeNS(bodyElement, WSConstants.WSU_NS, "Id");
+                }
+                return bodyElement;
+            }
+        }
+
+        boolean samlValueType = WSConstants.WSS_SAML_KI_VALUE_TYPE.equals(valueType)
+            || WSConstants.WSS_SAML2_KI_VALUE_TYPE.equals(valueType)
+            || "".equals(valueType)
+            || valueType == null;
+
+        if (idIndex == null) {
+            buildIndex();
+        }
+        List<Element> foundElements = getCurrentElements(idIndex, idToMatch, false);
+        List<Element> foundSAMLElements =
+            samlValueType ? getCurrentElements(samlIdIndex, idToMatch, true) : null;
+        if (foundElements == null || samlValueType && foundSAMLElements == null) {
+            // The document has changed since the index was built
+            LOG.debug("Rebuilding the Id index of the document");
+            buildIndex();
+            foundElements = getCurrentElements(idIndex, idToMatch, false);
+            foundSAMLElements = samlValueType ? getCurrentElements(samlIdIndex, idToMatch, true) : null;
+        }
+
+        if (foundElements.isEmpty() && (!samlValueType || foundSAMLElements.isEmpty())) {
+            // The Id might belong to an Element that was added to the document without
+            // being indexed, so fall back to searching the document
+            return super.getAndRegisterElement(id, valueType, checkMultipleElements, context);
+        }
+
+        if (checkMultipleElements && foundElements.size() == 1
+            && XMLUtils.findElementById(doc.getDocumentElement(), idToMatch, true) != foundElements.get(0)) {
+            // Another Element with the same Id was added to the document without being indexed
+            LOG.debug("Rebuilding the Id index of the document");
+            buildIndex();
+            foundElements = getCurrentElements(idIndex, idToMatch, false);
+            foundSAMLElements = samlValueType ? getCurrentElements(samlIdIndex, idToMatch, true) : null;
+        }
+
+        if (foundElements.size() == 1 || !foundElements.isEmpty() && !checkMultipleElements) {
+            Element foundElement = foundElements.get(0);
+            if (context != null) {
+                if (foundElement.hasAttributeNS(WSConstants.WSU_NS, "Id")
+                    && idToMatch.equals(foundElement.getAttributeNS(WSConstants.WSU_NS, "Id"))) {
+                    context.setIdAttributeNS(foundElement, WSConstants.WSU_NS, "Id");
+                }
+                if (foundElement.hasAttributeNS(null, "Id")
+                    && idToMatch.equals(foundElement.getAttributeNS(null, "Id"))) {
+                    context.setIdAttributeNS(foundElement, null, "Id");
+                }
+            }
+            return foundElement;
+        } else if (foundElements.size() > 1) {
+            LOG.warn("Multiple elements with the same 'Id' attribute value!");
+        }
+
+        //
+        // Try to find a SAML Assertion Element if the ValueType corresponds to a SAML Assertion
+        // (or is empty)
+        //
+        if (samlValueType && !foundSAMLElements.isEmpty()) {
+            if (foundSAMLElements.size() > 1) {
+                LOG.warn("Multiple elements with the same 'ID' attribute value!");
+                return null;
+            }
+            Element foundElement = foundSAMLElements.get(0);
+            if (context != null) {
+                if (foundElement.hasAttributeNS(null, "ID")
+                    && idToMatch.equals(foundElement.getAttributeNS(null, "ID"))) {
+                    context.setIdAttributeNS(foundElement, null, "ID");
+                }
+                if (foundElement.hasAttributeNS(null, "AssertionID")
+                    && idToMatch.equals(foundElement.getAttributeNS(null, "AssertionID"))) {
+                    context.setIdAttributeNS(foundElement, null, "AssertionID");
+                }
+            }
+            return foundElement;
+        }
+
+        return null;
+    }
+
+    /**
+     * Add the given Element and its descendants to the index
+     * @param element the Element that was added to the document
+     */
+    @Override
+    public void elementAdded(Element element) {
+        if (idIndex != null) {
+            indexElements(element);
+        }
+    }
+
+    private void buildIndex() {
+        idIndex = new HashMap<>();
+        samlIdIndex = new HashMap<>();
+        indexElements(doc.getDocumentElement());
+    }
+
+    /**
+     * Add the Id attributes of the given Element and all of its descendants to the index, in a
+     * single depth-first walk
+     */
+    private void indexElements(Element startElement) {
+        if (startElement == null) {
+            return;
+        }
+        Node startNode = startElement;
+        Node startParent = startNode.getParentNode();
+        Node processedNode = null;
+
+        while (startNode != null) {
+            if (startNode.getNodeType() == Node.ELEMENT_NODE) {
+                indexElement((Element) startNode);
+            }
+
+            processedNode = startNode;
+            startNode = startNode.getFirstChild();
+
+            // no child, this node is done.
+            if (startNode == null && processedNode != startElement) {
+                startNode = processedNode.getNextSibling();
+            }
+            // no more siblings, get parent, all children
+            // of parent are processed.
+            while (startNode == null) {
+                processedNode = processedNode.getParentNode();
+                if (processedNode == startParent || processedNode == startElement) {
+                    return;
+                }
+                startNode = processedNode.getNextSibling();
+            }
+        }
+    }
+
+    private void indexElement(Element element) {
+        String wsuId = element.getAttributeNS(WSConstants.WSU_NS, "Id");
+        if (!"".equals(wsuId)) {
+            addToIndex(idIndex, wsuId, element);
+        }
+        String id = element.getAttributeNS(null, "Id");
+        if (!"".equals(id) && !id.equals(wsuId)) {
+            addToIndex(idIndex, id, element);
+        }
+
+        String samlId = null;
+        if (element.hasAttributeNS(null, "ID")) {
+            samlId = element.getAttributeNS(null, "ID");
+            addToIndex(samlIdIndex, samlId, element);
+        }
+        if (element.hasAttributeNS(null, "AssertionID")) {
+            String assertionId = element.getAttributeNS(null, "AssertionID");
+            if (!assertionId.equals(samlId)) {
+                addToIndex(samlIdIndex, assertionId, element);
+            }
+        }
+    }
+
+    private static void addToIndex(Map<String, List<Element>> index, String id, Element element) {
+        List<Element> elements = index.get(id);
+        if (elements == null) {
+            elements = new ArrayList<>(1);
+            index.put(id, elements);
+        } else if (elements.contains(element)) {
+            // Already indexed, e.g. the parent of decrypted content
+            return;
+        }
+        elements.add(element);
+    }
+
+    /**
+     * Get the indexed Elements with the given Id
+     * @return the indexed Elements, or null if any of them has been removed from the document
+     *         or no longer has the given Id
+     */
+    private List<Element> getCurrentElements(Map<String, List<Element>> index, String id, boolean samlId) {
+        List<Element> elements = index.get(id);
+        if (elements == null) {
+            return new ArrayList<>(0);
+        }
+        for (Element element : elements) {
+            if (!hasId(element, id, samlId) || !isInDocument(element)) {
+                return null;
+            }
+        }
+        return elements;
+    }
+
+    private static boolean hasId(Element element, String id, boolean samlId) {
+        if (samlId) {
+            return element.hasAttributeNS(null, "ID") && id.equals(element.getAttributeNS(null, "ID"))
+                || element.hasAttributeNS(null, "AssertionID")
+                    && id.equals(element.getAttributeNS(null, "AssertionID"));
+        }
+        return id.equals(element.getAttributeNS(WSConstants.WSU_NS, "Id"))
+            || id.equals(element.getAttributeNS(null, "Id"));
+    }
+
+    private boolean isInDocument(Element element) {
+        Node node = element;
+        while (node.getParentNode() != null) {
+            node = node.getParentNode();
+        }
+        return node == doc;
+    }
+
+}
@@ -22,8 +22,13 @@ package org.apache.wss4j.dom.engine;
 import java.security.AccessController;
 import java.security.PrivilegedAction;
 import java.security.Security;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import javax.xml.datatype.DatatypeConfigurationException;
 import javax.xml.datatype.DatatypeFactory;
@@ -237,6 +242,38 @@ public final class WSSConfig {
         DEFAULT_VALIDATORS = java.util.Collections.unmodifiableMap(tmp);
     }
 
+    /**
+     * The default processors and validators that hold no per-message state, and so a single
+     * instance can be shared by all threads
+     */
+    private static final Set<Class<?>> SHAREABLE_CLASSES =
+        java.util.Collections.unmodifiableSet(new HashSet<Class<?>>(Arrays.asList(
+            org.apache.wss4j.dom.processor.EncryptedAssertionProcessor.class,
+            org.apache.wss4j.dom.processor.EncryptedKeyProcessor.class,
+            org.apache.wss4j.dom.processor.TimestampProcessor.class,
+            org.apache.wss4j.dom.processor.UsernameTokenProcessor.class,
+            org.apache.wss4j.dom.processor.ReferenceListProcessor.class,
+            org.apache.wss4j.dom.processor.SignatureConfirmationProcessor.class,
+            org.apache.wss4j.dom.processor.DerivedKeyTokenProcessor.class,
+            org.apache.wss4j.dom.processor.SecurityContextTokenProcessor.class,
+            org.apache.wss4j.dom.processor.BinarySecurityTokenProcessor.class,
+            org.apache.wss4j.dom.processor.EncryptedDataProcessor.class,
+            org.apache.wss4j.dom.validate.SamlAssertionValidator.class,
+            org.apache.wss4j.dom.validate.SignatureTrustValidator.class,
+            org.apache.wss4j.dom.validate.TimestampValidator.class,
+            org.apache.wss4j.dom.validate.UsernameTokenValidator.class
+        )));
+
+    /**
+     * The default processors that hold an XMLSignatureFactory, which is not guaranteed to be
+     * thread-safe, and so an instance is only shared by the invocations on the same thread
+     */
+    private static final Set<Class<?>> PER_THREAD_CLASSES =
+        java.util.Collections.unmodifiableSet(new HashSet<Class<?>>(Arrays.asList(
+            org.apache.wss4j.dom.processor.SAMLTokenProcessor.class,
+            org.apache.wss4j.dom.processor.SignatureProcessor.class
+        )));
+
     /**
      * a static boolean flag that determines whether default JCE providers
      * should be added at the time of construction.
@@ -298,6 +335,22 @@ public final class WSSConfig {
      */
     private final Map<QName, Object> validatorMap = new HashMap<>(DEFAULT_VALIDATORS);
 
+    /**
+     * Whether to reuse the instances of the default processors and validators, rather than
+     * instantiating a new one for every security header element.
+     */
+    private boolean cacheDefaultInstances;
+
+    private final ConcurrentMap<Class<?>, Object> sharedInstances = new ConcurrentHashMap<>();
+
+    /**
+     * The per-thread instances of the PER_THREAD_CLASSES, i.e. at most two instances per thread.
+     * They are held until the thread ends, this WSSConfig is garbage collected, caching is
+     * disabled, or the thread calls releaseThreadInstances().
+     */
+    private volatile ThreadLocal<Map<Class<?>, Object>> threadInstances =
+        ThreadLocal.withInitial(HashMap::new);
+
     static {
         try {
             Transform.register(WSConstants.SWA_ATTACHMENT_CIPHERTEXT_TRANS,
@@ -513,13 +566,7 @@ public final class WSSConfig {
         final Object validatorObject = validatorMap.get(el);
 
         if (validatorObject instanceof Class<?>) {
-            try {
-                return (Validator)((Class<?>)validatorObject).newInstance();
-            } catch (Exception ex) {
-                LOG.debug(ex.getMessage(), ex);
-                throw new WSSecurityException(WSSecurityException.ErrorCode.FAILURE, ex,
-                    "unableToLoadClass", new Object[] {((Class<?>)validatorObject).getName()});
-            }
+            return (Validator)getInstance((Class<?>)validatorObject);
         } else if (validatorObject instanceof Validator) {
             return (Validator)validatorObject;
         }
@@ -537,19 +584,90 @@ public final class WSSConfig {
         final Object processorObject = processorMap.get(el);
 
         if (processorObject instanceof Class<?>) {
-            try {
-                return (Processor)((Class<?>)processorObject).newInstance();
-            } catch (Exception ex) {
-                LOG.debug(ex.getMessage(), ex);
-                throw new WSSecurityException(WSSecurityException.ErrorCode.FAILURE, ex,
-                        "unableToLoadClass", new Object[] {((Class<?>)processorObject).getName()});
-            }
+            return (Processor)getInstance((Class<?>)processorObject);
         } else if (processorObject instanceof Processor) {
             return (Processor)processorObject;
         }
         return null;
     }
 
+    /**
+     * Get an instance of a processor or validator class. A new instance is created, unless
+     * caching of the default instances is enabled and the class is one of the defaults.
+     */
+    private Object getInstance(Class<?> clazz) throws WSSecurityException {
+        if (cacheDefaultInstances) {
+            if (SHAREABLE_CLASSES.contains(clazz)) {
+                Object instance = sharedInstances.get(clazz);
+                if (instance == null) {
+                    instance = newInstance(clazz);
+                    Object existing = sharedInstances.putIfAbsent(clazz, instance);
+                    if (existing != null) {
+                        instance = existing;
+                    }
+                }
+                return instance;
+            } else if (PER_THREAD_CLASSES.contains(clazz)) {
+                Map<Class<?>, Object> instances = threadInstances.get();
+                Object instance = instances.get(clazz);
+                if (instance == null) {
+                    instance = newInstance(clazz);
+                    instances.put(clazz, instance);
+                }
+                return instance;
+            }
+        }
+        return newInstance(clazz);
+    }
+
+    private static Object newInstance(Class<?> clazz) throws WSSecurityException {
+        try {
+            return clazz.newInstance();
+        } catch (Exception ex) {
+            LOG.debug(ex.getMessage(), ex);
+            throw new WSSecurityException(WSSecurityException.ErrorCode.FAILURE, ex,
+                    "unableToLoadClass", new Object[] {clazz.getName()});
+        }
+    }
+
+    /**
+     * @return whether the instances of the default processors and validators are reused
+     */
+    public boolean isCacheDefaultInstances() {
+        return cacheDefaultInstances;
+    }
+
+    /**
+     * Set whether to reuse the instances of the default processors and validators, rather than
+     * instantiating a new one for every security header element. Instances that hold no
+     * per-message state are shared by all threads. The SignatureProcessor and SAMLTokenProcessor
+     * instances are only shared by the invocations on the same thread, as the XMLSignatureFactory
+     * that they hold is not guaranteed to be thread-safe. Processors and validators that are not
+     * one of the defaults are always instantiated for each security header element. The default
+     * is false.
+     *
+     * A thread keeps its SignatureProcessor and SAMLTokenProcessor instances until it ends, or
+     * until it calls {@link #releaseThreadInstances()}. Disabling the caching releases the
+     * instances of all threads.
+     */
+    public void setCacheDefaultInstances(boolean cacheDefaultInstances) {
+        this.cacheDefaultInstances = cacheDefaultInstances;
+        if (!cacheDefaultInstances) {
+            sharedInstances.clear();
+            // The entries of the replaced ThreadLocal are no longer reachable from this WSSConfig
+            threadInstances = ThreadLocal.withInitial(HashMap::new);
+        }
+    }
+
+    /**
+     * Release the processor instances that are cached for the calling thread, if
+     * {@link #setCacheDefaultInstances(boolean)} is enabled. A pooled thread that stops processing
+     * messages with this WSSConfig can call this so that it does not keep the instances.
+     */
+    public void releaseThreadInstances() {
+        threadInstances.remove();
+    }
+
     public WSTimeSource getCurrentTime() {
         if (currentTime != null) {
             return currentTime;
@@ -0,0 +1,77 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.wss4j.dom.engine;
+
+import org.apache.wss4j.common.ext.WSSecurityException;
+import org.apache.wss4j.dom.handler.WSHandlerResult;
+import org.w3c.dom.Document;
+
+/**
+ * The result of processing the security header of one of the documents of a batch (see
+ * WSSecurityEngine#processSecurityHeaders). It holds either the WSHandlerResult of the document,
+ * or the exception with which the processing of the document failed.
+ */
+public class WSSecurityBatchResult {
+
+    private final Document document;
+    private final WSHandlerResult handlerResult;
+    private final WSSecurityException exception;
+
+    public WSSecurityBatchResult(Document document, WSHandlerResult handlerResult) {
+        this.document = document;
+        this.handlerResult = handlerResult;
+        this.exception = null;
+    }
+
+    public WSSecurityBatchResult(Document document, WSSecurityException exception) {
+        this.document = document;
+        this.handlerResult = null;
+        this.exception = exception;
+    }
+
+    /**
+     * @return the processed document
+     */
+    public Document getDocument() {
+        return document;
+    }
+
+    /**
+     * @return the WSHandlerResult of the document. This is null if the processing failed, or if
+     * the document has no security header for the configured actor.
+     */
+    public WSHandlerResult getHandlerResult() {
+        return handlerResult;
+    }
+
+    /**
+     * @return the exception with which the processing of the document failed, or null
+     */
+    public WSSecurityException getException() {
+        return exception;
+    }
+
+    /**
+     * @return whether the security header of the document was processed successfully
+     */
+    public boolean isSuccess() {
+        return exception == null;
+    }
+}
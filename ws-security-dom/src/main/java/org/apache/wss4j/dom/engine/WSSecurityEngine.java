@@ -19,10 +19,15 @@
 
 package org.apache.wss4j.dom.engine;
 
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
 
 import javax.security.auth.callback.CallbackHandler;
 import javax.xml.namespace.QName;
@@ -33,7 +38,7 @@ import org.apache.wss4j.common.ext.WSSecurityException;
 import org.apache.wss4j.dom.WSConstants;
 import org.apache.wss4j.dom.WSDocInfo;
 import org.apache.wss4j.dom.callback.CallbackLookup;
-import org.apache.wss4j.dom.callback.DOMCallbackLookup;
+import org.apache.wss4j.dom.callback.IndexedCallbackLookup;
 import org.apache.wss4j.dom.handler.RequestData;
 import org.apache.wss4j.dom.handler.WSHandlerResult;
 import org.apache.wss4j.dom.processor.Processor;
@@ -288,6 +293,98 @@ public class WSSecurityEngine {
     public WSHandlerResult processSecurityHeader(
         Element securityHeader,
         RequestData requestData
+    ) throws WSSecurityException {
+        return processSecurityHeader(securityHeader, requestData, callbackLookup);
+    }
+
+    /**
+     * Process the security headers of a batch of SOAP envelopes, given as W3C documents. Each
+     * document is processed with a copy of the given RequestData (see
+     * {@link RequestData#RequestData(RequestData)}), so that the Crypto instances (and so the
+     * certificate lookups and trust verifications they cache), the ReplayCaches, the WSSConfig
+     * etc. of the RequestData are shared between the documents, whereas the state of processing a
+     * document is not.
+     *
+     * The documents are processed concurrently with the given Executor. A document that the
+     * Executor rejects, or that it has not started to process by the time the calling thread
+     * waits for it, is processed on the calling thread. If the Executor is null, then all of the
+     * documents are processed on the calling thread. Any CallbackLookup that is set on this
+     * WSSecurityEngine is not used, as it applies to a single document.
+     *
+     * @param docs the SOAP envelopes as {@link Document}s
+     * @param requestData the RequestData with which to process each document. It is not modified.
+     * @param executor the Executor with which to process the documents (can be null)
+     * @return a WSSecurityBatchResult for each document, in the order of the given documents,
+     *         containing either the WSHandlerResult of the document or the exception with which
+     *         its processing failed
+     * @throws WSSecurityException if the calling thread is interrupted
+     */
+    public List<WSSecurityBatchResult> processSecurityHeaders(
+        List<Document> docs, RequestData requestData, Executor executor
+    ) throws WSSecurityException {
+        // Initialise the (shared) WSSConfig before the documents are processed concurrently
+        WSSConfig engineConfig = getWssConfig();
+        WSSConfig cfg = requestData.getWssConfig() != null ? requestData.getWssConfig() : engineConfig;
+
+        List<FutureTask<WSSecurityBatchResult>> tasks = new ArrayList<>(docs.size());
+        for (final Document doc : docs) {
+            final RequestData data = new RequestData(requestData);
+            data.setWssConfig(cfg);
+            if (data.getActor() == null) {
+                data.setActor("");
+            }
+            FutureTask<WSSecurityBatchResult> task =
+                new FutureTask<>(() -> processBatchedSecurityHeader(doc, data));
+            if (executor != null) {
+                try {
+                    executor.execute(task);
+                } catch (RejectedExecutionException ex) {
+                    LOG.debug("Processing a batched security header on the calling thread");
+                }
+            }
+            tasks.add(task);
+        }
+
+        List<WSSecurityBatchResult> results = new ArrayList<>(docs.size());
+        try {
+            for (FutureTask<WSSecurityBatchResult> task : tasks) {
+                // Run the task here if the Executor has not started it yet
+                task.run();
+                results.add(task.get());
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new WSSecurityException(WSSecurityException.ErrorCode.FAILURE, ex);
+        } catch (ExecutionException ex) {
+            // processBatchedSecurityHeader only throws Errors
+            throw (Error)ex.getCause();
+        }
+        return results;
+    }
+
+    private WSSecurityBatchResult processBatchedSecurityHeader(Document doc, RequestData requestData) {
+        try {
+            WSHandlerResult handlerResult = null;
+            Element securityHeader = WSSecurityUtil.getSecurityHeader(doc, requestData.getActor());
+            if (securityHeader != null) {
+                handlerResult = processSecurityHeader(securityHeader, requestData, null);
+            }
+            return new WSSecurityBatchResult(doc, handlerResult);
+        } catch (WSSecurityException ex) {
+            LOG.debug(ex.getMessage(), ex);
+            return new WSSecurityBatchResult(doc, ex);
+        } catch (RuntimeException ex) {
+            LOG.debug(ex.getMessage(), ex);
+            return new WSSecurityBatchResult(
+                doc, new WSSecurityException(WSSecurityException.ErrorCode.FAILURE, ex)
+            );
+        }
+    }
+
+    private WSHandlerResult processSecurityHeader(
+        Element securityHeader,
+        RequestData requestData,
+        CallbackLookup callbackLookup
     ) throws WSSecurityException {
         if (securityHeader == null) {
             List<WSSecurityEngineResult> results = Collections.emptyList();
@@ -307,7 +404,7 @@ public class WSSecurityEngine {
         WSDocInfo wsDocInfo = new WSDocInfo(securityHeader.getOwnerDocument());
         CallbackLookup callbackLookupToUse = callbackLookup;
         if (callbackLookupToUse == null) {
-            callbackLookupToUse = new DOMCallbackLookup(securityHeader.getOwnerDocument());
+            callbackLookupToUse = new IndexedCallbackLookup(securityHeader.getOwnerDocument());
         }
         wsDocInfo.setCallbackLookup(callbackLookupToUse);
         wsDocInfo.setCrypto(requestData.getSigVerCrypto());
@@ -364,7 +461,8 @@ public class WSSecurityEngine {
         }
 
         WSHandlerResult handlerResult =
-            new WSHandlerResult(requestData.getActor(), returnResults, wsDocInfo.getActionResults());
+            new WSHandlerResult(requestData.getActor(), returnResults, wsDocInfo.getActionResults(),
+                                wsDocInfo.getPendingDecryptions());
 
         // Validate SAML Subject Confirmation requirements
         if (requestData.isValidateSamlSubjectConfirmation()) {
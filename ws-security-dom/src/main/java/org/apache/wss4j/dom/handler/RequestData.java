@@ -26,6 +26,7 @@ import java.util.Collections;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Executor;
 import java.util.regex.Pattern;
 
 import javax.security.auth.callback.CallbackHandler;
@@ -39,6 +40,7 @@ import org.apache.wss4j.common.bsp.BSPRule;
 import org.apache.wss4j.common.cache.ReplayCache;
 import org.apache.wss4j.common.crypto.AlgorithmSuite;
 import org.apache.wss4j.common.crypto.Crypto;
+import org.apache.wss4j.common.crypto.DecryptedKeyCache;
 import org.apache.wss4j.common.crypto.PasswordEncryptor;
 import org.apache.wss4j.common.ext.WSSecurityException;
 import org.apache.wss4j.dom.SOAPConstants;
@@ -95,6 +97,10 @@ public class RequestData {
     private boolean storeBytesInAttachment;
     private Serializer encryptionSerializer;
     private WSDocInfo wsDocInfo;
+    private boolean parallelSignatureReferenceDigest;
+    private Executor signatureReferenceDigestExecutor;
+    private boolean lazyDecryption;
+    private DecryptedKeyCache decryptedKeyCache;
 
     /**
      * Whether to add an InclusiveNamespaces PrefixList as a CanonicalizationMethod
@@ -196,6 +202,77 @@ public class RequestData {
 
     private boolean expandXopInclude;
 
+    public RequestData() {
+        // complete
+    }
+
+    /**
+     * Create a new RequestData with the same configuration as the given RequestData, so that a
+     * number of messages can be processed with the same configuration. The Crypto, ReplayCache,
+     * CallbackHandler, WSSConfig etc. instances are shared and not copied. The state of processing
+     * a message (the WSDocInfo, the signature values and the security header) is not copied.
+     * @param requestData the RequestData to copy the configuration from
+     */
+    public RequestData(RequestData requestData) {
+        msgContext = requestData.msgContext;
+        soapConstants = requestData.soapConstants;
+        actor = requestData.actor;
+        username = requestData.username;
+        pwType = requestData.pwType;
+        sigVerCrypto = requestData.sigVerCrypto;
+        decCrypto = requestData.decCrypto;
+        signatureToken = requestData.signatureToken;
+        encryptionToken = requestData.encryptionToken;
+        wssConfig = requestData.wssConfig;
+        derivedKeyIterations = requestData.derivedKeyIterations;
+        useDerivedKeyForMAC = requestData.useDerivedKeyForMAC;
+        callback = requestData.callback;
+        attachmentCallbackHandler = requestData.attachmentCallbackHandler;
+        enableRevocation = requestData.enableRevocation;
+        requireSignedEncryptedDataElements = requestData.requireSignedEncryptedDataElements;
+        timestampReplayCache = requestData.timestampReplayCache;
+        nonceReplayCache = requestData.nonceReplayCache;
+        samlOneTimeUseReplayCache = requestData.samlOneTimeUseReplayCache;
+        subjectDNPatterns = new ArrayList<>(requestData.subjectDNPatterns);
+        issuerDNPatterns = new ArrayList<>(requestData.issuerDNPatterns);
+        ignoredBSPRules.addAll(requestData.ignoredBSPRules);
+        appendSignatureAfterTimestamp = requestData.appendSignatureAfterTimestamp;
+        originalSignatureActionPosition = requestData.originalSignatureActionPosition;
+        algorithmSuite = requestData.algorithmSuite;
+        samlAlgorithmSuite = requestData.samlAlgorithmSuite;
+        disableBSPEnforcement = requestData.disableBSPEnforcement;
+        allowRSA15KeyTransportAlgorithm = requestData.allowRSA15KeyTransportAlgorithm;
+        addUsernameTokenNonce = requestData.addUsernameTokenNonce;
+        addUsernameTokenCreated = requestData.addUsernameTokenCreated;
+        tlsCerts = requestData.tlsCerts;
+        passwordEncryptor = requestData.passwordEncryptor;
+        derivedKeyTokenReference = requestData.derivedKeyTokenReference;
+        use200512Namespace = requestData.use200512Namespace;
+        audienceRestrictions.addAll(requestData.audienceRestrictions);
+        requireTimestampExpires = requestData.requireTimestampExpires;
+        storeBytesInAttachment = requestData.storeBytesInAttachment;
+        encryptionSerializer = requestData.encryptionSerializer;
+        parallelSignatureReferenceDigest = requestData.parallelSignatureReferenceDigest;
+        signatureReferenceDigestExecutor = requestData.signatureReferenceDigestExecutor;
+        lazyDecryption = requestData.lazyDecryption;
+        decryptedKeyCache = requestData.decryptedKeyCache;
+        addInclusivePrefixes = requestData.addInclusivePrefixes;
+        precisionInMilliSeconds = requestData.precisionInMilliSeconds;
+        enableSignatureConfirmation = requestData.enableSignatureConfirmation;
+        timeStampStrict = requestData.timeStampStrict;
+        requiredPasswordType = requestData.requiredPasswordType;
+        allowUsernameTokenNoPassword = requestData.allowUsernameTokenNoPassword;
+        timeStampTTL = requestData.timeStampTTL;
+        timeStampFutureTTL = requestData.timeStampFutureTTL;
+        utTTL = requestData.utTTL;
+        utFutureTTL = requestData.utFutureTTL;
+        handleCustomPasswordTypes = requestData.handleCustomPasswordTypes;
+        allowNamespaceQualifiedPasswordTypes = requestData.allowNamespaceQualifiedPasswordTypes;
+        encodePasswords = requestData.encodePasswords;
+        validateSamlSubjectConfirmation = requestData.validateSamlSubjectConfirmation;
+        expandXopInclude = requestData.expandXopInclude;
+    }
+
     public Object getMsgContext() {
         return msgContext;
     }
@@ -740,6 +817,64 @@ public class RequestData {
         this.expandXopInclude = expandXopInclude;
     }
 
+    public boolean isParallelSignatureReferenceDigest() {
+        return parallelSignatureReferenceDigest;
+    }
+
+    /**
+     * Set whether to digest the References of a received Signature concurrently. This assumes
+     * that the DOM implementation supports concurrent reads of a document that is not modified.
+     * References with a Transform that might modify the document are digested first, on the
+     * calling thread. References to attachments are digested on the calling thread as well.
+     * @param parallelSignatureReferenceDigest whether to digest the References of a received
+     * Signature concurrently
+     */
+    public void setParallelSignatureReferenceDigest(boolean parallelSignatureReferenceDigest) {
+        this.parallelSignatureReferenceDigest = parallelSignatureReferenceDigest;
+    }
+
+    public Executor getSignatureReferenceDigestExecutor() {
+        return signatureReferenceDigestExecutor;
+    }
+
+    /**
+     * Set the Executor with which to digest the References of a received Signature concurrently.
+     * If it is not set, then the common ForkJoinPool is used.
+     * @param signatureReferenceDigestExecutor the Executor with which to digest the References
+     * of a received Signature concurrently
+     */
+    public void setSignatureReferenceDigestExecutor(Executor signatureReferenceDigestExecutor) {
+        this.signatureReferenceDigestExecutor = signatureReferenceDigestExecutor;
+    }
+
+    public boolean isLazyDecryption() {
+        return lazyDecryption;
+    }
+
+    /**
+     * Set whether to defer the decryption of EncryptedData elements in the SOAP Body until the
+     * decrypted content is accessed
+     * @param lazyDecryption whether to defer the decryption of EncryptedData elements in the
+     * SOAP Body
+     */
+    public void setLazyDecryption(boolean lazyDecryption) {
+        this.lazyDecryption = lazyDecryption;
+    }
+
+    public DecryptedKeyCache getDecryptedKeyCache() {
+        return decryptedKeyCache;
+    }
+
+    /**
+     * Set a cache of the session keys of (asymmetrically) encrypted keys that have been unwrapped
+     * successfully. If it is set, then the private key operation is not repeated if the same
+     * EncryptedKey is received again within the time to live of the cache.
+     * @param decryptedKeyCache the cache of unwrapped session keys
+     */
+    public void setDecryptedKeyCache(DecryptedKeyCache decryptedKeyCache) {
+        this.decryptedKeyCache = decryptedKeyCache;
+    }
+
     public Serializer getEncryptionSerializer() {
         return encryptionSerializer;
     }
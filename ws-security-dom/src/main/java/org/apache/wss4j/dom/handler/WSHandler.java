@@ -30,6 +30,7 @@ import java.util.Map;
 import java.util.Properties;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
 import java.util.regex.Pattern;
 import java.util.regex.PatternSyntaxException;
 
@@ -47,6 +48,7 @@ import org.apache.wss4j.common.WSEncryptionPart;
 import org.apache.wss4j.common.crypto.AlgorithmSuite;
 import org.apache.wss4j.common.crypto.Crypto;
 import org.apache.wss4j.common.crypto.CryptoFactory;
+import org.apache.wss4j.common.crypto.DecryptedKeyCache;
 import org.apache.wss4j.common.crypto.JasyptPasswordEncryptor;
 import org.apache.wss4j.common.crypto.PasswordEncryptor;
 import org.apache.wss4j.common.ext.WSPasswordCallback;
@@ -361,6 +363,30 @@ public abstract class WSHandler {
         reqData.setRequireTimestampExpires(
             decodeBooleanConfigValue(mc, WSHandlerConstants.REQUIRE_TIMESTAMP_EXPIRES, false)
         );
+        reqData.setLazyDecryption(
+            decodeBooleanConfigValue(mc, WSHandlerConstants.LAZY_DECRYPTION, false)
+        );
+        reqData.setParallelSignatureReferenceDigest(
+            decodeBooleanConfigValue(mc, WSHandlerConstants.PARALLEL_SIGNATURE_REFERENCE_DIGEST, false)
+        );
+        if (reqData.getSignatureReferenceDigestExecutor() == null) {
+            Object executor = getOption(WSHandlerConstants.SIGNATURE_REFERENCE_DIGEST_EXECUTOR);
+            if (!(executor instanceof Executor)) {
+                executor = getProperty(mc, WSHandlerConstants.SIGNATURE_REFERENCE_DIGEST_EXECUTOR);
+            }
+            if (executor instanceof Executor) {
+                reqData.setSignatureReferenceDigestExecutor((Executor)executor);
+            }
+        }
+        if (reqData.getDecryptedKeyCache() == null) {
+            Object decryptedKeyCache = getOption(WSHandlerConstants.DECRYPTED_KEY_CACHE_INSTANCE);
+            if (!(decryptedKeyCache instanceof DecryptedKeyCache)) {
+                decryptedKeyCache = getProperty(mc, WSHandlerConstants.DECRYPTED_KEY_CACHE_INSTANCE);
+            }
+            if (decryptedKeyCache instanceof DecryptedKeyCache) {
+                reqData.setDecryptedKeyCache((DecryptedKeyCache)decryptedKeyCache);
+            }
+        }
     }
 
     protected boolean checkReceiverResults(
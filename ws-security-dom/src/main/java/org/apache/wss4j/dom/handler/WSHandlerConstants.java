@@ -60,6 +60,44 @@ public final class WSHandlerConstants extends ConfigurationConstants {
      */
     public static final String USE_ENCODED_PASSWORDS = "useEncodedPasswords";
 
+    /**
+     * Set the value of this parameter to true to digest the References of a received Signature
+     * concurrently, rather than one after the other. The References are digested once the
+     * signature value has been checked. References with a Transform that might modify the
+     * document (e.g. the STR Transform) and References to attachments are always digested on the
+     * calling thread, so the attachment CallbackHandler is not called concurrently. Note that the
+     * DOM implementation must support concurrent reads of a document that is not modified. The
+     * default value is "false".
+     */
+    public static final String PARALLEL_SIGNATURE_REFERENCE_DIGEST = "parallelSignatureReferenceDigest";
+
+    /**
+     * Set the value of this parameter to true to defer the decryption of EncryptedData elements
+     * in the SOAP Body until the decrypted content is accessed, either via
+     * WSHandlerResult.getDecryptedElement or WSHandlerResult.decryptAll, or when it is
+     * referenced by a Signature. The symmetric key is still obtained and checked when the
+     * security header is processed. EncryptedData elements in the security header, encrypted
+     * SOAP headers and attachments are always decrypted straightaway. The default value is
+     * "false".
+     */
+    public static final String LAZY_DECRYPTION = "lazyDecryption";
+
+    /**
+     * This holds a reference to a java.util.concurrent.Executor instance that is used to digest
+     * the References of a received Signature concurrently, if PARALLEL_SIGNATURE_REFERENCE_DIGEST
+     * is enabled. Any Executor can be used, e.g. one that runs each task on a new virtual thread.
+     * The default is the common ForkJoinPool.
+     */
+    public static final String SIGNATURE_REFERENCE_DIGEST_EXECUTOR = "signatureReferenceDigestExecutor";
+
+    /**
+     * This holds a reference to a DecryptedKeyCache instance that is used to cache the session
+     * keys of (asymmetrically) encrypted keys that have been unwrapped successfully, so that the
+     * private key operation is not repeated if a client sends the same EncryptedKey again. There
+     * is no default, i.e. the session keys are not cached.
+     */
+    public static final String DECRYPTED_KEY_CACHE_INSTANCE = "decryptedKeyCacheInstance";
+
     //
     // Internal storage constants
     //
@@ -19,15 +19,21 @@
 
 package org.apache.wss4j.dom.handler;
 
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 
+import org.apache.wss4j.common.ext.WSSecurityException;
+import org.apache.wss4j.dom.PendingDecryption;
+import org.apache.wss4j.dom.WSDataRef;
 import org.apache.wss4j.dom.engine.WSSecurityEngineResult;
+import org.w3c.dom.Element;
 
 public class WSHandlerResult {
     private final String actor;
     private final List<WSSecurityEngineResult> wsSecurityResults;
     private final Map<Integer, List<WSSecurityEngineResult>> actionResults;
+    private final List<PendingDecryption> pendingDecryptions;
 
     /**
      * constructor
@@ -36,9 +42,23 @@ public class WSHandlerResult {
      */
     public WSHandlerResult(String actor, List<WSSecurityEngineResult> results,
                            Map<Integer, List<WSSecurityEngineResult>> actionResults) {
+        this(actor, results, actionResults, Collections.<PendingDecryption>emptyList());
+    }
+
+    /**
+     * constructor
+     * @param actor
+     * @param results
+     * @param actionResults
+     * @param pendingDecryptions the deferred decryptions, if lazy decryption is enabled
+     */
+    public WSHandlerResult(String actor, List<WSSecurityEngineResult> results,
+                           Map<Integer, List<WSSecurityEngineResult>> actionResults,
+                           List<PendingDecryption> pendingDecryptions) {
         this.actor = actor;
         this.wsSecurityResults = results;
         this.actionResults = actionResults;
+        this.pendingDecryptions = pendingDecryptions;
     }
 
     /**
@@ -60,4 +80,42 @@ public class WSHandlerResult {
     public Map<Integer, List<WSSecurityEngineResult>> getActionResults() {
         return actionResults;
     }
+
+    /**
+     * Get the decrypted Element of the given WSDataRef. If its decryption was deferred, then the
+     * EncryptedData element is decrypted first.
+     * @param dataRef a WSDataRef of the security results
+     * @return the decrypted (protected) Element
+     * @throws WSSecurityException
+     */
+    public Element getDecryptedElement(WSDataRef dataRef) throws WSSecurityException {
+        for (PendingDecryption pendingDecryption : pendingDecryptions) {
+            if (pendingDecryption.getDataRef() == dataRef) {
+                return pendingDecryption.decrypt();
+            }
+        }
+        return dataRef.getProtectedElement();
+    }
+
+    /**
+     * Decrypt all of the EncryptedData elements whose decryption was deferred
+     * @throws WSSecurityException
+     */
+    public void decryptAll() throws WSSecurityException {
+        for (PendingDecryption pendingDecryption : pendingDecryptions) {
+            pendingDecryption.decrypt();
+        }
+    }
+
+    /**
+     * @return whether the decryption of any EncryptedData element is still pending
+     */
+    public boolean isDecryptionPending() {
+        for (PendingDecryption pendingDecryption : pendingDecryptions) {
+            if (!pendingDecryption.isDecrypted()) {
+                return true;
+            }
+        }
+        return false;
+    }
 }
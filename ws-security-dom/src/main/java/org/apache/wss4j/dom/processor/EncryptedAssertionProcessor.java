@@ -20,7 +20,7 @@
 package org.apache.wss4j.dom.processor;
 
 import java.util.Collections;
-import java.util.LinkedList;
+import java.util.ArrayList;
 import java.util.List;
 
 import javax.xml.namespace.QName;
@@ -31,6 +31,7 @@ import org.apache.wss4j.common.ext.WSSecurityException;
 import org.apache.wss4j.common.util.XMLUtils;
 import org.apache.wss4j.dom.WSConstants;
 import org.apache.wss4j.dom.WSDataRef;
+import org.apache.wss4j.dom.callback.CallbackLookup;
 import org.apache.wss4j.dom.engine.WSSecurityEngineResult;
 import org.apache.wss4j.dom.handler.RequestData;
 
@@ -55,7 +56,7 @@ public class EncryptedAssertionProcessor implements Processor {
             return Collections.emptyList();
         }
 
-        List<WSSecurityEngineResult> completeResults = new LinkedList<>();
+        List<WSSecurityEngineResult> completeResults = new ArrayList<>();
 
         // Check all EncryptedKey elements
         for (Node currentChild = elem.getFirstChild();
@@ -88,6 +89,7 @@ public class EncryptedAssertionProcessor implements Processor {
                             || WSConstants.SAML2_TOKEN.equals(dataRef.getName())) {
                             // Get hold of the plain text element
                             Element decryptedElem = dataRef.getProtectedElement();
+                            elementAdded(decryptedElem, request);
                             QName el = new QName(decryptedElem.getNamespaceURI(), decryptedElem.getLocalName());
                             Processor proc = request.getWssConfig().getProcessor(el);
                             if (proc != null) {
@@ -119,10 +121,32 @@ public class EncryptedAssertionProcessor implements Processor {
         Processor proc = request.getWssConfig().getProcessor(el);
         if (proc != null) {
             LOG.debug("Processing decrypted element with: {}", proc.getClass().getName());
-            return proc.handleToken(encryptedDataElement, request);
+            List<WSSecurityEngineResult> results = proc.handleToken(encryptedDataElement, request);
+            for (WSSecurityEngineResult r : results) {
+                @SuppressWarnings("unchecked")
+                List<WSDataRef> dataRefs =
+                    (List<WSDataRef>)r.get(WSSecurityEngineResult.TAG_DATA_REF_URIS);
+                if (dataRefs != null) {
+                    for (WSDataRef dataRef : dataRefs) {
+                        elementAdded(dataRef.getProtectedElement(), request);
+                    }
+                }
+            }
+            return results;
         }
 
         return Collections.emptyList();
     }
 
+    /**
+     * Tell the CallbackLookup that the decrypted Assertion was added to the document, so that
+     * an Id index of the document can find it.
+     */
+    private static void elementAdded(Element decryptedElem, RequestData request) {
+        CallbackLookup callbackLookup = request.getWsDocInfo().getCallbackLookup();
+        if (decryptedElem != null && callbackLookup != null) {
+            callbackLookup.elementAdded(decryptedElem);
+        }
+    }
+
 }
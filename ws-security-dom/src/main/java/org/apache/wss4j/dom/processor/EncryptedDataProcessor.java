@@ -22,7 +22,6 @@ package org.apache.wss4j.dom.processor;
 import java.security.Principal;
 import java.util.ArrayList;
 import java.util.Collections;
-import java.util.LinkedList;
 import java.util.List;
 
 import javax.crypto.SecretKey;
@@ -38,6 +37,7 @@ import org.apache.wss4j.common.util.KeyUtils;
 import org.apache.wss4j.common.util.XMLUtils;
 import org.apache.wss4j.dom.WSConstants;
 import org.apache.wss4j.dom.WSDataRef;
+import org.apache.wss4j.dom.callback.CallbackLookup;
 import org.apache.wss4j.dom.engine.WSSConfig;
 import org.apache.wss4j.dom.engine.WSSecurityEngineResult;
 import org.apache.wss4j.dom.handler.RequestData;
@@ -161,6 +161,10 @@ public class EncryptedDataProcessor implements Processor {
         WSDataRef dataRef = EncryptionUtils.decryptEncryptedData(
                 elem.getOwnerDocument(), encryptedDataId, elem, key, symEncAlgo,
                 data.getAttachmentCallbackHandler(), data.getEncryptionSerializer());
+        CallbackLookup callbackLookup = data.getWsDocInfo().getCallbackLookup();
+        if (dataRef.getProtectedElement() != null && callbackLookup != null) {
+            callbackLookup.elementAdded(dataRef.getProtectedElement());
+        }
 
         WSSecurityEngineResult result =
                 new WSSecurityEngineResult(WSConstants.ENCR, Collections.singletonList(dataRef));
@@ -170,7 +174,7 @@ public class EncryptedDataProcessor implements Processor {
         data.getWsDocInfo().addResult(result);
         data.getWsDocInfo().addTokenElement(elem);
 
-        List<WSSecurityEngineResult> completeResults = new LinkedList<>();
+        List<WSSecurityEngineResult> completeResults = new ArrayList<>();
         if (encrKeyResults != null) {
             completeResults.addAll(encrKeyResults);
         }
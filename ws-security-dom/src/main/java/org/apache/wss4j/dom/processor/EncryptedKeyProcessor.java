@@ -22,6 +22,7 @@ package org.apache.wss4j.dom.processor;
 import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.ByteBuffer;
 import java.security.NoSuchAlgorithmException;
 import java.security.NoSuchProviderException;
 import java.security.PrivateKey;
@@ -30,6 +31,7 @@ import java.security.PublicKey;
 import java.security.cert.X509Certificate;
 import java.security.spec.MGF1ParameterSpec;
 import java.util.ArrayList;
+import java.util.Base64;
 import java.util.Collections;
 import java.util.List;
 
@@ -48,6 +50,7 @@ import org.apache.wss4j.common.bsp.BSPRule;
 import org.apache.wss4j.common.crypto.AlgorithmSuite;
 import org.apache.wss4j.common.crypto.AlgorithmSuiteValidator;
 import org.apache.wss4j.common.crypto.CryptoType;
+import org.apache.wss4j.common.crypto.DecryptedKeyCache;
 import org.apache.wss4j.common.ext.WSSecurityException;
 import org.apache.wss4j.common.token.DOMX509IssuerSerial;
 import org.apache.wss4j.common.token.SecurityTokenReference;
@@ -226,7 +229,7 @@ public class EncryptedKeyProcessor implements Processor {
             PrivateKey privateKey = getPrivateKey(data, certs, publicKey);
             decryptedBytes = getAsymmetricDecryptedBytes(data, data.getWsDocInfo(), encryptedKeyTransportMethod,
                                                          encryptedEphemeralKey, refList,
-                                                         elem, privateKey);
+                                                         elem, privateKey, certs, publicKey);
         }
 
         List<WSDataRef> dataRefs = decryptDataRefs(refList, data.getWsDocInfo(), decryptedBytes, data);
@@ -298,11 +301,34 @@ public class EncryptedKeyProcessor implements Processor {
         byte[] encryptedEphemeralKey,
         Element refList,
         Element encryptedKeyElement,
-        PrivateKey privateKey
+        PrivateKey privateKey,
+        X509Certificate[] certs,
+        PublicKey publicKey
     ) throws WSSecurityException {
         if (data.getDecCrypto() == null) {
             throw new WSSecurityException(WSSecurityException.ErrorCode.FAILURE, "noDecCryptoFile");
         }
+
+        // See if the same encrypted key has been unwrapped successfully before
+        DecryptedKeyCache decryptedKeyCache = data.getDecryptedKeyCache();
+        ByteBuffer cacheKey = null;
+        if (decryptedKeyCache != null) {
+            byte[] pSourceBytes = EncryptionUtils.getPSource(encryptedKeyElement);
+            cacheKey =
+                decryptedKeyCache.createKey(
+                    encryptedEphemeralKey, encryptedKeyTransportMethod,
+                    certs != null && certs.length > 0 ? certs[0] : null, publicKey,
+                    EncryptionUtils.getDigestAlgorithm(encryptedKeyElement),
+                    EncryptionUtils.getMGFAlgorithm(encryptedKeyElement),
+                    pSourceBytes == null ? null : Base64.getEncoder().encodeToString(pSourceBytes)
+                );
+            byte[] cachedBytes = decryptedKeyCache.get(cacheKey);
+            if (cachedBytes != null) {
+                LOG.debug("Using the cached session key of the encrypted key");
+                return cachedBytes;
+            }
+        }
+
         String cryptoProvider = data.getDecCrypto().getCryptoProvider();
         Cipher cipher = KeyUtils.getCipherInstance(encryptedKeyTransportMethod, cryptoProvider);
         try {
@@ -353,7 +379,12 @@ public class EncryptedKeyProcessor implements Processor {
 
         try {
             String keyAlgorithm = JCEMapper.translateURItoJCEID(encryptedKeyTransportMethod);
-            return cipher.unwrap(encryptedEphemeralKey, keyAlgorithm, Cipher.SECRET_KEY).getEncoded();
+            byte[] decryptedBytes = cipher.unwrap(encryptedEphemeralKey, keyAlgorithm, Cipher.SECRET_KEY).getEncoded();
+            if (cacheKey != null) {
+                // Only a successful unwrap is cached
+                decryptedKeyCache.put(cacheKey, decryptedBytes);
+            }
+            return decryptedBytes;
         } catch (IllegalStateException ex) {
             throw new WSSecurityException(WSSecurityException.ErrorCode.FAILED_CHECK, ex);
         } catch (Exception ex) {
@@ -531,6 +562,9 @@ public class EncryptedKeyProcessor implements Processor {
 
                 WSDataRef dataRef =
                     decryptDataRef(refList.getOwnerDocument(), dataRefURI, docInfo, decryptedBytes, data);
+                if (dataRef.getProtectedElement() != null && docInfo.getCallbackLookup() != null) {
+                    docInfo.getCallbackLookup().elementAdded(dataRef.getProtectedElement());
+                }
                 dataRefs.add(dataRef);
             }
         }
@@ -599,9 +633,8 @@ public class EncryptedKeyProcessor implements Processor {
             algorithmSuiteValidator.checkSymmetricEncryptionAlgorithm(symEncAlgo);
         }
 
-        return EncryptionUtils.decryptEncryptedData(
-            doc, dataRefURI, encryptedDataElement, symmetricKey, symEncAlgo, data.getAttachmentCallbackHandler(),
-            data.getEncryptionSerializer()
+        return EncryptionUtils.decryptOrDeferEncryptedData(
+            doc, dataRefURI, encryptedDataElement, symmetricKey, symEncAlgo, data
         );
     }
 
@@ -41,6 +41,7 @@ import org.apache.wss4j.common.util.KeyUtils;
 import org.apache.wss4j.common.util.XMLUtils;
 import org.apache.wss4j.dom.WSConstants;
 import org.apache.wss4j.dom.WSDataRef;
+import org.apache.wss4j.dom.callback.CallbackLookup;
 import org.apache.wss4j.dom.engine.WSSecurityEngineResult;
 import org.apache.wss4j.dom.handler.RequestData;
 import org.apache.wss4j.dom.str.STRParser;
@@ -97,6 +98,10 @@ public class ReferenceListProcessor implements Processor {
                 if (!data.getWsDocInfo().hasResult(WSConstants.ENCR, dataRefURI)) {
                     WSDataRef dataRef =
                         decryptDataRefEmbedded(elem.getOwnerDocument(), dataRefURI, data);
+                    CallbackLookup callbackLookup = data.getWsDocInfo().getCallbackLookup();
+                    if (dataRef.getProtectedElement() != null && callbackLookup != null) {
+                        callbackLookup.elementAdded(dataRef.getProtectedElement());
+                    }
                     dataRefs.add(dataRef);
                 }
             }
@@ -190,9 +195,8 @@ public class ReferenceListProcessor implements Processor {
         }
 
         return
-            EncryptionUtils.decryptEncryptedData(
-                doc, dataRefURI, encryptedDataElement, symmetricKey, symEncAlgo, data.getAttachmentCallbackHandler(),
-                data.getEncryptionSerializer()
+            EncryptionUtils.decryptOrDeferEncryptedData(
+                doc, dataRefURI, encryptedDataElement, symmetricKey, symEncAlgo, data
             );
     }
 
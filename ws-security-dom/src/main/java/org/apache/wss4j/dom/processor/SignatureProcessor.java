@@ -32,7 +32,11 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Base64;
 import java.util.List;
-import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
 
 import javax.xml.crypto.Data;
 import javax.xml.crypto.NodeSetData;
@@ -43,6 +47,7 @@ import javax.xml.crypto.dsig.SignedInfo;
 import javax.xml.crypto.dsig.Transform;
 import javax.xml.crypto.dsig.XMLObject;
 import javax.xml.crypto.dsig.XMLSignature;
+import javax.xml.crypto.dsig.XMLSignatureException;
 import javax.xml.crypto.dsig.XMLSignatureFactory;
 import javax.xml.crypto.dsig.XMLValidateContext;
 import javax.xml.crypto.dsig.dom.DOMValidateContext;
@@ -52,6 +57,7 @@ import javax.xml.crypto.dsig.spec.HMACParameterSpec;
 import org.apache.wss4j.common.bsp.BSPEnforcer;
 import org.apache.wss4j.common.bsp.BSPRule;
 import org.apache.wss4j.common.cache.ReplayCache;
+import org.apache.wss4j.common.cache.ReplayCacheFullException;
 import org.apache.wss4j.common.crypto.AlgorithmSuite;
 import org.apache.wss4j.common.crypto.AlgorithmSuiteValidator;
 import org.apache.wss4j.common.crypto.Crypto;
@@ -86,12 +92,15 @@ import org.apache.wss4j.dom.validate.Credential;
 import org.apache.wss4j.dom.validate.Validator;
 import org.w3c.dom.Document;
 import org.w3c.dom.Element;
+import org.w3c.dom.NamedNodeMap;
 import org.w3c.dom.Node;
 
 public class SignatureProcessor implements Processor {
     private static final org.slf4j.Logger LOG =
         org.slf4j.LoggerFactory.getLogger(SignatureProcessor.class);
 
+    private static final String CACHE_REFERENCE = "javax.xml.crypto.dsig.cacheReference";
+
     private XMLSignatureFactory signatureFactory;
 
     public SignatureProcessor() {
@@ -346,7 +355,7 @@ public class SignatureProcessor implements Processor {
         }
 
         XMLValidateContext context = new DOMValidateContext(key, elem);
-        context.setProperty("javax.xml.crypto.dsig.cacheReference", Boolean.TRUE);
+        context.setProperty(CACHE_REFERENCE, Boolean.TRUE);
         context.setProperty("org.apache.jcp.xml.dsig.secureValidation", Boolean.TRUE);
         context.setProperty("org.jcp.xml.dsig.secureValidation", Boolean.TRUE);
         context.setProperty(STRTransform.TRANSFORM_WS_DOC_INFO, wsDocInfo);
@@ -370,7 +379,16 @@ public class SignatureProcessor implements Processor {
             testMessageReplay(elem, xmlSignature.getSignatureValue().getValue(), key, data, wsDocInfo);
 
             setElementsOnContext(xmlSignature, (DOMValidateContext)context, data, wsDocInfo);
-            boolean signatureOk = xmlSignature.validate(context);
+            // Check the SignatureValue (which caches the result) before any Reference is digested,
+            // so that the attachments are not read for a Signature that does not verify
+            boolean signatureOk = xmlSignature.getSignatureValue().validate(context);
+            if (signatureOk) {
+                digestAttachmentReferences(xmlSignature, context);
+                if (data.isParallelSignatureReferenceDigest()) {
+                    digestReferences(xmlSignature, context, data.getSignatureReferenceDigestExecutor());
+                }
+                signatureOk = xmlSignature.validate(context);
+            }
             if (signatureOk) {
                 return xmlSignature;
             }
@@ -382,9 +400,10 @@ public class SignatureProcessor implements Processor {
                 boolean signatureValidationCheck =
                     xmlSignature.getSignatureValue().validate(context);
                 LOG.debug("Signature Validation check: " + signatureValidationCheck);
+                // The References (and so the attachments) are not digested for an invalid SignatureValue
                 java.util.Iterator<?> referenceIterator =
                     xmlSignature.getSignedInfo().getReferences().iterator();
-                while (referenceIterator.hasNext()) {
+                while (signatureValidationCheck && referenceIterator.hasNext()) {
                     Reference reference = (Reference)referenceIterator.next();
                     boolean referenceValidationCheck = reference.validate(context);
                     String id = reference.getId();
@@ -425,6 +444,20 @@ public class SignatureProcessor implements Processor {
             Reference reference = (Reference)referenceIterator.next();
             String uri = reference.getURI();
             Element element = callbackLookup.getAndRegisterElement(uri, null, true, context);
+            if (!wsDocInfo.getPendingDecryptions().isEmpty()) {
+                // The signed content must be decrypted before it can be digested. If the
+                // Element is not found, then it might be part of the encrypted content.
+                if (element == null) {
+                    wsDocInfo.decryptPending(null);
+                    element = callbackLookup.getAndRegisterElement(uri, null, true, context);
+                } else {
+                    wsDocInfo.decryptPending(element);
+                }
+            }
+            if (element != null && data.isLazyDecryption()) {
+                // A deferred decryption must not add another Element with the same Id later on
+                wsDocInfo.addSignedId(XMLUtils.getIDFromReference(uri));
+            }
             if (element == null) {
                 wsDocInfo.setTokenOnContext(uri, context);
             } else if ("BinarySecurityToken".equals(element.getLocalName())
@@ -453,6 +486,155 @@ public class SignatureProcessor implements Processor {
         }
     }
 
+    /**
+     * Digest the References to attachments without caching the References. A cached Reference
+     * holds a copy of its complete digest input, i.e. of the whole (possibly very large)
+     * attachment. The References cache the result of their validation, so that it is returned
+     * by the subsequent validation of the XMLSignature.
+     * @param xmlSignature the XMLSignature object to get the references from
+     * @param context the ValidateContext
+     * @throws XMLSignatureException
+     */
+    private void digestAttachmentReferences(
+        XMLSignature xmlSignature,
+        XMLValidateContext context
+    ) throws XMLSignatureException {
+        Object cacheReference = context.getProperty(CACHE_REFERENCE);
+        try {
+            for (Object object : xmlSignature.getSignedInfo().getReferences()) {
+                Reference reference = (Reference)object;
+                if (isAttachmentReference(reference.getURI())) {
+                    context.setProperty(CACHE_REFERENCE, Boolean.FALSE);
+                    reference.validate(context);
+                }
+            }
+        } finally {
+            context.setProperty(CACHE_REFERENCE, cacheReference);
+        }
+    }
+
+    private static boolean isAttachmentReference(String uri) {
+        return uri != null && uri.startsWith("cid:");
+    }
+
+    /**
+     * Digest the References of the Signature concurrently on the given Executor. The References
+     * cache the result of their validation, so that the subsequent validation of the XMLSignature
+     * only checks the signature value, and then returns the results of the References in order.
+     * References with a Transform that might modify the document (e.g. the STR Transform, or a
+     * Transform that requires a node-set) are digested on the calling thread, before any other
+     * Reference is digested concurrently. References to attachments are digested on the calling
+     * thread as well, so that the attachment CallbackHandler is never called concurrently. The concurrent digests only read the document, which
+     * assumes that the DOM implementation supports concurrent reads of an unmodified document.
+     * @param xmlSignature the XMLSignature object to get the references from
+     * @param context the ValidateContext
+     * @param executor the Executor to digest the References on (can be null)
+     * @throws XMLSignatureException
+     * @throws WSSecurityException
+     */
+    private void digestReferences(
+        XMLSignature xmlSignature,
+        final XMLValidateContext context,
+        Executor executor
+    ) throws XMLSignatureException, WSSecurityException {
+        List<?> references = xmlSignature.getSignedInfo().getReferences();
+        if (references.size() < 2) {
+            return;
+        }
+
+        // Digest the References that might modify the document first, so that the document is no
+        // longer modified once it is read concurrently
+        for (Object object : references) {
+            Reference reference = (Reference)object;
+            if (!isConcurrentDigestSupported(reference)) {
+                reference.validate(context);
+            }
+        }
+
+        // Expand the (possibly deferred) nodes of the document before it is read concurrently
+        expandNodes(((DOMValidateContext)context).getNode().getOwnerDocument());
+
+        Executor referenceExecutor = executor != null ? executor : ForkJoinPool.commonPool();
+        List<FutureTask<Boolean>> tasks = new ArrayList<>(references.size());
+        for (Object object : references) {
+            final Reference reference = (Reference)object;
+            if (isConcurrentDigestSupported(reference)) {
+                FutureTask<Boolean> task = new FutureTask<>(() -> reference.validate(context));
+                try {
+                    referenceExecutor.execute(task);
+                } catch (RejectedExecutionException ex) {
+                    LOG.debug("Digesting Reference {} on the calling thread", reference.getURI());
+                }
+                tasks.add(task);
+            }
+        }
+
+        try {
+            for (FutureTask<Boolean> task : tasks) {
+                // Run the task here if the Executor has not started it yet
+                task.run();
+                task.get();
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new WSSecurityException(WSSecurityException.ErrorCode.FAILURE, ex);
+        } catch (ExecutionException ex) {
+            Throwable cause = ex.getCause();
+            if (cause instanceof XMLSignatureException) {
+                throw (XMLSignatureException)cause;
+            } else if (cause instanceof RuntimeException) {
+                throw (RuntimeException)cause;
+            } else if (cause instanceof Error) {
+                throw (Error)cause;
+            }
+            throw new WSSecurityException(WSSecurityException.ErrorCode.FAILED_CHECK, (Exception)cause);
+        }
+    }
+
+    private static boolean isConcurrentDigestSupported(Reference reference) {
+        if (isAttachmentReference(reference.getURI())) {
+            // The attachment CallbackHandler is only called on the calling thread
+            return false;
+        }
+        for (Object transform : reference.getTransforms()) {
+            String algorithm = ((Transform)transform).getAlgorithm();
+            if (!(WSConstants.C14N_EXCL_OMIT_COMMENTS.equals(algorithm)
+                || WSConstants.C14N_EXCL_WITH_COMMENTS.equals(algorithm)
+                || WSConstants.C14N_OMIT_COMMENTS.equals(algorithm)
+                || WSConstants.C14N_WITH_COMMENTS.equals(algorithm))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Visit every node and attribute value of the document, so that a DOM implementation that
+     * creates nodes on demand has created all of them before the document is read concurrently
+     */
+    private static void expandNodes(Node startNode) {
+        Node node = startNode;
+        while (node != null) {
+            if (node.getNodeType() == Node.ELEMENT_NODE) {
+                NamedNodeMap attributes = node.getAttributes();
+                for (int i = 0; i < attributes.getLength(); i++) {
+                    attributes.item(i).getNodeValue();
+                }
+            } else {
+                node.getNodeValue();
+            }
+
+            Node next = node.getFirstChild();
+            while (next == null && node != startNode) {
+                next = node.getNextSibling();
+                if (next == null) {
+                    node = node.getParentNode();
+                }
+            }
+            node = next;
+        }
+    }
+
     private boolean isXopInclude(Element element) {
         Element elementChild =
             XMLUtils.getDirectChildElement(element, "Include", WSConstants.XOP_NS);
@@ -466,16 +648,13 @@ public class SignatureProcessor implements Processor {
     }
 
     private void handleXopInclude(Element element, WSDocInfo wsDocInfo) {
-        Map<Integer, List<WSSecurityEngineResult>> actionResults = wsDocInfo.getActionResults();
-        if (actionResults != null && actionResults.containsKey(WSConstants.BST)) {
-            for (WSSecurityEngineResult result : actionResults.get(WSConstants.BST)) {
-                Element token = (Element)result.get(WSSecurityEngineResult.TAG_TOKEN_ELEMENT);
-                if (element.equals(token)) {
-                    BinarySecurity binarySecurity =
-                        (BinarySecurity)result.get(WSSecurityEngineResult.TAG_BINARY_SECURITY_TOKEN);
-                    binarySecurity.encodeRawToken();
-                    return;
-                }
+        for (WSSecurityEngineResult result : wsDocInfo.getResultsByTag(WSConstants.BST)) {
+            Element token = (Element)result.get(WSSecurityEngineResult.TAG_TOKEN_ELEMENT);
+            if (element.equals(token)) {
+                BinarySecurity binarySecurity =
+                    (BinarySecurity)result.get(WSSecurityEngineResult.TAG_BINARY_SECURITY_TOKEN);
+                binarySecurity.encodeRawToken();
+                return;
             }
         }
     }
@@ -547,7 +726,7 @@ public class SignatureProcessor implements Processor {
                                 break;
                             }
                         }
-                    } else if (dereferencedData instanceof OctetStreamData) {
+                    } else if (dereferencedData instanceof OctetStreamData || isAttachmentReference(uri)) {
                         se = doc.createElementNS("http://docs.oasis-open.org/wss/oasis-wss-SwAProfile-1.1",
                                                  "attachment");
                         attachment = true;
@@ -675,20 +854,26 @@ public class SignatureProcessor implements Processor {
         String identifier = timeStamp.getCreatedString() + "" + Arrays.hashCode(signatureValue)
             + "" + Arrays.hashCode(key.getEncoded());
 
-        if (replayCache.contains(identifier)) {
+        // Store the Timestamp/SignatureValue/Key combination in the cache
+        boolean added;
+        try {
+            if (timeStamp.getExpires() != null) {
+                added = replayCache.putIfAbsent(
+                    identifier, 1L + Duration.between(Instant.now(), timeStamp.getExpires()).getSeconds());
+            } else {
+                added = replayCache.putIfAbsent(identifier);
+            }
+        } catch (ReplayCacheFullException ex) {
+            throw new WSSecurityException(WSSecurityException.ErrorCode.FAILURE, ex, "replayCacheFull");
+        }
+
+        if (!added) {
             throw new WSSecurityException(
                 WSSecurityException.ErrorCode.INVALID_SECURITY,
                 "invalidTimestamp",
                 new Object[] {"A replay attack has been detected"});
         }
 
-        // Store the Timestamp/SignatureValue/Key combination in the cache
-        if (timeStamp.getExpires() != null) {
-            replayCache.add(identifier, 1L + Duration.between(Instant.now(), timeStamp.getExpires()).getSeconds());
-        } else {
-            replayCache.add(identifier);
-        }
-
     }
 
     /**
@@ -18,8 +18,6 @@
  */
 package org.apache.wss4j.dom.transform;
 
-import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
 
@@ -68,20 +66,19 @@ public class AttachmentCompleteSignatureTransform extends AttachmentContentSigna
         }
 
         try {
+            // The canonicalized MIME headers and the attachment content are written straight
+            // into the digest stream if there is one
             OutputStream outputStream = os;
+            TransformOutputStream buffer = null;
             if (outputStream == null) {
-                outputStream = new ByteArrayOutputStream();
+                buffer = new TransformOutputStream();
+                outputStream = buffer;
             }
-            AttachmentUtils.canonizeMimeHeaders(os, attachment.getHeaders());
-            processAttachment(context, os, attachmentUri, attachment);
+            AttachmentUtils.canonizeMimeHeaders(outputStream, attachment.getHeaders());
+            processAttachment(context, outputStream, attachmentUri, attachment);
 
-            if (os == null) {
-                String mimeType = attachment.getMimeType();
-                return new OctetStreamData(
-                        new ByteArrayInputStream(
-                                ((ByteArrayOutputStream)outputStream).toByteArray()
-                        ),
-                        attachmentUri, mimeType);
+            if (buffer != null) {
+                return new OctetStreamData(buffer.toInputStream(), attachmentUri, attachment.getMimeType());
             }
             return null;
         } catch (IOException e) {
@@ -170,9 +170,13 @@ public class AttachmentContentSignatureTransform extends TransformService {
                 }
             };
 
+            // Write straight into the digest stream if there is one, and only buffer the
+            // transformed attachment if it is the input of another Transform
             OutputStream outputStream = os;
+            TransformOutputStream buffer = null;
             if (outputStream == null) {
-                outputStream = new ByteArrayOutputStream();
+                buffer = new TransformOutputStream();
+                outputStream = buffer;
             }
 
             String mimeType = attachment.getMimeType();
@@ -224,12 +228,8 @@ public class AttachmentContentSignatureTransform extends TransformService {
             resultAttachment.setSourceStream(inputStream);
             attachmentResultCallback(context, resultAttachment);
 
-            if (os == null) {
-                return new OctetStreamData(
-                        new ByteArrayInputStream(
-                                ((ByteArrayOutputStream)outputStream).toByteArray()
-                        ),
-                        attachmentUri, mimeType);
+            if (buffer != null) {
+                return new OctetStreamData(buffer.toInputStream(), attachmentUri, mimeType);
             }
             return null;
         } catch (IOException | InvalidCanonicalizerException | CanonicalizationException
@@ -238,6 +238,16 @@ public class AttachmentContentSignatureTransform extends TransformService {
         }
     }
 
+    /**
+     * A ByteArrayOutputStream whose content can be read back without copying it
+     */
+    static class TransformOutputStream extends ByteArrayOutputStream {
+
+        InputStream toInputStream() {
+            return new ByteArrayInputStream(buf, 0, count);
+        }
+    }
+
     @Override
     public boolean isFeatureSupported(String feature) {
         if (feature == null) {
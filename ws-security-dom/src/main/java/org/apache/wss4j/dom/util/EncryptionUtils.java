@@ -24,14 +24,20 @@ import org.apache.wss4j.common.ext.AttachmentRequestCallback;
 import org.apache.wss4j.common.ext.AttachmentResultCallback;
 import org.apache.wss4j.common.ext.WSSecurityException;
 import org.apache.wss4j.common.util.AttachmentUtils;
+import org.apache.wss4j.common.util.CachingInputStream;
+import org.apache.wss4j.common.util.KeyUtils;
 import org.apache.wss4j.common.util.XMLUtils;
 import org.apache.wss4j.dom.WSConstants;
 import org.apache.wss4j.dom.WSDataRef;
+import org.apache.wss4j.dom.PendingDecryption;
 import org.apache.wss4j.dom.WSDocInfo;
 import org.apache.wss4j.dom.callback.CallbackLookup;
+import org.apache.wss4j.dom.handler.RequestData;
 import org.apache.xml.security.algorithms.JCEMapper;
+import org.apache.xml.security.encryption.AbstractSerializer;
 import org.apache.xml.security.encryption.Serializer;
 import org.apache.xml.security.encryption.XMLCipher;
+import org.apache.xml.security.encryption.XMLCipherUtil;
 import org.apache.xml.security.encryption.XMLEncryptionException;
 import org.apache.xml.security.utils.JavaUtils;
 import org.w3c.dom.Attr;
@@ -51,14 +57,26 @@ import javax.xml.parsers.DocumentBuilder;
 import javax.xml.parsers.ParserConfigurationException;
 
 import java.io.ByteArrayInputStream;
+import java.io.FilterInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.security.GeneralSecurityException;
 import java.security.NoSuchAlgorithmException;
+import java.security.spec.AlgorithmParameterSpec;
+import java.util.Arrays;
 import java.util.Base64;
 import java.util.List;
 
 public final class EncryptionUtils {
 
+    /**
+     * The maximum number of bytes of a decrypted xop:Include attachment to keep in memory
+     */
+    private static final int XOP_ATTACHMENT_MEMORY_THRESHOLD = 1024 * 1024;
+
+    private static final org.slf4j.Logger LOG =
+        org.slf4j.LoggerFactory.getLogger(EncryptionUtils.class);
+
     private EncryptionUtils() {
         // complete
     }
@@ -99,6 +117,68 @@ public final class EncryptionUtils {
         return encryptedDataElement;
     }
 
+    /**
+     * Decrypt the EncryptedData argument using a SecretKey. If lazy decryption is enabled, and
+     * the EncryptedData element is contained in the SOAP Body, then the decryption is deferred
+     * instead. The returned WSDataRef is then completed once the EncryptedData is decrypted.
+     * @param doc The (document) owner of EncryptedData
+     * @param dataRefURI The URI of EncryptedData
+     * @param encData The EncryptedData element
+     * @param symmetricKey The SecretKey with which to decrypt EncryptedData
+     * @param symEncAlgo The symmetric encryption algorithm to use
+     * @param data The RequestData
+     * @throws WSSecurityException
+     */
+    public static WSDataRef
+    decryptOrDeferEncryptedData(
+        Document doc,
+        String dataRefURI,
+        Element encData,
+        SecretKey symmetricKey,
+        String symEncAlgo,
+        RequestData data
+    ) throws WSSecurityException {
+        WSDocInfo wsDocInfo = data.getWsDocInfo();
+        if (data.isLazyDecryption() && wsDocInfo != null && isDecryptionDeferrable(encData, wsDocInfo)) {
+            LOG.debug("Deferring the decryption of EncryptedData {}", dataRefURI);
+            WSDataRef dataRef = new WSDataRef();
+            dataRef.setEncryptedElement(encData);
+            dataRef.setWsuId(dataRefURI);
+            dataRef.setAlgorithm(symEncAlgo);
+            dataRef.setContent(X509Util.isContent(encData));
+            wsDocInfo.addPendingDecryption(
+                new PendingDecryption(
+                    dataRef, doc, encData, symmetricKey, symEncAlgo,
+                    data.getEncryptionSerializer(), wsDocInfo.getCallbackLookup(), wsDocInfo.getSignedIds()
+                )
+            );
+            return dataRef;
+        }
+        return decryptEncryptedData(doc, dataRefURI, encData, symmetricKey, symEncAlgo,
+                                    data.getAttachmentCallbackHandler(), data.getEncryptionSerializer());
+    }
+
+    /**
+     * The decryption of an EncryptedData element can only be deferred if it is contained in the
+     * SOAP Body, and does not refer to an attachment
+     */
+    private static boolean isDecryptionDeferrable(Element encData, WSDocInfo wsDocInfo) {
+        String typeStr = encData.getAttributeNS(null, "Type");
+        if (WSConstants.SWA_ATTACHMENT_ENCRYPTED_DATA_TYPE_CONTENT_ONLY.equals(typeStr)
+            || WSConstants.SWA_ATTACHMENT_ENCRYPTED_DATA_TYPE_COMPLETE.equals(typeStr)
+            || getXOPURIFromEncryptedData(encData) != null
+            || wsDocInfo.getCallbackLookup() == null) {
+            return false;
+        }
+        Element bodyElement = wsDocInfo.getCallbackLookup().getSOAPBody();
+        for (Node parent = encData.getParentNode(); parent != null; parent = parent.getParentNode()) {
+            if (parent == bodyElement) {
+                return true;
+            }
+        }
+        return false;
+    }
+
     /**
      * Decrypt the EncryptedData argument using a SecretKey.
      * @param doc The (document) owner of EncryptedData
@@ -207,7 +287,7 @@ public final class EncryptionUtils {
                 }
                 decryptedNode = decryptXopAttachment(symmetricKey, symEncAlgo, attachmentCallbackHandler,
                                                      xopURI, tempEncData);
-            } else {
+            } else if (!decryptCipherValue(xmlCipher, encDataOrig, symmetricKey, symEncAlgo)) {
                 //in this case, the XMLCipher knows how to handle encData when it's the parent node
                 // (i.e., when content == true)
                 xmlCipher.doFinal(doc, encData, content);
@@ -247,6 +327,47 @@ public final class EncryptionUtils {
         return dataRef;
     }
 
+    /**
+     * Decrypt the inline CipherValue of the given EncryptedData Element with a pooled Cipher, and
+     * replace the EncryptedData Element with the decrypted nodes. The XMLCipher is only used for its
+     * Serializer, as it creates a new Cipher for every EncryptedData Element.
+     *
+     * @return false if the EncryptedData Element has no CipherValue, or is not encrypted with the given
+     * algorithm, and so has to be decrypted by the XMLCipher
+     */
+    private static boolean decryptCipherValue(
+        XMLCipher xmlCipher, Element encData, SecretKey symmetricKey, String symEncAlgo
+    ) throws WSSecurityException, GeneralSecurityException, XMLEncryptionException, IOException {
+        Node parent = encData.getParentNode();
+        Element cipherValue = getCipherValueFromEncryptedData(encData);
+        if (cipherValue == null || parent == null || parent.getNodeType() != Node.ELEMENT_NODE
+            || !symEncAlgo.equals(X509Util.getEncAlgo(encData))) {
+            return false;
+        }
+
+        byte[] encryptedBytes = getDecodedBase64EncodedData(cipherValue);
+        int ivLength = JCEMapper.getIVLengthFromURI(symEncAlgo) / 8;
+        if (encryptedBytes == null || encryptedBytes.length < ivLength) {
+            throw new WSSecurityException(WSSecurityException.ErrorCode.FAILED_CHECK);
+        }
+        byte[] iv = Arrays.copyOf(encryptedBytes, ivLength);
+        AlgorithmParameterSpec paramSpec =
+            XMLCipherUtil.constructBlockCipherParameters(symEncAlgo, iv, EncryptionUtils.class);
+
+        Cipher cipher = KeyUtils.getPooledCipherInstance(symEncAlgo, null, symmetricKey);
+        cipher.init(Cipher.DECRYPT_MODE, symmetricKey, paramSpec);
+        byte[] decryptedBytes = cipher.doFinal(encryptedBytes, ivLength, encryptedBytes.length - ivLength);
+        KeyUtils.repoolCipherInstance(symEncAlgo, null, symmetricKey, cipher);
+
+        Serializer serializer = xmlCipher.getSerializer();
+        if (serializer instanceof AbstractSerializer) {
+            ((AbstractSerializer)serializer).setSecureValidation(true);
+        }
+        Node decryptedNode = serializer.deserialize(decryptedBytes, parent);
+        parent.replaceChild(decryptedNode, encData);
+        return true;
+    }
+
     private static String getXOPURIFromEncryptedData(Element encData) {
         Element cipherValue = getCipherValueFromEncryptedData(encData);
         if (cipherValue != null) {
@@ -360,8 +481,8 @@ public final class EncryptionUtils {
     private static Node decryptXopAttachment(
        SecretKey symmetricKey, String symEncAlgo, CallbackHandler attachmentCallbackHandler,
        String xopURI, Element encData
-   ) throws WSSecurityException, IOException, UnsupportedCallbackException, NoSuchAlgorithmException,
-        NoSuchPaddingException, ParserConfigurationException, SAXException {
+   ) throws WSSecurityException, IOException, UnsupportedCallbackException,
+        ParserConfigurationException, SAXException {
 
         if (attachmentCallbackHandler == null) {
             throw new WSSecurityException(WSSecurityException.ErrorCode.FAILED_CHECK);
@@ -381,9 +502,9 @@ public final class EncryptionUtils {
         }
         Attachment attachment = attachments.get(0);
 
-        final String jceAlgorithm =
-                JCEMapper.translateURItoJCEID(symEncAlgo);
-        final Cipher cipher = Cipher.getInstance(jceAlgorithm);
+        // The decrypted attachment is read before this method returns, so the Cipher is returned to
+        // the pool afterwards
+        final Cipher cipher = KeyUtils.getPooledCipherInstance(symEncAlgo, null, symmetricKey);
 
         InputStream attachmentInputStream =
                 AttachmentUtils.setupAttachmentDecryptionStream(
@@ -393,22 +514,35 @@ public final class EncryptionUtils {
         // decrypted Element
         DocumentBuilder db =
                 org.apache.xml.security.utils.XMLUtils.createDocumentBuilder(false);
-        byte[] bytes = JavaUtils.getBytesFromStream(attachmentInputStream);
 
+        // The decrypted attachment is parsed as it is decrypted. A copy of the decrypted bytes
+        // is only kept (in memory up to a threshold, and then in a temporary file) in case the
+        // Element has to be parsed again
         Document document = null;
-        try {
-            document = db.parse(new ByteArrayInputStream(bytes));
-        } catch (SAXException ex) {
-            // See if a prefix was not bound. Try to fix the DOM Element in this case.
-            if (ex.getMessage() != null && ex.getMessage().startsWith("The prefix")
-                && ex.getMessage().endsWith("is not bound.")) {
-                String fixedElementStr = setParentPrefixes(encData, new String(bytes));
-                document = db.parse(new ByteArrayInputStream(fixedElementStr.getBytes()));
-            } else {
-                throw ex;
+        try (CachingInputStream cachingInputStream =
+                 new CachingInputStream(attachmentInputStream, XOP_ATTACHMENT_MEMORY_THRESHOLD)) {
+            try {
+                document = db.parse(new FilterInputStream(cachingInputStream) {
+                    @Override
+                    public void close() {
+                        // The cached bytes are still required if the Element can't be parsed
+                    }
+                });
+            } catch (SAXException ex) {
+                // See if a prefix was not bound. Try to fix the DOM Element in this case.
+                if (ex.getMessage() != null && ex.getMessage().startsWith("The prefix")
+                    && ex.getMessage().endsWith("is not bound.")) {
+                    byte[] bytes = JavaUtils.getBytesFromStream(cachingInputStream.getCachedInputStream());
+                    String fixedElementStr = setParentPrefixes(encData, new String(bytes));
+                    document = db.parse(new ByteArrayInputStream(fixedElementStr.getBytes()));
+                } else {
+                    throw ex;
+                }
             }
         }
 
+        KeyUtils.repoolCipherInstance(symEncAlgo, null, symmetricKey, cipher);
+
         Node decryptedNode =
             encData.getOwnerDocument().importNode(document.getDocumentElement(), true);
         encData.getParentNode().appendChild(decryptedNode);
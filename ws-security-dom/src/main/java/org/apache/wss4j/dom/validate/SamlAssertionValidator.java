@@ -24,6 +24,7 @@ import java.time.Instant;
 import java.util.List;
 
 import org.apache.wss4j.common.cache.ReplayCache;
+import org.apache.wss4j.common.cache.ReplayCacheFullException;
 import org.apache.wss4j.common.ext.WSSecurityException;
 import org.apache.wss4j.common.saml.OpenSAMLUtil;
 import org.apache.wss4j.common.saml.SAMLKeyInfo;
@@ -253,23 +254,26 @@ public class SamlAssertionValidator extends SignatureTrustValidator {
             String identifier = samlAssertion.getId();
 
             ReplayCache replayCache = data.getSamlOneTimeUseReplayCache();
-            if (replayCache.contains(identifier)) {
+            boolean added;
+            DateTime expires = samlAssertion.getSaml2().getConditions().getNotOnOrAfter();
+            try {
+                if (expires != null) {
+                    Instant currentTime = Instant.now();
+                    Instant zonedExpires = Instant.ofEpochMilli(expires.getMillis());
+                    added = replayCache.putIfAbsent(identifier, 1L + Duration.between(currentTime, zonedExpires).getSeconds());
+                } else {
+                    added = replayCache.putIfAbsent(identifier);
+                }
+            } catch (ReplayCacheFullException ex) {
+                throw new WSSecurityException(WSSecurityException.ErrorCode.FAILURE, ex, "replayCacheFull");
+            }
+
+            if (!added) {
                 throw new WSSecurityException(
                     WSSecurityException.ErrorCode.INVALID_SECURITY,
                     "badSamlToken",
                     new Object[] {"A replay attack has been detected"});
             }
-
-            DateTime expires = samlAssertion.getSaml2().getConditions().getNotOnOrAfter();
-            if (expires != null) {
-                Instant currentTime = Instant.now();
-                Instant zonedExpires = Instant.ofEpochMilli(expires.getMillis());
-                replayCache.add(identifier, 1L + Duration.between(currentTime, zonedExpires).getSeconds());
-            } else {
-                replayCache.add(identifier);
-            }
-
-            replayCache.add(identifier);
         }
     }
 
@@ -0,0 +1,121 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.wss4j.dom.callback;
+
+import org.apache.wss4j.dom.WSConstants;
+import org.apache.wss4j.dom.common.SOAPUtil;
+import org.junit.Test;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+
+/**
+ * Some tests for locating Elements by Id with the IndexedCallbackLookup.
+ */
+public class IndexedCallbackLookupTest extends org.junit.Assert {
+
+    private static final String SAMPLE_MSG =
+        "<?xml version=\"1.0\" encoding=\"UTF-8\"?>"
+        + "<SOAP-ENV:Envelope "
+        +   "xmlns:SOAP-ENV=\"http://schemas.xmlsoap.org/soap/envelope/\" "
+        +   "xmlns:wsu=\"" + WSConstants.WSU_NS + "\">"
+        +   "<SOAP-ENV:Header>"
+        +       "<Token wsu:Id=\"token\"/>"
+        +       "<Assertion ID=\"assertion\"/>"
+        +       "<Assertion AssertionID=\"assertion1\"/>"
+        +   "</SOAP-ENV:Header>"
+        +   "<SOAP-ENV:Body wsu:Id=\"body\">"
+        +       "<a Id=\"a\"><b wsu:Id=\"b\" Id=\"b2\"/></a>"
+        +       "<c wsu:Id=\"dup\"/><d Id=\"dup\"/>"
+        +   "</SOAP-ENV:Body>"
+        + "</SOAP-ENV:Envelope>";
+
+    @Test
+    public void testLookup() throws Exception {
+        Document doc = SOAPUtil.toSOAPPart(SAMPLE_MSG);
+        CallbackLookup lookup = new IndexedCallbackLookup(doc);
+
+        assertEquals("Body", lookup.getElement("#body", null, true).getLocalName());
+        assertEquals("Token", lookup.getElement("#token", null, true).getLocalName());
+        assertEquals("a", lookup.getElement("a", null, true).getLocalName());
+        assertEquals("b", lookup.getElement("#b", null, true).getLocalName());
+        assertEquals("b", lookup.getElement("#b2", null, true).getLocalName());
+        assertNull(lookup.getElement("#unknown", null, true));
+
+        // Duplicates are only rejected if checkMultipleElements is true
+        assertNull(lookup.getElement("#dup", null, true));
+        assertEquals("c", lookup.getElement("#dup", null, false).getLocalName());
+
+        // SAML Ids are only found if the ValueType is a SAML ValueType (or is empty)
+        assertNotNull(lookup.getElement("#assertion", null, true));
+        assertNotNull(lookup.getElement("#assertion1", WSConstants.WSS_SAML_KI_VALUE_TYPE, true));
+        assertNull(lookup.getElement("#assertion", WSConstants.WSS_ENC_KEY_VALUE_TYPE, true));
+    }
+
+    @Test
+    public void testDocumentChanges() throws Exception {
+        Document doc = SOAPUtil.toSOAPPart(SAMPLE_MSG);
+        CallbackLookup lookup = new IndexedCallbackLookup(doc);
+        assertNull(lookup.getElement("#dup", null, true));
+
+        // A removed Element is no longer found
+        Element a = lookup.getElement("#a", null, true);
+        Element body = lookup.getSOAPBody();
+        body.removeChild(a);
+        assertNull(lookup.getElement("#a", null, true));
+        assertNull(lookup.getElement("#b", null, true));
+
+        // The duplicate Id is resolved once one of the Elements is removed
+        Element c = lookup.getElement("#dup", null, false);
+        body.removeChild(c);
+        assertEquals("d", lookup.getElement("#dup", null, true).getLocalName());
+
+        // An added Element is found, and its Ids are checked for duplicates
+        Element added = doc.createElementNS(null, "e");
+        added.setAttributeNS(WSConstants.WSU_NS, "wsu:Id", "e");
+        Element child = doc.createElementNS(null, "f");
+        child.setAttributeNS(null, "Id", "token");
+        added.appendChild(child);
+        body.appendChild(added);
+        lookup.elementAdded(added);
+        assertEquals(added, lookup.getElement("#e", null, true));
+        assertNull(lookup.getElement("#token", null, true));
+    }
+
+    @Test
+    public void testUnindexedDuplicate() throws Exception {
+        Document doc = SOAPUtil.toSOAPPart(SAMPLE_MSG);
+        CallbackLookup lookup = new IndexedCallbackLookup(doc);
+        Element token = lookup.getElement("#token", null, true);
+        assertEquals("Token", token.getLocalName());
+
+        // An Element with the same Id is added to the document without calling elementAdded
+        Element duplicate = doc.createElementNS(null, "Token");
+        duplicate.setAttributeNS(WSConstants.WSU_NS, "wsu:Id", "token");
+        lookup.getSOAPBody().appendChild(duplicate);
+
+        assertNull(lookup.getElement("#token", null, true));
+        assertEquals(token, lookup.getElement("#token", null, false));
+
+        // The Id is unique again once the duplicate has been removed
+        lookup.getSOAPBody().removeChild(duplicate);
+        assertEquals(token, lookup.getElement("#token", null, true));
+    }
+
+}
@@ -20,13 +20,18 @@
 package org.apache.wss4j.dom.components.crypto;
 
 import java.security.Security;
+import java.util.concurrent.atomic.AtomicReference;
 
 import org.apache.wss4j.common.crypto.WSProviderConfig;
+import org.apache.wss4j.dom.WSConstants;
+import org.apache.wss4j.dom.common.CustomProcessor;
 import org.apache.wss4j.dom.engine.WSSConfig;
+import org.apache.wss4j.dom.processor.Processor;
 import org.junit.Test;
 
 /**
- * Test loading and removing security providers via WSSConfig
+ * Test loading and removing security providers via WSSConfig, and the caching of processor
+ * and validator instances
  */
 public class WSSConfigTest extends org.junit.Assert {
 
@@ -75,4 +80,43 @@ public class WSSConfigTest extends org.junit.Assert {
 
     }
 
+    @Test
+    public void testCacheDefaultInstances() throws Exception {
+        final WSSConfig config = WSSConfig.getNewInstance();
+        assertNotSame(config.getProcessor(WSConstants.TIMESTAMP), config.getProcessor(WSConstants.TIMESTAMP));
+        assertNotSame(config.getValidator(WSConstants.TIMESTAMP), config.getValidator(WSConstants.TIMESTAMP));
+
+        config.setCacheDefaultInstances(true);
+        assertSame(config.getProcessor(WSConstants.TIMESTAMP), config.getProcessor(WSConstants.TIMESTAMP));
+        assertSame(config.getValidator(WSConstants.TIMESTAMP), config.getValidator(WSConstants.TIMESTAMP));
+
+        // The SignatureProcessor is only shared by the same thread
+        Processor signatureProcessor = config.getProcessor(WSConstants.SIGNATURE);
+        assertSame(signatureProcessor, config.getProcessor(WSConstants.SIGNATURE));
+        final AtomicReference<Processor> otherThreadProcessor = new AtomicReference<>();
+        Thread thread = new Thread(() -> {
+            try {
+                otherThreadProcessor.set(config.getProcessor(WSConstants.SIGNATURE));
+            } catch (Exception ex) {
+                throw new RuntimeException(ex);
+            }
+        });
+        thread.start();
+        thread.join();
+        assertNotNull(otherThreadProcessor.get());
+        assertNotSame(signatureProcessor, otherThreadProcessor.get());
+
+        // Released and disabled instances are not reused
+        config.releaseThreadInstances();
+        Processor newSignatureProcessor = config.getProcessor(WSConstants.SIGNATURE);
+        assertNotSame(signatureProcessor, newSignatureProcessor);
+        config.setCacheDefaultInstances(false);
+        config.setCacheDefaultInstances(true);
+        assertNotSame(newSignatureProcessor, config.getProcessor(WSConstants.SIGNATURE));
+
+        // Custom processors are not cached
+        config.setProcessor(WSConstants.TIMESTAMP, CustomProcessor.class);
+        assertNotSame(config.getProcessor(WSConstants.TIMESTAMP), config.getProcessor(WSConstants.TIMESTAMP));
+    }
+
 }
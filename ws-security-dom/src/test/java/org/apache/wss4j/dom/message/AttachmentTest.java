@@ -31,6 +31,8 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 import javax.security.auth.callback.Callback;
 import javax.security.auth.callback.CallbackHandler;
@@ -196,6 +198,109 @@ public class AttachmentTest extends Assert {
         }
     }
 
+    /**
+     * The attachment CallbackHandler must only be called on the calling thread when the References
+     * of a Signature are digested concurrently
+     */
+    @Test
+    public void testParallelReferenceDigestAttachment() throws Exception {
+        Document doc = SOAPUtil.toSOAPPart(SOAPUtil.SAMPLE_SOAP_MSG);
+        WSSecHeader secHeader = new WSSecHeader(doc);
+        secHeader.insertSecurityHeader();
+
+        WSSecSignature builder = new WSSecSignature(secHeader);
+        builder.setUserInfo("16c73ab6-b892-458f-abf5-2f875f74882e", "security");
+        builder.getParts().add(new WSEncryptionPart("Body", "http://schemas.xmlsoap.org/soap/envelope/", "Content"));
+        builder.getParts().add(new WSEncryptionPart("cid:Attachments", "Element"));
+
+        final String attachmentId = UUID.randomUUID().toString();
+        final Attachment attachment = new Attachment();
+        attachment.setMimeType("text/xml");
+        attachment.addHeaders(getHeaders(attachmentId));
+        attachment.setId(attachmentId);
+        attachment.setSourceStream(new ByteArrayInputStream(SOAPUtil.SAMPLE_SOAP_MSG.getBytes(StandardCharsets.UTF_8)));
+
+        AttachmentCallbackHandler attachmentCallbackHandler =
+            new AttachmentCallbackHandler(Collections.singletonList(attachment));
+        builder.setAttachmentCallbackHandler(attachmentCallbackHandler);
+        Document signedDoc = builder.build(crypto);
+
+        final AttachmentCallbackHandler verifyingCallbackHandler =
+            new AttachmentCallbackHandler(Collections.singletonList(attachment));
+        final List<Thread> callingThreads = Collections.synchronizedList(new ArrayList<>());
+        RequestData requestData = new RequestData();
+        requestData.setAttachmentCallbackHandler(callbacks -> {
+            callingThreads.add(Thread.currentThread());
+            verifyingCallbackHandler.handle(callbacks);
+        });
+        requestData.setSigVerCrypto(crypto);
+        requestData.setCallbackHandler(new KeystoreCallbackHandler());
+        requestData.setParallelSignatureReferenceDigest(true);
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            requestData.setSignatureReferenceDigestExecutor(executor);
+            secEngine.processSecurityHeader(signedDoc, requestData);
+        } finally {
+            executor.shutdown();
+        }
+
+        Assert.assertFalse(callingThreads.isEmpty());
+        for (Thread callingThread : callingThreads) {
+            Assert.assertSame(Thread.currentThread(), callingThread);
+        }
+    }
+
+    /**
+     * The attachments must not be requested for a Signature whose SignatureValue does not verify
+     */
+    @Test
+    public void testInvalidSignatureValueAttachmentNotRequested() throws Exception {
+        Document doc = SOAPUtil.toSOAPPart(SOAPUtil.SAMPLE_SOAP_MSG);
+        WSSecHeader secHeader = new WSSecHeader(doc);
+        secHeader.insertSecurityHeader();
+
+        WSSecSignature builder = new WSSecSignature(secHeader);
+        builder.setUserInfo("16c73ab6-b892-458f-abf5-2f875f74882e", "security");
+        builder.getParts().add(new WSEncryptionPart("cid:Attachments", "Element"));
+
+        final String attachmentId = UUID.randomUUID().toString();
+        final Attachment attachment = new Attachment();
+        attachment.setMimeType("text/xml");
+        attachment.addHeaders(getHeaders(attachmentId));
+        attachment.setId(attachmentId);
+        attachment.setSourceStream(new ByteArrayInputStream(SOAPUtil.SAMPLE_SOAP_MSG.getBytes(StandardCharsets.UTF_8)));
+
+        AttachmentCallbackHandler attachmentCallbackHandler =
+            new AttachmentCallbackHandler(Collections.singletonList(attachment));
+        builder.setAttachmentCallbackHandler(attachmentCallbackHandler);
+        Document signedDoc = builder.build(crypto);
+
+        // Modify the SignatureValue
+        Element signatureValue =
+            (Element)signedDoc.getElementsByTagNameNS(WSConstants.SIG_NS, "SignatureValue").item(0);
+        String value = signatureValue.getTextContent().trim();
+        char first = value.charAt(0) == 'A' ? 'B' : 'A';
+        signatureValue.setTextContent(first + value.substring(1));
+
+        final List<String> requestedAttachmentIds = new ArrayList<>();
+        try {
+            verify(signedDoc, new CallbackHandler() {
+                @Override
+                public void handle(Callback[] callbacks) throws IOException, UnsupportedCallbackException {
+                    if (callbacks[0] instanceof AttachmentRequestCallback) {
+                        AttachmentRequestCallback attachmentRequestCallback = (AttachmentRequestCallback) callbacks[0];
+                        requestedAttachmentIds.add(attachmentRequestCallback.getAttachmentId());
+                        attachmentRequestCallback.setAttachments(Collections.singletonList(attachment));
+                    }
+                }
+            });
+            Assert.fail();
+        } catch (WSSecurityException e) {
+            Assert.assertEquals(WSSecurityException.ErrorCode.FAILED_CHECK, e.getErrorCode());
+        }
+        Assert.assertTrue(requestedAttachmentIds.isEmpty());
+    }
+
     @Test
     public void testXMLAttachmentCompleteSignature() throws Exception {
         Document doc = SOAPUtil.toSOAPPart(SOAPUtil.SAMPLE_SOAP_MSG);
@@ -1146,6 +1251,56 @@ public class AttachmentTest extends Assert {
         }
     }
 
+    /**
+     * Sign and verify a 1 GB attachment. The canonicalized attachment is streamed into the digest,
+     * and so must not be buffered in memory. This test is only run by the "largeAttachmentTest"
+     * profile, which runs it with a fixed heap of 64 MB.
+     */
+    @Test
+    public void testLargeAttachmentCompleteSignature() throws Exception {
+        if (!Boolean.getBoolean("wss4j.test.largeAttachment")) {
+            return;
+        }
+        final long attachmentSize = 1024L * 1024L * 1024L;
+        // The attachment could not be buffered in a heap of this size
+        Assert.assertTrue(Runtime.getRuntime().maxMemory() <= 128L * 1024L * 1024L);
+
+        Document doc = SOAPUtil.toSOAPPart(SOAPUtil.SAMPLE_SOAP_MSG);
+        WSSecHeader secHeader = new WSSecHeader(doc);
+        secHeader.insertSecurityHeader();
+
+        WSSecSignature builder = new WSSecSignature(secHeader);
+        builder.setUserInfo("16c73ab6-b892-458f-abf5-2f875f74882e", "security");
+        builder.getParts().add(new WSEncryptionPart("cid:Attachments", "Element"));
+
+        final String attachmentId = UUID.randomUUID().toString();
+        final Attachment attachment = new Attachment();
+        attachment.setMimeType("application/octet-stream");
+        attachment.addHeaders(getHeaders(attachmentId));
+        attachment.setId(attachmentId);
+        attachment.setSourceStream(new SyntheticInputStream(attachmentSize, -1L));
+
+        AttachmentCallbackHandler attachmentCallbackHandler =
+            new AttachmentCallbackHandler(Collections.singletonList(attachment));
+        builder.setAttachmentCallbackHandler(attachmentCallbackHandler);
+        Document signedDoc = builder.build(crypto);
+
+        attachment.setSourceStream(new SyntheticInputStream(attachmentSize, -1L));
+        attachmentCallbackHandler =
+            new AttachmentCallbackHandler(Collections.singletonList(attachment));
+        verify(signedDoc, attachmentCallbackHandler);
+        Assert.assertFalse(attachmentCallbackHandler.getResponseAttachments().isEmpty());
+
+        // Modify the last byte of the attachment
+        attachment.setSourceStream(new SyntheticInputStream(attachmentSize, attachmentSize - 1));
+        try {
+            verify(signedDoc, new AttachmentCallbackHandler(Collections.singletonList(attachment)));
+            Assert.fail("Failure expected on a modified attachment");
+        } catch (WSSecurityException e) {
+            Assert.assertEquals(WSSecurityException.ErrorCode.FAILED_CHECK, e.getErrorCode());
+        }
+    }
+
     /**
      * Verifies the soap envelope.
      * This method verifies all the signature generated.
@@ -1160,4 +1315,69 @@ public class AttachmentTest extends Assert {
         requestData.setCallbackHandler(new KeystoreCallbackHandler());
         return secEngine.processSecurityHeader(doc, requestData);
     }
+
+    /**
+     * A markable InputStream of the given size, whose content is generated rather than held in memory
+     */
+    private static class SyntheticInputStream extends InputStream {
+
+        private static final byte[] PATTERN = new byte[8191];
+
+        static {
+            for (int i = 0; i < PATTERN.length; i++) {
+                PATTERN[i] = (byte)(i * 31 + (i >>> 7));
+            }
+        }
+
+        private final long size;
+        private final long modifiedPosition;
+        private long position;
+        private long markedPosition;
+
+        /**
+         * @param size the size of the stream
+         * @param modifiedPosition the position of a byte to modify, or -1
+         */
+        SyntheticInputStream(long size, long modifiedPosition) {
+            this.size = size;
+            this.modifiedPosition = modifiedPosition;
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] b = new byte[1];
+            return read(b, 0, 1) == -1 ? -1 : b[0] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (position >= size) {
+                return -1;
+            }
+            int patternOffset = (int)(position % PATTERN.length);
+            int count = (int)Math.min(Math.min(len, size - position), PATTERN.length - patternOffset);
+            System.arraycopy(PATTERN, patternOffset, b, off, count);
+            if (modifiedPosition >= position && modifiedPosition < position + count) {
+                int i = off + (int)(modifiedPosition - position);
+                b[i] = (byte)~b[i];
+            }
+            position += count;
+            return count;
+        }
+
+        @Override
+        public boolean markSupported() {
+            return true;
+        }
+
+        @Override
+        public synchronized void mark(int readlimit) {
+            markedPosition = position;
+        }
+
+        @Override
+        public synchronized void reset() throws IOException {
+            position = markedPosition;
+        }
+    }
 }
@@ -33,6 +33,7 @@ import org.apache.wss4j.common.bsp.BSPRule;
 import org.apache.wss4j.common.crypto.Crypto;
 import org.apache.wss4j.common.crypto.CryptoFactory;
 import org.apache.wss4j.common.crypto.CryptoType;
+import org.apache.wss4j.common.crypto.DecryptedKeyCache;
 import org.apache.wss4j.common.ext.WSSecurityException;
 import org.apache.wss4j.common.util.DOM2Writer;
 import org.apache.wss4j.common.util.KeyUtils;
@@ -743,6 +744,183 @@ public class EncryptionTest extends org.junit.Assert {
         newEngine.processSecurityHeader(encryptedDoc, null, keystoreCallbackHandler, regexpCrypto);
     }
 
+    /**
+     * Test that the decryption of the SOAP Body is deferred until the decrypted Element is
+     * requested, if lazy decryption is enabled
+     */
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testLazyDecryption() throws Exception {
+        Crypto defaultCrypto = CryptoFactory.getInstance();
+        Document doc = SOAPUtil.toSOAPPart(SOAPUtil.SAMPLE_SOAP_MSG);
+        WSSecHeader secHeader = new WSSecHeader(doc);
+        secHeader.insertSecurityHeader();
+
+        WSSecEncrypt builder = new WSSecEncrypt(secHeader);
+        builder.setUserInfo("16c73ab6-b892-458f-abf5-2f875f74882e");
+        Document encryptedDoc = builder.build(defaultCrypto);
+
+        RequestData data = new RequestData();
+        data.setDecCrypto(defaultCrypto);
+        data.setCallbackHandler(keystoreCallbackHandler);
+        data.setLazyDecryption(true);
+        WSHandlerResult results =
+            secEngine.processSecurityHeader(WSSecurityUtil.getSecurityHeader(encryptedDoc, null), data);
+
+        // The SOAP Body has not been decrypted yet
+        assertTrue(results.isDecryptionPending());
+        assertFalse(XMLUtils.prettyDocumentToString(encryptedDoc).contains("counter_port_type"));
+        WSSecurityEngineResult actionResult =
+            results.getActionResults().get(WSConstants.ENCR).get(0);
+        java.util.List<WSDataRef> refs =
+            (java.util.List<WSDataRef>) actionResult.get(WSSecurityEngineResult.TAG_DATA_REF_URIS);
+        assertEquals(1, refs.size());
+        WSDataRef ref = refs.get(0);
+        assertNull(ref.getProtectedElement());
+
+        Element decryptedElement = results.getDecryptedElement(ref);
+        assertNotNull(decryptedElement);
+        assertEquals(decryptedElement, ref.getProtectedElement());
+        assertEquals(SOAP_BODY, ref.getName());
+        assertFalse(results.isDecryptionPending());
+        assertTrue(XMLUtils.prettyDocumentToString(encryptedDoc).contains("counter_port_type"));
+    }
+
+    /**
+     * Test that a signed SOAP Body is decrypted before the Signature is verified, if lazy
+     * decryption is enabled
+     */
+    @Test
+    public void testLazyDecryptionSignedBody() throws Exception {
+        Crypto defaultCrypto = CryptoFactory.getInstance();
+        Document doc = SOAPUtil.toSOAPPart(SOAPUtil.SAMPLE_SOAP_MSG);
+        WSSecHeader secHeader = new WSSecHeader(doc);
+        secHeader.insertSecurityHeader();
+
+        WSSecSignature sign = new WSSecSignature(secHeader);
+        sign.setUserInfo("16c73ab6-b892-458f-abf5-2f875f74882e", "security");
+        sign.build(defaultCrypto);
+
+        WSSecEncrypt builder = new WSSecEncrypt(secHeader);
+        builder.setUserInfo("16c73ab6-b892-458f-abf5-2f875f74882e");
+        Document encryptedSignedDoc = builder.build(defaultCrypto);
+
+        RequestData data = new RequestData();
+        data.setDecCrypto(defaultCrypto);
+        data.setSigVerCrypto(defaultCrypto);
+        data.setCallbackHandler(keystoreCallbackHandler);
+        data.setLazyDecryption(true);
+        WSHandlerResult results =
+            secEngine.processSecurityHeader(WSSecurityUtil.getSecurityHeader(encryptedSignedDoc, null), data);
+
+        assertFalse(results.isDecryptionPending());
+        assertNotNull(results.getActionResults().get(WSConstants.SIGN));
+        assertTrue(XMLUtils.prettyDocumentToString(encryptedSignedDoc).contains("counter_port_type"));
+    }
+
+    /**
+     * Test that a deferred decryption fails if the decrypted content contains an Element with the
+     * same Id as an Element that was verified by a Signature (a wrapping attack)
+     */
+    @Test
+    public void testLazyDecryptionWrappingAttack() throws Exception {
+        String soapMsg =
+            "<?xml version=\"1.0\" encoding=\"UTF-8\"?>"
+            + "<SOAP-ENV:Envelope xmlns:SOAP-ENV=\"http://schemas.xmlsoap.org/soap/envelope/\">"
+            +   "<SOAP-ENV:Body>"
+            +       "<ns:data xmlns:ns=\"urn:test\" xmlns:wsu=\"" + WSConstants.WSU_NS + "\""
+            +       " wsu:Id=\"signed-data\">15</ns:data>"
+            +       "<ns:wrapper xmlns:ns=\"urn:test\">"
+            +           "<ns:data xmlns:wsu=\"" + WSConstants.WSU_NS + "\" wsu:Id=\"other-data\">1500</ns:data>"
+            +       "</ns:wrapper>"
+            +   "</SOAP-ENV:Body>"
+            + "</SOAP-ENV:Envelope>";
+        Crypto defaultCrypto = CryptoFactory.getInstance();
+        Document doc = SOAPUtil.toSOAPPart(soapMsg);
+        WSSecHeader secHeader = new WSSecHeader(doc);
+        secHeader.insertSecurityHeader();
+
+        WSSecSignature sign = new WSSecSignature(secHeader);
+        sign.setUserInfo("16c73ab6-b892-458f-abf5-2f875f74882e", "security");
+        sign.getParts().add(new WSEncryptionPart("signed-data"));
+        sign.build(defaultCrypto);
+
+        // Give the unsigned Element the Id of the signed one, and hide it by encrypting it
+        Element otherData = (Element)doc.getElementsByTagNameNS("urn:test", "data").item(1);
+        otherData.setAttributeNS(WSConstants.WSU_NS, "wsu:Id", "signed-data");
+        WSSecEncrypt builder = new WSSecEncrypt(secHeader);
+        builder.setUserInfo("16c73ab6-b892-458f-abf5-2f875f74882e");
+        builder.getParts().add(new WSEncryptionPart("wrapper", "urn:test", "Element"));
+        Document encryptedSignedDoc = builder.build(defaultCrypto);
+
+        RequestData data = new RequestData();
+        data.setDecCrypto(defaultCrypto);
+        data.setSigVerCrypto(defaultCrypto);
+        data.setCallbackHandler(keystoreCallbackHandler);
+        data.setLazyDecryption(true);
+        WSHandlerResult results =
+            secEngine.processSecurityHeader(WSSecurityUtil.getSecurityHeader(encryptedSignedDoc, null), data);
+        assertTrue(results.isDecryptionPending());
+
+        try {
+            results.decryptAll();
+            fail("Failure expected on a duplicate Id in the decrypted content");
+        } catch (WSSecurityException ex) {
+            assertEquals(WSSecurityException.ErrorCode.INVALID_SECURITY, ex.getErrorCode());
+        }
+    }
+
+    /**
+     * Test that the session key of an EncryptedKey that is received again is taken from the
+     * DecryptedKeyCache, and that a failed unwrap is not cached
+     */
+    @Test
+    public void testDecryptedKeyCache() throws Exception {
+        Crypto defaultCrypto = CryptoFactory.getInstance();
+        Document doc = SOAPUtil.toSOAPPart(SOAPUtil.SAMPLE_SOAP_MSG);
+        WSSecHeader secHeader = new WSSecHeader(doc);
+        secHeader.insertSecurityHeader();
+
+        WSSecEncrypt builder = new WSSecEncrypt(secHeader);
+        builder.setUserInfo("16c73ab6-b892-458f-abf5-2f875f74882e");
+        String encryptedMessage = XMLUtils.prettyDocumentToString(builder.build(defaultCrypto));
+
+        DecryptedKeyCache decryptedKeyCache = new DecryptedKeyCache(10, 60L);
+        for (int i = 0; i < 2; i++) {
+            Document encryptedDoc = SOAPUtil.toSOAPPart(encryptedMessage);
+            RequestData data = new RequestData();
+            data.setDecCrypto(defaultCrypto);
+            data.setCallbackHandler(keystoreCallbackHandler);
+            data.setDecryptedKeyCache(decryptedKeyCache);
+            secEngine.processSecurityHeader(WSSecurityUtil.getSecurityHeader(encryptedDoc, null), data);
+            assertTrue(XMLUtils.prettyDocumentToString(encryptedDoc).contains("counter_port_type"));
+        }
+        assertEquals(1, decryptedKeyCache.getMissCount());
+        assertEquals(1, decryptedKeyCache.getHitCount());
+        assertEquals(1, decryptedKeyCache.size());
+
+        // Modify the encrypted key
+        Document encryptedDoc = SOAPUtil.toSOAPPart(encryptedMessage);
+        Element encryptedKey =
+            XMLUtils.findElement(encryptedDoc.getDocumentElement(), "EncryptedKey", WSConstants.ENC_NS);
+        Element cipherValue = XMLUtils.findElement(encryptedKey, "CipherValue", WSConstants.ENC_NS);
+        byte[] cipherValueBytes = Base64.getMimeDecoder().decode(cipherValue.getTextContent());
+        cipherValueBytes[cipherValueBytes.length - 1]++;
+        cipherValue.setTextContent(Base64.getMimeEncoder().encodeToString(cipherValueBytes));
+
+        RequestData data = new RequestData();
+        data.setDecCrypto(defaultCrypto);
+        data.setCallbackHandler(keystoreCallbackHandler);
+        data.setDecryptedKeyCache(decryptedKeyCache);
+        try {
+            secEngine.processSecurityHeader(WSSecurityUtil.getSecurityHeader(encryptedDoc, null), data);
+            fail("Failure expected on a modified encrypted key");
+        } catch (WSSecurityException ex) {
+            assertEquals(WSSecurityException.ErrorCode.FAILED_CHECK, ex.getErrorCode());
+        }
+        assertEquals(1, decryptedKeyCache.size());
+    }
+
     /**
      * Verifies the soap envelope <p/>
      *
@@ -22,11 +22,14 @@ package org.apache.wss4j.dom.message;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 import javax.security.auth.callback.CallbackHandler;
 
 import org.apache.wss4j.common.WSEncryptionPart;
 import org.apache.wss4j.common.bsp.BSPRule;
+import org.apache.wss4j.common.cache.MemoryReplayCache;
 import org.apache.wss4j.common.crypto.Crypto;
 import org.apache.wss4j.common.crypto.CryptoFactory;
 import org.apache.wss4j.common.ext.WSSecurityException;
@@ -34,11 +37,13 @@ import org.apache.wss4j.common.token.Reference;
 import org.apache.wss4j.common.token.SecurityTokenReference;
 import org.apache.wss4j.common.util.XMLUtils;
 import org.apache.wss4j.dom.WSConstants;
+import org.apache.wss4j.dom.WSDataRef;
 import org.apache.wss4j.dom.common.CustomHandler;
 import org.apache.wss4j.dom.common.KeystoreCallbackHandler;
 import org.apache.wss4j.dom.common.SOAPUtil;
 import org.apache.wss4j.dom.common.SecurityTestUtil;
 import org.apache.wss4j.dom.engine.WSSConfig;
+import org.apache.wss4j.dom.engine.WSSecurityBatchResult;
 import org.apache.wss4j.dom.engine.WSSecurityEngine;
 import org.apache.wss4j.dom.engine.WSSecurityEngineResult;
 import org.apache.wss4j.dom.handler.HandlerAction;
@@ -941,6 +946,153 @@ public class SignatureTest extends org.junit.Assert {
         verify(signedDoc);
     }
 
+    /**
+     * Process signed and encrypted messages with the default processors and validators
+     * being reused.
+     */
+    @Test
+    public void testCachedProcessorInstances() throws Exception {
+        WSSConfig config = WSSConfig.getNewInstance();
+        config.setCacheDefaultInstances(true);
+        WSSecurityEngine engine = new WSSecurityEngine();
+        engine.setWssConfig(config);
+
+        for (int i = 0; i < 2; i++) {
+            Document doc = SOAPUtil.toSOAPPart(SOAPUtil.SAMPLE_SOAP_MSG);
+            WSSecHeader secHeader = new WSSecHeader(doc);
+            secHeader.insertSecurityHeader();
+
+            WSSecSignature sign = new WSSecSignature(secHeader);
+            sign.setUserInfo("16c73ab6-b892-458f-abf5-2f875f74882e", "security");
+            sign.setKeyIdentifierType(WSConstants.ISSUER_SERIAL);
+            sign.build(crypto);
+
+            WSSecEncrypt encrypt = new WSSecEncrypt(secHeader);
+            encrypt.setUserInfo("16c73ab6-b892-458f-abf5-2f875f74882e");
+            Document signedEncryptedDoc = encrypt.build(crypto);
+
+            WSHandlerResult results =
+                engine.processSecurityHeader(signedEncryptedDoc, null, callbackHandler, crypto);
+            assertNotNull(results.getActionResults().get(WSConstants.SIGN));
+            assertNotNull(results.getActionResults().get(WSConstants.ENCR));
+        }
+        assertSame(config.getProcessor(WSConstants.SIGNATURE), config.getProcessor(WSConstants.SIGNATURE));
+    }
+
+    @Test
+    public void testParallelReferenceDigest() throws Exception {
+        Document doc = SOAPUtil.toSOAPPart(SOAPUtil.SAMPLE_SOAP_MSG);
+        WSSecHeader secHeader = new WSSecHeader(doc);
+        secHeader.insertSecurityHeader();
+
+        WSSecTimestamp timestamp = new WSSecTimestamp(secHeader);
+        timestamp.setTimeToLive(300);
+        timestamp.build();
+
+        WSSecSignature builder = new WSSecSignature(secHeader);
+        builder.setUserInfo("16c73ab6-b892-458f-abf5-2f875f74882e", "security");
+        builder.getParts().add(new WSEncryptionPart("Timestamp", WSConstants.WSU_NS, ""));
+        builder.getParts().add(
+            new WSEncryptionPart(WSConstants.ELEM_BODY, WSConstants.URI_SOAP11_ENV, "")
+        );
+        Document signedDoc = builder.build(crypto);
+
+        WSHandlerResult results = verify(signedDoc);
+        List<WSDataRef> dataRefs = getSignatureDataRefs(results);
+        assertEquals(2, dataRefs.size());
+
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            RequestData data = new RequestData();
+            data.setSigVerCrypto(crypto);
+            data.setParallelSignatureReferenceDigest(true);
+            data.setSignatureReferenceDigestExecutor(executor);
+            results = new WSSecurityEngine().processSecurityHeader(signedDoc, data);
+
+            // The References are returned in the same order as for sequential verification
+            List<WSDataRef> parallelDataRefs = getSignatureDataRefs(results);
+            assertEquals(dataRefs.size(), parallelDataRefs.size());
+            for (int i = 0; i < dataRefs.size(); i++) {
+                assertEquals(dataRefs.get(i).getWsuId(), parallelDataRefs.get(i).getWsuId());
+                assertEquals(dataRefs.get(i).getName(), parallelDataRefs.get(i).getName());
+            }
+
+            // Modify the signed Body
+            Element body = WSSecurityUtil.findBodyElement(signedDoc);
+            body.appendChild(signedDoc.createTextNode("modified"));
+            try {
+                new WSSecurityEngine().processSecurityHeader(signedDoc, data);
+                fail("Failure expected on a modified Body");
+            } catch (WSSecurityException ex) {
+                assertEquals(WSSecurityException.ErrorCode.FAILED_CHECK, ex.getErrorCode());
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void testBatchVerification() throws Exception {
+        List<Document> docs = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            Document doc = SOAPUtil.toSOAPPart(SOAPUtil.SAMPLE_SOAP_MSG);
+            WSSecHeader secHeader = new WSSecHeader(doc);
+            secHeader.insertSecurityHeader();
+
+            WSSecTimestamp timestamp = new WSSecTimestamp(secHeader);
+            timestamp.setTimeToLive(300);
+            timestamp.build();
+
+            WSSecSignature builder = new WSSecSignature(secHeader);
+            builder.setUserInfo("16c73ab6-b892-458f-abf5-2f875f74882e", "security");
+            builder.getParts().add(new WSEncryptionPart("Timestamp", WSConstants.WSU_NS, ""));
+            builder.getParts().add(
+                new WSEncryptionPart(WSConstants.ELEM_BODY, WSConstants.URI_SOAP11_ENV, "")
+            );
+            docs.add(builder.build(crypto));
+        }
+
+        // Modify the signed Body of the second document
+        Element body = WSSecurityUtil.findBodyElement(docs.get(1));
+        body.appendChild(docs.get(1).createTextNode("modified"));
+
+        // Replay the third document
+        docs.add(SOAPUtil.toSOAPPart(XMLUtils.prettyDocumentToString(docs.get(2))));
+
+        RequestData data = new RequestData();
+        data.setSigVerCrypto(crypto);
+        data.setTimestampReplayCache(new MemoryReplayCache());
+
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            List<WSSecurityBatchResult> results =
+                new WSSecurityEngine().processSecurityHeaders(docs, data, executor);
+            assertEquals(docs.size(), results.size());
+            for (int i = 0; i < docs.size(); i++) {
+                assertSame(docs.get(i), results.get(i).getDocument());
+            }
+
+            assertTrue(results.get(0).isSuccess());
+            assertEquals(1, results.get(0).getHandlerResult().getActionResults().get(WSConstants.SIGN).size());
+            assertTrue(results.get(3).isSuccess());
+
+            assertFalse(results.get(1).isSuccess());
+            assertNull(results.get(1).getHandlerResult());
+            assertEquals(WSSecurityException.ErrorCode.FAILED_CHECK, results.get(1).getException().getErrorCode());
+
+            // Exactly one of the replayed documents is rejected by the shared ReplayCache
+            assertTrue(results.get(2).isSuccess() ^ results.get(4).isSuccess());
+            WSSecurityException replayException =
+                results.get(2).isSuccess() ? results.get(4).getException() : results.get(2).getException();
+            assertEquals(WSSecurityException.ErrorCode.INVALID_SECURITY, replayException.getErrorCode());
+
+            // The template RequestData is not modified
+            assertNull(data.getWsDocInfo());
+        } finally {
+            executor.shutdown();
+        }
+    }
+
 
     /**
      * Verifies the soap envelope.
@@ -953,4 +1105,10 @@ public class SignatureTest extends org.junit.Assert {
         return secEngine.processSecurityHeader(doc, null, null, crypto);
     }
 
+    @SuppressWarnings("unchecked")
+    private static List<WSDataRef> getSignatureDataRefs(WSHandlerResult results) {
+        WSSecurityEngineResult actionResult = results.getActionResults().get(WSConstants.SIGN).get(0);
+        return (List<WSDataRef>)actionResult.get(WSSecurityEngineResult.TAG_DATA_REF_URIS);
+    }
+
 }
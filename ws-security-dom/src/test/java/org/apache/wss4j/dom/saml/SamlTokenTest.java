@@ -47,6 +47,7 @@ import org.apache.wss4j.common.token.SecurityTokenReference;
 import org.apache.wss4j.common.util.DOM2Writer;
 import org.apache.wss4j.common.util.XMLUtils;
 import org.apache.wss4j.dom.WSConstants;
+import org.apache.wss4j.dom.callback.IndexedCallbackLookup;
 import org.apache.wss4j.dom.common.CustomHandler;
 import org.apache.wss4j.dom.common.CustomSamlAssertionValidator;
 import org.apache.wss4j.dom.common.KeystoreCallbackHandler;
@@ -763,6 +764,15 @@ public class SamlTokenTest extends org.junit.Assert {
         requestData.setCallbackHandler(new KeystoreCallbackHandler());
         requestData.setDecCrypto(crypto);
         requestData.setSigVerCrypto(crypto);
+        // The decrypted Assertion must be added to the Id index of the document
+        final List<Element> addedElements = new ArrayList<>();
+        secEngine.setCallbackLookup(new IndexedCallbackLookup(doc) {
+            @Override
+            public void elementAdded(Element element) {
+                addedElements.add(element);
+                super.elementAdded(element);
+            }
+        });
         WSHandlerResult results = secEngine.processSecurityHeader(doc, requestData);
 
         WSSecurityEngineResult actionResult =
@@ -773,6 +783,7 @@ public class SamlTokenTest extends org.junit.Assert {
         assertTrue(receivedSamlAssertion != null);
         assertTrue(receivedSamlAssertion.getElement() != null);
         assertTrue("Assertion".equals(receivedSamlAssertion.getElement().getLocalName()));
+        assertTrue(addedElements.contains(receivedSamlAssertion.getElement()));
 
         actionResult = results.getActionResults().get(WSConstants.ENCR).get(0);
         assertTrue(actionResult != null);
@@ -32,6 +32,7 @@ import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Properties;
+import java.util.concurrent.ExecutorService;
 import java.util.regex.Pattern;
 
 import javax.security.auth.callback.CallbackHandler;
@@ -45,6 +46,7 @@ import org.apache.wss4j.common.crypto.PasswordEncryptor;
 import org.apache.wss4j.common.ext.WSSecurityException;
 import org.apache.wss4j.stax.securityToken.WSSecurityTokenConstants;
 import org.apache.wss4j.stax.validate.Validator;
+import org.apache.xml.security.stax.ext.XMLSecurityHeaderHandler;
 import org.apache.xml.security.stax.ext.XMLSecurityProperties;
 
 /**
@@ -61,6 +63,7 @@ public class WSSSecurityProperties extends XMLSecurityProperties {
     private final List<BSPRule> ignoredBSPRules = new LinkedList<>();
     private boolean disableBSPEnforcement;
     private final Map<QName, Validator> validators = new HashMap<>();
+    private final Map<QName, XMLSecurityHeaderHandler> securityHeaderHandlers = new HashMap<>();
 
     private Integer timestampTTL = 300;
     private Integer timeStampFutureTTL = 60;
@@ -113,6 +116,9 @@ public class WSSSecurityProperties extends XMLSecurityProperties {
     private Collection<Pattern> issuerDNPatterns = new ArrayList<>();
     private List<String> audienceRestrictions = new ArrayList<>();
     private boolean requireTimestampExpires;
+    private Long maximumSecurityHeaderSize;
+    private ExecutorService decryptionExecutorService;
+    private int maximumParallelDecryptions = 4;
 
     private CallbackHandler attachmentCallbackHandler;
     private Object msgContext;
@@ -132,6 +138,7 @@ public class WSSSecurityProperties extends XMLSecurityProperties {
         this.ignoredBSPRules.addAll(wssSecurityProperties.ignoredBSPRules);
         this.disableBSPEnforcement = wssSecurityProperties.disableBSPEnforcement;
         this.validators.putAll(wssSecurityProperties.validators);
+        this.securityHeaderHandlers.putAll(wssSecurityProperties.securityHeaderHandlers);
         this.timestampTTL = wssSecurityProperties.timestampTTL;
         this.timeStampFutureTTL = wssSecurityProperties.timeStampFutureTTL;
         this.utTTL = wssSecurityProperties.utTTL;
@@ -175,6 +182,9 @@ public class WSSSecurityProperties extends XMLSecurityProperties {
         this.msgContext = wssSecurityProperties.msgContext;
         this.audienceRestrictions = wssSecurityProperties.audienceRestrictions;
         this.requireTimestampExpires = wssSecurityProperties.requireTimestampExpires;
+        this.maximumSecurityHeaderSize = wssSecurityProperties.maximumSecurityHeaderSize;
+        this.decryptionExecutorService = wssSecurityProperties.decryptionExecutorService;
+        this.maximumParallelDecryptions = wssSecurityProperties.maximumParallelDecryptions;
     }
 
     /**
@@ -302,6 +312,21 @@ public class WSSSecurityProperties extends XMLSecurityProperties {
         return (T)validators.get(qName);
     }
 
+    /**
+     * Add a handler for the security header child elements of the given QName. The handler is
+     * used instead of the handler of the configuration (if any) for every message, and so it
+     * must be stateless.
+     * @param qName the QName of the security header child element
+     * @param securityHeaderHandler the (stateless) handler for the element
+     */
+    public void addSecurityHeaderHandler(QName qName, XMLSecurityHeaderHandler securityHeaderHandler) {
+        securityHeaderHandlers.put(qName, securityHeaderHandler);
+    }
+
+    public XMLSecurityHeaderHandler getSecurityHeaderHandler(QName qName) {
+        return securityHeaderHandlers.get(qName);
+    }
+
     public void setSignatureUser(String signatureUser) {
         this.signatureUser = signatureUser;
     }
@@ -949,4 +974,55 @@ public class WSSSecurityProperties extends XMLSecurityProperties {
     public void setRequireTimestampExpires(boolean requireTimestampExpires) {
         this.requireTimestampExpires = requireTimestampExpires;
     }
+
+    public Long getMaximumSecurityHeaderSize() {
+        return maximumSecurityHeaderSize;
+    }
+
+    /**
+     * Set the maximum (approximate) size in characters of the security header of a received message,
+     * i.e. of the security header events that are buffered until the end of the security header.
+     * The default is the "MaximumAllowedSecurityHeaderSize" property of the configuration. A value
+     * of zero or less disables the limit.
+     * @param maximumSecurityHeaderSize the maximum size of the security header in characters
+     */
+    public void setMaximumSecurityHeaderSize(Long maximumSecurityHeaderSize) {
+        this.maximumSecurityHeaderSize = maximumSecurityHeaderSize;
+    }
+
+    public ExecutorService getDecryptionExecutorService() {
+        return decryptionExecutorService;
+    }
+
+    /**
+     * Set the ExecutorService with which the EncryptedData elements in the SOAP Body of a received
+     * message are decrypted. If it is set, the Base64 decoding and decryption of an EncryptedData
+     * element with an inline CipherValue is done by a task of the ExecutorService, while the events
+     * after it are read ahead up to the next EncryptedData elements, so that several of them are
+     * decrypted in parallel. The decrypted events are still returned in document order, but the token
+     * and algorithm security events of the EncryptedData elements that are read ahead are registered
+     * before the security events of the decrypted elements that precede them. The CipherValue and the
+     * decrypted bytes of these EncryptedData elements are held in memory. If the signature of the
+     * encrypted content is verified before it is decrypted, the EncryptedData elements are decrypted
+     * as their events are read.
+     * The default is null, i.e. every EncryptedData element is decrypted as its events are read.
+     * The ExecutorService is not shut down by WSS4J.
+     * @param decryptionExecutorService the ExecutorService that decrypts EncryptedData elements
+     */
+    public void setDecryptionExecutorService(ExecutorService decryptionExecutorService) {
+        this.decryptionExecutorService = decryptionExecutorService;
+    }
+
+    public int getMaximumParallelDecryptions() {
+        return maximumParallelDecryptions;
+    }
+
+    /**
+     * Set the maximum number of EncryptedData elements of a message that are read ahead and decrypted
+     * in parallel, if a decryption ExecutorService is set. The default is 4.
+     * @param maximumParallelDecryptions the maximum number of EncryptedData elements decrypted in parallel
+     */
+    public void setMaximumParallelDecryptions(int maximumParallelDecryptions) {
+        this.maximumParallelDecryptions = maximumParallelDecryptions;
+    }
 }
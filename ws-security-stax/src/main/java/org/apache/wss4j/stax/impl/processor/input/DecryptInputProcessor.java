@@ -18,22 +18,37 @@
  */
 package org.apache.wss4j.stax.impl.processor.input;
 
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.lang.reflect.Constructor;
 import java.lang.reflect.InvocationTargetException;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
 import java.security.Key;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Deque;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 
 import javax.crypto.Cipher;
+import javax.crypto.SecretKey;
 import javax.security.auth.callback.Callback;
 import javax.security.auth.callback.CallbackHandler;
 import javax.xml.bind.JAXBElement;
+import javax.xml.bind.JAXBException;
 import javax.xml.namespace.QName;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
 import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
 
 import org.apache.wss4j.binding.wss10.SecurityTokenReferenceType;
 import org.apache.wss4j.common.bsp.BSPRule;
@@ -42,6 +57,7 @@ import org.apache.wss4j.common.ext.AttachmentRequestCallback;
 import org.apache.wss4j.common.ext.AttachmentResultCallback;
 import org.apache.wss4j.common.ext.WSSecurityException;
 import org.apache.wss4j.common.util.AttachmentUtils;
+import org.apache.wss4j.common.util.KeyUtils;
 import org.apache.wss4j.stax.ext.WSInboundSecurityContext;
 import org.apache.wss4j.stax.ext.WSSConstants;
 import org.apache.wss4j.stax.ext.WSSSecurityProperties;
@@ -55,27 +71,49 @@ import org.apache.xml.security.binding.xmlenc.CipherReferenceType;
 import org.apache.xml.security.binding.xmlenc.EncryptedDataType;
 import org.apache.xml.security.binding.xmlenc.ReferenceList;
 import org.apache.xml.security.binding.xmlenc.ReferenceType;
+import org.apache.xml.security.encryption.XMLCipherUtil;
 import org.apache.xml.security.exceptions.XMLSecurityException;
 import org.apache.xml.security.stax.config.ConfigurationProperties;
+import org.apache.xml.security.stax.config.JCEAlgorithmMapper;
 import org.apache.xml.security.stax.config.TransformerAlgorithmMapper;
+import org.apache.xml.security.stax.ext.AbstractInputProcessor;
 import org.apache.xml.security.stax.ext.DocumentContext;
 import org.apache.xml.security.stax.ext.InboundSecurityContext;
+import org.apache.xml.security.stax.ext.InputProcessor;
 import org.apache.xml.security.stax.ext.InputProcessorChain;
 import org.apache.xml.security.stax.ext.SecurePart;
 import org.apache.xml.security.stax.ext.XMLSecurityConstants;
 import org.apache.xml.security.stax.ext.XMLSecurityProperties;
 import org.apache.xml.security.stax.ext.XMLSecurityUtils;
+import org.apache.xml.security.stax.ext.stax.XMLSecEvent;
+import org.apache.xml.security.stax.ext.stax.XMLSecEventFactory;
+import org.apache.xml.security.stax.ext.stax.XMLSecNamespace;
 import org.apache.xml.security.stax.ext.stax.XMLSecStartElement;
+import org.apache.xml.security.stax.impl.XMLSecurityEventReader;
 import org.apache.xml.security.stax.impl.processor.input.AbstractDecryptInputProcessor;
+import org.apache.xml.security.stax.impl.processor.input.AbstractSignatureReferenceVerifyInputProcessor;
+import org.apache.xml.security.stax.impl.util.IDGenerator;
 import org.apache.xml.security.stax.impl.util.LimitingInputStream;
+import org.apache.xml.security.stax.impl.util.MultiInputStream;
 import org.apache.xml.security.stax.securityEvent.ContentEncryptedElementSecurityEvent;
 import org.apache.xml.security.stax.securityEvent.EncryptedElementSecurityEvent;
 import org.apache.xml.security.stax.securityEvent.TokenSecurityEvent;
 import org.apache.xml.security.stax.securityToken.InboundSecurityToken;
 import org.apache.xml.security.stax.securityToken.SecurityToken;
+import org.apache.xml.security.stax.securityToken.SecurityTokenConstants;
+import org.apache.xml.security.stax.securityToken.SecurityTokenFactory;
 
 /**
- * Processor for decryption of EncryptedData XML structures
+ * Processor for decryption of EncryptedData XML structures.
+ *
+ * If a decryption ExecutorService is configured, the EncryptedData elements with an inline
+ * CipherValue that follow the security header are decrypted by tasks of the ExecutorService: the
+ * events after such an EncryptedData element are read ahead, up to the configured number of
+ * EncryptedData elements, so that these are decrypted in parallel, and the decrypted events are
+ * returned in document order. The security token of an EncryptedData element, and its security
+ * events, are handled when it is read, and the security event of the decrypted element when its
+ * decrypted events are returned. Any other EncryptedData or EncryptedHeader element is decrypted as
+ * its events are read.
  */
 public class DecryptInputProcessor extends AbstractDecryptInputProcessor {
 
@@ -85,14 +123,34 @@ public class DecryptInputProcessor extends AbstractDecryptInputProcessor {
     private static final Long MAX_ALLOWED_DECOMPRESSED_BYTES =
             Long.valueOf(ConfigurationProperties.getProperty("MaximumAllowedDecompressedBytes"));
 
+    /*
+     * The maximum number of events that are read ahead of the consumer after an EncryptedData element
+     * that is decrypted in parallel, before the events are returned
+     */
+    private static final int MAXIMUM_READ_AHEAD_EVENTS = 10000;
+
     private List<DeferredAttachment> attachmentReferences = new ArrayList<>();
 
+    private final KeyInfoType keyInfoType;
+    private final ExecutorService decryptionExecutorService;
+    private final int maximumParallelDecryptions;
+    // The events that were read ahead: an XMLSecEvent, a ParallelDecryption, or the events of an
+    // EncryptedData or EncryptedHeader element that is decrypted as its events are read
+    private final Deque<Object> readAheadQueue = new ArrayDeque<>();
+    private final QName wrapperElementName =
+        new QName("http://dummy", "dummy", "w" + UUID.randomUUID().toString().replace("-", ""));
+    // Whether the SOAP Body was reached, after which EncryptedData elements are decrypted in parallel
+    private boolean inSOAPBody;
+
     public DecryptInputProcessor(KeyInfoType keyInfoType, ReferenceList referenceList,
                                  WSSSecurityProperties securityProperties, WSInboundSecurityContext securityContext)
             throws XMLSecurityException {
 
         super(keyInfoType, referenceList, securityProperties);
         checkBSPCompliance(keyInfoType, referenceList, securityContext, BSPRule.R3006);
+        this.keyInfoType = keyInfoType;
+        this.decryptionExecutorService = securityProperties.getDecryptionExecutorService();
+        this.maximumParallelDecryptions = Math.max(1, securityProperties.getMaximumParallelDecryptions());
     }
 
     private void checkBSPCompliance(KeyInfoType keyInfoType, ReferenceList referenceList, WSInboundSecurityContext securityContext,
@@ -210,6 +268,15 @@ public class DecryptInputProcessor extends AbstractDecryptInputProcessor {
             boolean encryptedHeader, XMLSecStartElement xmlSecStartElement, EncryptedDataType encryptedDataType,
             InboundSecurityToken inboundSecurityToken, InboundSecurityContext inboundSecurityContext) throws XMLSecurityException {
 
+        checkEncryptionAlgorithm(encryptedDataType, inboundSecurityContext);
+
+        return new DecryptedEventReaderInputProcessor(getSecurityProperties(),
+                SecurePart.Modifier.getModifier(encryptedDataType.getType()),
+                encryptedHeader, xmlSecStartElement, encryptedDataType, this, inboundSecurityToken);
+    }
+
+    private void checkEncryptionAlgorithm(EncryptedDataType encryptedDataType, InboundSecurityContext inboundSecurityContext)
+        throws XMLSecurityException {
         // Check encryption algorithm against the required algorithm, if defined
         String encryptionAlgorithm = encryptedDataType.getEncryptionMethod().getAlgorithm();
         if (this.getSecurityProperties().getEncryptionSymAlgorithm() != null
@@ -227,10 +294,6 @@ public class DecryptInputProcessor extends AbstractDecryptInputProcessor {
                 && !WSSConstants.NS_XENC11_AES256_GCM.equals(encryptionAlgorithm)) {
             ((WSInboundSecurityContext) inboundSecurityContext).handleBSPRule(BSPRule.R5620);
         }
-
-        return new DecryptedEventReaderInputProcessor(getSecurityProperties(),
-                SecurePart.Modifier.getModifier(encryptedDataType.getType()),
-                encryptedHeader, xmlSecStartElement, encryptedDataType, this, inboundSecurityToken);
     }
 
     @Override
@@ -242,8 +305,433 @@ public class DecryptInputProcessor extends AbstractDecryptInputProcessor {
         inboundSecurityContext.registerSecurityEvent(tokenSecurityEvent);
     }
 
+    @Override
+    public XMLSecEvent processNextEvent(InputProcessorChain inputProcessorChain) throws XMLStreamException, XMLSecurityException {
+        if (!inSOAPBody) {
+            XMLSecEvent xmlSecEvent = super.processNextEvent(inputProcessorChain);
+            if (decryptionExecutorService != null && xmlSecEvent.getEventType() == XMLStreamConstants.START_ELEMENT) {
+                List<QName> elementPath = xmlSecEvent.asStartElement().getElementPath();
+                inSOAPBody = elementPath.size() == 2 && WSSUtils.isInSOAPBody(elementPath);
+            }
+            return xmlSecEvent;
+        }
+
+        try {
+            return processNextParallelEvent(inputProcessorChain);
+        } catch (XMLStreamException | XMLSecurityException | RuntimeException e) {
+            cancelParallelDecryptions();
+            throw e;
+        }
+    }
+
+    /**
+     * Return the next event of the SOAP Body, reading ahead if it is an EncryptedData element that is
+     * decrypted in parallel
+     */
+    private XMLSecEvent processNextParallelEvent(InputProcessorChain inputProcessorChain)
+        throws XMLStreamException, XMLSecurityException {
+        while (true) {
+            Object next = readAheadQueue.pollFirst();
+            if (next == null) {
+                next = readEvent(inputProcessorChain, inputProcessorChain.processEvent());
+                if (next instanceof ParallelDecryption) {
+                    readAhead(inputProcessorChain);
+                }
+            }
+
+            if (next instanceof XMLSecEvent) {
+                return (XMLSecEvent) next;
+            } else if (next instanceof ParallelDecryption) {
+                // The decrypted events are returned by the ParallelDecryption, which is added to the chain
+                ParallelDecryption parallelDecryption = (ParallelDecryption) next;
+                startDecryptedEvents(inputProcessorChain, parallelDecryption);
+                XMLSecEvent xmlSecEvent = nextDecryptedEvent(inputProcessorChain, parallelDecryption);
+                if (xmlSecEvent != null) {
+                    return xmlSecEvent;
+                }
+            } else {
+                // Decrypt the EncryptedData element as its events are read
+                @SuppressWarnings("unchecked")
+                Deque<XMLSecEvent> xmlSecEvents = (Deque<XMLSecEvent>) next;
+                return super.processNextEvent(new ReplayInputProcessorChain(inputProcessorChain, xmlSecEvents));
+            }
+        }
+    }
+
+    /**
+     * Read the events that follow an EncryptedData element that is decrypted in parallel, until the
+     * maximum number of parallel decryptions or read ahead events is reached
+     */
+    private void readAhead(InputProcessorChain inputProcessorChain) throws XMLStreamException, XMLSecurityException {
+        InputProcessorChain subInputProcessorChain = null;
+        int parallelDecryptions = 1;
+        int events = 0;
+        while (parallelDecryptions < maximumParallelDecryptions && events < MAXIMUM_READ_AHEAD_EVENTS) {
+            if (subInputProcessorChain == null) {
+                subInputProcessorChain = inputProcessorChain.createSubChain(this, false);
+            }
+            subInputProcessorChain.reset();
+            Object next = readEvent(inputProcessorChain, subInputProcessorChain.processEvent());
+            readAheadQueue.add(next);
+            if (next instanceof ParallelDecryption) {
+                parallelDecryptions++;
+            } else if (next instanceof XMLSecEvent) {
+                events++;
+                if (((XMLSecEvent) next).getEventType() == XMLStreamConstants.END_DOCUMENT) {
+                    return;
+                }
+            } else {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Process the given event. An EncryptedData element that is referenced by this processor is returned
+     * as a ParallelDecryption, or as its events if it is not decrypted in parallel.
+     */
+    private Object readEvent(InputProcessorChain inputProcessorChain, XMLSecEvent xmlSecEvent)
+        throws XMLStreamException, XMLSecurityException {
+        if (xmlSecEvent.getEventType() != XMLStreamConstants.START_ELEMENT) {
+            return xmlSecEvent;
+        }
+
+        XMLSecStartElement xmlSecStartElement = xmlSecEvent.asStartElement();
+        if (XMLSecurityConstants.TAG_wsse11_EncryptedHeader.equals(xmlSecStartElement.getName())) {
+            Deque<XMLSecEvent> xmlSecEvents = new ArrayDeque<>();
+            xmlSecEvents.add(xmlSecStartElement);
+            return xmlSecEvents;
+        }
+        if (!XMLSecurityConstants.TAG_xenc_EncryptedData.equals(xmlSecStartElement.getName())) {
+            return xmlSecEvent;
+        }
+        ReferenceType referenceType = matchesReferenceId(xmlSecStartElement);
+        if (referenceType == null) {
+            return xmlSecEvent;
+        }
+        if (isProtectedContentProcessedBefore(inputProcessorChain)) {
+            Deque<XMLSecEvent> xmlSecEvents = new ArrayDeque<>();
+            xmlSecEvents.add(xmlSecStartElement);
+            return xmlSecEvents;
+        }
+        return readEncryptedData(inputProcessorChain, xmlSecStartElement, referenceType);
+    }
+
+    /**
+     * @return whether a processor that verifies signed content, or decrypts encrypted content, processes
+     * the events before this processor. It would mark the events it reads as signed or encrypted in
+     * the DocumentContext before this processor returns the decrypted events that precede them, so
+     * the EncryptedData elements are then decrypted as their events are read.
+     */
+    private boolean isProtectedContentProcessedBefore(InputProcessorChain inputProcessorChain) {
+        List<InputProcessor> inputProcessors = inputProcessorChain.getProcessors();
+        for (int i = inputProcessors.indexOf(this) + 1; i < inputProcessors.size(); i++) {
+            InputProcessor inputProcessor = inputProcessors.get(i);
+            if (inputProcessor instanceof AbstractSignatureReferenceVerifyInputProcessor
+                || inputProcessor instanceof AbstractDecryptInputProcessor) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Read the given EncryptedData element and submit the decryption of its CipherValue. Its events
+     * are returned instead if it has no CipherValue or an inline EncryptedKey.
+     */
+    private Object readEncryptedData(
+        InputProcessorChain inputProcessorChain, XMLSecStartElement encryptedDataElement, ReferenceType referenceType
+    ) throws XMLStreamException, XMLSecurityException {
+        Deque<XMLSecEvent> xmlSecEvents = new ArrayDeque<>();
+        xmlSecEvents.add(encryptedDataElement);
+
+        InputProcessorChain subInputProcessorChain = inputProcessorChain.createSubChain(this);
+        int count = 0;
+        int keyInfoCount = 0;
+        XMLSecEvent xmlSecEvent;
+        while (true) {
+            subInputProcessorChain.reset();
+            xmlSecEvent = subInputProcessorChain.processEvent();
+            xmlSecEvents.add(xmlSecEvent);
+            if (keyInfoCount == 0 && count++ >= maximumAllowedEncryptedDataEvents) {
+                throw new XMLSecurityException("stax.xmlStructureSizeExceeded",
+                                               new Object[] {maximumAllowedEncryptedDataEvents});
+            }
+
+            if (xmlSecEvent.getEventType() == XMLStreamConstants.START_ELEMENT) {
+                QName name = xmlSecEvent.asStartElement().getName();
+                if (XMLSecurityConstants.TAG_xenc_CipherValue.equals(name)) {
+                    break;
+                } else if (XMLSecurityConstants.TAG_dsig_KeyInfo.equals(name)) {
+                    keyInfoCount++;
+                } else if (XMLSecurityConstants.TAG_xenc_EncryptedKey.equals(name)
+                    || XMLSecurityConstants.TAG_xenc_CipherReference.equals(name)) {
+                    return xmlSecEvents;
+                }
+            } else if (xmlSecEvent.getEventType() == XMLStreamConstants.END_ELEMENT) {
+                QName name = xmlSecEvent.asEndElement().getName();
+                if (XMLSecurityConstants.TAG_dsig_KeyInfo.equals(name)) {
+                    keyInfoCount--;
+                } else if (XMLSecurityConstants.TAG_xenc_EncryptedData.equals(name)) {
+                    return xmlSecEvents;
+                }
+            }
+        }
+
+        EncryptedDataType encryptedDataType = parseEncryptedDataStructure(xmlSecEvents);
+        if (encryptedDataType.getId() == null) {
+            encryptedDataType.setId(IDGenerator.generateID(null));
+        }
+        if (getProcessedReferences().contains(referenceType)) {
+            throw new XMLSecurityException("signature.Verification.MultipleIDs");
+        }
+        getProcessedReferences().add(referenceType);
+
+        InboundSecurityContext inboundSecurityContext = inputProcessorChain.getSecurityContext();
+        checkEncryptionAlgorithm(encryptedDataType, inboundSecurityContext);
+
+        KeyInfoType keyInfo = keyInfoType != null ? keyInfoType : encryptedDataType.getKeyInfo();
+        InboundSecurityToken inboundSecurityToken =
+            SecurityTokenFactory.getInstance().getSecurityToken(
+                keyInfo, SecurityTokenConstants.KeyUsage_Decryption, getSecurityProperties(), inboundSecurityContext);
+        handleSecurityToken(inboundSecurityToken, inboundSecurityContext, encryptedDataType);
+        String algorithm = encryptedDataType.getEncryptionMethod().getAlgorithm();
+        Key key = inboundSecurityToken.getSecretKey(algorithm, XMLSecurityConstants.Enc, encryptedDataType.getId());
+        SecretKey secretKey = XMLSecurityUtils.prepareSecretKey(algorithm, key.getEncoded());
+
+        // Read the CipherValue, and the rest of the EncryptedData element, which is not returned
+        StringBuilder cipherValue = new StringBuilder();
+        while (true) {
+            subInputProcessorChain.reset();
+            xmlSecEvent = subInputProcessorChain.processEvent();
+            if (xmlSecEvent.getEventType() == XMLStreamConstants.END_ELEMENT
+                && XMLSecurityConstants.TAG_xenc_CipherValue.equals(xmlSecEvent.asEndElement().getName())) {
+                break;
+            } else if (xmlSecEvent.getEventType() != XMLStreamConstants.CHARACTERS) {
+                throw new XMLSecurityException("stax.unexpectedXMLEvent",
+                                               new Object[] {XMLSecurityUtils.getXMLEventAsString(xmlSecEvent)});
+            }
+            cipherValue.append(xmlSecEvent.asCharacters().getText());
+        }
+        do {
+            subInputProcessorChain.reset();
+            xmlSecEvent = subInputProcessorChain.processEvent();
+        } while (!(xmlSecEvent.getEventType() == XMLStreamConstants.END_ELEMENT
+            && XMLSecurityConstants.TAG_xenc_EncryptedData.equals(xmlSecEvent.asEndElement().getName())));
+
+        Future<byte[]> decryptedBytes =
+            decryptionExecutorService.submit(() -> decrypt(algorithm, secretKey, cipherValue.toString()));
+        return new ParallelDecryption(
+            encryptedDataElement, referenceType, encryptedDataType, inboundSecurityToken, decryptedBytes);
+    }
+
+    private EncryptedDataType parseEncryptedDataStructure(Deque<XMLSecEvent> xmlSecEvents) throws XMLSecurityException {
+        Deque<XMLSecEvent> structure = new ArrayDeque<>(xmlSecEvents.size() + 3);
+        for (XMLSecEvent xmlSecEvent : xmlSecEvents) {
+            structure.push(xmlSecEvent);
+        }
+        structure.push(XMLSecEventFactory.createXmlSecEndElement(XMLSecurityConstants.TAG_xenc_CipherValue));
+        structure.push(XMLSecEventFactory.createXmlSecEndElement(XMLSecurityConstants.TAG_xenc_CipherData));
+        structure.push(XMLSecEventFactory.createXmlSecEndElement(XMLSecurityConstants.TAG_xenc_EncryptedData));
+
+        try {
+            @SuppressWarnings("unchecked")
+            JAXBElement<EncryptedDataType> encryptedDataTypeJAXBElement =
+                (JAXBElement<EncryptedDataType>) XMLSecurityConstants.getJaxbUnmarshaller(
+                    getSecurityProperties().isDisableSchemaValidation()).unmarshal(new XMLSecurityEventReader(structure, 0));
+            return encryptedDataTypeJAXBElement.getValue();
+        } catch (JAXBException e) {
+            throw new XMLSecurityException(e);
+        }
+    }
+
+    /**
+     * Decrypt the given base64 encoded CipherValue. This is called by a task of the decryption
+     * ExecutorService.
+     */
+    private static byte[] decrypt(String algorithm, SecretKey secretKey, String cipherValue)
+        throws XMLSecurityException, GeneralSecurityException {
+        byte[] encryptedBytes = Base64.getMimeDecoder().decode(cipherValue);
+        int ivLength = JCEAlgorithmMapper.getIVLengthFromURI(algorithm) / 8;
+        if (encryptedBytes.length < ivLength) {
+            throw new WSSecurityException(WSSecurityException.ErrorCode.FAILED_CHECK);
+        }
+        byte[] iv = new byte[ivLength];
+        System.arraycopy(encryptedBytes, 0, iv, 0, ivLength);
+
+        String provider = JCEAlgorithmMapper.getJCEProviderFromURI(algorithm);
+        Cipher cipher = KeyUtils.getPooledCipherInstance(algorithm, provider, secretKey);
+        cipher.init(Cipher.DECRYPT_MODE, secretKey,
+                    XMLCipherUtil.constructBlockCipherParameters(algorithm, iv, DecryptInputProcessor.class));
+        byte[] decryptedBytes = cipher.doFinal(encryptedBytes, ivLength, encryptedBytes.length - ivLength);
+        KeyUtils.repoolCipherInstance(algorithm, provider, secretKey, cipher);
+        return decryptedBytes;
+    }
+
+    /**
+     * Wait for the decryption of the given EncryptedData element, add the processor that returns its
+     * decrypted events to the chain, and register its security events
+     */
+    private void startDecryptedEvents(InputProcessorChain inputProcessorChain, ParallelDecryption parallelDecryption)
+        throws XMLStreamException, XMLSecurityException {
+        byte[] decryptedBytes;
+        try {
+            decryptedBytes = parallelDecryption.decryptedBytes.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new XMLSecurityException(e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof XMLSecurityException) {
+                throw (XMLSecurityException) cause;
+            }
+            throw new XMLSecurityException(cause instanceof Exception ? (Exception) cause : e);
+        }
+
+        EncryptedDataType encryptedDataType = parallelDecryption.encryptedDataType;
+        InboundSecurityToken inboundSecurityToken = parallelDecryption.inboundSecurityToken;
+
+        XMLSecStartElement parentXmlSecStartElement =
+            parallelDecryption.encryptedDataElement.getParentXMLSecStartElement();
+        inputProcessorChain.addProcessor(parallelDecryption);
+        inputProcessorChain.getDocumentContext().setIsInEncryptedContent(
+            inputProcessorChain.getProcessors().indexOf(parallelDecryption), parallelDecryption);
+        if (SecurePart.Modifier.Content.getModifier().equals(encryptedDataType.getType())) {
+            handleEncryptedContent(inputProcessorChain, parentXmlSecStartElement, inboundSecurityToken, encryptedDataType);
+        }
+
+        XMLInputFactory xmlInputFactory =
+            (XMLInputFactory) inputProcessorChain.getSecurityContext().get(XMLSecurityConstants.XMLINPUTFACTORY);
+        InputStream decryptedInputStream = new MultiInputStream(
+            writeWrapperStartElement(parentXmlSecStartElement),
+            applyTransforms(parallelDecryption.referenceType, new ByteArrayInputStream(decryptedBytes)),
+            new ByteArrayInputStream(("</" + wrapperElementName.getPrefix() + ":" + wrapperElementName.getLocalPart() + ">")
+                .getBytes(StandardCharsets.UTF_8)));
+        XMLStreamReader xmlStreamReader =
+            xmlInputFactory.createXMLStreamReader(decryptedInputStream, StandardCharsets.UTF_8.name());
+        while (!(xmlStreamReader.getEventType() == XMLStreamConstants.START_ELEMENT
+            && wrapperElementName.equals(xmlStreamReader.getName()))) {
+            xmlStreamReader.next();
+        }
+        xmlStreamReader.next();
+
+        parallelDecryption.xmlStreamReader = xmlStreamReader;
+        parallelDecryption.parentXmlSecStartElement = parentXmlSecStartElement;
+        parallelDecryption.currentXMLStructureDepth =
+            parentXmlSecStartElement == null ? 0 : parentXmlSecStartElement.getDocumentLevel();
+        parallelDecryption.rootElementProcessed =
+            SecurePart.Modifier.getModifier(encryptedDataType.getType()) == SecurePart.Modifier.Content;
+    }
+
+    /**
+     * Declare the namespaces that are in scope of the EncryptedData element on the wrapper element of
+     * its decrypted content
+     */
+    private InputStream writeWrapperStartElement(XMLSecStartElement parentXmlSecStartElement) {
+        StringBuilder stringBuilder = new StringBuilder();
+        stringBuilder.append('<').append(wrapperElementName.getPrefix()).append(':').append(wrapperElementName.getLocalPart());
+        stringBuilder.append(" xmlns:").append(wrapperElementName.getPrefix())
+            .append("=\"").append(wrapperElementName.getNamespaceURI()).append('"');
+
+        if (parentXmlSecStartElement != null) {
+            List<String> prefixes = new ArrayList<>();
+            List<XMLSecNamespace> namespaces = new ArrayList<>();
+            parentXmlSecStartElement.getNamespacesFromCurrentScope(namespaces);
+            for (int i = namespaces.size() - 1; i >= 0; i--) {
+                XMLSecNamespace namespace = namespaces.get(i);
+                if (!prefixes.contains(namespace.getPrefix())) {
+                    prefixes.add(namespace.getPrefix());
+                    if (namespace.getPrefix() == null || namespace.getPrefix().isEmpty()) {
+                        stringBuilder.append(" xmlns=\"").append(namespace.getNamespaceURI()).append('"');
+                    } else {
+                        stringBuilder.append(" xmlns:").append(namespace.getPrefix())
+                            .append("=\"").append(namespace.getNamespaceURI()).append('"');
+                    }
+                }
+            }
+        }
+        stringBuilder.append('>');
+        return new ByteArrayInputStream(stringBuilder.toString().getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * @return the next decrypted event of the given EncryptedData element, or null once all of them
+     * were returned, and its processor was removed from the chain
+     */
+    private XMLSecEvent nextDecryptedEvent(InputProcessorChain inputProcessorChain, ParallelDecryption parallelDecryption)
+        throws XMLStreamException, XMLSecurityException {
+        XMLStreamReader xmlStreamReader = parallelDecryption.xmlStreamReader;
+        XMLSecEvent xmlSecEvent =
+            XMLSecEventFactory.allocate(xmlStreamReader, parallelDecryption.parentXmlSecStartElement);
+        switch (xmlSecEvent.getEventType()) {
+            case XMLStreamConstants.START_ELEMENT:
+                if (++parallelDecryption.currentXMLStructureDepth > maximumAllowedXMLStructureDepth) {
+                    throw new XMLSecurityException("secureProcessing.MaximumAllowedXMLStructureDepth",
+                                                   new Object[] {maximumAllowedXMLStructureDepth});
+                }
+                parallelDecryption.parentXmlSecStartElement = xmlSecEvent.asStartElement();
+                if (!parallelDecryption.rootElementProcessed) {
+                    handleEncryptedElement(inputProcessorChain, xmlSecEvent.asStartElement(),
+                                           parallelDecryption.inboundSecurityToken, parallelDecryption.encryptedDataType);
+                    parallelDecryption.rootElementProcessed = true;
+                }
+                break;
+            case XMLStreamConstants.END_ELEMENT:
+                parallelDecryption.currentXMLStructureDepth--;
+                if (parallelDecryption.parentXmlSecStartElement != null) {
+                    parallelDecryption.parentXmlSecStartElement =
+                        parallelDecryption.parentXmlSecStartElement.getParentXMLSecStartElement();
+                }
+                if (wrapperElementName.equals(xmlSecEvent.asEndElement().getName())) {
+                    xmlStreamReader.close();
+                    inputProcessorChain.removeProcessor(parallelDecryption);
+                    inputProcessorChain.getDocumentContext().unsetIsInEncryptedContent(parallelDecryption);
+                    return null;
+                }
+                break;
+            default:
+                break;
+        }
+        xmlStreamReader.next();
+        return xmlSecEvent;
+    }
+
+    private void handleEncryptedElement(
+            InputProcessorChain inputProcessorChain, XMLSecStartElement xmlSecStartElement,
+            InboundSecurityToken inboundSecurityToken, EncryptedDataType encryptedDataType) throws XMLSecurityException {
+
+        //fire a SecurityEvent:
+        final DocumentContext documentContext = inputProcessorChain.getDocumentContext();
+        List<QName> elementPath = xmlSecStartElement.getElementPath();
+        if (elementPath.size() == 3 && WSSUtils.isInSOAPHeader(elementPath)) {
+            EncryptedPartSecurityEvent encryptedPartSecurityEvent =
+                    new EncryptedPartSecurityEvent(inboundSecurityToken, true, documentContext.getProtectionOrder());
+            encryptedPartSecurityEvent.setElementPath(elementPath);
+            encryptedPartSecurityEvent.setXmlSecEvent(xmlSecStartElement);
+            encryptedPartSecurityEvent.setCorrelationID(encryptedDataType.getId());
+            inputProcessorChain.getSecurityContext().registerSecurityEvent(encryptedPartSecurityEvent);
+        } else {
+            EncryptedElementSecurityEvent encryptedElementSecurityEvent =
+                    new EncryptedElementSecurityEvent(inboundSecurityToken, true, documentContext.getProtectionOrder());
+            encryptedElementSecurityEvent.setElementPath(elementPath);
+            encryptedElementSecurityEvent.setXmlSecEvent(xmlSecStartElement);
+            encryptedElementSecurityEvent.setCorrelationID(encryptedDataType.getId());
+            inputProcessorChain.getSecurityContext().registerSecurityEvent(encryptedElementSecurityEvent);
+        }
+    }
+
+    private void cancelParallelDecryptions() {
+        for (Object next : readAheadQueue) {
+            if (next instanceof ParallelDecryption) {
+                ((ParallelDecryption) next).decryptedBytes.cancel(true);
+            }
+        }
+        readAheadQueue.clear();
+    }
+
     @Override
     public void doFinal(InputProcessorChain inputProcessorChain) throws XMLStreamException, XMLSecurityException {
+        cancelParallelDecryptions();
         //find already processed references by the EncryptedDataHandler
         List<String> encryptedDataRefs = inputProcessorChain.getSecurityContext().getAsList(WSSConstants.PROP_ENCRYPTED_DATA_REFS);
         if (encryptedDataRefs != null && !encryptedDataRefs.isEmpty()) {
@@ -395,24 +883,136 @@ public class DecryptInputProcessor extends AbstractDecryptInputProcessor {
                 InputProcessorChain inputProcessorChain, XMLSecStartElement xmlSecStartElement,
                 InboundSecurityToken inboundSecurityToken, EncryptedDataType encryptedDataType) throws XMLSecurityException {
 
-            //fire a SecurityEvent:
-            final DocumentContext documentContext = inputProcessorChain.getDocumentContext();
-            List<QName> elementPath = xmlSecStartElement.getElementPath();
-            if (elementPath.size() == 3 && WSSUtils.isInSOAPHeader(elementPath)) {
-                EncryptedPartSecurityEvent encryptedPartSecurityEvent =
-                        new EncryptedPartSecurityEvent(inboundSecurityToken, true, documentContext.getProtectionOrder());
-                encryptedPartSecurityEvent.setElementPath(elementPath);
-                encryptedPartSecurityEvent.setXmlSecEvent(xmlSecStartElement);
-                encryptedPartSecurityEvent.setCorrelationID(encryptedDataType.getId());
-                inputProcessorChain.getSecurityContext().registerSecurityEvent(encryptedPartSecurityEvent);
-            } else {
-                EncryptedElementSecurityEvent encryptedElementSecurityEvent =
-                        new EncryptedElementSecurityEvent(inboundSecurityToken, true, documentContext.getProtectionOrder());
-                encryptedElementSecurityEvent.setElementPath(elementPath);
-                encryptedElementSecurityEvent.setXmlSecEvent(xmlSecStartElement);
-                encryptedElementSecurityEvent.setCorrelationID(encryptedDataType.getId());
-                inputProcessorChain.getSecurityContext().registerSecurityEvent(encryptedElementSecurityEvent);
+            DecryptInputProcessor.this.handleEncryptedElement(
+                inputProcessorChain, xmlSecStartElement, inboundSecurityToken, encryptedDataType);
+        }
+    }
+
+    /**
+     * An EncryptedData element whose CipherValue is decrypted by a task of the decryption
+     * ExecutorService. Once it is reached, it is added to the chain after the DecryptInputProcessor,
+     * and returns the decrypted events, like the DecryptedEventReaderInputProcessor.
+     */
+    private final class ParallelDecryption extends AbstractInputProcessor {
+
+        private final XMLSecStartElement encryptedDataElement;
+        private final ReferenceType referenceType;
+        private final EncryptedDataType encryptedDataType;
+        private final InboundSecurityToken inboundSecurityToken;
+        private final Future<byte[]> decryptedBytes;
+
+        private XMLStreamReader xmlStreamReader;
+        private XMLSecStartElement parentXmlSecStartElement;
+        private int currentXMLStructureDepth;
+        private boolean rootElementProcessed;
+
+        private ParallelDecryption(
+            XMLSecStartElement encryptedDataElement, ReferenceType referenceType, EncryptedDataType encryptedDataType,
+            InboundSecurityToken inboundSecurityToken, Future<byte[]> decryptedBytes
+        ) {
+            super(DecryptInputProcessor.this.getSecurityProperties());
+            addAfterProcessor(DecryptInputProcessor.this);
+            this.encryptedDataElement = encryptedDataElement;
+            this.referenceType = referenceType;
+            this.encryptedDataType = encryptedDataType;
+            this.inboundSecurityToken = inboundSecurityToken;
+            this.decryptedBytes = decryptedBytes;
+        }
+
+        @Override
+        public XMLSecEvent processNextHeaderEvent(InputProcessorChain inputProcessorChain)
+            throws XMLStreamException, XMLSecurityException {
+            return inputProcessorChain.processHeaderEvent();
+        }
+
+        @Override
+        public XMLSecEvent processNextEvent(InputProcessorChain inputProcessorChain)
+            throws XMLStreamException, XMLSecurityException {
+            XMLSecEvent xmlSecEvent = nextDecryptedEvent(inputProcessorChain, this);
+            if (xmlSecEvent != null) {
+                return xmlSecEvent;
             }
+            return inputProcessorChain.processEvent();
+        }
+    }
+
+    /**
+     * An InputProcessorChain that first returns the given events, which were read ahead, and then the
+     * events of the wrapped InputProcessorChain. Its sub chains share the events.
+     */
+    private static final class ReplayInputProcessorChain implements InputProcessorChain {
+
+        private final InputProcessorChain inputProcessorChain;
+        private final Deque<XMLSecEvent> xmlSecEvents;
+
+        private ReplayInputProcessorChain(InputProcessorChain inputProcessorChain, Deque<XMLSecEvent> xmlSecEvents) {
+            this.inputProcessorChain = inputProcessorChain;
+            this.xmlSecEvents = xmlSecEvents;
+        }
+
+        private XMLSecEvent pollEvent() {
+            synchronized (xmlSecEvents) {
+                return xmlSecEvents.pollFirst();
+            }
+        }
+
+        @Override
+        public void reset() {
+            inputProcessorChain.reset();
+        }
+
+        @Override
+        public void doFinal() throws XMLStreamException, XMLSecurityException {
+            inputProcessorChain.doFinal();
+        }
+
+        @Override
+        public void addProcessor(InputProcessor inputProcessor) {
+            inputProcessorChain.addProcessor(inputProcessor);
+        }
+
+        @Override
+        public void removeProcessor(InputProcessor inputProcessor) {
+            inputProcessorChain.removeProcessor(inputProcessor);
+        }
+
+        @Override
+        public List<InputProcessor> getProcessors() {
+            return inputProcessorChain.getProcessors();
+        }
+
+        @Override
+        public InboundSecurityContext getSecurityContext() {
+            return inputProcessorChain.getSecurityContext();
+        }
+
+        @Override
+        public DocumentContext getDocumentContext() {
+            return inputProcessorChain.getDocumentContext();
+        }
+
+        @Override
+        public InputProcessorChain createSubChain(InputProcessor inputProcessor)
+            throws XMLStreamException, XMLSecurityException {
+            return new ReplayInputProcessorChain(inputProcessorChain.createSubChain(inputProcessor), xmlSecEvents);
+        }
+
+        @Override
+        public InputProcessorChain createSubChain(InputProcessor inputProcessor, boolean clone)
+            throws XMLStreamException, XMLSecurityException {
+            return new ReplayInputProcessorChain(inputProcessorChain.createSubChain(inputProcessor, clone), xmlSecEvents);
+        }
+
+        @Override
+        public XMLSecEvent processHeaderEvent() throws XMLStreamException, XMLSecurityException {
+            XMLSecEvent xmlSecEvent = pollEvent();
+            return xmlSecEvent != null ? xmlSecEvent : inputProcessorChain.processHeaderEvent();
+        }
+
+        @Override
+        public XMLSecEvent processEvent() throws XMLStreamException, XMLSecurityException {
+            XMLSecEvent xmlSecEvent = pollEvent();
+            return xmlSecEvent != null ? xmlSecEvent : inputProcessorChain.processEvent();
         }
     }
 }
@@ -18,14 +18,22 @@
  */
 package org.apache.wss4j.stax.impl.processor.input;
 
+import java.io.IOException;
+import java.io.OutputStream;
+import java.security.GeneralSecurityException;
 import java.security.Key;
+import java.security.MessageDigest;
 import java.security.PublicKey;
 import java.security.cert.X509Certificate;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Base64;
+import java.util.Collections;
 import java.util.Deque;
+import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
 
 import javax.crypto.spec.SecretKeySpec;
@@ -33,7 +41,7 @@ import javax.xml.bind.JAXBElement;
 import javax.xml.bind.JAXBException;
 import javax.xml.bind.Unmarshaller;
 import javax.xml.namespace.QName;
-import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.DocumentBuilder;
 import javax.xml.parsers.ParserConfigurationException;
 import javax.xml.stream.XMLStreamConstants;
 import javax.xml.stream.XMLStreamException;
@@ -59,24 +67,37 @@ import org.apache.wss4j.stax.utils.WSSUtils;
 import org.apache.wss4j.stax.validate.SamlTokenValidator;
 import org.apache.wss4j.stax.validate.SamlTokenValidatorImpl;
 import org.apache.wss4j.stax.validate.TokenContext;
+import org.apache.xml.security.binding.excc14n.InclusiveNamespaces;
 import org.apache.xml.security.binding.xmldsig.KeyInfoType;
 import org.apache.xml.security.binding.xmldsig.KeyValueType;
+import org.apache.xml.security.binding.xmldsig.ReferenceType;
+import org.apache.xml.security.binding.xmldsig.SignatureType;
+import org.apache.xml.security.binding.xmldsig.SignedInfoType;
+import org.apache.xml.security.binding.xmldsig.TransformType;
 import org.apache.xml.security.binding.xmldsig.X509DataType;
 import org.apache.xml.security.binding.xmlenc.EncryptedKeyType;
 import org.apache.xml.security.exceptions.XMLSecurityException;
+import org.apache.xml.security.stax.config.ConfigurationProperties;
 import org.apache.xml.security.stax.config.JCEAlgorithmMapper;
 import org.apache.xml.security.stax.ext.AbstractInputProcessor;
 import org.apache.xml.security.stax.ext.AbstractInputSecurityHeaderHandler;
 import org.apache.xml.security.stax.ext.InputProcessorChain;
+import org.apache.xml.security.stax.ext.Transformer;
 import org.apache.xml.security.stax.ext.XMLSecurityConstants;
 import org.apache.xml.security.stax.ext.XMLSecurityProperties;
+import org.apache.xml.security.stax.ext.XMLSecurityUtils;
 import org.apache.xml.security.stax.ext.stax.XMLSecAttribute;
 import org.apache.xml.security.stax.ext.stax.XMLSecEvent;
 import org.apache.xml.security.stax.ext.stax.XMLSecNamespace;
 import org.apache.xml.security.stax.ext.stax.XMLSecStartElement;
 import org.apache.xml.security.stax.impl.XMLSecurityEventReader;
+import org.apache.xml.security.stax.impl.algorithms.SignatureAlgorithm;
+import org.apache.xml.security.stax.impl.algorithms.SignatureAlgorithmFactory;
 import org.apache.xml.security.stax.impl.securityToken.AbstractInboundSecurityToken;
+import org.apache.xml.security.stax.impl.transformer.canonicalizer.Canonicalizer20010315_Excl;
+import org.apache.xml.security.stax.impl.util.DigestOutputStream;
 import org.apache.xml.security.stax.impl.util.IDGenerator;
+import org.apache.xml.security.stax.impl.util.SignerOutputStream;
 import org.apache.xml.security.stax.securityEvent.SecurityEvent;
 import org.apache.xml.security.stax.securityEvent.SecurityEventListener;
 import org.apache.xml.security.stax.securityEvent.SignedElementSecurityEvent;
@@ -85,11 +106,8 @@ import org.apache.xml.security.stax.securityToken.SecurityToken;
 import org.apache.xml.security.stax.securityToken.SecurityTokenConstants.TokenUsage;
 import org.apache.xml.security.stax.securityToken.SecurityTokenFactory;
 import org.apache.xml.security.stax.securityToken.SecurityTokenProvider;
-import org.opensaml.security.credential.BasicCredential;
-import org.opensaml.security.x509.BasicX509Credential;
-import org.opensaml.xmlsec.signature.Signature;
-import org.opensaml.xmlsec.signature.support.SignatureException;
-import org.opensaml.xmlsec.signature.support.SignatureValidator;
+import org.apache.xml.security.utils.UnsyncBufferedOutputStream;
+import org.apache.xml.security.utils.XMLUtils;
 import org.w3c.dom.Attr;
 import org.w3c.dom.Document;
 import org.w3c.dom.Element;
@@ -100,13 +118,18 @@ import org.w3c.dom.Node;
  */
 public class SAMLTokenInputHandler extends AbstractInputSecurityHeaderHandler {
 
-    private static final DocumentBuilderFactory DOC_BUILDER_FACTORY = DocumentBuilderFactory.newInstance();
-
     private static final List<QName> SAML1_TOKEN_PATH = new ArrayList<>(WSSConstants.WSSE_SECURITY_HEADER_PATH);
     private static final List<QName> SAML2_TOKEN_PATH = new ArrayList<>(WSSConstants.WSSE_SECURITY_HEADER_PATH);
 
+    private static final boolean ALLOW_MD5_ALGORITHM =
+        Boolean.parseBoolean(ConfigurationProperties.getProperty("AllowMD5Algorithm"));
+
+    private static final List<String> CANONICALIZATION_ALGORITHMS = Arrays.asList(
+        WSSConstants.NS_C14N_EXCL_OMIT_COMMENTS, WSSConstants.NS_C14N_EXCL_WITH_COMMENTS,
+        WSSConstants.NS_C14N_OMIT_COMMENTS, WSSConstants.NS_C14N_WITH_COMMENTS,
+        WSSConstants.NS_C14N11_OMIT_COMMENTS, WSSConstants.NS_C14N11_WITH_COMMENTS);
+
     static {
-        DOC_BUILDER_FACTORY.setNamespaceAware(true);
         SAML1_TOKEN_PATH.add(WSSConstants.TAG_SAML_ASSERTION);
         SAML2_TOKEN_PATH.add(WSSConstants.TAG_SAML2_ASSERTION);
     }
@@ -115,28 +138,19 @@ public class SAMLTokenInputHandler extends AbstractInputSecurityHeaderHandler {
     public void handle(final InputProcessorChain inputProcessorChain, final XMLSecurityProperties securityProperties,
                        Deque<XMLSecEvent> eventQueue, Integer index) throws XMLSecurityException {
 
-        final Document samlTokenDocument = (Document) parseStructure(eventQueue, index, securityProperties);
-
         final WSSSecurityProperties wssSecurityProperties = (WSSSecurityProperties) securityProperties;
         final WSInboundSecurityContext wsInboundSecurityContext = (WSInboundSecurityContext) inputProcessorChain.getSecurityContext();
-        final Element samlElement = samlTokenDocument.getDocumentElement();
-        final SamlAssertionWrapper samlAssertionWrapper = new SamlAssertionWrapper(samlElement);
+        final XMLSecStartElement samlStartElement = getAssertionStartElement(eventQueue, index);
 
-        SamlTokenValidator samlTokenValidator =
-            wssSecurityProperties.getValidator(new QName(samlElement.getNamespaceURI(), samlElement.getLocalName()));
+        SamlTokenValidator samlTokenValidator = wssSecurityProperties.getValidator(samlStartElement.getName());
         if (samlTokenValidator == null) {
             samlTokenValidator = new SamlTokenValidatorImpl();
         }
 
         //important: check the signature before we do other processing...
-        if (samlAssertionWrapper.isSigned()) {
-            Signature signature = samlAssertionWrapper.getSignature();
-            if (signature == null) {
-                throw new WSSecurityException(WSSecurityException.ErrorCode.INVALID_SECURITY_TOKEN,
-                        "empty", new Object[] {"no signature to validate"});
-            }
-
-            int sigKeyInfoIdx = getSignatureKeyInfoIndex(eventQueue);
+        int signatureIndex = getSignatureIndex(eventQueue, index);
+        if (signatureIndex >= 0) {
+            int sigKeyInfoIdx = getSignatureKeyInfoIndex(eventQueue, signatureIndex);
             if (sigKeyInfoIdx < 0) {
                 throw new WSSecurityException(WSSecurityException.ErrorCode.INVALID_SECURITY_TOKEN, "noKeyInSAMLToken");
             }
@@ -148,25 +162,25 @@ public class SAMLTokenInputHandler extends AbstractInputSecurityHeaderHandler {
 
             samlTokenValidator.validate(sigSecurityToken, wssSecurityProperties);
 
-            BasicCredential credential = null;
+            PublicKey publicKey;
             if (sigSecurityToken.getX509Certificates() != null) {
-                credential = new BasicX509Credential(sigSecurityToken.getX509Certificates()[0]);
+                publicKey = sigSecurityToken.getX509Certificates()[0].getPublicKey();
             } else if (sigSecurityToken.getPublicKey() != null) {
-                credential = new BasicCredential(sigSecurityToken.getPublicKey());
+                publicKey = sigSecurityToken.getPublicKey();
             } else {
                 throw new WSSecurityException(
                         WSSecurityException.ErrorCode.FAILURE, "invalidSAMLsecurity",
                         new Object[] {"cannot get certificate or key"}
                 );
             }
-            try {
-                SignatureValidator.validate(signature, credential);
-            } catch (SignatureException ex) {
-                throw new WSSecurityException(WSSecurityException.ErrorCode.FAILURE,
-                        ex, "empty", new Object[] {"SAML signature validation failed"});
-            }
+            verifySignature(eventQueue, index, signatureIndex, publicKey, securityProperties);
         }
 
+        // The DOM of the assertion is only built once its signature is verified, to provide the
+        // SamlAssertionWrapper to the validator and the SamlSecurityToken
+        final Document samlTokenDocument = (Document) parseStructure(eventQueue, index, securityProperties);
+        final SamlAssertionWrapper samlAssertionWrapper = new SamlAssertionWrapper(samlTokenDocument.getDocumentElement());
+
         final InboundSecurityToken subjectSecurityToken;
 
         List<String> methods = samlAssertionWrapper.getConfirmationMethods();
@@ -261,28 +275,211 @@ public class SAMLTokenInputHandler extends AbstractInputSecurityHeaderHandler {
         return idx;
     }
 
-    private int getSignatureKeyInfoIndex(Deque<XMLSecEvent> eventQueue) {
-        int idx = -1;
+    private XMLSecStartElement getAssertionStartElement(Deque<XMLSecEvent> eventQueue, int index) {
+        Iterator<XMLSecEvent> xmlSecEventIterator = eventQueue.descendingIterator();
+        int curIdx = 0;
+        while (curIdx++ < index) {
+            xmlSecEventIterator.next();
+        }
+        return xmlSecEventIterator.next().asStartElement();
+    }
+
+    /**
+     * @return the index of the Signature element of the assertion that starts at the given index, or -1
+     * if the assertion is not signed
+     */
+    private int getSignatureIndex(Deque<XMLSecEvent> eventQueue, int index) {
+        return getChildElementIndex(eventQueue, index, WSSConstants.TAG_dsig_Signature);
+    }
+
+    /**
+     * @return the index of the KeyInfo element of the Signature element that starts at the given index,
+     * or -1 if it has none
+     */
+    private int getSignatureKeyInfoIndex(Deque<XMLSecEvent> eventQueue, int signatureIndex) {
+        return getChildElementIndex(eventQueue, signatureIndex, WSSConstants.TAG_dsig_KeyInfo);
+    }
+
+    private int getChildElementIndex(Deque<XMLSecEvent> eventQueue, int index, QName childElementName) {
         Iterator<XMLSecEvent> xmlSecEventIterator = eventQueue.descendingIterator();
+        int idx = 0;
+        while (idx < index) {
+            xmlSecEventIterator.next();
+            idx++;
+        }
+        int documentLevel = xmlSecEventIterator.next().asStartElement().getDocumentLevel();
         while (xmlSecEventIterator.hasNext()) {
             XMLSecEvent xmlSecEvent = xmlSecEventIterator.next();
             idx++;
-            switch (xmlSecEvent.getEventType()) {
-                case XMLStreamConstants.START_ELEMENT:
-                    QName elementName = xmlSecEvent.asStartElement().getName();
-                    if (WSSConstants.TAG_dsig_KeyInfo.equals(elementName)) {
-                        List<QName> elementPath = xmlSecEvent.asStartElement().getElementPath();
-                        if (elementPath.size() >= 4) {
-                            int lastIndex = elementPath.size() - 2;
-                            if ("Signature".equals(elementPath.get(lastIndex).getLocalPart())
-                                && "Assertion".equals(elementPath.get(lastIndex - 1).getLocalPart())) {
-                                return idx;
-                            }
+            if (xmlSecEvent.getEventType() == XMLStreamConstants.START_ELEMENT) {
+                XMLSecStartElement xmlSecStartElement = xmlSecEvent.asStartElement();
+                if (xmlSecStartElement.getDocumentLevel() == documentLevel + 1
+                    && childElementName.equals(xmlSecStartElement.getName())) {
+                    return idx;
+                }
+            } else if (xmlSecEvent.getEventType() == XMLStreamConstants.END_ELEMENT
+                && xmlSecEvent.asEndElement().getDocumentLevel() == documentLevel) {
+                return -1;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Verify the enveloped signature of the assertion that starts at the given index from its events,
+     * as the signatures of the message are verified: the SignedInfo and the assertion without its
+     * Signature element are canonicalized as they are read, rather than from a DOM of the assertion.
+     * The Reference must point to the assertion, and only have the enveloped signature transform and
+     * a canonicalization transform, as required by the SAML signature profile.
+     */
+    private void verifySignature(Deque<XMLSecEvent> eventQueue, int index, int signatureIndex, PublicKey publicKey,
+                                 XMLSecurityProperties securityProperties) throws XMLSecurityException {
+        SignatureType signatureType;
+        try {
+            Unmarshaller unmarshaller = WSSConstants.getJaxbUnmarshaller(securityProperties.isDisableSchemaValidation());
+            @SuppressWarnings("unchecked")
+            JAXBElement<SignatureType> signatureTypeJAXBElement =
+                (JAXBElement<SignatureType>) unmarshaller.unmarshal(new XMLSecurityEventReader(eventQueue, signatureIndex));
+            signatureType = signatureTypeJAXBElement.getValue();
+        } catch (JAXBException e) {
+            throw new WSSecurityException(WSSecurityException.ErrorCode.INVALID_SECURITY_TOKEN, e);
+        }
+
+        Iterator<XMLSecEvent> xmlSecEventIterator = eventQueue.descendingIterator();
+        int idx = 0;
+        while (idx < index) {
+            xmlSecEventIterator.next();
+            idx++;
+        }
+        XMLSecStartElement assertionElement = xmlSecEventIterator.next().asStartElement();
+
+        try {
+            SignedInfoType signedInfoType = signatureType.getSignedInfo();
+            if (signedInfoType.getReference().size() != 1) {
+                throw new XMLSecurityException("signature.tooManyReferences",
+                                               new Object[] {signedInfoType.getReference().size(), 1});
+            }
+            ReferenceType referenceType = signedInfoType.getReference().get(0);
+            Attribute idAttribute = assertionElement.getAttributeByName(
+                WSSConstants.TAG_SAML2_ASSERTION.equals(assertionElement.getName())
+                    ? WSSConstants.ATT_NULL_ID : WSSConstants.ATT_NULL_ASSERTION_ID);
+            if (!("".equals(referenceType.getURI())
+                || idAttribute != null && ("#" + idAttribute.getValue()).equals(referenceType.getURI()))) {
+                throw new XMLSecurityException("signature.Verification.InvalidDigestOrReference",
+                                               new Object[] {referenceType.getURI()});
+            }
+
+            SignatureAlgorithm signatureAlgorithm = SignatureAlgorithmFactory.getInstance().getSignatureAlgorithm(
+                checkAlgorithm(signedInfoType.getSignatureMethod().getAlgorithm()));
+            signatureAlgorithm.engineInitVerify(publicKey);
+            SignerOutputStream signerOutputStream = new SignerOutputStream(signatureAlgorithm);
+            OutputStream bufferedSignerOutputStream = new UnsyncBufferedOutputStream(signerOutputStream);
+            Transformer signedInfoTransformer = getCanonicalizationTransformer(
+                signedInfoType.getCanonicalizationMethod().getAlgorithm(),
+                signedInfoType.getCanonicalizationMethod().getContent(), bufferedSignerOutputStream);
+
+            String digestAlgorithm = checkAlgorithm(referenceType.getDigestMethod().getAlgorithm());
+            String jceName = JCEAlgorithmMapper.translateURItoJCEID(digestAlgorithm);
+            if (jceName == null) {
+                throw new XMLSecurityException("algorithms.NoSuchMap", new Object[] {digestAlgorithm});
+            }
+            String jceProvider = JCEAlgorithmMapper.getJCEProviderFromURI(digestAlgorithm);
+            MessageDigest messageDigest =
+                jceProvider == null ? MessageDigest.getInstance(jceName) : MessageDigest.getInstance(jceName, jceProvider);
+            DigestOutputStream digestOutputStream = new DigestOutputStream(messageDigest);
+            OutputStream bufferedDigestOutputStream = new UnsyncBufferedOutputStream(digestOutputStream);
+            Transformer referenceTransformer = getReferenceTransformer(referenceType, bufferedDigestOutputStream);
+
+            // The Signature element is excluded from the digest by the enveloped signature transform, and
+            // comments by the same-document reference
+            referenceTransformer.transform(assertionElement);
+            int signatureLevel = 0;
+            boolean signedInfo = false;
+            while (xmlSecEventIterator.hasNext()) {
+                XMLSecEvent xmlSecEvent = xmlSecEventIterator.next();
+                idx++;
+                if (idx == signatureIndex || signatureLevel > 0) {
+                    if (xmlSecEvent.getEventType() == XMLStreamConstants.START_ELEMENT) {
+                        signatureLevel++;
+                        if (signatureLevel == 2
+                            && WSSConstants.TAG_dsig_SignedInfo.equals(xmlSecEvent.asStartElement().getName())) {
+                            signedInfo = true;
+                        }
+                    }
+                    if (signedInfo) {
+                        signedInfoTransformer.transform(xmlSecEvent);
+                    }
+                    if (xmlSecEvent.getEventType() == XMLStreamConstants.END_ELEMENT) {
+                        if (signatureLevel == 2) {
+                            signedInfo = false;
                         }
+                        signatureLevel--;
                     }
+                } else if (xmlSecEvent.getEventType() != XMLStreamConstants.COMMENT) {
+                    referenceTransformer.transform(xmlSecEvent);
+                }
+            }
+            signedInfoTransformer.doFinal();
+            bufferedSignerOutputStream.close();
+            referenceTransformer.doFinal();
+            bufferedDigestOutputStream.close();
+
+            if (!signerOutputStream.verify(signatureType.getSignatureValue().getValue())) {
+                throw new XMLSecurityException("errorMessages.InvalidSignatureValueException");
+            }
+            if (!MessageDigest.isEqual(digestOutputStream.getDigestValue(), referenceType.getDigestValue())) {
+                throw new XMLSecurityException("errorMessages.InvalidDigestValueException");
             }
+        } catch (XMLSecurityException | XMLStreamException | IOException | GeneralSecurityException e) {
+            throw new WSSecurityException(WSSecurityException.ErrorCode.FAILURE,
+                    e, "empty", new Object[] {"SAML signature validation failed"});
         }
-        return idx;
+    }
+
+    private Transformer getReferenceTransformer(ReferenceType referenceType, OutputStream outputStream)
+        throws XMLSecurityException {
+        List<TransformType> transformTypes =
+            referenceType.getTransforms() != null ? referenceType.getTransforms().getTransform() : Collections.emptyList();
+        if (transformTypes.isEmpty()
+            || !WSSConstants.NS_XMLDSIG_ENVELOPED_SIGNATURE.equals(transformTypes.get(0).getAlgorithm())) {
+            throw new XMLSecurityException("transform.envelopedSignatureTransformNotInSignatureElement");
+        } else if (transformTypes.size() > 2) {
+            throw new XMLSecurityException("signature.tooManyTransforms", new Object[] {transformTypes.size(), 2});
+        }
+        if (transformTypes.size() == 1) {
+            // The node-set is converted to octets with inclusive canonicalization
+            return getCanonicalizationTransformer(WSSConstants.NS_C14N_OMIT_COMMENTS, null, outputStream);
+        }
+        TransformType transformType = transformTypes.get(1);
+        return getCanonicalizationTransformer(transformType.getAlgorithm(), transformType.getContent(), outputStream);
+    }
+
+    private Transformer getCanonicalizationTransformer(String algorithm, List<Object> content, OutputStream outputStream)
+        throws XMLSecurityException {
+        if (!CANONICALIZATION_ALGORITHMS.contains(algorithm)) {
+            throw new XMLSecurityException("signature.Transform.ForbiddenTransform", new Object[] {algorithm});
+        }
+        Map<String, Object> transformerProperties = null;
+        InclusiveNamespaces inclusiveNamespacesType = content != null
+            ? XMLSecurityUtils.getQNameType(content, XMLSecurityConstants.TAG_c14nExcl_InclusiveNamespaces) : null;
+        if (inclusiveNamespacesType != null) {
+            transformerProperties = new HashMap<>();
+            transformerProperties.put(
+                    Canonicalizer20010315_Excl.INCLUSIVE_NAMESPACES_PREFIX_LIST,
+                    inclusiveNamespacesType.getPrefixList());
+        }
+        return WSSUtils.getTransformer(
+                null, outputStream, transformerProperties, algorithm, XMLSecurityConstants.DIRECTION.IN);
+    }
+
+    /**
+     * MD5 is rejected unless it is allowed, as for the other signatures of the message
+     */
+    private String checkAlgorithm(String algorithm) throws XMLSecurityException {
+        if (!ALLOW_MD5_ALGORITHM && algorithm != null && algorithm.toLowerCase(Locale.ROOT).contains("md5")) {
+            throw new XMLSecurityException("secureProcessing.AllowMD5Algorithm");
+        }
+        return algorithm;
     }
 
     private InboundSecurityToken parseKeyInfo(InputProcessorChain inputProcessorChain, XMLSecurityProperties securityProperties,
@@ -411,9 +608,16 @@ public class SAMLTokenInputHandler extends AbstractInputSecurityHeaderHandler {
     @Override
     protected <T> T parseStructure(Deque<XMLSecEvent> eventDeque, int index, XMLSecurityProperties securityProperties)
             throws XMLSecurityException {
+        // A DocumentBuilder is costly to create, so one of the pooled DocumentBuilders is used to
+        // create the Document, which does not depend on the DocumentBuilder once it is created
         Document document;
         try {
-            document = DOC_BUILDER_FACTORY.newDocumentBuilder().newDocument();
+            DocumentBuilder documentBuilder = XMLUtils.createDocumentBuilder(false);
+            try {
+                document = documentBuilder.newDocument();
+            } finally {
+                XMLUtils.repoolDocumentBuilder(documentBuilder);
+            }
         } catch (ParserConfigurationException e) {
             throw new WSSecurityException(WSSecurityException.ErrorCode.INVALID_SECURITY_TOKEN, e);
         }
@@ -19,7 +19,14 @@
 package org.apache.wss4j.stax.impl.processor.input;
 
 import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.Deque;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 import javax.xml.namespace.QName;
 import javax.xml.stream.XMLStreamConstants;
@@ -33,13 +40,16 @@ import org.apache.wss4j.stax.ext.WSSSecurityProperties;
 import org.apache.wss4j.stax.securityEvent.NoSecuritySecurityEvent;
 import org.apache.wss4j.stax.utils.WSSUtils;
 import org.apache.xml.security.exceptions.XMLSecurityException;
+import org.apache.xml.security.stax.config.ConfigurationProperties;
 import org.apache.xml.security.stax.config.SecurityHeaderHandlerMapper;
 import org.apache.xml.security.stax.ext.AbstractInputProcessor;
 import org.apache.xml.security.stax.ext.InputProcessorChain;
 import org.apache.xml.security.stax.ext.XMLSecurityHeaderHandler;
 import org.apache.xml.security.stax.ext.XMLSecurityProperties;
+import org.apache.xml.security.stax.ext.stax.XMLSecAttribute;
 import org.apache.xml.security.stax.ext.stax.XMLSecEndElement;
 import org.apache.xml.security.stax.ext.stax.XMLSecEvent;
+import org.apache.xml.security.stax.ext.stax.XMLSecNamespace;
 import org.apache.xml.security.stax.ext.stax.XMLSecStartElement;
 import org.apache.xml.security.stax.impl.processor.input.XMLEventReaderInputProcessor;
 import org.apache.xml.security.stax.impl.util.IDGenerator;
@@ -53,12 +63,46 @@ public class SecurityHeaderInputProcessor extends AbstractInputProcessor {
     protected static final org.slf4j.Logger LOG =
         org.slf4j.LoggerFactory.getLogger(SecurityHeaderInputProcessor.class);
 
+    // The WSS4J handlers are stateless, so one instance of each of these classes is shared by all
+    // messages instead of instantiating a handler for every security header element. Any other
+    // handler class of the configuration is instantiated for each element, as before.
+    private static final Set<Class<?>> SHAREABLE_HANDLER_CLASSES =
+        Collections.unmodifiableSet(new HashSet<Class<?>>(Arrays.asList(
+            BinarySecurityTokenInputHandler.class,
+            DerivedKeyTokenInputHandler.class,
+            EncryptedDataInputHandler.class,
+            ReferenceListInputHandler.class,
+            SAMLTokenInputHandler.class,
+            SecurityContextTokenInputHandler.class,
+            SecurityTokenReferenceInputHandler.class,
+            SignatureConfirmationInputHandler.class,
+            TimestampInputHandler.class,
+            UsernameTokenInputHandler.class,
+            WSSEncryptedKeyInputHandler.class,
+            WSSSignatureInputHandler.class
+        )));
+    private static final Map<Class<?>, XMLSecurityHeaderHandler> SHARED_HANDLERS = new ConcurrentHashMap<>();
+
+    private static final Long MAX_ALLOWED_SECURITY_HEADER_SIZE = getMaximumAllowedSecurityHeaderSize();
+
     private final ArrayDeque<XMLSecEvent> xmlSecEventList = new ArrayDeque<XMLSecEvent>();
     private int startIndexForProcessor;
+    private final long maximumSecurityHeaderSize;
+    private long securityHeaderSize;
 
     public SecurityHeaderInputProcessor(WSSSecurityProperties securityProperties) {
         super(securityProperties);
         setPhase(WSSConstants.Phase.POSTPROCESSING);
+        Long maximumSize = securityProperties.getMaximumSecurityHeaderSize();
+        if (maximumSize == null) {
+            maximumSize = MAX_ALLOWED_SECURITY_HEADER_SIZE;
+        }
+        maximumSecurityHeaderSize = maximumSize != null && maximumSize > 0 ? maximumSize : Long.MAX_VALUE;
+    }
+
+    private static Long getMaximumAllowedSecurityHeaderSize() {
+        String maximumSize = ConfigurationProperties.getProperty("MaximumAllowedSecurityHeaderSize");
+        return maximumSize != null ? Long.valueOf(maximumSize) : null;
     }
 
     @Override
@@ -199,7 +243,6 @@ public class SecurityHeaderInputProcessor extends AbstractInputProcessor {
         return xmlSecEventList.pollLast();
     }
 
-    @SuppressWarnings("unchecked")
     private void engageSecurityHeaderHandler(InputProcessorChain inputProcessorChain,
                                              XMLSecurityProperties securityProperties,
                                              Deque<XMLSecEvent> eventQueue,
@@ -207,17 +250,14 @@ public class SecurityHeaderInputProcessor extends AbstractInputProcessor {
                                              QName elementName)
             throws WSSecurityException, XMLStreamException {
 
-        Class<XMLSecurityHeaderHandler> clazz =
-            (Class<XMLSecurityHeaderHandler>)SecurityHeaderHandlerMapper.getSecurityHeaderHandler(elementName);
-        if (clazz == null) {
+        XMLSecurityHeaderHandler xmlSecurityHeaderHandler =
+            getSecurityHeaderHandler((WSSSecurityProperties)securityProperties, elementName);
+        if (xmlSecurityHeaderHandler == null) {
             LOG.warn("No matching handler found for " + elementName);
             return;
         }
         try {
-            XMLSecurityHeaderHandler xmlSecurityHeaderHandler = clazz.newInstance();
             xmlSecurityHeaderHandler.handle(inputProcessorChain, securityProperties, eventQueue, index);
-        } catch (InstantiationException | IllegalAccessException e) {
-            throw new WSSecurityException(WSSecurityException.ErrorCode.INVALID_SECURITY, e);
         } catch (WSSecurityException e) {
             throw e;
         } catch (XMLSecurityException e) {
@@ -225,6 +265,91 @@ public class SecurityHeaderInputProcessor extends AbstractInputProcessor {
         }
     }
 
+    /**
+     * Get the handler for the security header child elements of the given QName. A handler that
+     * was added to the WSSSecurityProperties takes precedence over the handler of the configuration.
+     * The WSS4J handler classes of the configuration are shared by all messages, whereas any other
+     * handler class of the configuration is instantiated for each call.
+     * @param securityProperties the WSSSecurityProperties
+     * @param elementName the QName of the security header child element
+     * @return the handler, or null if no handler is available for the element
+     * @throws WSSecurityException if the handler of the configuration can't be instantiated
+     */
+    @SuppressWarnings("unchecked")
+    public static XMLSecurityHeaderHandler getSecurityHeaderHandler(WSSSecurityProperties securityProperties,
+                                                                    QName elementName)
+            throws WSSecurityException {
+
+        XMLSecurityHeaderHandler xmlSecurityHeaderHandler = securityProperties.getSecurityHeaderHandler(elementName);
+        if (xmlSecurityHeaderHandler != null) {
+            return xmlSecurityHeaderHandler;
+        }
+
+        Class<XMLSecurityHeaderHandler> clazz =
+            (Class<XMLSecurityHeaderHandler>)SecurityHeaderHandlerMapper.getSecurityHeaderHandler(elementName);
+        if (clazz == null) {
+            return null;
+        }
+        if (!SHAREABLE_HANDLER_CLASSES.contains(clazz)) {
+            return newSecurityHeaderHandler(clazz);
+        }
+        xmlSecurityHeaderHandler = SHARED_HANDLERS.get(clazz);
+        if (xmlSecurityHeaderHandler == null) {
+            xmlSecurityHeaderHandler = newSecurityHeaderHandler(clazz);
+            XMLSecurityHeaderHandler sharedHandler = SHARED_HANDLERS.putIfAbsent(clazz, xmlSecurityHeaderHandler);
+            if (sharedHandler != null) {
+                xmlSecurityHeaderHandler = sharedHandler;
+            }
+        }
+        return xmlSecurityHeaderHandler;
+    }
+
+    private static XMLSecurityHeaderHandler newSecurityHeaderHandler(Class<XMLSecurityHeaderHandler> clazz)
+            throws WSSecurityException {
+        try {
+            return clazz.newInstance();
+        } catch (InstantiationException | IllegalAccessException e) {
+            throw new WSSecurityException(WSSecurityException.ErrorCode.INVALID_SECURITY, e);
+        }
+    }
+
+    /**
+     * Get the (approximate) number of characters that the given event adds to the buffered events,
+     * i.e. the length of the element and attribute names, of the attribute and namespace values
+     * and of the text
+     */
+    private static int getSize(XMLSecEvent xmlSecEvent) {
+        switch (xmlSecEvent.getEventType()) {
+            case XMLStreamConstants.START_ELEMENT:
+                XMLSecStartElement xmlSecStartElement = xmlSecEvent.asStartElement();
+                int size = getSize(xmlSecStartElement.getName());
+                List<XMLSecNamespace> namespaces = xmlSecStartElement.getOnElementDeclaredNamespaces();
+                for (int i = 0; i < namespaces.size(); i++) {
+                    XMLSecNamespace namespace = namespaces.get(i);
+                    String prefix = namespace.getPrefix();
+                    size += (prefix != null ? prefix.length() : 0) + namespace.getNamespaceURI().length();
+                }
+                List<XMLSecAttribute> attributes = xmlSecStartElement.getOnElementDeclaredAttributes();
+                for (int i = 0; i < attributes.size(); i++) {
+                    XMLSecAttribute attribute = attributes.get(i);
+                    size += getSize(attribute.getName()) + attribute.getValue().length();
+                }
+                return size;
+            case XMLStreamConstants.END_ELEMENT:
+                return getSize(xmlSecEvent.asEndElement().getName());
+            case XMLStreamConstants.CHARACTERS:
+            case XMLStreamConstants.CDATA:
+            case XMLStreamConstants.SPACE:
+                return xmlSecEvent.asCharacters().getText().length;
+            default:
+                return 1;
+        }
+    }
+
+    private static int getSize(QName name) {
+        return name.getLocalPart().length() + name.getPrefix().length() + name.getNamespaceURI().length();
+    }
+
     /**
      * Temporary Processor to buffer all events until the end of the security header
      */
@@ -240,6 +365,12 @@ public class SecurityHeaderInputProcessor extends AbstractInputProcessor {
         public XMLSecEvent processNextHeaderEvent(InputProcessorChain inputProcessorChain)
                 throws XMLStreamException, XMLSecurityException {
             XMLSecEvent xmlSecEvent = inputProcessorChain.processHeaderEvent();
+            securityHeaderSize += getSize(xmlSecEvent);
+            if (securityHeaderSize > maximumSecurityHeaderSize) {
+                throw new WSSecurityException(WSSecurityException.ErrorCode.INVALID_SECURITY,
+                                              "secureProcessing.MaximumAllowedSecurityHeaderSize",
+                                              new Object[] {String.valueOf(maximumSecurityHeaderSize)});
+            }
             xmlSecEventList.push(xmlSecEvent);
             return xmlSecEvent;
         }
@@ -39,6 +39,7 @@ import javax.xml.stream.XMLStreamException;
 import org.apache.wss4j.binding.wss10.TransformationParametersType;
 import org.apache.wss4j.common.bsp.BSPRule;
 import org.apache.wss4j.common.cache.ReplayCache;
+import org.apache.wss4j.common.cache.ReplayCacheFullException;
 import org.apache.wss4j.common.ext.Attachment;
 import org.apache.wss4j.common.ext.AttachmentRequestCallback;
 import org.apache.wss4j.common.ext.AttachmentResultCallback;
@@ -316,17 +317,23 @@ public class WSSSignatureReferenceVerifyInputProcessor extends AbstractSignature
             final String cacheKey =
                     timestampSecurityEvent.getCreated().get(ChronoField.MILLI_OF_SECOND)
                     + "" + Arrays.hashCode(getSignatureType().getSignatureValue().getValue());
-            if (replayCache.contains(cacheKey)) {
-                throw new WSSecurityException(WSSecurityException.ErrorCode.MESSAGE_EXPIRED);
-            }
 
             // Store the Timestamp/SignatureValue combination in the cache
             Instant expires = timestampSecurityEvent.getExpires();
-            if (expires != null) {
-                Instant currentTime = Instant.now();
-                replayCache.add(cacheKey, 1L + Duration.between(currentTime, expires).getSeconds());
-            } else {
-                replayCache.add(cacheKey);
+            boolean added;
+            try {
+                if (expires != null) {
+                    Instant currentTime = Instant.now();
+                    added = replayCache.putIfAbsent(cacheKey, 1L + Duration.between(currentTime, expires).getSeconds());
+                } else {
+                    added = replayCache.putIfAbsent(cacheKey);
+                }
+            } catch (ReplayCacheFullException ex) {
+                throw new WSSecurityException(WSSecurityException.ErrorCode.FAILURE, ex, "replayCacheFull");
+            }
+
+            if (!added) {
+                throw new WSSecurityException(WSSecurityException.ErrorCode.MESSAGE_EXPIRED);
             }
         }
     }
@@ -36,15 +36,20 @@ public class AttachmentCompleteSignatureTransform extends AttachmentContentSigna
         InputStream is = inputStream;
         try {
             OutputStream outputStream = getOutputStream();
-            if (outputStream == null) {
-                outputStream = new ByteArrayOutputStream();
+            if (outputStream != null) {
+                // The canonicalized MIME headers are written straight into the digest stream,
+                // followed by the attachment content
+                AttachmentUtils.canonizeMimeHeaders(outputStream, getAttachment().getHeaders());
+            } else {
+                // Only the (small) canonicalized MIME headers are buffered, the attachment
+                // content is streamed to the next Transform after them
+                ByteArrayOutputStream headerOutputStream = new ByteArrayOutputStream();
+                AttachmentUtils.canonizeMimeHeaders(headerOutputStream, getAttachment().getHeaders());
                 is = new MultiInputStream(
-                        new ByteArrayInputStream(
-                                ((ByteArrayOutputStream) outputStream).toByteArray()),
+                        new ByteArrayInputStream(headerOutputStream.toByteArray()),
                         inputStream
                 );
             }
-            AttachmentUtils.canonizeMimeHeaders(outputStream, getAttachment().getHeaders());
         } catch (IOException e) {
             throw new XMLStreamException(e);
         }
@@ -23,6 +23,7 @@ import java.time.Instant;
 import java.util.List;
 
 import org.apache.wss4j.common.cache.ReplayCache;
+import org.apache.wss4j.common.cache.ReplayCacheFullException;
 import org.apache.wss4j.common.crypto.Crypto;
 import org.apache.wss4j.common.ext.WSSecurityException;
 import org.apache.wss4j.common.saml.OpenSAMLUtil;
@@ -251,20 +252,26 @@ public class SamlTokenValidatorImpl extends SignatureTokenValidatorImpl implemen
             && samlAssertion.getSaml2().getConditions().getOneTimeUse() != null) {
             String identifier = samlAssertion.getId();
 
-            if (replayCache.contains(identifier)) {
+            boolean added;
+            DateTime expires = samlAssertion.getSaml2().getConditions().getNotOnOrAfter();
+            try {
+                if (expires != null) {
+                    Instant currentTime = Instant.now();
+                    added = replayCache.putIfAbsent(
+                        identifier, 1L + Duration.between(currentTime, expires.toDate().toInstant()).getSeconds());
+                } else {
+                    added = replayCache.putIfAbsent(identifier);
+                }
+            } catch (ReplayCacheFullException ex) {
+                throw new WSSecurityException(WSSecurityException.ErrorCode.FAILURE, ex, "replayCacheFull");
+            }
+
+            if (!added) {
                 throw new WSSecurityException(
                     WSSecurityException.ErrorCode.INVALID_SECURITY,
                     "badSamlToken",
                     new Object[] {"A replay attack has been detected"});
             }
-
-            DateTime expires = samlAssertion.getSaml2().getConditions().getNotOnOrAfter();
-            if (expires != null) {
-                Instant currentTime = Instant.now();
-                replayCache.add(identifier, 1L + Duration.between(currentTime, expires.toDate().toInstant()).getSeconds());
-            } else {
-                replayCache.add(identifier);
-            }
         }
     }
 
@@ -28,10 +28,14 @@ import java.security.Security;
 import java.security.cert.X509Certificate;
 import java.util.ArrayList;
 import java.util.Base64;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Properties;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 import javax.crypto.KeyGenerator;
 import javax.crypto.SecretKey;
@@ -858,6 +862,76 @@ public class EncDecryptionTest extends AbstractTestBase {
         }
     }
 
+    @Test
+    public void testEncDecryptionPartsElementInboundParallel() throws Exception {
+
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        {
+            InputStream sourceDocument = this.getClass().getClassLoader().getResourceAsStream("testdata/plain-soap-1.1.xml");
+            String action = WSHandlerConstants.ENCRYPT;
+            Properties properties = new Properties();
+
+            properties.setProperty(WSHandlerConstants.ENCRYPTION_PARTS, "{Element}{http://www.w3.org/1999/XMLSchema}simpleType;");
+            Document securedDocument = doOutboundSecurityWithWSS4J(sourceDocument, action, properties);
+
+            Transformer transformer = TRANSFORMER_FACTORY.newTransformer();
+            transformer.transform(new DOMSource(securedDocument), new StreamResult(baos));
+        }
+
+        //done encryption; now test decryption, sequentially and in parallel:
+        ExecutorService executorService = Executors.newFixedThreadPool(2);
+        try {
+            List<String> documents = new ArrayList<>();
+            List<List<SecurityEventConstants.Event>> securityEvents = new ArrayList<>();
+            for (int maximumParallelDecryptions : new int[] {0, 1, 4}) {
+                WSSSecurityProperties securityProperties = new WSSSecurityProperties();
+                securityProperties.loadDecryptionKeystore(this.getClass().getClassLoader().getResource("receiver.jks"), "default".toCharArray());
+                securityProperties.setCallbackHandler(new org.apache.wss4j.stax.test.CallbackHandlerImpl());
+                if (maximumParallelDecryptions > 0) {
+                    securityProperties.setDecryptionExecutorService(executorService);
+                    securityProperties.setMaximumParallelDecryptions(maximumParallelDecryptions);
+                }
+
+                final TestSecurityEventListener securityEventListener = new TestSecurityEventListener(new SecurityEventConstants.Event[0]);
+                Document document = doInboundSecurity(securityProperties, xmlInputFactory.createXMLStreamReader(new ByteArrayInputStream(baos.toByteArray())), securityEventListener);
+
+                //no encrypted content
+                NodeList nodeList = document.getElementsByTagNameNS(WSSConstants.TAG_xenc_EncryptedData.getNamespaceURI(), WSSConstants.TAG_xenc_EncryptedData.getLocalPart());
+                Assert.assertEquals(nodeList.getLength(), 0);
+                nodeList = document.getElementsByTagNameNS("http://www.w3.org/1999/XMLSchema", "simpleType");
+                Assert.assertEquals(nodeList.getLength(), 17);
+
+                ByteArrayOutputStream decrypted = new ByteArrayOutputStream();
+                TRANSFORMER_FACTORY.newTransformer().transform(new DOMSource(document), new StreamResult(decrypted));
+                documents.add(new String(decrypted.toByteArray(), StandardCharsets.UTF_8));
+
+                List<SecurityEventConstants.Event> receivedSecurityEvents = new ArrayList<>();
+                for (SecurityEvent securityEvent : securityEventListener.getReceivedSecurityEvents()) {
+                    receivedSecurityEvents.add(securityEvent.getSecurityEventType());
+                    if (securityEvent.getSecurityEventType() == WSSecurityEventConstants.EncryptedElement) {
+                        EncryptedElementSecurityEvent encryptedElementSecurityEvent = (EncryptedElementSecurityEvent) securityEvent;
+                        Assert.assertNotNull(encryptedElementSecurityEvent.getSecurityToken());
+                        final QName expectedElementName = new QName("http://www.w3.org/1999/XMLSchema", "simpleType");
+                        Assert.assertEquals(encryptedElementSecurityEvent.getXmlSecEvent().asStartElement().getName(), expectedElementName);
+                        Assert.assertEquals(encryptedElementSecurityEvent.getElementPath().size(), 6);
+                    }
+                }
+                securityEvents.add(receivedSecurityEvents);
+            }
+
+            Assert.assertEquals(documents.get(0), documents.get(1));
+            Assert.assertEquals(documents.get(0), documents.get(2));
+            Assert.assertEquals(securityEvents.get(0), securityEvents.get(1));
+            //the token events of the EncryptedData elements that are read ahead come earlier
+            Assert.assertNotEquals(securityEvents.get(0), securityEvents.get(2));
+            Collections.sort(securityEvents.get(0), Comparator.comparing(SecurityEventConstants.Event::toString));
+            Collections.sort(securityEvents.get(2), Comparator.comparing(SecurityEventConstants.Event::toString));
+            Assert.assertEquals(securityEvents.get(0), securityEvents.get(2));
+        } finally {
+            executorService.shutdown();
+        }
+    }
+
     @Test
     public void testEncDecryptionPartsHeaderInbound() throws Exception {
 
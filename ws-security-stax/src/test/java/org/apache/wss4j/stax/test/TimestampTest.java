@@ -25,10 +25,12 @@ import java.nio.charset.StandardCharsets;
 import java.time.ZoneOffset;
 import java.time.ZonedDateTime;
 import java.util.ArrayList;
+import java.util.Deque;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Properties;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import javax.xml.stream.XMLStreamException;
 import javax.xml.stream.XMLStreamReader;
@@ -43,12 +45,19 @@ import org.apache.wss4j.common.util.DateUtil;
 import org.apache.wss4j.dom.handler.WSHandlerConstants;
 import org.apache.wss4j.stax.ext.WSSConstants;
 import org.apache.wss4j.stax.ext.WSSSecurityProperties;
+import org.apache.wss4j.stax.impl.processor.input.SecurityHeaderInputProcessor;
+import org.apache.wss4j.stax.impl.processor.input.TimestampInputHandler;
 import org.apache.wss4j.stax.setup.ConfigurationConverter;
 import org.apache.wss4j.stax.setup.InboundWSSec;
 import org.apache.wss4j.stax.setup.OutboundWSSec;
 import org.apache.wss4j.stax.setup.WSSec;
 import org.apache.wss4j.stax.test.utils.StAX2DOM;
 import org.apache.wss4j.stax.test.utils.XmlReaderToWriter;
+import org.apache.xml.security.exceptions.XMLSecurityException;
+import org.apache.xml.security.stax.ext.InputProcessorChain;
+import org.apache.xml.security.stax.ext.XMLSecurityHeaderHandler;
+import org.apache.xml.security.stax.ext.XMLSecurityProperties;
+import org.apache.xml.security.stax.ext.stax.XMLSecEvent;
 import org.apache.xml.security.stax.securityEvent.SecurityEvent;
 import org.junit.Assert;
 import org.junit.Test;
@@ -132,6 +141,49 @@ public class TimestampTest extends AbstractTestBase {
         }
     }
 
+    @Test
+    public void testCustomSecurityHeaderHandler() throws Exception {
+
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        {
+            InputStream sourceDocument = this.getClass().getClassLoader().getResourceAsStream("testdata/plain-soap-1.1.xml");
+            String action = WSHandlerConstants.TIMESTAMP;
+            Document securedDocument = doOutboundSecurityWithWSS4J(sourceDocument, action, new Properties());
+
+            javax.xml.transform.Transformer transformer = TRANSFORMER_FACTORY.newTransformer();
+            transformer.transform(new DOMSource(securedDocument), new StreamResult(baos));
+        }
+
+        // The WSS4J handlers of the configuration are shared
+        WSSSecurityProperties securityProperties = new WSSSecurityProperties();
+        XMLSecurityHeaderHandler timestampHandler =
+            SecurityHeaderInputProcessor.getSecurityHeaderHandler(securityProperties, WSSConstants.TAG_WSU_TIMESTAMP);
+        Assert.assertTrue(timestampHandler instanceof TimestampInputHandler);
+        Assert.assertSame(timestampHandler,
+            SecurityHeaderInputProcessor.getSecurityHeaderHandler(securityProperties, WSSConstants.TAG_WSU_TIMESTAMP));
+
+        // A custom handler is used instead of the handler of the configuration
+        final AtomicInteger handledTimestamps = new AtomicInteger();
+        securityProperties.addSecurityHeaderHandler(WSSConstants.TAG_WSU_TIMESTAMP, new TimestampInputHandler() {
+            @Override
+            public void handle(InputProcessorChain inputProcessorChain, XMLSecurityProperties properties,
+                               Deque<XMLSecEvent> eventQueue, Integer index) throws XMLSecurityException {
+                handledTimestamps.incrementAndGet();
+                super.handle(inputProcessorChain, properties, eventQueue, index);
+            }
+        });
+
+        InboundWSSec wsSecIn = WSSec.getInboundWSSec(securityProperties);
+        for (int i = 0; i < 2; i++) {
+            XMLStreamReader xmlStreamReader = wsSecIn.processInMessage(xmlInputFactory.createXMLStreamReader(new ByteArrayInputStream(baos.toByteArray())));
+            Document document = StAX2DOM.readDoc(documentBuilderFactory.newDocumentBuilder(), xmlStreamReader);
+
+            NodeList nodeList = document.getElementsByTagNameNS(WSSConstants.TAG_WSU_TIMESTAMP.getNamespaceURI(), WSSConstants.TAG_WSU_TIMESTAMP.getLocalPart());
+            Assert.assertEquals(nodeList.getLength(), 1);
+        }
+        Assert.assertEquals(2, handledTimestamps.get());
+    }
+
     @Test
     public void testTimestampTTLOutbound() throws Exception {
 
@@ -549,6 +549,44 @@ public class VulnerabliltyVectorsTest extends AbstractTestBase {
         }
     }
 
+    @Test
+    public void testMaximumAllowedSecurityHeaderSize() throws Exception {
+
+        InputStream sourceDocument = this.getClass().getClassLoader().getResourceAsStream("testdata/plain-soap-1.1.xml");
+
+        String action = WSHandlerConstants.TIMESTAMP + " " + WSHandlerConstants.SIGNATURE;
+        Properties properties = new Properties();
+        properties.setProperty(WSHandlerConstants.SIGNATURE_PARTS, "{Element}{http://docs.oasis-open.org/wss/2004/01/oasis-200401-wss-wssecurity-utility-1.0.xsd}Timestamp;{Element}{http://schemas.xmlsoap.org/soap/envelope/}Body;");
+        Document securedDocument = doOutboundSecurityWithWSS4J(sourceDocument, action, properties);
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+
+        javax.xml.transform.Transformer transformer = TRANSFORMER_FACTORY.newTransformer();
+        transformer.transform(new DOMSource(securedDocument), new StreamResult(baos));
+
+        WSSSecurityProperties securityProperties = new WSSSecurityProperties();
+        securityProperties.setCallbackHandler(new CallbackHandlerImpl());
+        securityProperties.loadSignatureVerificationKeystore(this.getClass().getClassLoader().getResource("receiver.jks"), "default".toCharArray());
+        securityProperties.setMaximumSecurityHeaderSize(1000L);
+
+        try {
+            doInboundSecurity(securityProperties,
+                    xmlInputFactory.createXMLStreamReader(
+                            new ByteArrayInputStream(baos.toByteArray())));
+            Assert.fail("Expected XMLStreamException");
+        } catch (XMLStreamException e) {
+            Assert.assertTrue(e.getCause() instanceof WSSecurityException);
+            Assert.assertEquals(e.getCause().getMessage(),
+                    "The security header exceeds the maximum allowed size of 1000 characters. The maximum size can be " +
+                    "configured via the \"MaximumAllowedSecurityHeaderSize\" property in the configuration.");
+        }
+
+        // The security header is within the maximum size of the configuration
+        securityProperties.setMaximumSecurityHeaderSize(null);
+        doInboundSecurity(securityProperties,
+                xmlInputFactory.createXMLStreamReader(
+                        new ByteArrayInputStream(baos.toByteArray())));
+    }
+
     @Test
     public void testModifiedEncryptedKeyCipherValue() throws Exception {
 